@@ -4,6 +4,8 @@ import com.beust.jcommander.internal.Maps;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geojson.feature.FeatureJSON;
 import org.opentripplanner.analyst.core.IsochroneData;
@@ -210,6 +212,101 @@ public class ResultSet implements Serializable{
         }
     }
 
+    /**
+     * Write the id, histograms and times of this ResultSet to a stream in the compact binary format of
+     * ResultEnvelope.writeBinary(). Each array is written as its length followed by the differences between
+     * successive values as zigzag varints: neighbouring points have similar times, so most differences take one or
+     * two bytes. Isochrones are not written, see hasIsochrones().
+     */
+    public void writeBinary(CodedOutputStream out) throws IOException {
+        writeString(out, id);
+        out.writeUInt32NoTag(histograms.size());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            out.writeStringNoTag(entry.getKey());
+            writeDeltas(out, entry.getValue().counts);
+            writeDeltas(out, entry.getValue().sums);
+        }
+        writeDeltas(out, times);
+    }
+
+    /** Read a ResultSet written by writeBinary(). */
+    public static ResultSet readBinary(CodedInputStream in) throws IOException {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = readString(in);
+        int nHistograms = in.readUInt32();
+        for (int i = 0; i < nHistograms; i++) {
+            String property = in.readString();
+            Histogram histogram = new Histogram();
+            histogram.counts = readDeltas(in);
+            histogram.sums = readDeltas(in);
+            resultSet.histograms.put(property, histogram);
+        }
+        resultSet.times = readDeltas(in);
+        return resultSet;
+    }
+
+    /** @return true if this ResultSet has isochrones, which only the JSON format can carry. */
+    public boolean hasIsochrones() {
+        return isochrones != null;
+    }
+
+    /** Write a nullable string as a presence flag followed by the string. */
+    public static void writeString(CodedOutputStream out, String value) throws IOException {
+        out.writeBoolNoTag(value != null);
+        if (value != null) out.writeStringNoTag(value);
+    }
+
+    public static String readString(CodedInputStream in) throws IOException {
+        return in.readBool() ? in.readString() : null;
+    }
+
+    /**
+     * Write a nullable array as its length plus one (zero for null) followed by its delta-encoded values. Unreachable
+     * points (Integer.MAX_VALUE) are written as -1, so that runs of them cost one byte per point and the values around
+     * them stay small. Negative values are shifted down by one to make room, see encode().
+     */
+    private static void writeDeltas(CodedOutputStream out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeUInt32NoTag(0);
+            return;
+        }
+        out.writeUInt32NoTag(values.length + 1);
+        int previous = 0;
+        for (int value : values) {
+            value = encode(value);
+            out.writeSInt32NoTag(value - previous);
+            previous = value;
+        }
+    }
+
+    private static int[] readDeltas(CodedInputStream in) throws IOException {
+        int length = in.readUInt32() - 1;
+        if (length < 0) return null;
+        int[] values = new int[length];
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            previous += in.readSInt32();
+            values[i] = decode(previous);
+        }
+        return values;
+    }
+
+    /**
+     * Map Integer.MAX_VALUE to -1 and every negative value v to v - 1, leaving the other values as they are. This is a
+     * one-to-one mapping in int arithmetic: Integer.MIN_VALUE wraps around to Integer.MAX_VALUE, which no other value
+     * maps to.
+     */
+    private static int encode(int value) {
+        if (value == Integer.MAX_VALUE) return -1;
+        return value < 0 ? value - 1 : value;
+    }
+
+    /** The inverse of encode(). */
+    private static int decode(int value) {
+        if (value == -1) return Integer.MAX_VALUE;
+        return value < -1 || value == Integer.MAX_VALUE ? value + 1 : value;
+    }
+
     /** Write the isochrones as GeoJSON */
     public void writeIsochrones(JsonGenerator jgen) throws IOException {
         if (this.isochrones == null)
@@ -5,15 +5,7 @@ import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
@@ -31,6 +23,14 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -42,6 +42,12 @@ import java.util.*;
  * When they are receiving no work, workers are expected to disconnect and re-poll occasionally, on the order of 30
  * seconds. This serves as a signal to the broker that they are still alive and waiting.
  *
+ * There is no broker-wide lock. Waiting consumers, jobs with tasks to deliver and stalled high-priority tasks are kept
+ * in concurrent queues per graph (see GraphQueue), and tasks are handed out by whichever thread adds a task or a
+ * consumer to a queue (see dispatch()), rather than by a single delivery thread woken up with notify(). The run()
+ * method only re-enqueues tasks whose delivery timed out. Jobs are found by ID in a concurrent map and by task ID in a
+ * concurrent sorted map of the first task ID of each batch of enqueued tasks.
+ *
  * TODO if there is a backlog of work (the usual case when jobs are lined up) workers will constantly change graphs.
  * Because (at least currently) two users never share the same graph, we can get by with pulling tasks cyclically or
  * randomly from all the jobs, and just actively shaping the number of workers with affinity for each graph by forcing
@@ -63,10 +69,20 @@ public class Broker implements Runnable {
     /* How often we should check for delivered tasks that have timed out. */
     private static final int REDELIVERY_INTERVAL_SEC = 10;
 
-    public final CircularList<Job> jobs = new CircularList<>();
+    /* The key of the only GraphQueue when working offline, where graph affinity is not respected. */
+    private static final String OFFLINE_GRAPH_QUEUE = "OFFLINE";
+
+    /** All jobs by job ID, including completed ones. */
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * The job containing each batch of enqueued tasks, keyed on the ID of the first task in the batch. Task IDs are
+     * assigned consecutively within a batch, so the job for a task is the floor entry of its ID.
+     */
+    private final ConcurrentNavigableMap<Integer, Job> jobForFirstTaskId = new ConcurrentSkipListMap<>();
 
-    /** the most tasks to deliver to a worker at a time */
-    public final int MAX_TASKS_PER_WORKER = 8;
+    /** Consumers and undelivered tasks, keyed on graph ID (or on OFFLINE_GRAPH_QUEUE when working offline). */
+    private final ConcurrentMap<String, GraphQueue> graphQueues = new ConcurrentHashMap<>();
 
     /**
      * How long to give workers to start up (in ms) before assuming that they have started (and starting more
@@ -74,19 +90,13 @@ public class Broker implements Runnable {
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
-
-    private int nWaitingConsumers = 0; // including some that might be closed
-
-    private int nextTaskId = 0;
+    private final AtomicInteger nextTaskId = new AtomicInteger();
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private long nextRedeliveryCheckTime = System.currentTimeMillis();
-
     static {
         mapper.registerModule(AgencyAndIdSerializer.makeModule());
         mapper.registerModule(QualifiedModeSetSerializer.makeModule());
@@ -102,39 +112,25 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
-
-    /**
-     * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
-     * When a high priority task is first received, we attempt to send it to a worker right away via
-     * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
-     * is available via normal task distribution channels.
-     */
-    private ArrayListMultimap<String, AnalystClusterRequest> stalledHighPriorityTasks = ArrayListMultimap.create();
-
     /**
      * High priority requests that have just come and are about to be sent down a single point channel.
      * They put here for just 100 ms so that any that arrive together are batched to the same worker.
      * If we didn't do this, two requests arriving at basically the same time could get fanned out to
      * two different workers because the second came in in between closing the side channel and the worker
-     * reopening it.
+     * reopening it. When no side channel is available they are moved to the stalled high priority tasks of the
+     * GraphQueue, to "cut in line" in front of jobs the next time a worker is available.
      */
-    private Multimap<String, AnalystClusterRequest> newHighPriorityTasks = ArrayListMultimap.create();
+    private final ConcurrentMap<String, Queue<AnalystClusterRequest>> newHighPriorityTasks = new ConcurrentHashMap<>();
 
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
-    private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
-
-    /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
+    private final ConcurrentMap<Integer, Response> highPriorityResponses = new ConcurrentHashMap<>();
 
     /**
      * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
-     * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
-     * machine ID. This way, the same machine will tend to get all single point work for a graph,
-     * so multiple machines won't stay alive to do single point work.
+     * We use sorted sets because the wrapped response defines an order based on machine ID. This way, the same machine
+     * will tend to get all single point work for a graph, so multiple machines won't stay alive to do single point work.
      */
-    private Multimap<String, WrappedResponse> singlePointChannels = TreeMultimap.create();
+    private final ConcurrentMap<String, NavigableSet<WrappedResponse>> singlePointChannels = new ConcurrentHashMap<>();
 
     /** should we work offline */
     private boolean workOffline;
@@ -151,7 +147,6 @@ public class Broker implements Runnable {
      */
     private TObjectLongMap<String> recentlyRequestedWorkers = new TObjectLongHashMap<>();
 
-    // Queue of tasks to complete Delete, Enqueue etc. to avoid synchronizing all the functions ?
     public Broker (Properties brokerConfig, String addr, int port) {
         // print out date on startup so that CloudWatch logs has a unique fingerprint
         LOG.info("Analyst worker starting at {}", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
@@ -207,7 +202,7 @@ public class Broker implements Runnable {
      * Enqueue a task for execution ASAP, planning to return the response over the same HTTP connection.
      * Low-reliability, no re-delivery.
      */
-    public synchronized void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
+    public void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
         boolean workersAvailable = workersAvailableForGraph(task.graphId);
 
         if (!workersAvailable) {
@@ -226,9 +221,9 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
-            newHighPriorityTasks.put(task.graphId, task);
+            task.taskId = nextTaskId.getAndIncrement();
             highPriorityResponses.put(task.taskId, response);
+            newHighPriorityTasks.computeIfAbsent(task.graphId, g -> new ConcurrentLinkedQueue<>()).add(task);
 
             // wait 100ms to deliver to workers in case another request comes in almost simultaneously
             timer.schedule(new TimerTask() {
@@ -238,85 +233,82 @@ public class Broker implements Runnable {
                 }
             }, 100);
         }
-
-        // do not notify task delivery thread just yet as we haven't put anything in the task delivery queue yet.
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
+    public void deliverHighPriorityTasks (String graphId) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        Queue<AnalystClusterRequest> newTasks = newHighPriorityTasks.get(graphId);
+        AnalystClusterRequest task;
+        while (newTasks != null && (task = newTasks.poll()) != null) {
+            tasks.add(task);
+        }
 
         if (tasks.isEmpty())
             // someone got here first
             return;
 
         // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
+        NavigableSet<WrappedResponse> wrs = singlePointChannels.get(graphId);
+        // remove responses whether they are dead or alive
+        WrappedResponse wr = wrs == null ? null : wrs.pollFirst();
 
-        if (!wrs.isEmpty()) {
+        if (wr != null) {
             // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
-
             try {
                 wr.response.setContentType("application/json");
                 OutputStream os = wr.response.getOutputStream();
                 mapper.writeValue(os, tasks);
                 os.close();
                 wr.response.resume();
-
-                newHighPriorityTasks.removeAll(graphId);
-
                 return;
             } catch (Exception e) {
                 LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
             }
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
-
-        // wake up delivery thread
-        notify();
+        GraphQueue queue = getGraphQueue(graphId);
+        queue.stalledHighPriorityTasks.addAll(tasks);
+        queue.nUndeliveredTasks.addAndGet(tasks.size());
+        dispatch(queue);
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
         Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
+        // Reserve a range of task IDs, and index it before the tasks can be delivered and completed.
+        int taskId = nextTaskId.getAndAdd(tasks.size());
+        jobForFirstTaskId.put(taskId, job);
         for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
+            task.taskId = taskId++;
             job.addTask(task);
-            nUndeliveredTasks += 1;
             LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
             if ( ! task.graphId.equals(job.graphId)) {
                 LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
             }
         }
-        // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        GraphQueue queue = getGraphQueue(job.graphId);
+        addToRotation(queue, job);
+        queue.nUndeliveredTasks.addAndGet(tasks.size());
+        dispatch(queue);
     }
 
     public boolean workersAvailableForGraph (String graphId) {
         // make sure that we don't assign work to dead workers
         workerCatalog.purgeDeadWorkers();
 
-        return !workerCatalog.workersByGraph.get(graphId).isEmpty();
+        return workerCatalog.hasWorkersForGraph(graphId);
     }
 
     /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -390,36 +382,37 @@ public class Broker implements Runnable {
     }
 
     /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
+    public void registerSuspendedResponse(String graphId, Response response) {
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
+        // Workers also report their cores and recent task times, so that we can size their deliveries.
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
         if (workerId != null && !workerId.isEmpty()) {
-            workerCatalog.catalog(workerId, graphId);
+            workerCatalog.catalog(workerId, graphId, getIntHeader(response, AnalystWorker.WORKER_CORES_HEADER),
+                    getIntHeader(response, AnalystWorker.WORKER_TASK_MILLIS_HEADER));
         } else {
             LOG.error("Worker did not supply a unique ID for itself . Ignoring it.");
             return;
         }
-        // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
+        // Shelf this suspended response in a queue grouped by graph affinity, and hand it some tasks if there are any.
+        GraphQueue queue = getGraphQueue(graphId);
+        queue.consumers.addLast(response);
+        dispatch(queue);
+    }
+
+    /** @return the value of an integer header of the request for the given response, or -1 if it is missing. */
+    private static int getIntHeader (Response response, String header) {
+        String value = response.getRequest().getHeader(header);
+        try {
+            return value == null ? -1 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOG.warn("Could not parse header {}: {}", header, value);
+            return -1;
         }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
-        // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            return false;
-        }
-        if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+    public boolean removeSuspendedResponse(String graphId, Response response) {
+        if (getGraphQueue(graphId).consumers.remove(response)) {
             LOG.debug("Removed closed connection from queue.");
             logQueueStatus();
             return true;
@@ -431,22 +424,24 @@ public class Broker implements Runnable {
      * Register an HTTP connection that can be used to send single point requests directly to
      * workers, bypassing normal task distribution channels.
      */
-    public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
-        singlePointChannels.put(graphAffinity, response);
-        // no need to notify as the side channels are not used by the normal task delivery loop
+    public void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
+        singlePointChannels.computeIfAbsent(graphAffinity, g -> new ConcurrentSkipListSet<>()).add(response);
+        // no need to dispatch as the side channels are not used by the normal task delivery
     }
 
     /**
      * Remove a single point channel because the connection was closed.
      */
-    public synchronized boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
-        return singlePointChannels.remove(graphAffinity, response);
+    public boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
+        NavigableSet<WrappedResponse> wrs = singlePointChannels.get(graphAffinity);
+        return wrs != null && wrs.remove(response);
     }
 
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
-                stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        graphQueues.forEach((graphId, queue) -> LOG.info("Graph {}: {} undelivered, of which {} high-priority; " +
+                "{} consumers waiting", graphId, queue.nUndeliveredTasks.get(), queue.stalledHighPriorityTasks.size(),
+                queue.consumers.size()));
+        LOG.info("{} producers waiting", highPriorityResponses.size());
         LOG.info("{} total workers", workerCatalog.size());
     }
 
@@ -455,140 +450,114 @@ public class Broker implements Runnable {
      *  marked complete. Enqueue those tasks for redelivery.
      */
     private void redeliver() {
-        if (System.currentTimeMillis() > nextRedeliveryCheckTime) {
-            nextRedeliveryCheckTime += REDELIVERY_INTERVAL_SEC * 1000;
-            LOG.info("Scanning for redelivery...");
-            int nRedelivered = 0;
-            int nInvisible = 0;
-            for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
-                nRedelivered += job.redeliver();
+        LOG.info("Scanning for redelivery...");
+        int nRedelivered = 0;
+        int nInvisible = 0;
+        for (Job job : jobs.values()) {
+            nInvisible += job.getInFlightTaskCount();
+            int nRedeliveredForJob = job.redeliver();
+            if (nRedeliveredForJob > 0) {
+                GraphQueue queue = getGraphQueue(job.graphId);
+                addToRotation(queue, job);
+                queue.nUndeliveredTasks.addAndGet(nRedeliveredForJob);
+                nRedelivered += nRedeliveredForJob;
             }
-            LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
         }
+        LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
     }
 
-    /**
-     * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
-     */
-    public synchronized void deliverTasks() throws InterruptedException {
-
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
-        }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
+    /** @return the GraphQueue holding the consumers and tasks for the given graph, creating it if needed. */
+    private GraphQueue getGraphQueue (String graphId) {
+        // don't respect graph affinity when working offline; we can't arbitrarily start more workers
+        return graphQueues.computeIfAbsent(workOffline ? OFFLINE_GRAPH_QUEUE : graphId, g -> new GraphQueue());
+    }
 
-        while (nWaitingConsumers == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
+    /** Put a job with tasks awaiting delivery at the end of the rotation of its graph, unless it is already there. */
+    private void addToRotation (GraphQueue queue, Job job) {
+        if (job.inRotation.compareAndSet(false, true)) {
+            queue.jobs.add(job);
         }
+    }
 
-        LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
-
-        // Loop over all jobs and send them to consumers
-        // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
-        // workers on their graph.
-
-        // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
-            String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
-            }
-
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
+    /**
+     * Match the waiting consumers of a graph with its undelivered tasks until one or the other runs out. This is called
+     * by every thread that adds tasks or consumers to the queue, after adding them, so a consumer or some tasks added
+     * while another call is giving up are seen by the call made by the thread that added them. Nothing is then left
+     * waiting while there are both consumers and tasks.
+     *
+     * High-priority tasks are delivered first. Then jobs take turns, each consumer receiving tasks from a single job
+     * which goes back to the end of the rotation. The number of tasks each consumer receives depends on how fast the
+     * worker behind it is, see WorkerObservation.getTasksPerDelivery(). This makes for an as-fair-as-possible
+     * allocation: jobs are fairly allocated between workers on their graph.
+     */
+    private void dispatch (GraphQueue queue) {
+        while (queue.nUndeliveredTasks.get() > 0) {
+            Response consumer = queue.consumers.pollFirst();
+            if (consumer == null) {
+                // The next consumer to be registered will pick up the tasks.
+                return;
             }
 
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
+            int maxTasks = workerCatalog.getTasksPerDelivery(
+                    consumer.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER));
 
+            // start with high-priority tasks
+            List<AnalystClusterRequest> tasks = new ArrayList<>();
+            AnalystClusterRequest task;
+            while (tasks.size() < maxTasks && (task = queue.stalledHighPriorityTasks.poll()) != null) {
+                tasks.add(task);
+            }
+            boolean highPriority = !tasks.isEmpty();
+            Job job;
+            if (highPriority) {
                 // package tasks into a job
-                Job job = new Job("HIGH PRIORITY");
-                job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
-                }
-
                 // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
+                job = new Job("HIGH PRIORITY");
+                job.graphId = tasks.get(0).graphId;
+            } else {
+                job = nextJobInRotation(queue);
+                if (job != null) {
+                    tasks = job.pollTasks(maxTasks);
+                    // a job that still has tasks goes back to the end of the rotation
+                    if (!job.tasksAwaitingDelivery.isEmpty()) {
+                        queue.jobs.add(job);
+                    } else {
+                        job.inRotation.set(false);
+                        if (!job.tasksAwaitingDelivery.isEmpty()) addToRotation(queue, job);
+                    }
+                }
             }
-        }
 
-        // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
-
-            // find a job that both has visible tasks and has available workers
-            // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
-            }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
+            if (tasks.isEmpty()) {
+                // Other threads took the tasks before us. Give the consumer back, and look again only if there might
+                // be tasks that were added after we looked, by a thread that could not see the consumer we held.
+                queue.consumers.addFirst(consumer);
+                if (queue.jobs.isEmpty() && queue.stalledHighPriorityTasks.isEmpty()) return;
+                continue;
             }
-
-            // nothing to see here
-            if (current == null) break;
-
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+            queue.nUndeliveredTasks.addAndGet(-tasks.size());
+
+            if (!deliver(job, tasks, consumer)) {
+                // Delivery failed, put tasks back on (the end of) the queue. The consumer is dropped.
+                if (highPriority) {
+                    queue.stalledHighPriorityTasks.addAll(tasks);
+                } else if (!job.deleted) {
+                    job.returnTasks(tasks);
+                    addToRotation(queue, job);
+                } else {
+                    continue;
+                }
+                queue.nUndeliveredTasks.addAndGet(tasks.size());
             }
-            // deliver this job to only one consumer
-            // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
         }
-
-        // TODO: graph switching
-
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
     }
 
-    /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
-     * @return a Job object that contains the given task ID.
-     */
-    public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
-                return job;
-            }
+    /** @return the next job in the rotation that has not been deleted, or null if there is none. */
+    private Job nextJobInRotation (GraphQueue queue) {
+        Job job;
+        while ((job = queue.jobs.poll()) != null) {
+            if (!job.deleted) return job;
+            job.inRotation.set(false);
         }
         return null;
     }
@@ -596,11 +565,10 @@ public class Broker implements Runnable {
     /**
      * Attempt to hand some tasks from the given job to a waiting consumer connection.
      * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
+     * queue yet.
      * @return whether the handoff succeeded.
      */
-    public synchronized boolean deliver (Job job, Response response) {
+    private boolean deliver (Job job, List<AnalystClusterRequest> tasks, Response response) {
 
         // Check up-front whether the connection is still open.
         if (!response.getRequest().getRequest().getConnection().isOpen()) {
@@ -608,11 +576,8 @@ public class Broker implements Runnable {
             return false;
         }
 
-        // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
-        }
+        // Move tasks from undelivered to delivered status before the consumer can report them completed.
+        job.markTasksDelivered(tasks);
 
         // Attempt to deliver the tasks to the given consumer.
         try {
@@ -625,29 +590,35 @@ public class Broker implements Runnable {
             LOG.debug("Consumer connection caused IO error, it will be removed.");
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
             response.resume();
-            // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
             return false;
         }
 
-        // Delivery succeeded, move tasks from undelivered to delivered status
         LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
-
         return true;
 
     }
 
+    /**
+     * Find the job containing a task, from the batch of task IDs the task was enqueued in.
+     * @return a Job object that contains the given task ID, or null if there is none.
+     */
+    public Job getJobForTask (int taskId) {
+        Map.Entry<Integer, Job> entry = jobForFirstTaskId.floorEntry(taskId);
+        if (entry != null && entry.getValue().containsTask(taskId)) {
+            return entry.getValue();
+        }
+        return null;
+    }
+
     /**
      * Take a normal (non-priority) task out of a job queue, marking it as completed so it will not be re-delivered.
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
+    public boolean markTaskCompleted (int taskId) {
         Job job = getJobForTask(taskId);
         if (job == null) {
-            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
+            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.", taskId);
             return false;
         }
         job.markTaskCompleted(taskId);
@@ -661,75 +632,90 @@ public class Broker implements Runnable {
      * without blocking the broker thread.
      * TODO rename to "deregisterSuspendedProducer" and "deregisterSuspendedConsumer" ?
      */
-    public synchronized Response deletePriorityTask (int taskId) {
+    public Response deletePriorityTask (int taskId) {
         return highPriorityResponses.remove(taskId);
     }
 
-    // TODO: occasionally purge closed connections from consumersByGraph
+    // TODO: occasionally purge closed connections from the consumer queues
     // TODO: worker catalog and graph affinity homeostasis
 
+    /**
+     * Tasks are delivered by the threads enqueueing tasks and registering consumers, so this only periodically makes
+     * tasks that were not completed in time available for redelivery.
+     */
     @Override
     public void run() {
         while (true) {
             try {
-                deliverTasks();
+                Thread.sleep(REDELIVERY_INTERVAL_SEC * 1000);
             } catch (InterruptedException e) {
-                LOG.info("Task pump thread was interrupted.");
+                LOG.info("Task redelivery thread was interrupted.");
                 return;
             }
+            redeliver();
+            graphQueues.values().forEach(this::dispatch);
+            logQueueStatus();
         }
     }
 
     /** find the job for a task, creating it if it does not exist */
     public Job findJob (AnalystClusterRequest task) {
-        Job job = findJob(task.jobId);
-
-        if (job != null)
+        return jobs.computeIfAbsent(task.jobId, jobId -> {
+            Job job = new Job(jobId);
+            job.graphId = task.graphId;
             return job;
-
-        job = new Job(task.jobId);
-        job.graphId = task.graphId;
-        jobs.insertAtTail(job);
-        return job;
+        });
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobs.get(jobId);
     }
 
     /** delete a job */
-    public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+    public boolean deleteJob (String jobId) {
+        Job job = jobs.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
-        return jobs.remove(job);
+        // The job will be dropped when it comes up in the rotation.
+        job.deleted = true;
+        getGraphQueue(job.graphId).nUndeliveredTasks.addAndGet(-job.pollTasks(Integer.MAX_VALUE).size());
+        jobForFirstTaskId.values().removeIf(j -> j == job);
+        return true;
     }
 
-    private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
-
-    public synchronized boolean anyJobsActive() {
-        for (Job job : jobs) {
+    public boolean anyJobsActive() {
+        for (Job job : jobs.values()) {
             if (!job.isComplete()) return true;
         }
         return false;
     }
 
-    void activateJob (Job job) {
-        activeJobsPerGraph.put(job.graphId, job.jobId);
-    }
+    /**
+     * The workers waiting for tasks on a graph, and the tasks they can be given. The number of undelivered tasks is
+     * incremented after tasks are made available and decremented after they are taken, so that it is never more than
+     * the number of tasks that can actually be found, save for a moment while tasks are being taken.
+     */
+    private static class GraphQueue {
+
+        /** Outstanding requests from workers for tasks. */
+        final Deque<Response> consumers = new ConcurrentLinkedDeque<>();
+
+        /** The jobs that have tasks awaiting delivery, in the order they will be serviced. */
+        final Queue<Job> jobs = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution, because
+         * they could not be sent to a worker right away via the side channels.
+         */
+        final Queue<AnalystClusterRequest> stalledHighPriorityTasks = new ConcurrentLinkedQueue<>();
+
+        /** Including normal priority jobs and high-priority tasks. */
+        final AtomicInteger nUndeliveredTasks = new AtomicInteger();
 
-    void deactivateJob (Job job) {
-        activeJobsPerGraph.remove(job.graphId, job.jobId);
     }
 
     /**
-     * We wrap responses in a class that has a machine ID, and then put them in a TreeSet so that
+     * We wrap responses in a class that has a machine ID, and then put them in a sorted set so that
      * the machine with the lowest ID on a given graph always gets single-point work. The reason
      * for this is so that a single machine will tend to get single-point work and thus we don't
      * unnecessarily keep multiple multipoint machines alive.
@@ -161,7 +161,11 @@ class BrokerHttpHandler extends HttpHandler {
                         response.setStatus(HttpStatus.NOT_FOUND_404);
                         return;
                     }
-                    // Copy the result back to the connection that was the source of the task.
+                    // Copy the result back to the connection that was the source of the task, in the format
+                    // the worker wrote it in (JSON or binary, see AnalystClusterRequest.resultFormat).
+                    if (request.getContentType() != null) {
+                        suspendedProducerResponse.setContentType(request.getContentType());
+                    }
                     try {
                         ByteStreams.copy(request.getInputStream(),
                                 suspendedProducerResponse.getOutputStream());
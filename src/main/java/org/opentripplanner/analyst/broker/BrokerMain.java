@@ -25,7 +25,7 @@ public class BrokerMain implements Runnable {
 
     Properties config = new Properties();
 
-    public Broker broker;
+    public volatile Broker broker;
 
     public static void main(String[] args) {
 
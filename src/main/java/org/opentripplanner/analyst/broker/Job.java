@@ -11,20 +11,33 @@ import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * FIXME delivered tasks map is oblivious to multiple tasks having the same ID.
  * In fact we just generate numeric queue task IDs. Origin point IDs will be handled at the application layer.
+ *
+ * A job is used concurrently by the HTTP handler threads of the Broker, without any broker-wide lock. Tasks awaiting
+ * delivery are in a concurrent queue so they can be handed out without locking; the maps that track delivered and
+ * completed tasks are only touched in methods synchronized on the job.
  */
 public class Job {
 
     private static final Logger LOG = LoggerFactory.getLogger(Job.class);
 
-    /* How long until tasks are eligible for re-delivery. */
-    private static final int INVISIBLE_DURATION_SEC = 30;
+    /* Bounds on how long until tasks are eligible for re-delivery. The shortest is used until a task is completed. */
+    private static final int MIN_INVISIBLE_DURATION_SEC = 30;
+    private static final int MAX_INVISIBLE_DURATION_SEC = 60 * 60;
+
+    /* Tasks are re-delivered when they take this many times longer than usual to be completed. */
+    private static final int INVISIBLE_DURATION_FACTOR = 3;
+
+    /* The weight of each newly completed task in the average completion time. */
+    private static final double COMPLETION_TIME_WEIGHT = 0.05;
 
     /* A unique identifier for this job, usually a random UUID. */
     public final String jobId;
@@ -34,37 +47,69 @@ public class Job {
 
     /* Tasks in this job that have yet to be delivered, or that will be re-delivered due to completion timeout. */
     // maybe this should only be a list of IDs.
-    Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ArrayDeque<>();
+    Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ConcurrentLinkedQueue<>();
 
     /* The tasks in this job keyed on their task ID. */
     TIntObjectMap<AnalystClusterRequest> tasksById = new TIntObjectHashMap<>();
 
     /*
-     * Completion timeouts for tasks that have been delivered.
+     * Delivery times of tasks that have been delivered.
      * A task whose ID is in this map has been delivered, has not been reported completed,
      * and is not awaiting re-delivery.
      */
-    TIntLongMap invisibleUntil = new TIntLongHashMap();
+    TIntLongMap deliveryTimes = new TIntLongHashMap();
+
+    /*
+     * Moving average of the time between the delivery and completion of tasks, in milliseconds, or -1 until a task is
+     * completed. It includes the time tasks spend queued on the workers, so it grows with the size of deliveries.
+     */
+    private double meanCompletionMillis = -1;
+
+    /* How long until delivered tasks are eligible for re-delivery, adapted to the completion times of this job. */
+    private long invisibleDurationMillis = MIN_INVISIBLE_DURATION_SEC * 1000;
 
     /* The IDs of all tasks that have been marked completed. */
     TIntSet completedTasks = new TIntHashSet();
 
+    /* Whether this job is in the delivery rotation of its graph, see Broker.GraphQueue. */
+    final AtomicBoolean inRotation = new AtomicBoolean(false);
+
+    /* Set when the job is deleted, so that it is dropped from the delivery rotation. */
+    volatile boolean deleted = false;
+
     public Job (String jobId) {
         this.jobId = jobId;
     }
 
     /** Adds a task to this Job, assigning it a task ID number. */
-    public void addTask (AnalystClusterRequest task) {
+    public synchronized void addTask (AnalystClusterRequest task) {
         tasksById.put(task.taskId, task);
         tasksAwaitingDelivery.add(task);
     }
 
-    public void markTasksDelivered(List<AnalystClusterRequest> tasks) {
+    /** Take up to the given number of tasks awaiting delivery, without locking. */
+    public List<AnalystClusterRequest> pollTasks (int maxTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        AnalystClusterRequest task;
+        while (tasks.size() < maxTasks && (task = tasksAwaitingDelivery.poll()) != null) {
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    public synchronized void markTasksDelivered(List<AnalystClusterRequest> tasks) {
         long deliveryTime = System.currentTimeMillis();
-        long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000;
         for (AnalystClusterRequest task : tasks) {
-            invisibleUntil.put(task.taskId, visibleAt);
+            deliveryTimes.put(task.taskId, deliveryTime);
+        }
+    }
+
+    /** Put back tasks whose delivery failed, so that they are delivered again without waiting for a timeout. */
+    public synchronized void returnTasks (List<AnalystClusterRequest> tasks) {
+        for (AnalystClusterRequest task : tasks) {
+            deliveryTimes.remove(task.taskId);
         }
+        tasksAwaitingDelivery.addAll(tasks);
     }
 
     /**
@@ -72,14 +117,14 @@ public class Job {
      * completed, and make all these tasks visible again for delivery.
      * TODO maybe this should only be triggered when the awaiting delivery queue is empty to reduce double-delivery.
      */
-    public int redeliver () {
+    public synchronized int redeliver () {
         long now = System.currentTimeMillis();
-        TIntLongIterator invisibleIterator = invisibleUntil.iterator();
+        TIntLongIterator invisibleIterator = deliveryTimes.iterator();
         int nRedelivered = 0;
         while (invisibleIterator.hasNext()) {
             invisibleIterator.advance();
             int taskId = invisibleIterator.key();
-            long timeout = invisibleIterator.value();
+            long timeout = invisibleIterator.value() + invisibleDurationMillis;
             if (now > timeout) {
                 invisibleIterator.remove();
                 tasksAwaitingDelivery.add(tasksById.get(taskId));
@@ -87,20 +132,26 @@ public class Job {
                 nRedelivered += 1;
             }
         }
+        if (nRedelivered > 0 && meanCompletionMillis < 0) {
+            // No task has been completed in time yet, the tasks of this job may just be slow (e.g. building a graph).
+            invisibleDurationMillis = Math.min(invisibleDurationMillis * 2, MAX_INVISIBLE_DURATION_SEC * 1000);
+        }
         return nRedelivered;
     }
 
-    public void markTaskCompleted (int taskId) {
+    public synchronized void markTaskCompleted (int taskId) {
         if (tasksById.get(taskId) == null) {
             LOG.error("Tried to mark task {} completed, but it was not in job {}.", taskId, jobId);
             return;
         }
-        if (invisibleUntil.remove(taskId) != 0) {
-            // If the taskId was found in the invisibleUntil map, the task was delivered and has not been slated for
+        long deliveryTime = deliveryTimes.remove(taskId);
+        if (deliveryTime != 0) {
+            // If the taskId was found in the deliveryTimes map, the task was delivered and has not been slated for
             // re-delivery.
             completedTasks.add(taskId);
+            recordCompletionTime(System.currentTimeMillis() - deliveryTime);
         } else {
-            // If the taskId was not found in the invisibleUntil map, the task was never delivered, or timed out and was
+            // If the taskId was not found in the deliveryTimes map, the task was never delivered, or timed out and was
             // slated for redelivery. We should ignore the completion message and let the re-delivery proceed to avoid
             // problems with redelivered tasks overwriting results in S3 after the job is considered finished.
             // TODO verify that there are no race conditions here.
@@ -108,19 +159,38 @@ public class Job {
         }
     }
 
-    public int getTotalTaskCount() {
+    /** Update the average completion time, and the re-delivery timeout that follows from it. */
+    private void recordCompletionTime (long completionMillis) {
+        if (meanCompletionMillis < 0) {
+            meanCompletionMillis = completionMillis;
+        } else {
+            meanCompletionMillis += (completionMillis - meanCompletionMillis) * COMPLETION_TIME_WEIGHT;
+        }
+        invisibleDurationMillis = Math.max(MIN_INVISIBLE_DURATION_SEC * 1000,
+                Math.min(MAX_INVISIBLE_DURATION_SEC * 1000, (long) (meanCompletionMillis * INVISIBLE_DURATION_FACTOR)));
+    }
+
+    public synchronized long getInvisibleDurationMillis() {
+        return invisibleDurationMillis;
+    }
+
+    public synchronized int getTotalTaskCount() {
         return tasksById.size();
     }
 
-    public int getCompletedTaskCount() {
+    public synchronized int getCompletedTaskCount() {
         return completedTasks.size();
     }
 
-    public boolean isComplete() {
+    public synchronized int getInFlightTaskCount() {
+        return deliveryTimes.size();
+    }
+
+    public synchronized boolean isComplete() {
         return completedTasks.size() == tasksById.size();
     }
 
-    public boolean containsTask (int taskId) {
+    public synchronized boolean containsTask (int taskId) {
         AnalystClusterRequest req = tasksById.get(taskId);
         if (req != null) {
             if (!req.jobId.equals(this.jobId)) {
@@ -13,6 +13,9 @@ public class JobStatus {
     /** number of tasks in flight (i.e. on workers now) */
     public int inFlight;
 
+    /** seconds after which tasks in flight are considered lost and delivered again */
+    public int redeliveryTimeout;
+
     /** number of workers on this job */
     public int nWorkers;
 
@@ -21,8 +24,9 @@ public class JobStatus {
 
     public JobStatus (Job job) {
         this.complete = job.getCompletedTaskCount();
-        this.inFlight = job.invisibleUntil.size();
+        this.inFlight = job.getInFlightTaskCount();
         this.remaining = job.tasksAwaitingDelivery.size();
+        this.redeliveryTimeout = (int) (job.getInvisibleDurationMillis() / 1000);
         this.jobId = job.jobId;
     }
 
@@ -27,8 +27,8 @@ public class WorkerCatalog {
 
     // and function to update target counts based on jobs queue.
 
-    public synchronized void catalog (String workerId, String graphAffinity) {
-        WorkerObservation observation = new WorkerObservation(workerId, graphAffinity);
+    public synchronized void catalog (String workerId, String graphAffinity, int nCores, int taskMillis) {
+        WorkerObservation observation = new WorkerObservation(workerId, graphAffinity, nCores, taskMillis);
         WorkerObservation oldObservation = observationsByWorkerId.put(workerId, observation);
         if (oldObservation != null) {
             workersByGraph.remove(oldObservation.graphAffinity, workerId);
@@ -47,6 +47,16 @@ public class WorkerCatalog {
         });
     }
 
+    /** @return how many tasks to deliver at once to the given worker, based on what it last reported. */
+    public synchronized int getTasksPerDelivery (String workerId) {
+        WorkerObservation observation = observationsByWorkerId.get(workerId);
+        return observation == null ? WorkerObservation.DEFAULT_TASKS_PER_DELIVERY : observation.getTasksPerDelivery();
+    }
+
+    public synchronized boolean hasWorkersForGraph (String graphId) {
+        return workersByGraph.containsKey(graphId);
+    }
+
     public synchronized void updateTargetWorkerCounts (Multimap<String, String> activeJobsPerGraph) {
 
         final int activeWorkerCount = observationsByWorkerId.size(); // (plus outstanding instance requests)
@@ -77,7 +87,7 @@ public class WorkerCatalog {
         return null;
     }
 
-    public int size () {
+    public synchronized int size () {
         return workersByGraph.size();
     }
 
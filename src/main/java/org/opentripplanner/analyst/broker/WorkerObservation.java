@@ -1,18 +1,52 @@
 package org.opentripplanner.analyst.broker;
 
 /**
- *
+ * What the broker knows about a worker from its last poll for tasks: its graph affinity, how many cores it has and
+ * how long its recent tasks took, which determine how many tasks it is sent at once.
  */
 public class WorkerObservation {
 
+    /** How many tasks to deliver at once to a worker that does not report its cores. */
+    public static final int DEFAULT_TASKS_PER_DELIVERY = 8;
+
+    /** The most tasks to deliver at once, so that a single worker never holds back a large part of a job. */
+    public static final int MAX_TASKS_PER_DELIVERY = 500;
+
+    /**
+     * How long (in ms) each delivery should keep a worker busy. This makes the HTTP round trip negligible for short
+     * tasks, while slow tasks are delivered one per core.
+     */
+    public static final int TARGET_DELIVERY_MILLIS = 10 * 1000;
+
     public final String workerId;
     public final String graphAffinity;
     public final long lastSeen;
 
-    public WorkerObservation (String workerId, String graphAffinity) {
+    /** The number of tasks the worker runs in parallel, or -1 if it did not say. */
+    public final int nCores;
+
+    /** The average time (in ms) the worker recently took for a task on one core, or -1 if it did not say. */
+    public final int taskMillis;
+
+    public WorkerObservation (String workerId, String graphAffinity, int nCores, int taskMillis) {
         this.workerId = workerId;
         this.graphAffinity = graphAffinity;
         this.lastSeen = System.currentTimeMillis();
+        this.nCores = nCores;
+        this.taskMillis = taskMillis;
+    }
+
+    /** @return how many tasks to hand this worker at once to keep all its cores busy for TARGET_DELIVERY_MILLIS. */
+    public int getTasksPerDelivery () {
+        if (nCores <= 0) {
+            return DEFAULT_TASKS_PER_DELIVERY;
+        }
+        if (taskMillis <= 0) {
+            // one task per core until we know how long they take
+            return Math.min(nCores, MAX_TASKS_PER_DELIVERY);
+        }
+        int tasksPerCore = Math.max(1, TARGET_DELIVERY_MILLIS / taskMillis);
+        return (int) Math.min((long) nCores * tasksPerCore, MAX_TASKS_PER_DELIVERY);
     }
 
 }
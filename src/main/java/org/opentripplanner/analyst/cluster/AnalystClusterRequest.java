@@ -52,6 +52,19 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
+
+	/**
+	 * How the worker should encode the ResultEnvelope it saves to the output location or returns through the broker.
+	 * Results with isochrones are always written as JSON.
+	 */
+	public ResultFormat resultFormat = ResultFormat.JSON;
+
+	public enum ResultFormat {
+		/** The ResultEnvelope serialized by Jackson. */
+		JSON,
+		/** The compact binary encoding of ResultEnvelope.writeBinary(), which is much smaller for large pointsets. */
+		BINARY
+	}
 	
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
@@ -11,8 +11,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -23,6 +21,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
@@ -34,31 +33,32 @@ import org.opentripplanner.api.model.JodaLocalDateSerializer;
 import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
-import org.opentripplanner.profile.RaptorWorkerData;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
@@ -85,6 +85,13 @@ public class AnalystWorker implements Runnable {
 
     public static final String WORKER_ID_HEADER = "X-Worker-Id";
 
+    /** Headers with which the worker tells the broker how many tasks it runs at once and how long they take. */
+    public static final String WORKER_CORES_HEADER = "X-Worker-Cores";
+    public static final String WORKER_TASK_MILLIS_HEADER = "X-Worker-Task-Millis";
+
+    /** The weight of each newly completed task in the average task time reported to the broker. */
+    private static final double TASK_TIME_WEIGHT = 0.1;
+
     public static final int POLL_TIMEOUT = 10 * 1000;
 
     /**
@@ -102,7 +109,7 @@ public class AnalystWorker implements Runnable {
 
     public static final Random random = new Random();
 
-    private TaskStatisticsStore statsStore;
+    TaskStatisticsStore statsStore;
 
     /** is there currently a channel open to the broker to receive single point jobs? */
     private volatile boolean sideChannelOpen = false;
@@ -113,10 +120,8 @@ public class AnalystWorker implements Runnable {
 
     static final HttpClient httpClient;
 
-    /** Cache RAPTOR data by Job ID */
-    private Cache<String, RaptorWorkerData> workerDataCache = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .build();
+    /** Cache RAPTOR data by graph, time window, scenario and destinations */
+    RaptorWorkerDataCache workerDataCache;
 
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
@@ -139,8 +144,17 @@ public class AnalystWorker implements Runnable {
     // Of course this will eventually need to be shared between multiple AnalystWorker threads.
     PointSetDatastore pointSetDatastore;
 
-    // Clients for communicating with Amazon web services
-    AmazonS3 s3;
+    // Where graph inputs and point sets are fetched from and results are saved, usually Amazon S3
+    ObjectStore store;
+
+    /**
+     * The ID this worker gives the broker, the machine ID unless several workers run in the same JVM (see
+     * EmbeddedCluster or BrokerLoadTest), in which case the broker must still be able to tell them apart.
+     */
+    public String workerId = machineId;
+
+    /** The number of batch tasks run in parallel, by default one per processor. */
+    final int nThreads;
 
     String graphId = null;
     long startupTime, nextShutdownCheckTime;
@@ -153,12 +167,25 @@ public class AnalystWorker implements Runnable {
 
     long lastHighPriorityRequestProcessed = 0;
 
+    /** Moving average of the time taken by batch tasks in milliseconds, excluding graph builds, or -1 if none ran yet. */
+    private double meanTaskMillis = -1;
+
     /**
      * Queue for high-priority tasks. Should be plenty long enough to hold all that have come in -
      * we don't need to block on polling the manager.
      */
     private ThreadPoolExecutor highPriorityExecutor, batchExecutor;
 
+    /** The number of threads saving batch results to the object store. */
+    private static final int UPLOAD_THREADS = 4;
+
+    /**
+     * Saves batch results to the object store, so that computing the next origin does not wait on the upload of the
+     * last one. Its queue holds encoded results and is bounded; when it is full the computing thread uploads its
+     * result itself, which slows computation down to the pace of the uploads.
+     */
+    private ThreadPoolExecutor uploadExecutor;
+
     public AnalystWorker(Properties config) {
         // print out date on startup so that CloudWatch logs has a unique fingerprint
         LOG.info("Analyst worker starting at {}", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
@@ -188,8 +215,30 @@ public class AnalystWorker implements Runnable {
         // graph this machine was intended to analyze.
         this.graphId = config.getProperty("initial-graph-id");
 
-        this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
-        this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
+        // By default let cached RAPTOR data use up to a quarter of the heap.
+        String raptorCacheMegabytes = config.getProperty("raptor-data-cache-mb");
+        this.workerDataCache = new RaptorWorkerDataCache(raptorCacheMegabytes != null ?
+                Long.parseLong(raptorCacheMegabytes) : Runtime.getRuntime().maxMemory() / 4 / 1024 / 1024);
+
+        // When creating the S3 and SQS clients use the default credentials chain.
+        // This will check environment variables and ~/.aws/credentials first, then fall back on
+        // the auto-assigned IAM role if this code is running on an EC2 instance.
+        // http://docs.aws.amazon.com/AWSSdkDocsJava/latest/DeveloperGuide/java-dg-roles.html
+        // Inputs and results can also be kept in a local directory, to work without any network services.
+        if (config.getProperty("storage-directory") != null) {
+            this.store = ObjectStore.fromConfig(config);
+        } else {
+            AmazonS3 s3 = new AmazonS3Client();
+            s3.setRegion(awsRegion);
+            this.store = new S3ObjectStore(s3);
+        }
+
+        this.pointSetDatastore = new PointSetDatastore(10, store, config.getProperty("pointsets-bucket"));
+        this.clusterGraphBuilder = new ClusterGraphBuilder(store, config.getProperty("graphs-bucket"));
+
+        String workerThreads = config.getProperty("worker-threads");
+        this.nThreads = workerThreads != null ? Integer.parseInt(workerThreads) :
+                Runtime.getRuntime().availableProcessors();
 
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
@@ -198,13 +247,6 @@ public class AnalystWorker implements Runnable {
         startupTime = System.currentTimeMillis();
         nextShutdownCheckTime = startupTime + 55 * 60 * 1000;
 
-        // When creating the S3 and SQS clients use the default credentials chain.
-        // This will check environment variables and ~/.aws/credentials first, then fall back on
-        // the auto-assigned IAM role if this code is running on an EC2 instance.
-        // http://docs.aws.amazon.com/AWSSdkDocsJava/latest/DeveloperGuide/java-dg-roles.html
-        s3 = new AmazonS3Client();
-        s3.setRegion(awsRegion);
-
         /* The ObjectMapper (de)serializes JSON. */
         objectMapper = new ObjectMapper();
         objectMapper.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
@@ -231,15 +273,20 @@ public class AnalystWorker implements Runnable {
     /**
      * This is the main worker event loop which fetches tasks from a broker and schedules them for execution.
      * It maintains a small local queue on the worker so that it doesn't idle while fetching new tasks.
+     * The broker decides how many tasks it sends at once based on the number of cores and task times this worker
+     * reports, so the batch queue is unbounded; the worker only polls again once it is down to one task per core.
      */
     @Override
     public void run() {
-        // create executors with up to one thread per processor
-        int nP = Runtime.getRuntime().availableProcessors();
-        highPriorityExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(255));
+        // create executors with up to one thread per processor (or as configured)
+        highPriorityExecutor = new ThreadPoolExecutor(1, nThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(255));
         highPriorityExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
-        batchExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(nP * 2));
-        batchExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        batchExecutor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        batchExecutor.allowCoreThreadTimeOut(true);
+        uploadExecutor = new ThreadPoolExecutor(UPLOAD_THREADS, UPLOAD_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(nThreads * 2));
+        uploadExecutor.allowCoreThreadTimeOut(true);
+        uploadExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
 
         // Build a graph on startup, iff a graph ID was provided.
         if (graphId != null) {
@@ -270,6 +317,12 @@ public class AnalystWorker implements Runnable {
                 }
                 nextShutdownCheckTime += 60 * 60 * 1000;
             }
+            // Wait until the tasks already received are nearly done before asking for more.
+            while (batchExecutor.getQueue().size() >= nThreads) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) { /* nothing */}
+            }
             LOG.info("Long-polling for work ({} second timeout).", POLL_TIMEOUT / 1000.0);
             // Long-poll (wait a few seconds for messages to become available)
             List<AnalystClusterRequest> tasks = getSomeWork(WorkType.BATCH);
@@ -285,26 +338,20 @@ public class AnalystWorker implements Runnable {
                     .forEach(t -> highPriorityExecutor.execute(() -> {
                         LOG.warn(
                                 "Handling single point request via normal channel, side channel should open shortly.");
-                        this.handleOneRequest(t);
+                        this.handleOneRequest(t, new OriginBatch());
                     }));
 
             logQueueStatus();
 
-            // enqueue low-priority tasks; note that this may block anywhere in the process
+            // enqueue low-priority tasks, grouping the origins of each job so they look up their graph and
+            // destinations once
+            Map<String, OriginBatch> batches = new HashMap<>();
             tasks.stream().filter(t -> t.outputLocation != null)
                 .forEach(t -> {
-                    // attempt to enqueue, waiting if the queue is full
-                    while (true) {
-                        try {
-                            batchExecutor.execute(() -> this.handleOneRequest(t));
-                            break;
-                        } catch (RejectedExecutionException e) {
-                            // queue is full, wait 200ms and try again
-                            try {
-                                Thread.sleep(200);
-                            } catch (InterruptedException e1) { /* nothing */}
-                        }
-                    }
+                    OriginBatch batch = batches.computeIfAbsent(
+                            String.join("/", t.jobId, t.graphId, String.valueOf(t.destinationPointsetId)),
+                            k -> new OriginBatch());
+                    batchExecutor.execute(() -> this.handleOneRequest(t, batch));
                 });
 
             logQueueStatus();
@@ -315,9 +362,9 @@ public class AnalystWorker implements Runnable {
 
     /**
      * This is the callback that processes a single task and returns the results upon completion.
-     * It may be called several times simultaneously on different executor threads.
+     * It may be called several times simultaneously on different executor threads, for tasks of the same batch.
      */
-    private void handleOneRequest(AnalystClusterRequest clusterRequest) {
+    private void handleOneRequest(AnalystClusterRequest clusterRequest, OriginBatch batch) {
 
         if (dryRunFailureRate >= 0) {
             // This worker is running in test mode.
@@ -340,7 +387,6 @@ public class AnalystWorker implements Runnable {
             // Either vector isochrones or accessibility to a pointset,
             // as either a single-origin priority request (where the result is returned immediately)
             // or a job task (where the result is saved to output location on S3).
-            boolean isochrone = (clusterRequest.destinationPointsetId == null);
             boolean singlePoint = (clusterRequest.outputLocation == null);
             boolean transit = (clusterRequest.profileRequest.transitModes != null && clusterRequest.profileRequest.transitModes.isTransit());
 
@@ -356,54 +402,46 @@ public class AnalystWorker implements Runnable {
             ts.graphId = clusterRequest.graphId;
             ts.awsInstanceType = instanceType;
             ts.jobId = clusterRequest.jobId;
-            ts.workerId = machineId;
+            ts.workerId = workerId;
             ts.single = singlePoint;
 
-            // Get the graph object for the ID given in the request, fetching inputs and building as needed.
-            // All requests handled together are for the same graph, and this call is synchronized so the graph will
-            // only be built once.
-            long graphStartTime = System.currentTimeMillis();
-            Graph graph = clusterGraphBuilder.getGraph(clusterRequest.graphId);
+            // Get the graph and destinations of this group of tasks, the first task to get here fetching and building
+            // them as needed while the others wait.
+            batch.prepare(clusterRequest, ts);
+            Graph graph = batch.graph;
+            final SampleSet sampleSet = batch.sampleSet;
             graphId = clusterRequest.graphId; // Record graphId so we "stick" to this same graph on subsequent polls
-            ts.graphBuild = (int) (System.currentTimeMillis() - graphStartTime);
             ts.graphTripCount = graph.index.patternForTrip.size();
             ts.graphStopCount = graph.index.stopForId.size();
             ts.lon = clusterRequest.profileRequest.fromLon;
             ts.lat = clusterRequest.profileRequest.fromLat;
 
-            final SampleSet sampleSet;
-
-            // If this one-to-many request is for accessibility information based on travel times to a pointset,
-            // fetch the set of points we will use as destinations.
-            if (isochrone) {
-                // This is an isochrone request, tell the RepeatedRaptorProfileRouter there are no targets.
-                sampleSet = null;
-            } else {
-                // This is not an isochrone request. There is necessarily a destination point set supplied.
-                PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
-                sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
-            }
-
             // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
             // Why not pass in ts as well since this is a throwaway calculator?
             RepeatedRaptorProfileRouter router =
                     new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
             router.ts = ts;
+            // A single-point request is waited on interactively, so use all the cores for its departure minutes.
+            // Batch tasks are already run one per core.
+            if (singlePoint) {
+                router.raptorParallelism = Runtime.getRuntime().availableProcessors();
+            }
 
-            // Produce RAPTOR data tables, going through a cache where relevant.
-            // This is only used for multi-point requests. Single-point requests are assumed to be continually
-            // changing, so we create throw-away RAPTOR tables for them.
+            // Produce RAPTOR data tables, going through a cache so that they are shared by all the tasks of a job and
+            // by single-point requests that only move the origin. The scenario is part of the cache key; it is keyed
+            // on its JSON representation as well as its ID as single-point scenarios may be edited in place.
             // Ideally we'd want this cacheing to happen transparently inside the RepeatedRaptorProfileRouter,
-            // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
-            // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
-            // But then we'd need to pass in both the cache and the key, which is weird.
-            if (transit && !singlePoint) {
+            // but the RepeatedRaptorProfileRouter doesn't know the graph and point set IDs from the cluster request.
+            if (transit) {
                 long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+                String scenarioFingerprint = clusterRequest.profileRequest.scenario == null ? null :
+                        objectMapper.writeValueAsString(clusterRequest.profileRequest.scenario.modifications);
+                router.raptorWorkerData = workerDataCache.get(clusterRequest.graphId,
+                        clusterRequest.destinationPointsetId, scenarioFingerprint, clusterRequest.profileRequest,
+                        graph, sampleSet, ts);
                 ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
             } else {
-                // The worker will generate a one-time throw-away table.
+                // No transit, so no tables are needed.
                 router.raptorWorkerData = null;
             }
 
@@ -429,30 +467,47 @@ public class AnalystWorker implements Runnable {
             envelope.jobId = clusterRequest.jobId;
             envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
             if (clusterRequest.outputLocation != null) {
-                // Convert the result envelope and its contents to JSON and gzip it in this thread.
-                // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
-                PipedInputStream inPipe = new PipedInputStream();
-                PipedOutputStream outPipe = new PipedOutputStream(inPipe);
-                new Thread(() -> {
-                    s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
-                }).start();
-                OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
-                // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
-                // could consume it in the same way.
-                objectMapper.writeValue(gzipOutputStream, envelope);
+                // Convert the result envelope and its contents to JSON or binary and gzip it in this thread.
+                // Transfer the results to the object store on the upload pipeline, so that this thread can move on
+                // to the next origin.
+                boolean binary = writeBinary(clusterRequest, envelope);
+                String s3key = String.join("/", clusterRequest.jobId,
+                        clusterRequest.id + (binary ? ".dat.gz" : ".json.gz"));
+                ByteArrayOutputStream encodedResult = new ByteArrayOutputStream();
+                OutputStream gzipOutputStream = new GZIPOutputStream(encodedResult);
+                if (binary) {
+                    envelope.writeBinary(gzipOutputStream);
+                } else {
+                    objectMapper.writeValue(gzipOutputStream, envelope);
+                }
                 gzipOutputStream.close();
-                // Tell the broker the task has been handled and should not be re-delivered to another worker.
-                deleteRequest(clusterRequest);
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                recordTaskTime(ts.total - ts.graphBuild);
+                uploadExecutor.execute(() -> {
+                    long uploadStartTime = System.currentTimeMillis();
+                    try {
+                        store.putObject(clusterRequest.outputLocation, s3key,
+                                new ByteArrayInputStream(encodedResult.toByteArray()));
+                    } catch (IOException e) {
+                        // The broker will re-deliver the task as it is not marked completed.
+                        LOG.error("Could not save result of task {}", clusterRequest.taskId, e);
+                        return;
+                    }
+                    ts.upload = (int) (System.currentTimeMillis() - uploadStartTime);
+                    // Tell the broker the task has been handled and should not be re-delivered to another worker.
+                    deleteRequest(clusterRequest);
+                    // Record information about the current task so we can analyze usage and efficiency over time.
+                    statsStore.store(ts);
+                });
             } else {
                 // No output location was provided. Instead of saving the result on S3,
                 // return the result immediately via a connection held open by the broker and mark the task completed.
                 finishPriorityTask(clusterRequest, envelope);
-            }
 
-            // Record information about the current task so we can analyze usage and efficiency over time.
-            ts.total = (int) (System.currentTimeMillis() - startTime);
-            statsStore.store(ts);
+                // Record information about the current task so we can analyze usage and efficiency over time.
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                statsStore.store(ts);
+            }
 
         } catch (Exception ex) {
             LOG.error("An error occurred while routing", ex);
@@ -460,6 +515,65 @@ public class AnalystWorker implements Runnable {
 
     }
 
+    /**
+     * A group of tasks of one job that were delivered in the same poll. The graph and destinations are looked up once
+     * for the group by the first of its tasks to run, which keeps concurrent tasks from linking the same point set to
+     * the graph at the same time. This is request grouping only: the ClusterGraphBuilder and the PointSetDatastore
+     * already cache the graph and the point set, and the RAPTOR tables are shared through the RaptorWorkerDataCache.
+     * Each origin still runs its own access search and propagation.
+     */
+    private class OriginBatch {
+
+        private boolean prepared = false;
+
+        Graph graph;
+
+        /** The destinations, or null for isochrone requests. */
+        SampleSet sampleSet;
+
+        /**
+         * Fetch and build the graph and destinations of the given task if this batch has not done so yet, recording
+         * the time it took in the statistics of the task that did it.
+         */
+        synchronized void prepare (AnalystClusterRequest clusterRequest, TaskStatistics ts) {
+            if (prepared) {
+                ts.graphBuild = 0;
+                return;
+            }
+            // Get the graph object for the ID given in the request, fetching inputs and building as needed.
+            // All requests handled together are for the same graph, and this call is synchronized so the graph will
+            // only be built once.
+            long graphStartTime = System.currentTimeMillis();
+            graph = clusterGraphBuilder.getGraph(clusterRequest.graphId);
+            ts.graphBuild = (int) (System.currentTimeMillis() - graphStartTime);
+
+            // If this one-to-many request is for accessibility information based on travel times to a pointset,
+            // fetch the set of points we will use as destinations.
+            if (clusterRequest.destinationPointsetId == null) {
+                // This is an isochrone request, tell the RepeatedRaptorProfileRouter there are no targets.
+                sampleSet = null;
+            } else {
+                // This is not an isochrone request. There is necessarily a destination point set supplied.
+                PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
+                sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
+            }
+            prepared = true;
+        }
+    }
+
+    /** Update the average batch task time reported to the broker with the time taken by a task. */
+    private synchronized void recordTaskTime (int taskMillis) {
+        if (meanTaskMillis < 0) {
+            meanTaskMillis = taskMillis;
+        } else {
+            meanTaskMillis += (taskMillis - meanTaskMillis) * TASK_TIME_WEIGHT;
+        }
+    }
+
+    private synchronized int getMeanTaskMillis () {
+        return (int) Math.round(meanTaskMillis);
+    }
+
     /** Open a single point channel to the broker to receive high-priority requests immediately */
     private synchronized void openSideChannel () {
         if (sideChannelOpen) {
@@ -476,7 +590,7 @@ public class AnalystWorker implements Runnable {
 
                     if (tasks != null)
                         tasks.stream().forEach(t -> highPriorityExecutor.execute(
-                                () -> this.handleOneRequest(t)));
+                                () -> this.handleOneRequest(t, new OriginBatch())));
 
                     logQueueStatus();
                 } catch (Exception e) {
@@ -498,7 +612,9 @@ public class AnalystWorker implements Runnable {
             url = BROKER_BASE_URL + "/dequeue/" + graphId;
         }
         HttpPost httpPost = new HttpPost(url);
-        httpPost.setHeader(new BasicHeader(WORKER_ID_HEADER, machineId));
+        httpPost.setHeader(new BasicHeader(WORKER_ID_HEADER, workerId));
+        httpPost.setHeader(new BasicHeader(WORKER_CORES_HEADER, Integer.toString(nThreads)));
+        httpPost.setHeader(new BasicHeader(WORKER_TASK_MILLIS_HEADER, Integer.toString(getMeanTaskMillis())));
         HttpResponse response = null;
         try {
             response = httpClient.execute(httpPost);
@@ -538,8 +654,16 @@ public class AnalystWorker implements Runnable {
         try {
             // TODO reveal any errors etc. that occurred on the worker.
             // Really this should probably be done with an InputStreamEntity and a JSON writer thread.
-            byte[] serializedResult = objectMapper.writeValueAsBytes(result);
-            httpPost.setEntity(new ByteArrayEntity(serializedResult));
+            // The broker passes the content type on to the connection that submitted the task.
+            if (result instanceof ResultEnvelope && writeBinary(clusterRequest, (ResultEnvelope) result)) {
+                ByteArrayOutputStream serializedResult = new ByteArrayOutputStream();
+                ((ResultEnvelope) result).writeBinary(serializedResult);
+                httpPost.setEntity(new ByteArrayEntity(serializedResult.toByteArray(),
+                        ContentType.APPLICATION_OCTET_STREAM));
+            } else {
+                byte[] serializedResult = objectMapper.writeValueAsBytes(result);
+                httpPost.setEntity(new ByteArrayEntity(serializedResult, ContentType.APPLICATION_JSON));
+            }
             HttpResponse response = httpClient.execute(httpPost);
             // Signal the http client library that we're done with this response object, allowing connection reuse.
             EntityUtils.consumeQuietly(response.getEntity());
@@ -556,6 +680,14 @@ public class AnalystWorker implements Runnable {
         }
     }
 
+    /**
+     * @return true if the result of the given request should be encoded with ResultEnvelope.writeBinary(). Envelopes
+     * with isochrones fall back on JSON even when binary results were requested.
+     */
+    private static boolean writeBinary(AnalystClusterRequest clusterRequest, ResultEnvelope envelope) {
+        return clusterRequest.resultFormat == AnalystClusterRequest.ResultFormat.BINARY && !envelope.hasIsochrones();
+    }
+
     /**
      * Tell the broker that the given message has been successfully processed by a worker (HTTP DELETE).
      */
@@ -619,6 +751,8 @@ public class AnalystWorker implements Runnable {
      * auto-shutdown                Should this worker shut down its machine if it is idle (e.g. on throwaway cloud instances)
      * statistics-queue             SQS queue to which to send statistics (optional)
      * initial-graph-id             The graph ID for this worker to start on
+     * storage-directory            Local directory to use instead of S3 for graphs, pointsets and results (optional)
+     * worker-threads               Number of batch tasks to run in parallel, default one per processor
      */
     public static void main(String[] args) {
         LOG.info("Starting analyst worker");
@@ -1,7 +1,5 @@
 package org.opentripplanner.analyst.cluster;
 
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.S3Object;
 import org.apache.commons.io.IOUtils;
 import org.opentripplanner.graph_builder.GraphBuilder;
 import org.opentripplanner.routing.graph.Graph;
@@ -23,7 +21,7 @@ public class ClusterGraphBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(ClusterGraphBuilder.class);
 
-    private AmazonS3Client s3 = new AmazonS3Client();
+    private final ObjectStore store;
 
     private static final String GRAPH_CACHE_DIR = "graph_cache";
 
@@ -33,14 +31,15 @@ public class ClusterGraphBuilder {
 
     Graph currGraph = null;
 
-    public ClusterGraphBuilder (String graphBucket) {
+    public ClusterGraphBuilder (ObjectStore store, String graphBucket) {
+        this.store = store;
         this.graphBucket = graphBucket;
     }
 
     /**
-     * Return the graph for the given unique identifier for graph builder inputs on S3.
+     * Return the graph for the given unique identifier for graph builder inputs in the object store.
      * If this is the same as the last graph built, just return the pre-built graph.
-     * If not, build the graph from the inputs, fetching them from S3 to the local cache as needed.
+     * If not, build the graph from the inputs, fetching them from the object store to the local cache as needed.
      */
     public synchronized Graph getGraph(String graphId) {
 
@@ -54,13 +53,12 @@ public class ClusterGraphBuilder {
         // The location of the inputs that will be used to build this graph
         File graphDataDirectory = new File(GRAPH_CACHE_DIR, graphId);
 
-        // If we don't have a local copy of the inputs, fetch graph data as a ZIP from S3 and unzip it
+        // If we don't have a local copy of the inputs, fetch graph data as a ZIP from the store and unzip it
         if( ! graphDataDirectory.exists() || graphDataDirectory.list().length == 0) {
             LOG.info("Downloading graph input files.");
             graphDataDirectory.mkdirs();
-            S3Object graphDataZipObject = s3.getObject(graphBucket, graphId + ".zip");
-            ZipInputStream zis = new ZipInputStream(graphDataZipObject.getObjectContent());
             try {
+                ZipInputStream zis = new ZipInputStream(store.getObject(graphBucket, graphId + ".zip"));
                 ZipEntry entry;
                 while ((entry = zis.getNextEntry()) != null) {
                     File entryDestination = new File(graphDataDirectory, entry.getName());
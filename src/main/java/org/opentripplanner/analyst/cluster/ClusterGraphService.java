@@ -1,10 +1,5 @@
 package org.opentripplanner.analyst.cluster;
 
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.S3Object;
 import com.google.common.collect.Maps;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -36,7 +31,7 @@ public class ClusterGraphService extends GraphService {
 	private String graphBucket;
 	
 	private Boolean workOffline = false;
-	private AmazonS3Client s3;
+	private ObjectStore store;
 
 	private static final Logger LOG = LoggerFactory.getLogger(GraphService.class);
 
@@ -89,25 +84,21 @@ public class ClusterGraphService extends GraphService {
 	}
 
 	public ClusterGraphService(String s3CredentialsFilename, Boolean workOffline, String bucket) {
+		this(workOffline ? null : new S3ObjectStore(s3CredentialsFilename), bucket);
+	}
+
+	/** Fetch graph inputs from the given object store, or work offline with cached inputs if it is null. */
+	public ClusterGraphService(ObjectStore store, String bucket) {
 		
-		if(!workOffline) {
-			if (s3CredentialsFilename != null) {
-				AWSCredentials creds = new ProfileCredentialsProvider(s3CredentialsFilename, "default").getCredentials();
-				s3 = new AmazonS3Client(creds);
-			}
-			else {
-				// This will first check for credentials in environment variables or ~/.aws/credentials
-				// then fall back on S3 credentials propagated to EC2 instances via IAM roles.
-				s3 = new AmazonS3Client();
-			}
-			
+		if(store != null) {
+			this.store = store;
 			this.graphBucket = bucket;
 		}
 		
-		this.workOffline = workOffline;
+		this.workOffline = store == null;
 	}
 	
-	// adds either a zip file or graph directory to S3, or local cache for offline use
+	// adds either a zip file or graph directory to the object store, or local cache for offline use
 	public void addGraphFile(File graphFile) throws IOException {
 		
 		String graphId = graphFile.getName();
@@ -148,10 +139,8 @@ public class ClusterGraphService extends GraphService {
 			
 		if(!workOffline && graphDataZip != null) {
 			// only upload if it's not there already
-			try {
-				s3.getObject(graphBucket, graphId + ".zip");
-			} catch (AmazonServiceException e) {
-				s3.putObject(graphBucket, graphId+".zip", graphDataZip);
+			if (!store.exists(graphBucket, graphId + ".zip")) {
+				store.putObject(graphBucket, graphId+".zip", graphDataZip);
 			}
 		}
 		
@@ -228,9 +217,7 @@ public class ClusterGraphService extends GraphService {
 
 		extractedGraphDir.mkdirs();
 
-		S3Object graphZip = s3.getObject(graphBucket, graphId+".zip");
-
-		InputStream zipFileIn = graphZip.getObjectContent();
+		InputStream zipFileIn = store.getObject(graphBucket, graphId+".zip");
 
 		OutputStream zipFileOut = new FileOutputStream(graphZipFile);
 
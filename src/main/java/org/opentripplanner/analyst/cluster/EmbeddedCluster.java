@@ -0,0 +1,168 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opentripplanner.analyst.broker.Broker;
+import org.opentripplanner.analyst.broker.BrokerMain;
+import org.opentripplanner.api.model.AgencyAndIdSerializer;
+import org.opentripplanner.api.model.JodaLocalDateSerializer;
+import org.opentripplanner.api.model.QualifiedModeSetSerializer;
+import org.opentripplanner.api.model.TraverseModeSetSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs a broker and several analyst workers in a single JVM, with graph inputs, point sets and results in a local
+ * directory instead of S3, so that jobs can be run and load-tested on one large machine without any network services.
+ * The workers still talk to the broker over HTTP on the loopback interface, so the whole cluster code path is
+ * exercised. The jobs are read from JSON files holding the same lists of AnalystClusterRequests that are POSTed to
+ * the broker at /enqueue/jobs, and the throughput of the whole run is logged once they are all complete.
+ *
+ * Usage: EmbeddedCluster cluster.conf job.json [job.json ...]
+ *
+ * The configuration is a Java Properties file with the following attributes, as well as any worker configuration.
+ *
+ * storage-directory            Directory with a subdirectory per bucket, holding graph ZIPs, pointsets and results
+ * graphs-bucket                Bucket (subdirectory) in which graphs are stored
+ * pointsets-bucket             Bucket (subdirectory) in which pointsets are stored
+ * workers                      Number of workers to start, default 1
+ * worker-threads               Number of tasks each worker runs in parallel, by default the processors are shared
+ * port                         Port the broker listens on, default 9001
+ */
+public class EmbeddedCluster {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedCluster.class);
+
+    public static void main (String[] args) throws Exception {
+        if (args.length < 2) {
+            LOG.error("Usage: EmbeddedCluster cluster.conf job.json [job.json ...]");
+            return;
+        }
+
+        Properties config = new Properties();
+        InputStream configIn = new FileInputStream(args[0]);
+        config.load(configIn);
+        configIn.close();
+        if (config.getProperty("storage-directory") == null) {
+            LOG.error("An embedded cluster needs a storage-directory.");
+            return;
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(AgencyAndIdSerializer.makeModule());
+        mapper.registerModule(QualifiedModeSetSerializer.makeModule());
+        mapper.registerModule(JodaLocalDateSerializer.makeModule());
+        mapper.registerModule(TraverseModeSetSerializer.makeModule());
+        List<List<AnalystClusterRequest>> jobs = new ArrayList<>();
+        int nTasks = 0;
+        for (int i = 1; i < args.length; i++) {
+            List<AnalystClusterRequest> tasks = mapper.readValue(new File(args[i]),
+                    new TypeReference<List<AnalystClusterRequest>>() { });
+            if (!tasks.isEmpty()) {
+                jobs.add(tasks);
+                nTasks += tasks.size();
+            }
+        }
+
+        // Start a broker in a new thread. It never launches workers, as it works offline.
+        Properties brokerConfig = new Properties();
+        brokerConfig.putAll(config);
+        brokerConfig.setProperty("work-offline", "true");
+        BrokerMain brokerMain = new BrokerMain(brokerConfig);
+        Thread brokerThread = new Thread(brokerMain);
+        brokerThread.setDaemon(true);
+        brokerThread.start();
+        while (brokerMain.broker == null) {
+            Thread.sleep(100);
+        }
+        Broker broker = brokerMain.broker;
+
+        // Start the workers, sharing one graph, one pointset cache and one RAPTOR data cache, and collecting the
+        // statistics of all their tasks.
+        int nWorkers = Integer.parseInt(config.getProperty("workers", "1"));
+        Properties workerConfig = new Properties();
+        workerConfig.putAll(config);
+        workerConfig.setProperty("broker-address", "localhost");
+        workerConfig.setProperty("broker-port", config.getProperty("port", "9001"));
+        if (config.getProperty("worker-threads") == null) {
+            workerConfig.setProperty("worker-threads",
+                    Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / nWorkers)));
+        }
+        ThroughputStatistics statistics = new ThroughputStatistics();
+        AnalystWorker firstWorker = null;
+        for (int i = 0; i < nWorkers; i++) {
+            AnalystWorker worker = new AnalystWorker(workerConfig);
+            if (firstWorker == null) {
+                firstWorker = worker;
+            } else {
+                worker.clusterGraphBuilder = firstWorker.clusterGraphBuilder;
+                worker.pointSetDatastore = firstWorker.pointSetDatastore;
+                worker.workerDataCache = firstWorker.workerDataCache;
+            }
+            worker.workerId = AnalystWorker.machineId + "-" + i;
+            worker.statsStore = statistics;
+            Thread workerThread = new Thread(worker);
+            workerThread.setDaemon(true);
+            workerThread.start();
+        }
+
+        // Hand the jobs to the broker directly and wait for all of them to be complete.
+        long startTime = System.currentTimeMillis();
+        for (List<AnalystClusterRequest> tasks : jobs) {
+            broker.enqueueTasks(tasks);
+        }
+        while (broker.anyJobsActive()) {
+            Thread.sleep(1000);
+            LOG.info("{} of {} tasks done.", statistics.getTaskCount(), nTasks);
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        LOG.info("Ran {} tasks in {} jobs on {} workers with {} threads each in {} sec.", nTasks, jobs.size(),
+                nWorkers, workerConfig.getProperty("worker-threads"), elapsed / 1000.0);
+        LOG.info("Throughput: {} tasks per second.", String.format("%.2f", nTasks * 1000.0 / elapsed));
+        statistics.log();
+        System.exit(0);
+    }
+
+    /** Keeps running totals of the statistics of the tasks completed by all the workers. */
+    private static class ThroughputStatistics implements TaskStatisticsStore {
+
+        private int nTasks, nFailed;
+
+        private long total, graphBuild, raptorData, compute, resultSets, upload;
+
+        @Override
+        public synchronized void store (TaskStatistics ts) {
+            nTasks += 1;
+            if (!ts.success) nFailed += 1;
+            total += ts.total;
+            graphBuild += Math.max(0, ts.graphBuild);
+            raptorData += ts.raptorData;
+            compute += Math.max(0, ts.compute);
+            resultSets += Math.max(0, ts.resultSets);
+            upload += Math.max(0, ts.upload);
+        }
+
+        public synchronized int getTaskCount () {
+            return nTasks;
+        }
+
+        public synchronized void log () {
+            if (nTasks == 0) return;
+            LOG.info("{} tasks completed, {} of which failed.", nTasks, nFailed);
+            LOG.info("Average msec per task: {} total, {} graph build, {} RAPTOR data, {} compute, {} result sets.",
+                    total / nTasks, graphBuild / nTasks, raptorData / nTasks, compute / nTasks, resultSets / nTasks);
+            LOG.info("Average msec per task uploading results, not counted in the total: {}.", upload / nTasks);
+        }
+    }
+
+}
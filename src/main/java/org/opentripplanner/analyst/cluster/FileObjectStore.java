@@ -0,0 +1,57 @@
+package org.opentripplanner.analyst.cluster;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An object store in a local directory, with a subdirectory per bucket. Keys containing slashes are stored in nested
+ * directories, as the S3 console shows them. Objects are written to a temporary file that is then moved in place, so
+ * that a partially written object is never read.
+ */
+public class FileObjectStore implements ObjectStore {
+
+    private final File directory;
+
+    public FileObjectStore (File directory) {
+        this.directory = directory;
+    }
+
+    private File getFile (String bucket, String key) {
+        return new File(new File(directory, bucket), key);
+    }
+
+    @Override
+    public InputStream getObject (String bucket, String key) throws IOException {
+        return new FileInputStream(getFile(bucket, key));
+    }
+
+    @Override
+    public boolean exists (String bucket, String key) {
+        return getFile(bucket, key).isFile();
+    }
+
+    @Override
+    public void putObject (String bucket, String key, InputStream content) throws IOException {
+        File file = getFile(bucket, key);
+        file.getParentFile().mkdirs();
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            content.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void putObject (String bucket, String key, File file) throws IOException {
+        putObject(bucket, key, new FileInputStream(file));
+    }
+
+}
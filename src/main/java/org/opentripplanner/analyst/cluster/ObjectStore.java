@@ -0,0 +1,37 @@
+package org.opentripplanner.analyst.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Where the analyst cluster keeps graph inputs, point sets and results: objects named by a key within a bucket, in the
+ * manner of Amazon S3. Workers use S3 by default, or a local directory so that the whole cluster can run on one
+ * machine without any network services (see EmbeddedCluster). Implementations must be threadsafe.
+ */
+public interface ObjectStore {
+
+    /** @return the content of the given object, which the caller must close. */
+    public InputStream getObject (String bucket, String key) throws IOException;
+
+    public boolean exists (String bucket, String key);
+
+    /** Store the content of the given stream, which is read to the end and closed. */
+    public void putObject (String bucket, String key, InputStream content) throws IOException;
+
+    public void putObject (String bucket, String key, File file) throws IOException;
+
+    /**
+     * @return a store in the local directory given by the storage-directory property of the given configuration,
+     * or on S3 if it is not set.
+     */
+    public static ObjectStore fromConfig (Properties config) {
+        String storageDirectory = config.getProperty("storage-directory");
+        if (storageDirectory != null) {
+            return new FileObjectStore(new File(storageDirectory));
+        }
+        return new S3ObjectStore();
+    }
+
+}
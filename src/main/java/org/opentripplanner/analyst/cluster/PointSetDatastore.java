@@ -1,11 +1,5 @@
 package org.opentripplanner.analyst.cluster;
 
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.S3Object;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.io.ByteStreams;
@@ -17,6 +11,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -29,37 +27,35 @@ public class PointSetDatastore extends PointSetCache {
 	static private File POINT_DIR = new File("cache", "pointsets");
 	private String pointsetBucket;
 	
-	private AmazonS3Client s3;
+	private ObjectStore store;
 	private final Boolean workOffline;
 	
 	public PointSetDatastore(Integer maxCacheSize, String s3CredentialsFilename,
 			Boolean workOffline, String pointsetBucket){
 		
+		// allow the data store to work offline with cached data and skip S3 connection
+		// default credentials providers, e.g. IAM role, if there is no credentials file
+		this(maxCacheSize, workOffline ? null : new S3ObjectStore(s3CredentialsFilename), pointsetBucket);
+	}
+
+	/** Fetch point sets from the given object store, or work offline with cached data if it is null. */
+	public PointSetDatastore(Integer maxCacheSize, ObjectStore store, String pointsetBucket){
+		
 		super();
 
-		// allow the data store to work offline with cached data and skip S3 connection
-		this.workOffline = workOffline;
+		this.workOffline = store == null;
 		
 		this.pointsetBucket = pointsetBucket;
 		
-		if(!this.workOffline) {
-			if (s3CredentialsFilename != null) {
-				AWSCredentials creds = new ProfileCredentialsProvider(s3CredentialsFilename, "default").getCredentials();
-				s3 = new AmazonS3Client(creds);
-			}
-			else {
-				// default credentials providers, e.g. IAM role
-				s3 = new AmazonS3Client();
-			}
-		}
+		this.store = store;
 		
 		// set up the cache
 		this.pointSets = CacheBuilder.newBuilder()
 			       .maximumSize(maxCacheSize)
-			       .build(new S3PointSetLoader(workOffline, s3, pointsetBucket));
+			       .build(new StorePointSetLoader(workOffline, store, pointsetBucket));
 	}
 	
-	// adds file to S3 Data store or offline cache (if working offline)
+	// adds file to the object store or offline cache (if working offline)
 	public String addPointSet(File pointSetFile, String pointSetId) throws IOException {
 		if (pointSetId == null)
 			throw new NullPointerException("null point set id");
@@ -73,9 +69,7 @@ public class PointSetDatastore extends PointSetCache {
 		
 		if(!this.workOffline) {
 			// only upload if it doesn't exist
-			try {
-				s3.getObjectMetadata(pointsetBucket, pointSetId + ".json.gz");
-			} catch (AmazonServiceException e) {
+			if (!store.exists(pointsetBucket, pointSetId + ".json.gz")) {
 				// gzip compression in storage, not because we're worried about file size but to speed file transfer
 				FileInputStream fis = new FileInputStream(pointSetFile);
 				File tempFile = File.createTempFile(pointSetId, ".json.gz");
@@ -89,7 +83,7 @@ public class PointSetDatastore extends PointSetCache {
 					fis.close();
 				}
 				
-				s3.putObject(pointsetBucket, pointSetId + ".json.gz", tempFile);
+				store.putObject(pointsetBucket, pointSetId + ".json.gz", tempFile);
 				tempFile.delete();
 			}
 		} 
@@ -104,20 +98,20 @@ public class PointSetDatastore extends PointSetCache {
 	}
 	
 	/**
-	 * Load pointsets from S3.
+	 * Load pointsets from the object store.
 	 */
-	protected static class S3PointSetLoader extends CacheLoader<String, PointSet> {
+	protected static class StorePointSetLoader extends CacheLoader<String, PointSet> {
 
 		private Boolean workOffline;
-		private AmazonS3Client s3;
+		private ObjectStore store;
 		private String pointsetBucket;
 		
 		/**
-		 * Construct a new point set loader. S3 clients are generally threadsafe, so it's fine to share them.
+		 * Construct a new point set loader. Object stores are threadsafe, so it's fine to share them.
 		 */
-		public S3PointSetLoader(Boolean workOffline, AmazonS3Client s3, String pointsetBucket) {
+		public StorePointSetLoader(Boolean workOffline, ObjectStore store, String pointsetBucket) {
 			this.workOffline = workOffline;
-			this.s3 = s3;
+			this.store = store;
 			this.pointsetBucket = pointsetBucket;
 		}
 
@@ -127,20 +121,25 @@ public class PointSetDatastore extends PointSetCache {
 			File cachedFile;
 			
 			if(!workOffline) {
-				// get pointset metadata from S3
+				// get pointset from the object store
 				cachedFile = new File(POINT_DIR, pointSetId + ".json");
 				if(!cachedFile.exists()){
 					POINT_DIR.mkdirs();
 					
-					S3Object obj = s3.getObject(pointsetBucket, pointSetId + ".json.gz");
-					ObjectMetadata objMet = obj.getObjectMetadata();
-					FileOutputStream fos = new FileOutputStream(cachedFile);
-					GZIPInputStream gis = new GZIPInputStream(obj.getObjectContent());
+					// Fetch the object before creating any file, and only move the copy into the cache once it is
+					// complete, so that a failure does not leave a truncated point set behind.
+					InputStream objectStream = store.getObject(pointsetBucket, pointSetId + ".json.gz");
+					Path tempFile = null;
 					try {
-						ByteStreams.copy(gis, fos);
+						tempFile = Files.createTempFile(POINT_DIR.toPath(), pointSetId, ".json.tmp");
+						Files.copy(new GZIPInputStream(objectStream), tempFile, StandardCopyOption.REPLACE_EXISTING);
+						Files.move(tempFile, cachedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE);
 					} finally {
-						fos.close();
-						gis.close();
+						objectStream.close();
+						if (tempFile != null) {
+							Files.deleteIfExists(tempFile);
+						}
 					}
 				}
 			}
@@ -157,7 +156,7 @@ public class PointSetDatastore extends PointSetCache {
 
 	@Override
 	public List<String> getPointSetIds() {
-		// we have no clue what is in the S3 bucket.
-		throw new UnsupportedOperationException("S3-backed point set datastore does not know what pointsets are available.");
+		// we have no clue what is in the bucket.
+		throw new UnsupportedOperationException("Object store backed point set datastore does not know what pointsets are available.");
 	}
 }
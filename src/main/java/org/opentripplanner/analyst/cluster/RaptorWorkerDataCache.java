@@ -0,0 +1,138 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerTimetable;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches the compacted RAPTOR tables (RaptorWorkerData) built for profile requests, so that all requests on the same
+ * graph with the same time window, scenario and destinations share one copy rather than rebuilding it. This covers
+ * both the tasks of a batch job and the stream of single-point requests made while exploring an analysis.
+ *
+ * The cache is bounded by the estimated memory used by the tables rather than by their number, as their size depends
+ * on the extent of the graph and on the point set.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    private final Cache<Key, RaptorWorkerData> cache;
+
+    /** @param maxMegabytes the maximum estimated size of all the cached tables together. */
+    public RaptorWorkerDataCache (long maxMegabytes) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMegabytes * 1024)
+                // weigh in kilobytes, as weights are ints
+                .weigher((Key key, RaptorWorkerData data) -> (int) Math.min(Integer.MAX_VALUE,
+                        data.estimateSizeBytes() / 1024 + 1))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the RAPTOR tables for the given request, building them if they are not cached, and record whether they
+     * were in the task statistics.
+     * @param graphId the ID of the graph, which must not be rebuilt under the same ID.
+     * @param pointSetId the ID of the destination point set, or null if the request is for isochrones.
+     * @param scenarioFingerprint a representation of the scenario modifications of the request (e.g. their JSON), so
+     *                            that a scenario which is edited without changing its ID is not served stale tables.
+     */
+    public RaptorWorkerData get (String graphId, String pointSetId, String scenarioFingerprint, ProfileRequest request,
+            Graph graph, SampleSet sampleSet, TaskStatistics ts) {
+        Key key = new Key(graphId, pointSetId, scenarioFingerprint, request);
+        boolean[] built = new boolean[1];
+        RaptorWorkerData data;
+        try {
+            data = cache.get(key, () -> {
+                built[0] = true;
+                return RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+            });
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+        CacheStats stats = cache.stats();
+        ts.raptorDataCacheHit = !built[0];
+        ts.raptorDataCacheHitCount = stats.hitCount();
+        ts.raptorDataCacheMissCount = stats.missCount();
+        if (built[0]) {
+            LOG.info("Built RAPTOR data for graph {}, {} cached tables use about {} MB", graphId, cache.size(),
+                    totalWeight() / 1024);
+        }
+        return data;
+    }
+
+    public CacheStats getStats () {
+        return cache.stats();
+    }
+
+    /** @return the sum of the weights of the cached tables, in kilobytes. */
+    private long totalWeight () {
+        long weight = 0;
+        for (RaptorWorkerData data : cache.asMap().values()) {
+            weight += data.estimateSizeBytes() / 1024 + 1;
+        }
+        return weight;
+    }
+
+    /**
+     * Everything in a request that the RAPTOR tables depend on: the time window is given by the date and the range of
+     * departure times, and the stop trees by the walk speed and time.
+     */
+    private static class Key {
+        final String graphId;
+        final String pointSetId;
+        final Integer scenarioId;
+        final String scenarioFingerprint;
+        final LocalDate date;
+        final int fromTime;
+        final int toTime;
+        final RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+        final float walkSpeed;
+        final int maxWalkTime;
+
+        Key (String graphId, String pointSetId, String scenarioFingerprint, ProfileRequest request) {
+            this.graphId = graphId;
+            this.pointSetId = pointSetId;
+            this.scenarioId = request.scenario == null ? null : request.scenario.id;
+            this.scenarioFingerprint = scenarioFingerprint;
+            this.date = request.date;
+            this.fromTime = request.fromTime;
+            this.toTime = request.toTime;
+            this.boardingAssumption = request.boardingAssumption;
+            this.walkSpeed = request.walkSpeed;
+            this.maxWalkTime = request.maxWalkTime;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return fromTime == other.fromTime && toTime == other.toTime && walkSpeed == other.walkSpeed
+                    && maxWalkTime == other.maxWalkTime && boardingAssumption == other.boardingAssumption
+                    && Objects.equals(graphId, other.graphId) && Objects.equals(pointSetId, other.pointSetId)
+                    && Objects.equals(scenarioId, other.scenarioId)
+                    && Objects.equals(scenarioFingerprint, other.scenarioFingerprint)
+                    && Objects.equals(date, other.date);
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(graphId, pointSetId, scenarioId, scenarioFingerprint, date, fromTime, toTime,
+                    boardingAssumption, walkSpeed, maxWalkTime);
+        }
+    }
+
+}
@@ -1,7 +1,12 @@
 package org.opentripplanner.analyst.cluster;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import org.opentripplanner.analyst.ResultSet;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -64,6 +69,9 @@ public class ResultEnvelope implements Serializable {
 	
 	/** The ID of the shapefile/pointset from whence this result envelope came */
 	public String destinationPointsetId;
+
+	/** Written at the start of the binary format, to be incremented whenever that format changes. */
+	public static final int BINARY_FORMAT_VERSION = 2;
 	
 	public ResultSet get (Which key) {
 		switch (key) {
@@ -132,6 +140,59 @@ public class ResultEnvelope implements Serializable {
 		return exploded;
 	}
 	
+	/**
+	 * Write this envelope to the given stream in a compact binary form, as an alternative to serializing it with
+	 * Jackson. The stream starts with BINARY_FORMAT_VERSION, followed by the ids, the profile flag and, for each
+	 * value of Which in order, a presence flag and the ResultSet as written by ResultSet.writeBinary(). Everything is
+	 * written with protobuf varints, so a reader in another language only needs a protobuf runtime.
+	 * Isochrones cannot be written in this format, callers should use JSON when hasIsochrones() is true.
+	 */
+	public void writeBinary (OutputStream outputStream) throws IOException {
+		CodedOutputStream out = CodedOutputStream.newInstance(outputStream);
+		out.writeUInt32NoTag(BINARY_FORMAT_VERSION);
+		ResultSet.writeString(out, id);
+		ResultSet.writeString(out, jobId);
+		ResultSet.writeString(out, destinationPointsetId);
+		out.writeBoolNoTag(profile);
+		for (Which which : Which.values()) {
+			ResultSet resultSet = get(which);
+			out.writeBoolNoTag(resultSet != null);
+			if (resultSet != null)
+				resultSet.writeBinary(out);
+		}
+		out.flush();
+	}
+
+	/** Read an envelope written by writeBinary(). */
+	public static ResultEnvelope readBinary (InputStream inputStream) throws IOException {
+		CodedInputStream in = CodedInputStream.newInstance(inputStream);
+		// Times to every point of a large regional pointset can exceed the default limit of 64MB.
+		in.setSizeLimit(Integer.MAX_VALUE);
+		int version = in.readUInt32();
+		if (version != BINARY_FORMAT_VERSION)
+			throw new IOException("Unsupported binary result format version " + version);
+		ResultEnvelope envelope = new ResultEnvelope();
+		envelope.id = ResultSet.readString(in);
+		envelope.jobId = ResultSet.readString(in);
+		envelope.destinationPointsetId = ResultSet.readString(in);
+		envelope.profile = in.readBool();
+		for (Which which : Which.values()) {
+			if (in.readBool())
+				envelope.put(which, ResultSet.readBinary(in));
+		}
+		return envelope;
+	}
+
+	/** @return true if any of the contained result sets has isochrones, which only the JSON format can carry. */
+	public boolean hasIsochrones () {
+		for (Which which : Which.values()) {
+			ResultSet resultSet = get(which);
+			if (resultSet != null && resultSet.hasIsochrones())
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Build an empty result envelope.
 	 */
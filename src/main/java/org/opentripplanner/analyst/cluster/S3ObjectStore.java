@@ -0,0 +1,86 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An object store on Amazon S3. S3 clients are threadsafe, so one instance can be shared by all threads.
+ */
+public class S3ObjectStore implements ObjectStore {
+
+    private final AmazonS3 s3;
+
+    public S3ObjectStore () {
+        this((String) null);
+    }
+
+    /**
+     * Use the credentials in the given file, or if it is null the default credentials chain. This will first check
+     * for credentials in environment variables or ~/.aws/credentials, then fall back on S3 credentials propagated to
+     * EC2 instances via IAM roles.
+     */
+    public S3ObjectStore (String s3CredentialsFilename) {
+        if (s3CredentialsFilename != null) {
+            AWSCredentials creds = new ProfileCredentialsProvider(s3CredentialsFilename, "default").getCredentials();
+            s3 = new AmazonS3Client(creds);
+        } else {
+            s3 = new AmazonS3Client();
+        }
+    }
+
+    public S3ObjectStore (AmazonS3 s3) {
+        this.s3 = s3;
+    }
+
+    @Override
+    public InputStream getObject (String bucket, String key) throws IOException {
+        try {
+            return s3.getObject(bucket, key).getObjectContent();
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404) {
+                throw new FileNotFoundException(bucket + "/" + key);
+            }
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean exists (String bucket, String key) {
+        try {
+            s3.getObjectMetadata(bucket, key);
+            return true;
+        } catch (AmazonServiceException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void putObject (String bucket, String key, InputStream content) throws IOException {
+        try {
+            s3.putObject(bucket, key, content, new ObjectMetadata());
+        } catch (AmazonServiceException e) {
+            throw new IOException(e);
+        } finally {
+            content.close();
+        }
+    }
+
+    @Override
+    public void putObject (String bucket, String key, File file) throws IOException {
+        try {
+            s3.putObject(bucket, key, file);
+        } catch (AmazonServiceException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
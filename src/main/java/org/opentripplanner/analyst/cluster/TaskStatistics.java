@@ -37,6 +37,15 @@ public class TaskStatistics implements Serializable{
     /** time to make raptor data (milliseconds) */
     public int raptorData;
 
+    /** were the RAPTOR data reused from the cache rather than built for this task */
+    public boolean raptorDataCacheHit;
+
+    /** number of RAPTOR data cache hits on this worker so far, including this task */
+    public long raptorDataCacheHitCount;
+
+    /** number of RAPTOR data cache misses on this worker so far, including this task */
+    public long raptorDataCacheMissCount;
+
     /** number of discrete times (e.g. minutes) for which a RAPTOR search was performed */
     public int searchCount;
 
@@ -49,9 +58,15 @@ public class TaskStatistics implements Serializable{
     /** was this an isochrone request */
     public boolean isochrone = false;
 
-    /** total processing time, including fetching and pushing results, in milliseconds */
+    /**
+     * total processing time, including fetching inputs and encoding results, in milliseconds. Results saved to the
+     * object store are uploaded after this, see upload.
+     */
     public int total = -1;
 
+    /** milliseconds spent saving the results to the object store, not including the wait for an upload thread */
+    public int upload = -1;
+
     /** number of stops used in search (i.e. number of stops that had service on this day) */
     public int stopCount = -1;
 
@@ -353,6 +353,10 @@ public abstract class RoutingResource {
     @QueryParam("disableAlertFiltering")
     private Boolean disableAlertFiltering;
 
+    /** If true, transit itineraries are found by a multi-criteria RAPTOR search instead of A* where possible. */
+    @QueryParam("mcRaptor")
+    private Boolean mcRaptor;
+
     /* 
      * somewhat ugly bug fix: the graphService is only needed here for fetching per-graph time zones. 
      * this should ideally be done when setting the routing context, but at present departure/
@@ -579,6 +583,9 @@ public abstract class RoutingResource {
         if (disableAlertFiltering != null)
             request.disableAlertFiltering = disableAlertFiltering;
 
+        if (mcRaptor != null)
+            request.mcRaptor = mcRaptor;
+
         //getLocale function returns defaultLocale if locale is null
         request.locale = ResourceBundleSingleton.INSTANCE.getLocale(locale);
         return request;
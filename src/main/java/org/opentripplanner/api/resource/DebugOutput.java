@@ -17,6 +17,7 @@ import java.util.List;
 
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,6 +83,12 @@ public class DebugOutput {
         computeSummary();
     }
 
+    /** @return true once the elapsed times have been calculated, when the response is complete. */
+    @JsonIgnore
+    public boolean isSummarized() {
+        return finishedRendering != 0;
+    }
+
     /** Summarize and calculate elapsed times. */
     private void computeSummary() {
         precalculationTime = finishedPrecalculating - startedCalculating;
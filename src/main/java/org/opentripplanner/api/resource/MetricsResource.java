@@ -0,0 +1,74 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.monitoring.MetricsText;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Report routing latency and search effort for all routers in the Prometheus text format, so that a monitoring
+ * system can scrape them. See RoutingMetrics.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    @Context
+    OTPServer otpServer;
+
+    @GET
+    @Produces(MetricsText.CONTENT_TYPE)
+    public String getMetrics() {
+        Map<String, RoutingMetrics> metrics = new LinkedHashMap<>();
+        Map<String, Double> snapshotAges = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (String routerId : new TreeSet<>(otpServer.getRouterIds())) {
+            Router router;
+            try {
+                router = otpServer.getRouter(routerId);
+            } catch (GraphNotFoundException e) {
+                // The router was evicted since we listed the IDs.
+                continue;
+            }
+            String labels = MetricsText.label("router", routerId);
+            metrics.put(labels, router.metrics);
+            TimetableSnapshotSource snapshotSource = router.graph.timetableSnapshotSource;
+            if (snapshotSource != null && snapshotSource.getLastCommitTime() >= 0) {
+                snapshotAges.put(labels, (now - snapshotSource.getLastCommitTime()) / 1000.0);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        RoutingMetrics.write(sb, metrics);
+        if (!snapshotAges.isEmpty()) {
+            MetricsText.header(sb, "otp_realtime_snapshot_age_seconds", "gauge",
+                    "Time since the realtime timetable snapshot was last committed.");
+            for (Map.Entry<String, Double> entry : snapshotAges.entrySet()) {
+                MetricsText.sample(sb, "otp_realtime_snapshot_age_seconds", entry.getKey(), entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+}
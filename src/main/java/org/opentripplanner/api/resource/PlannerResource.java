@@ -18,6 +18,7 @@ import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.api.model.Itinerary;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.impl.GraphPathFinder;
 import org.opentripplanner.routing.spt.GraphPath;
@@ -81,6 +82,7 @@ public class PlannerResource extends RoutingResource {
             /* Fill in request fields from query parameters via shared superclass method, catching any errors. */
             request = super.buildRequest();
             router = otpServer.getRouter(request.routerId);
+            router.requestSample.record(request);
 
             /* Find some good GraphPaths through the OTP Graph. */
             GraphPathFinder gpFinder = new GraphPathFinder(router); // we could also get a persistent router-scoped GraphPathFinder but there's no setup cost here
@@ -99,6 +101,13 @@ public class PlannerResource extends RoutingResource {
             if (request != null) {
                 if (request.rctx != null) {
                     response.debugOutput = request.rctx.debugOutput;
+                    if (router != null) {
+                        RoutingContext rctx = request.rctx;
+                        DebugOutput debug = rctx.debugOutput;
+                        router.metrics.record(debug.isSummarized(), debug.precalculationTime,
+                                debug.pathCalculationTime, debug.renderingTime, rctx.visitedVertices,
+                                rctx.queuePeakSize, rctx.aborted);
+                    }
                 }
                 request.cleanup(); // TODO verify that this cleanup step is being done on Analyst web services
             }
@@ -55,6 +55,7 @@ public class ProfileResource {
             @QueryParam("from")  LatLon from,
             @QueryParam("to")    LatLon to,
             @QueryParam("analyst")      @DefaultValue("false") boolean analyst,
+            @QueryParam("raptor")       @DefaultValue("false") boolean raptor, // options from RAPTOR paths
             @QueryParam("date")         @DefaultValue("today") YearMonthDay date,
             @QueryParam("startTime")    @DefaultValue("07:30") HourMinuteSecond fromTime,
             @QueryParam("endTime")      @DefaultValue("08:30") HourMinuteSecond toTime,
@@ -146,7 +147,7 @@ public class ProfileResource {
         } else {
             ProfileRouter router = new ProfileRouter(graph, req);
             try {
-                ProfileResponse response = router.route();
+                ProfileResponse response = raptor ? router.routeRaptor() : router.route();
                 return Response.status(Status.OK).entity(response).build();
             } catch (Throwable throwable) {
                 LOG.error("Exception caught in profile routing", throwable);
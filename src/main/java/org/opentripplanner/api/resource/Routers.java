@@ -169,13 +169,20 @@ public class Routers {
      * @param preEvict before reloading each graph, evict the existing graph. This will prevent 
      * memory usage from increasing during the reload, but routing will be unavailable on this 
      * routerId for the duration of the operation.
+     * @param background reload an already registered graph on a background thread and return immediately. The
+     * current graph is not pre-evicted, it keeps serving requests until the new one is loaded and warmed up.
      */
     @RolesAllowed({ "ROUTERS" })
     @PUT @Path("{routerId}") @Produces({ MediaType.TEXT_PLAIN })
     public Response putGraphId(@PathParam("routerId") String routerId,
-            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict) {
+            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict,
+            @QueryParam("background") @DefaultValue("false") boolean background) {
         LOG.debug("Attempting to load graph '{}' from server's local filesystem.", routerId);
         GraphService graphService = otpServer.getGraphService();
+        if (background && graphService.getRouterIds().contains(routerId)) {
+            graphService.reloadGraphInBackground(routerId, false);
+            return Response.status(202).entity("graph already registered, reloading in the background.\n").build();
+        }
         if (graphService.getRouterIds().contains(routerId)) {
             boolean success = graphService.reloadGraph(routerId, preEvict, false);
             if (success)
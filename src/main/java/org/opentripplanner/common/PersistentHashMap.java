@@ -0,0 +1,372 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * A hash map stored as a hash array mapped trie: each level of the tree is indexed by the next five bits of the key
+ * hashes, and only holds slots for the bits that are in use. Its point is that an immutable snapshot of the map can
+ * be taken in constant time, sharing the whole tree with the map it was taken from.
+ *
+ * A writable map modifies in place the tree nodes it created since its last snapshot. The first time a change reaches
+ * a node that is shared with a snapshot, that node and the nodes on its path from the root are copied instead. A map
+ * that changes a few keys between snapshots therefore only copies a few short paths per snapshot, rather than the
+ * whole table as cloning a HashMap would.
+ *
+ * Like HashMap this class is not thread-safe, but snapshots are never modified and can be read from any number of
+ * threads once they have been safely published. Null keys are not supported.
+ */
+public class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** The nodes this map may modify in place, or null if this map is a read-only snapshot. */
+    private Object owner;
+
+    /** The root of the tree, or null if the map is empty. */
+    private Node root;
+
+    private int size;
+
+    /** Results of the last recursive put or remove, as the recursion returns the modified node. */
+    private boolean found;
+    private Object foundValue;
+
+    public PersistentHashMap() {
+        owner = new Object();
+    }
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isReadOnly() {
+        return owner == null;
+    }
+
+    /** @return the value for the given key, or null if there is none. */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while (node != null) {
+            if (shift >= Integer.SIZE) {
+                int index = node.collisionIndex(key, hash);
+                return index < 0 ? null : (V) ((Entry) node.slots[index]).value;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[node.index(bit)];
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                return entry.matches(key, hash) ? (V) entry.value : null;
+            }
+            node = (Node) slot;
+            shift += BITS;
+        }
+        return null;
+    }
+
+    /** @return the value previously held for the given key, or null if there was none. */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        checkWritable();
+        Entry entry = new Entry(key, value, hash(key));
+        found = false;
+        foundValue = null;
+        root = root == null ? new Node(owner, 1 << (entry.hash & MASK), new Object[] { entry }) : put(root, 0, entry);
+        if (!found) {
+            size += 1;
+        }
+        V previous = (V) foundValue;
+        foundValue = null;
+        return previous;
+    }
+
+    /** @return the value that was held for the given key, or null if there was none. */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        checkWritable();
+        if (root == null) {
+            return null;
+        }
+        found = false;
+        foundValue = null;
+        root = remove(root, 0, key, hash(key));
+        if (found) {
+            size -= 1;
+        }
+        V previous = (V) foundValue;
+        foundValue = null;
+        return previous;
+    }
+
+    /**
+     * Remove all the mappings that satisfy the given predicate.
+     * @return true if any mapping was removed
+     */
+    public boolean removeIf(BiPredicate<? super K, ? super V> predicate) {
+        checkWritable();
+        List<K> toRemove = new ArrayList<>();
+        forEach((key, value) -> {
+            if (predicate.test(key, value)) {
+                toRemove.add(key);
+            }
+        });
+        for (K key : toRemove) {
+            remove(key);
+        }
+        return !toRemove.isEmpty();
+    }
+
+    /** Call the given action on every mapping, in no particular order. The map must not be changed meanwhile. */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            forEach(root, action);
+        }
+    }
+
+    /** @return a list of all the keys of this map, in no particular order. */
+    public List<K> keys() {
+        List<K> keys = new ArrayList<>(size);
+        forEach((key, value) -> keys.add(key));
+        return keys;
+    }
+
+    /**
+     * @return an immutable copy of this map, which shares all of its nodes with this map. From now on this map copies
+     * the nodes it changes, so that the snapshot is unaffected.
+     */
+    public PersistentHashMap<K, V> snapshot() {
+        checkWritable();
+        owner = new Object();
+        return new PersistentHashMap<>(root, size);
+    }
+
+    private void checkWritable() {
+        if (owner == null) {
+            throw new UnsupportedOperationException("This map is a read-only snapshot.");
+        }
+    }
+
+    /** Spread the higher bits of the hash code, which decide the deepest levels of the tree, as HashMap does. */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(Node node, BiConsumer<? super K, ? super V> action) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                action.accept((K) entry.key, (V) entry.value);
+            } else {
+                forEach((Node) slot, action);
+            }
+        }
+    }
+
+    /** @return the node to use in place of the given one, which is the given node itself if it could be modified. */
+    private Node put(Node node, int shift, Entry entry) {
+        if (shift >= Integer.SIZE) {
+            // All the hash bits have been used up: the entries of this node have the same hash and are searched in turn.
+            int index = node.collisionIndex(entry.key, entry.hash);
+            if (index >= 0) {
+                found = true;
+                foundValue = ((Entry) node.slots[index]).value;
+                return node.withSlot(owner, index, entry);
+            }
+            return node.withInsertedSlot(owner, node.slots.length, 0, entry);
+        }
+        int bit = 1 << ((entry.hash >>> shift) & MASK);
+        int index = node.index(bit);
+        if ((node.bitmap & bit) == 0) {
+            return node.withInsertedSlot(owner, index, bit, entry);
+        }
+        Object slot = node.slots[index];
+        if (slot instanceof Node) {
+            Node child = (Node) slot;
+            Node newChild = put(child, shift + BITS, entry);
+            return newChild == child ? node : node.withSlot(owner, index, newChild);
+        }
+        Entry existing = (Entry) slot;
+        if (existing.matches(entry.key, entry.hash)) {
+            found = true;
+            foundValue = existing.value;
+            return node.withSlot(owner, index, entry);
+        }
+        return node.withSlot(owner, index, pair(existing, entry, shift + BITS));
+    }
+
+    /** @return a new subtree holding the two given entries, whose hashes are the same up to the given shift. */
+    private Node pair(Entry a, Entry b, int shift) {
+        if (shift >= Integer.SIZE) {
+            return new Node(owner, 0, new Object[] { a, b });
+        }
+        int indexA = (a.hash >>> shift) & MASK;
+        int indexB = (b.hash >>> shift) & MASK;
+        if (indexA == indexB) {
+            return new Node(owner, 1 << indexA, new Object[] { pair(a, b, shift + BITS) });
+        }
+        return new Node(owner, (1 << indexA) | (1 << indexB),
+                indexA < indexB ? new Object[] { a, b } : new Object[] { b, a });
+    }
+
+    /** @return the node to use in place of the given one, or null if it no longer holds anything. */
+    private Node remove(Node node, int shift, Object key, int hash) {
+        if (shift >= Integer.SIZE) {
+            int index = node.collisionIndex(key, hash);
+            if (index < 0) {
+                return node;
+            }
+            found = true;
+            foundValue = ((Entry) node.slots[index]).value;
+            return node.slots.length == 1 ? null : node.withoutSlot(owner, index, 0);
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = node.index(bit);
+        Object slot = node.slots[index];
+        if (slot instanceof Node) {
+            Node child = (Node) slot;
+            Node newChild = remove(child, shift + BITS, key, hash);
+            if (newChild == child) {
+                return node;
+            }
+            if (newChild != null) {
+                // A lone entry moves up to this level, where its slot is already decided by its hash.
+                Object newSlot = newChild.slots.length == 1 && newChild.slots[0] instanceof Entry ?
+                        newChild.slots[0] : newChild;
+                return node.withSlot(owner, index, newSlot);
+            }
+        } else {
+            Entry existing = (Entry) slot;
+            if (!existing.matches(key, hash)) {
+                return node;
+            }
+            found = true;
+            foundValue = existing.value;
+        }
+        return node.slots.length == 1 ? null : node.withoutSlot(owner, index, bit);
+    }
+
+    /** A key and its value, which are never changed once stored in the tree. */
+    private static class Entry {
+
+        final Object key;
+
+        final Object value;
+
+        final int hash;
+
+        Entry(Object key, Object value, int hash) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        boolean matches(Object key, int hash) {
+            return this.hash == hash && Objects.equals(this.key, key);
+        }
+    }
+
+    /**
+     * A level of the tree. The slots hold entries or child nodes, in the order of the bits of the bitmap that are
+     * set. Nodes below the last level of hash bits have no bitmap and hold entries with the same hash in any order.
+     */
+    private static class Node {
+
+        /** The map that may modify this node in place. */
+        final Object owner;
+
+        int bitmap;
+
+        Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        int collisionIndex(Object key, int hash) {
+            for (int i = 0; i < slots.length; i++) {
+                if (((Entry) slots[i]).matches(key, hash)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Node withSlot(Object owner, int index, Object slot) {
+            if (slots[index] == slot) {
+                return this;
+            }
+            Node node = this.owner == owner ? this : new Node(owner, bitmap, slots.clone());
+            node.slots[index] = slot;
+            return node;
+        }
+
+        Node withInsertedSlot(Object owner, int index, int bit, Object slot) {
+            Object[] newSlots = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            newSlots[index] = slot;
+            System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+            return with(owner, bitmap | bit, newSlots);
+        }
+
+        Node withoutSlot(Object owner, int index, int bit) {
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+            return with(owner, bitmap & ~bit, newSlots);
+        }
+
+        private Node with(Object owner, int bitmap, Object[] slots) {
+            if (this.owner != owner) {
+                return new Node(owner, bitmap, slots);
+            }
+            this.bitmap = bitmap;
+            this.slots = slots;
+            return this;
+        }
+    }
+
+}
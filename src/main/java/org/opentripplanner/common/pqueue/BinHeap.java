@@ -15,7 +15,7 @@ package org.opentripplanner.common.pqueue;
 
 import java.util.Arrays;
 
-public class BinHeap<T> {
+public class BinHeap<T> implements OTPPriorityQueue<T> {
     
     private static final double GROW_FACTOR = 2.0;
     
@@ -0,0 +1,190 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * A d-ary min-heap that keeps track of where each indexed element is stored, so that it can replace a queued element
+ * and change its key in place (insert_or_dec_key) instead of queueing a second copy.
+ *
+ * Indices come from a function of the element, for instance the index of the vertex a State is at. At most one
+ * element per index is tracked. Elements added with insert() are not tracked and can coexist with a tracked element
+ * having the same index, which is what a search needs when several co-dominant states share a vertex.
+ *
+ * A wider heap than the binary heap makes the tree shallower, which speeds up insertions and decrease-key at the cost
+ * of more comparisons per level when extracting. Searches do many more of the former.
+ */
+public class IndexedDaryHeap<T> implements OTPPriorityQueue<T> {
+
+    public static final int DEFAULT_ARITY = 4;
+
+    private static final int UNTRACKED = -1;
+
+    private final int arity;
+
+    private final ToIntFunction<T> indexer;
+
+    private final int minIndex;
+
+    /* The heap, stored 0-based in parallel arrays. */
+    private double[] prio;
+    private T[] elem;
+    private int[] index;
+    private int size;
+
+    /** One plus the heap position of the tracked element for each index (less minIndex), or 0 if none is queued. */
+    private int[] position;
+
+    @SuppressWarnings("unchecked")
+    public IndexedDaryHeap(int arity, int capacity, ToIntFunction<T> indexer, int minIndex) {
+        if (arity < 2) throw new IllegalArgumentException("Heap arity must be at least 2.");
+        if (capacity < 10) capacity = 10;
+        this.arity = arity;
+        this.indexer = indexer;
+        this.minIndex = minIndex;
+        prio = new double[capacity];
+        elem = (T[]) new Object[capacity];
+        index = new int[capacity];
+        position = new int[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        return size > 0 ? elem[0] : null;
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        append(e, p, UNTRACKED);
+    }
+
+    @Override
+    public void insert_or_dec_key(T e, double p) {
+        int i = indexer.applyAsInt(e) - minIndex;
+        if (i < 0) {
+            append(e, p, UNTRACKED);
+            return;
+        }
+        if (i >= position.length) {
+            position = Arrays.copyOf(position, Math.max(i + 1, position.length * 2));
+        }
+        int pos = position[i] - 1;
+        if (pos < 0) {
+            append(e, p, i);
+            return;
+        }
+        // The queued element is replaced. Its key normally decreases, but we must also handle an increase since
+        // dominance is not always by key (e.g. earliest arrival dominance with weight keys).
+        elem[pos] = e;
+        if (p < prio[pos]) {
+            siftUp(pos, e, p, i);
+        } else {
+            siftDown(pos, e, p, i);
+        }
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        untrack(index[0]);
+        size -= 1;
+        if (size > 0) {
+            siftDown(0, elem[size], prio[size], index[size]);
+        }
+        elem[size] = null;
+        return minElem;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            untrack(index[i]);
+            elem[i] = null;
+        }
+        size = 0;
+    }
+
+    private void append(T e, double p, int i) {
+        if (size == prio.length) {
+            int capacity = prio.length * 2;
+            prio = Arrays.copyOf(prio, capacity);
+            elem = Arrays.copyOf(elem, capacity);
+            index = Arrays.copyOf(index, capacity);
+        }
+        size += 1;
+        siftUp(size - 1, e, p, i);
+    }
+
+    private void untrack(int i) {
+        if (i != UNTRACKED) position[i] = 0;
+    }
+
+    /** Move the hole at pos towards the root until the given element can be placed in it. */
+    private void siftUp(int pos, T e, double p, int i) {
+        while (pos > 0) {
+            int parent = (pos - 1) / arity;
+            if (prio[parent] <= p) break;
+            place(pos, elem[parent], prio[parent], index[parent]);
+            pos = parent;
+        }
+        place(pos, e, p, i);
+    }
+
+    /** Move the hole at pos towards the leaves until the given element can be placed in it. */
+    private void siftDown(int pos, T e, double p, int i) {
+        while (true) {
+            int first = pos * arity + 1;
+            if (first >= size) break;
+            int last = Math.min(first + arity, size);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (prio[c] < prio[child]) child = c;
+            }
+            if (prio[child] >= p) break;
+            place(pos, elem[child], prio[child], index[child]);
+            pos = child;
+        }
+        place(pos, e, p, i);
+    }
+
+    private void place(int pos, T e, double p, int i) {
+        elem[pos] = e;
+        prio[pos] = p;
+        index[pos] = i;
+        if (i != UNTRACKED) position[i] = pos + 1;
+    }
+
+}
@@ -0,0 +1,174 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A radix heap: a monotone priority queue on non-negative integer keys, where no key inserted may be smaller than the
+ * last key extracted. This holds for Dijkstra and A* with a consistent heuristic. Elements are kept in buckets
+ * according to the highest bit in which their key differs from the last extracted key, so inserting is constant time
+ * and each element is moved between buckets at most once per bit of the key.
+ *
+ * Double keys are rounded down to integers, so elements whose keys are less than one unit apart are extracted in
+ * arbitrary order. This is exact for searches with whole-second keys such as earliest arrival searches. Keys below
+ * the last extracted key, which only happen with inconsistent heuristics or with keys that are not monotone along a
+ * path, are treated as equal to it. Searches that accept improved states after a vertex was visited remain correct
+ * in that case, at the cost of some extra work.
+ */
+public class MonotoneRadixQueue<T> implements OTPPriorityQueue<T> {
+
+    /* Bucket 0 holds keys equal to the last extracted key, bucket b > 0 keys whose highest differing bit is b - 1. */
+    private static final int N_BUCKETS = 65;
+
+    private final Bucket<T>[] buckets;
+
+    private long lastKey = 0;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public MonotoneRadixQueue(int capacity) {
+        buckets = new Bucket[N_BUCKETS];
+        for (int b = 0; b < N_BUCKETS; b++) {
+            // Most elements sit in the low buckets.
+            buckets[b] = new Bucket<>(b < 16 ? Math.max(capacity / 8, 8) : 8);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size <= 0)
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+        Bucket<T> b = fillBucketZero();
+        return b.prio[b.size - 1];
+    }
+
+    @Override
+    public T peek_min() {
+        if (size <= 0)
+            return null;
+        Bucket<T> b = fillBucketZero();
+        return b.elem[b.size - 1];
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        long key = (long) Math.floor(p);
+        if (key < lastKey) key = lastKey;
+        buckets[bucketFor(key)].add(e, p, key);
+        size += 1;
+    }
+
+    @Override
+    public void insert_or_dec_key(T e, double p) {
+        throw new UnsupportedOperationException("MonotoneRadixQueue has no decrease key operation.");
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        Bucket<T> b = fillBucketZero();
+        size -= 1;
+        return b.removeLast();
+    }
+
+    @Override
+    public void reset() {
+        for (Bucket<T> b : buckets) {
+            b.clear();
+        }
+        size = 0;
+        lastKey = 0;
+    }
+
+    private int bucketFor(long key) {
+        return key == lastKey ? 0 : 64 - Long.numberOfLeadingZeros(key ^ lastKey);
+    }
+
+    /**
+     * Make sure bucket 0 is not empty, by advancing lastKey to the smallest key in the lowest non-empty bucket and
+     * redistributing that bucket. All its elements land in lower buckets. The queue must not be empty.
+     */
+    private Bucket<T> fillBucketZero() {
+        Bucket<T> zero = buckets[0];
+        if (zero.size > 0) return zero;
+        int b = 1;
+        while (buckets[b].size == 0) b++;
+        Bucket<T> bucket = buckets[b];
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < bucket.size; i++) {
+            min = Math.min(min, bucket.key[i]);
+        }
+        lastKey = min;
+        for (int i = 0; i < bucket.size; i++) {
+            buckets[bucketFor(bucket.key[i])].add(bucket.elem[i], bucket.prio[i], bucket.key[i]);
+        }
+        bucket.clear();
+        return zero;
+    }
+
+    /** An unordered growable list of elements with their original and integer keys. */
+    private static class Bucket<T> {
+
+        T[] elem;
+        double[] prio;
+        long[] key;
+        int size;
+
+        @SuppressWarnings("unchecked")
+        Bucket(int capacity) {
+            elem = (T[]) new Object[capacity];
+            prio = new double[capacity];
+            key = new long[capacity];
+        }
+
+        void add(T e, double p, long k) {
+            if (size == elem.length) {
+                int capacity = elem.length * 2;
+                elem = Arrays.copyOf(elem, capacity);
+                prio = Arrays.copyOf(prio, capacity);
+                key = Arrays.copyOf(key, capacity);
+            }
+            elem[size] = e;
+            prio[size] = p;
+            key[size] = k;
+            size++;
+        }
+
+        T removeLast() {
+            size--;
+            T e = elem[size];
+            elem[size] = null;
+            return e;
+        }
+
+        void clear() {
+            Arrays.fill(elem, 0, size, null);
+            size = 0;
+        }
+    }
+
+}
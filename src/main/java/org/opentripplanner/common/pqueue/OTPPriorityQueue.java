@@ -0,0 +1,51 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+/**
+ * A min-priority queue of elements with double keys. Method names follow the historical BinHeap API.
+ *
+ * Implementations differ in whether they support decrease-key (see insert_or_dec_key) and in how strictly they order
+ * elements with nearly equal keys. Searches built on them must tolerate stale entries (elements that were dominated
+ * after being inserted), which is the case for all OTP searches since they check States against the ShortestPathTree
+ * when they are extracted.
+ */
+public interface OTPPriorityQueue<T> {
+
+    int size();
+
+    boolean empty();
+
+    /** @return the key of the minimum element. Throws IllegalStateException if the queue is empty. */
+    double peek_min_key();
+
+    /** @return the minimum element, or null if the queue is empty. */
+    T peek_min();
+
+    /** Add an element to the queue, even if an element with the same index is already queued. */
+    void insert(T e, double p);
+
+    /**
+     * Add an element to the queue, replacing any queued element with the same index and giving it the new key.
+     * Implementations that do not index their elements throw UnsupportedOperationException.
+     */
+    void insert_or_dec_key(T e, double p);
+
+    /** Remove and return the minimum element, or return null if the queue is empty. */
+    T extract_min();
+
+    /** Empty the queue in one operation, keeping its storage for reuse. */
+    void reset();
+
+}
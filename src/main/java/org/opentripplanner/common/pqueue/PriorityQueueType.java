@@ -0,0 +1,59 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * The priority queue implementations that can be selected for a search, for instance in RoutingRequest.
+ */
+public enum PriorityQueueType {
+
+    /** Binary heap without decrease-key. Dominated states stay in the queue until they are extracted. */
+    BINARY_HEAP,
+
+    /**
+     * Indexed 4-ary heap with decrease-key. With single-state dominance functions a dominated state is replaced
+     * in the queue rather than left there, so the queue stays no larger than the search frontier.
+     */
+    INDEXED_DARY_HEAP,
+
+    /**
+     * Monotone radix heap on keys rounded down to integers. Cheapest for searches whose keys are whole seconds
+     * (earliest arrival); with fractional keys elements less than one unit apart come out in arbitrary order.
+     */
+    RADIX;
+
+    /**
+     * @param capacity initial capacity, the queues grow as needed.
+     * @param indexer gives the index of an element for decrease-key, only used by indexed queues.
+     * @param minIndex smallest index returned by the indexer, used to keep index arrays small.
+     */
+    public <T> OTPPriorityQueue<T> create(int capacity, ToIntFunction<T> indexer, int minIndex) {
+        switch (this) {
+            case INDEXED_DARY_HEAP:
+                return new IndexedDaryHeap<>(IndexedDaryHeap.DEFAULT_ARITY, capacity, indexer, minIndex);
+            case RADIX:
+                return new MonotoneRadixQueue<>(capacity);
+            default:
+                return new BinHeap<>(capacity);
+        }
+    }
+
+    /** @return whether queues of this type implement insert_or_dec_key. */
+    public boolean supportsDecreaseKey() {
+        return this == INDEXED_DARY_HEAP;
+    }
+
+}
@@ -16,9 +16,11 @@ package org.opentripplanner.graph_builder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.graph_builder.module.LandmarkModule;
 import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
 import org.opentripplanner.graph_builder.module.StreetLinkerModule;
 import org.opentripplanner.graph_builder.module.TransitToTaggedStopsModule;
@@ -36,6 +38,7 @@ import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderI
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.BinaryGraphFormat;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.standalone.CommandLineParameters;
@@ -79,6 +82,12 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** Should the graph be saved in the binary format (see BinaryGraphFormat) rather than with Java serialization? */
+    public boolean binaryGraph = false;
+
+    /** Should derived indexes be saved with a binary graph rather than rebuilt when it is loaded? */
+    public boolean precomputeIndexes = false;
+
     public void addModule(GraphBuilderModule loader) {
         _graphBuilderModules.add(loader);
     }
@@ -159,7 +168,11 @@ public class GraphBuilder implements Runnable {
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                if (binaryGraph) {
+                    BinaryGraphFormat.save(graph, graphFile, precomputeIndexes);
+                } else {
+                    graph.save(graphFile);
+                }
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -307,11 +320,19 @@ public class GraphBuilder implements Runnable {
                 graphBuilder.addModule(new DirectTransferGenerator());
             }
         }
+        if (hasOSM && builderParams.landmarks > 0) {
+            graphBuilder.addModule(new LandmarkModule(builderParams.landmarks));
+        }
+        if (hasOSM && !builderParams.contractionHierarchies.isEmpty()) {
+            graphBuilder.addModule(new ContractionHierarchyModule(builderParams.contractionHierarchies));
+        }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
         if (builderParams.htmlAnnotations) {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.binaryGraph = builderParams.binaryGraph;
+        graphBuilder.precomputeIndexes = builderParams.precomputeIndexes;
         return graphBuilder;
     }
 
@@ -0,0 +1,115 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.opentripplanner.routing.graph.BinaryGraphFormat;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+
+/**
+ * Compares the time and heap needed to load a graph saved with Java serialization and in the binary format (see
+ * BinaryGraphFormat). The given graph, in either format, is saved in both formats in a temporary directory, then each
+ * copy is loaded several times, alternating between formats.
+ *
+ * Peak heap is the sum of the peak usage of the heap memory pools, reset before each load. Pools peak at different
+ * times so this overestimates the true peak, but the same way for both formats. Run with a fixed heap size and a
+ * single collector for comparable numbers, e.g. java -Xms8G -Xmx8G -XX:+UseParallelGC.
+ */
+public class GraphLoadBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphLoadBenchmark.class);
+
+    @Parameter(names = { "-h", "--help"}, description = "Print this help message and exit", help = true)
+    private boolean help;
+
+    @Parameter(names = { "-g", "--graph"}, description = "path to the graph file", required = true)
+    private String graphPath;
+
+    @Parameter(names = { "-r", "--runs"}, description = "number of loads of each format")
+    private int runs = 3;
+
+    public static void main(String[] args) throws Exception {
+        GraphLoadBenchmark benchmark = new GraphLoadBenchmark();
+        JCommander jc = new JCommander(benchmark);
+        try {
+            jc.parse(args);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (benchmark.help) {
+            jc.usage();
+            System.exit(0);
+        }
+        benchmark.run();
+    }
+
+    private void run() throws Exception {
+        File dir = Files.createTempDirectory("otp-graph-benchmark").toFile();
+        File javaFile = new File(dir, "Graph.obj");
+        File binaryFile = new File(dir, "Graph.bin");
+        Graph graph = Graph.load(new File(graphPath), LoadLevel.FULL);
+        graph.save(javaFile);
+        BinaryGraphFormat.save(graph, binaryFile);
+        graph = null;
+        System.out.printf("Java serialization: %,d bytes, binary: %,d bytes%n", javaFile.length(),
+                binaryFile.length());
+        try {
+            for (int r = 0; r < runs; r++) {
+                measure("java", javaFile);
+                measure("binary", binaryFile);
+            }
+        } finally {
+            javaFile.delete();
+            binaryFile.delete();
+            dir.delete();
+        }
+    }
+
+    private void measure(String format, File file) throws Exception {
+        System.gc();
+        long before = heapUsed();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        Graph graph = Graph.load(file, LoadLevel.FULL);
+        long elapsed = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        System.gc();
+        long retained = heapUsed() - before;
+        LOG.debug("Loaded {} vertices.", graph.countVertices());
+        System.out.printf("%-6s load %6.2f s, peak heap %,6d MB, retained heap %,6d MB%n", format, elapsed / 1e9,
+                (peak - before) / 1000000, retained / 1000000);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
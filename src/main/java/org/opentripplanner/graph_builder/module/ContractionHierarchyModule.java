@@ -0,0 +1,62 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.ch.ContractionHierarchy;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build contraction hierarchies over the street network for fast street-only car and bicycle searches. Each
+ * hierarchy is built for the default routing options of its mode, and is only used for requests with the same
+ * options and no turn costs (a turnReluctance of zero, or a zero ConstantIntersectionTraversalCostModel), see
+ * ContractionHierarchy.matches(). This must run after all modules that add or remove street vertices and edges.
+ */
+public class ContractionHierarchyModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyModule.class);
+
+    private final List<TraverseMode> modes;
+
+    public ContractionHierarchyModule(List<TraverseMode> modes) {
+        this.modes = modes;
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        graph.contractionHierarchies = new ArrayList<>();
+        for (TraverseMode mode : modes) {
+            LOG.info("Building {} contraction hierarchy for street searches...", mode);
+            graph.contractionHierarchies.add(
+                    ContractionHierarchy.build(graph.getVertices(), ContractionHierarchy.defaultProfile(mode)));
+        }
+    }
+
+    @Override
+    public void checkInputs() {
+        for (TraverseMode mode : modes) {
+            if (mode != TraverseMode.CAR && mode != TraverseMode.BICYCLE) {
+                throw new IllegalArgumentException("Contraction hierarchies are only supported for CAR and BICYCLE.");
+            }
+        }
+    }
+
+}
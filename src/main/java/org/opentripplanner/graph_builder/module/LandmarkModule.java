@@ -0,0 +1,58 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import java.util.HashMap;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTables;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precompute landmark distance tables for the landmark (ALT) remaining weight heuristic used in car and bicycle
+ * searches. This must run after all modules that add or remove street vertices and edges.
+ *
+ * Each landmark costs four floats per street vertex, so the default of 16 landmarks adds 256 bytes per street vertex
+ * to the graph.
+ */
+public class LandmarkModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkModule.class);
+
+    public static final int DEFAULT_LANDMARKS = 16;
+
+    private final int nLandmarks;
+
+    public LandmarkModule(int nLandmarks) {
+        this.nLandmarks = nLandmarks;
+    }
+
+    public LandmarkModule() {
+        this(DEFAULT_LANDMARKS);
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Computing landmark tables for goal-directed street searches...");
+        graph.landmarks = new LandmarkTables(graph.getVertices(), nLandmarks);
+    }
+
+    @Override
+    public void checkInputs() {
+        if (nLandmarks < 1) throw new IllegalArgumentException("At least one landmark is required.");
+    }
+
+}
@@ -12,6 +12,7 @@ import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.routing.algorithm.EarliestArrivalSearch;
+import org.opentripplanner.routing.compact.CompactStreetSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -124,6 +125,10 @@ public class NearbyStopFinder {
      */
     public List<StopAtDistance> findNearbyStopsViaStreets (Vertex originVertex) {
 
+        if (graph.compactStreetGraph != null) {
+            return findNearbyStopsViaCompactStreets(originVertex);
+        }
+
         RoutingRequest routingRequest = new RoutingRequest(TraverseMode.WALK);
         routingRequest.clampInitialWait = (0L);
         routingRequest.setRoutingContext(graph, originVertex, null);
@@ -149,6 +154,29 @@ public class NearbyStopFinder {
 
     }
 
+    /**
+     * The same as findNearbyStopsViaStreets, but searching over the primitive arrays of the graph's CompactStreetGraph.
+     * If the origin vertex is a TransitStop, the result will include it.
+     */
+    public List<StopAtDistance> findNearbyStopsViaCompactStreets (Vertex originVertex) {
+        RoutingRequest routingRequest = new RoutingRequest(TraverseMode.WALK);
+        CompactStreetSearch search = new CompactStreetSearch(graph.compactStreetGraph, routingRequest);
+        search.earliestArrival = true;
+        search.useLinks = true;
+        search.maxDurationSeconds = earliestArrivalSearch.maxDuration;
+        search.search(originVertex, null);
+
+        List<StopAtDistance> stopsFound = Lists.newArrayList();
+        for (TransitStop stop : search.getReachedVertices(TransitStop.class)) {
+            if (stop == originVertex) continue;
+            stopsFound.add(stopAtDistanceForEdges(stop, search.getPathEdges(stop)));
+        }
+        if (originVertex instanceof TransitStop) {
+            stopsFound.add(new StopAtDistance((TransitStop)originVertex, 0));
+        }
+        return stopsFound;
+    }
+
     /**
      * Return all stops within a certain radius of the given vertex, using straight-line distance independent of streets.
      * If the origin vertex is a TransitStop, the result will include it.
@@ -200,10 +228,18 @@ public class NearbyStopFinder {
      * TODO this should probably be merged with similar classes in Profile routing.
      */
     public static StopAtDistance stopAtDistanceForState (State state) {
-        double distance = 0.0;
         GraphPath graphPath = new GraphPath(state, false);
+        return stopAtDistanceForEdges((TransitStop) state.getVertex(), graphPath.edges);
+    }
+
+    /**
+     * Bundle the TransitStop together with the distance and geometry of the given forward sequence of edges leading
+     * up to it.
+     */
+    public static StopAtDistance stopAtDistanceForEdges (TransitStop stop, List<Edge> edges) {
+        double distance = 0.0;
         CoordinateArrayListSequence coordinates = new CoordinateArrayListSequence();
-        for (Edge edge : graphPath.edges) {
+        for (Edge edge : edges) {
             if (edge instanceof StreetEdge) {
                 LineString geometry = edge.getGeometry();
                 if (geometry != null) {
@@ -218,12 +254,11 @@ public class NearbyStopFinder {
         }
         if (coordinates.size() < 2) {   // Otherwise the walk step generator breaks.
             ArrayList<Coordinate> coordinateList = new ArrayList<Coordinate>(2);
-            coordinateList.add(graphPath.states.get(1).getVertex().getCoordinate());
-            State lastState = graphPath.states.getLast().getBackState();
-            coordinateList.add(lastState.getVertex().getCoordinate());
+            coordinateList.add(edges.get(0).getToVertex().getCoordinate());
+            coordinateList.add(edges.get(edges.size() - 1).getFromVertex().getCoordinate());
             coordinates = new CoordinateArrayListSequence(coordinateList);
         }
-        StopAtDistance sd = new StopAtDistance((TransitStop) state.getVertex(), distance);
+        StopAtDistance sd = new StopAtDistance(stop, distance);
         sd.geom = geometryFactory.createLineString(new PackedCoordinateSequence.Double(coordinates.toCoordinateArray()));
         return sd;
     }
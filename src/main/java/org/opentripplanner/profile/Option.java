@@ -60,6 +60,19 @@ public class Option {
         summary = generateSummary();
     }
 
+    /**
+     * Make an option from transit segments built from RAPTOR paths (see ProfileRouter.routeRaptor), with stats
+     * summarizing the total travel time of those paths. Fares are not calculated, they are only known for Rides.
+     */
+    public Option (List<Segment> transit, Stats stats, Collection<StopAtDistance> accessPaths,
+            Collection<StopAtDistance> egressPaths) {
+        access = StreetSegment.list(accessPaths);
+        egress = StreetSegment.list(egressPaths);
+        this.transit = transit;
+        this.stats = stats;
+        summary = generateSummary();
+    }
+
     /** Make a human readable text summary of this option. */
     public String generateSummary() {
         if (transit == null || transit.isEmpty()) {
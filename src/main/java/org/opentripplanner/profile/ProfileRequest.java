@@ -126,6 +126,16 @@ public class ProfileRequest implements Serializable, Cloneable {
      */
     public float reachabilityThreshold = 0.5f;
 
+    /**
+     * RAPTOR propagates travel times to targets target by target, rather than stop by stop, when the stops updated
+     * in a minute have at least this fraction of all the stop to target entries. A pass over all targets reads the
+     * whole matrix but writes each target once, in order, while a pass over the updated stops reads only their entries
+     * but writes to targets scattered over a large array. Both give the same results, so this only affects speed: the
+     * best value depends on the memory system, and RaptorWorkerBenchmark can be used to compare values on a given feed.
+     * Zero always propagates target by target and infinity never does.
+     */
+    public float targetMajorPropagationThreshold = 0.25f;
+
     /** What assumption should be used when boarding frequency vehicles? */
     public RaptorWorkerTimetable.BoardingAssumption boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.RANDOM;
 
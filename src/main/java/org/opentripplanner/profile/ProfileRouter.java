@@ -6,9 +6,12 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import org.onebusaway.gtfs.model.Stop;
 import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
 import org.opentripplanner.api.parameter.QualifiedMode;
 import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.api.resource.SimpleIsochrone;
@@ -346,6 +349,95 @@ public class ProfileRouter {
         return new ProfileResponse(options, request.orderBy, request.limit);
     }
 
+    /**
+     * Find options with repeated RAPTOR searches rather than by exploring Rides: the quickest path is found for each
+     * departure minute in the window (see RaptorWorker.findPaths), and the minutes at which the same rides are taken
+     * are grouped into one Option. This is much faster than route(), but only yields the paths that are quickest at
+     * some minute rather than all reasonable ones, and does not use frequency-based trips. The access, egress and
+     * direct searches are the same as in route().
+     */
+    public ProfileResponse routeRaptor () {
+        graph.index.clusterStopsAsNeeded();
+        long searchBeginTime = System.currentTimeMillis();
+
+        fromStopPaths = findClosestStops(false);
+        toStopPaths = findClosestStops(true);
+        for (QualifiedMode qmode : request.directModes.qModes) {
+            LOG.info("Finding non-transit path for mode {}", qmode);
+            findDirectOption(qmode);
+        }
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null,
+                new TaskStatistics());
+        Multimap<Integer, StopAtDistance> accessPaths = pathsByRaptorStop(fromStopPaths, data);
+        Multimap<Integer, StopAtDistance> egressPaths = pathsByRaptorStop(toStopPaths, data);
+        List<RaptorPath> paths = new RaptorWorker(data, request).findPaths(minTimes(accessPaths), minTimes(egressPaths));
+
+        /* Group the paths for successive minutes that only differ by the trips they take. */
+        Map<List<Integer>, List<RaptorPath>> pathsByRides = Maps.newLinkedHashMap();
+        for (RaptorPath path : paths) {
+            pathsByRides.computeIfAbsent(path.getRidesKey(), k -> Lists.newArrayList()).add(path);
+        }
+        List<Option> options = Lists.newArrayList();
+        GROUP: for (List<RaptorPath> group : pathsByRides.values()) {
+            RaptorPath exemplar = group.get(0);
+            List<Segment> transit = Lists.newArrayList();
+            for (int ride = 0; ride < exemplar.getRideCount(); ride++) {
+                TripPattern pattern = data.patternForIndex.get(exemplar.patterns[ride]);
+                if (pattern == null) continue GROUP; // patterns added by scenarios cannot be described
+                List<Integer> waits = Lists.newArrayList();
+                List<Integer> rideTimes = Lists.newArrayList();
+                Set<Integer> trips = Sets.newHashSet();
+                for (RaptorPath path : group) {
+                    waits.add(path.getWaitTime(ride));
+                    rideTimes.add(path.alightTimes[ride] - path.boardTimes[ride]);
+                    trips.add(path.trips[ride]);
+                }
+                int fromIndex = exemplar.boardPositions[ride];
+                int toIndex = exemplar.alightPositions[ride];
+                int walkTime = exemplar.walkTimes[ride];
+                transit.add(new Segment(pattern, fromIndex, toIndex, trips.size(),
+                        graph.index.stopClusterForStop.get(pattern.getStops().get(fromIndex)),
+                        graph.index.stopClusterForStop.get(pattern.getStops().get(toIndex)),
+                        walkTime, (int) (walkTime * request.walkSpeed), new Stats(waits), new Stats(rideTimes)));
+            }
+            List<Integer> travelTimes = Lists.newArrayList();
+            for (RaptorPath path : group) {
+                travelTimes.add(path.arrivalTime - path.departureTime);
+            }
+            options.add(new Option(transit, new Stats(travelTimes), accessPaths.get(exemplar.accessStop),
+                    egressPaths.get(exemplar.egressStop)));
+        }
+        LOG.info("RAPTOR profile routing request found {} paths in {} options in {} sec.", paths.size(),
+                options.size(), (System.currentTimeMillis() - searchBeginTime) / 1000.0);
+        /* Include the direct (no-transit) biking, driving, and walking options. */
+        options.add(new Option(null, directPaths, null));
+        return new ProfileResponse(options, request.orderBy, request.limit);
+    }
+
+    /** @return the given access or egress paths keyed on the RAPTOR index of the stop they reach. */
+    private static Multimap<Integer, StopAtDistance> pathsByRaptorStop(Multimap<StopCluster, StopAtDistance> paths,
+            RaptorWorkerData data) {
+        Multimap<Integer, StopAtDistance> result = ArrayListMultimap.create();
+        for (StopAtDistance sd : paths.values()) {
+            int stopIndex = data.indexForStop.get(sd.state.getVertex().getIndex());
+            // stops with no trips running in the time window are not in the RAPTOR data
+            if (stopIndex != -1) result.put(stopIndex, sd);
+        }
+        return result;
+    }
+
+    /** @return the quickest time to each stop over the access or egress paths using all modes. */
+    private static TIntIntMap minTimes(Multimap<Integer, StopAtDistance> paths) {
+        TIntIntMap times = new TIntIntHashMap();
+        for (Entry<Integer, StopAtDistance> entry : paths.entries()) {
+            int stopIndex = entry.getKey();
+            int etime = entry.getValue().etime;
+            if (!times.containsKey(stopIndex) || times.get(stopIndex) > etime) times.put(stopIndex, etime);
+        }
+        return times;
+    }
+
     /** @return the set of qualified modes used to access the chain of rides ending with the given ride. */
     private Set<QualifiedMode> accessModesForRide(Ride ride) {
         Collection<StopAtDistance> sds = fromStopPaths.get(ride.getAccessStopCluster());
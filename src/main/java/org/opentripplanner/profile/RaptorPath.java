@@ -0,0 +1,80 @@
+package org.opentripplanner.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The quickest path from the origin to the destination for one departure minute, reconstructed by a RaptorWorker
+ * from the arrays it records during a scheduled search (see RaptorWorker.findPaths). Patterns, trips and stops are
+ * indices in the RaptorWorkerData the search was run on, and positions are the positions of the board and alight
+ * stops in the pattern, as a stop can appear more than once in a pattern. There is one entry per ride in each array.
+ */
+public class RaptorPath {
+
+    /** The time at which the path leaves the origin, in seconds since midnight. */
+    public final int departureTime;
+
+    /** The time at which the path reaches the destination, in seconds since midnight. */
+    public final int arrivalTime;
+
+    /** The stop at which the first ride is boarded, and the time to walk (or cycle etc.) there from the origin. */
+    public final int accessStop;
+    public final int accessTime;
+
+    /** The stop at which the last ride is left, and the time to walk from there to the destination. */
+    public final int egressStop;
+    public final int egressTime;
+
+    public final int[] patterns;
+    public final int[] trips;
+    public final int[] boardPositions;
+    public final int[] alightPositions;
+    public final int[] boardTimes;
+    public final int[] alightTimes;
+
+    /** The time spent walking from the stop where the previous ride was left before each ride, zero for the first. */
+    public final int[] walkTimes;
+
+    public RaptorPath (int departureTime, int arrivalTime, int accessStop, int accessTime, int egressStop,
+            int egressTime, int[] patterns, int[] trips, int[] boardPositions, int[] alightPositions,
+            int[] boardTimes, int[] alightTimes, int[] walkTimes) {
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+        this.accessStop = accessStop;
+        this.accessTime = accessTime;
+        this.egressStop = egressStop;
+        this.egressTime = egressTime;
+        this.patterns = patterns;
+        this.trips = trips;
+        this.boardPositions = boardPositions;
+        this.alightPositions = alightPositions;
+        this.boardTimes = boardTimes;
+        this.alightTimes = alightTimes;
+        this.walkTimes = walkTimes;
+    }
+
+    public int getRideCount () {
+        return patterns.length;
+    }
+
+    /** @return the time spent waiting to board the given ride, after reaching its stop. */
+    public int getWaitTime (int ride) {
+        int readyTime = ride == 0 ? departureTime + accessTime : alightTimes[ride - 1] + walkTimes[ride];
+        return boardTimes[ride] - readyTime;
+    }
+
+    /**
+     * @return a key which is equal for paths taking the same patterns between the same stops, whatever trips they
+     * take. Paths for successive minutes often differ only by their trips, and are then shown as a single option.
+     */
+    public List<Integer> getRidesKey () {
+        List<Integer> key = new ArrayList<>(patterns.length * 3);
+        for (int ride = 0; ride < patterns.length; ride++) {
+            key.add(patterns[ride]);
+            key.add(boardPositions[ride]);
+            key.add(alightPositions[ride]);
+        }
+        return key;
+    }
+
+}
@@ -2,6 +2,8 @@ package org.opentripplanner.profile;
 
 import com.google.protobuf.CodedOutputStream;
 import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.opentripplanner.analyst.cluster.TaskStatistics;
@@ -12,8 +14,10 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.IntStream;
 
@@ -88,9 +92,7 @@ public class RaptorWorker {
      * going from the transit center, whereas true RAPTOR would find both. It's not non-optimal in the
      * earliest arrival sense, but it's also not the only optimal option.
      *
-     * All of that said, we could reconstruct paths simply by storing one more parallel array with
-     * the index of the stop that you boarded a particular pattern at. Then we can do the typical
-     * reverse-optimization step.
+     * Paths are reconstructed from the separate arrays kept when recordPaths is set, see findPaths.
      */
     int[] previousPatterns;
 
@@ -109,10 +111,64 @@ public class RaptorWorker {
 
     private ProfileRequest req;
 
-    private long totalPropagationTime = 0;
+    /** Time spent in propagation, in nanoseconds as a single minute's propagation can take well under a millisecond. */
+    private long totalPropagationNanos = 0;
+
+    /** The number of propagations done target by target rather than stop by stop, see doPropagation. */
+    private int targetMajorPropagations = 0;
+
+    private int propagations = 0;
+
+    /**
+     * Propagate target by target when the stops updated have at least this fraction of all the stop to target entries,
+     * see ProfileRequest.targetMajorPropagationThreshold.
+     */
+    double targetMajorThreshold;
+
+    /**
+     * Whether to record how each stop was reached, so that paths can be reconstructed (see findPaths). Only scheduled
+     * searches are recorded, as frequency searches work on throw-away copies of the best times.
+     */
+    private boolean recordPaths = false;
+
+    /**
+     * Parallel to bestNonTransferTimes when recording paths: the pattern and trip of the ride that reached each stop
+     * at that time, and the positions in the pattern of the stops where it was boarded and left.
+     */
+    private int[] ridePatterns, rideTrips, rideBoardPositions, rideAlightPositions;
+
+    /**
+     * Parallel to bestTimes when recording paths: the stop from which each stop was reached on foot, or
+     * REACHED_BY_RIDE or REACHED_BY_ACCESS if it was not reached by a transfer.
+     */
+    private int[] transferFromStops;
+
+    static final int REACHED_BY_RIDE = -1;
+
+    static final int REACHED_BY_ACCESS = -2;
+
+    /** Longer paths are assumed to come from a cycle in the recorded arrays, which should not happen. */
+    private static final int MAX_RIDES_IN_PATH = 20;
+
+    /** Time spent in runMinutes, including propagation. */
+    private long totalSearchTime = 0;
 
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption used by frequency searches. This is the one in the request except during the best and
+     * worst case draws; it is kept here rather than changed in the request so that workers can share a request.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * The number of chunks the departure window is split into, each searched on its own thread by a separate worker
+     * in the common fork-join pool. Range-raptor reuses results from one minute to the next within a chunk but not
+     * across chunks, so more chunks means somewhat more total work. The default of one searches all minutes on the
+     * calling thread, which is preferable when many searches are already running concurrently (e.g. batch jobs).
+     */
+    public int parallelism = 1;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -127,6 +183,8 @@ public class RaptorWorker {
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        boardingAssumption = req.boardingAssumption;
+        targetMajorThreshold = req.targetMajorPropagationThreshold;
     }
 
     public void advance () {
@@ -165,7 +223,8 @@ public class RaptorWorker {
         }
 
         // if no frequencies, don't run Monte Carlo
-        int iterations = (req.toTime - fromTime - 60) / 60 + 1;
+        int minutes = (req.toTime - fromTime - 60) / 60 + 1;
+        int iterations = minutes;
 
         // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
         // So only update the number of iterations when we're actually going to use all of them, to
@@ -188,15 +247,68 @@ public class RaptorWorker {
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        int iterationsPerMinute = iterations / minutes;
+        int chunks = Math.max(1, Math.min(parallelism, minutes));
+
+        if (chunks == 1) {
+            this.runMinutes(initialStops, nonTransitTimes, 0, minutes, iterationsPerMinute, monteCarloDraws,
+                    timesAtTargetsEachIteration, includeIterationInAverages);
+        } else {
+            // Split the departure window into contiguous runs of minutes, each searched backward (range-raptor) by
+            // its own worker. Every minute writes to its own rows of the output arrays so no merging is needed.
+            LOG.info("Searching {} minutes in {} parallel chunks", minutes, chunks);
+            RaptorWorker[] workers = new RaptorWorker[chunks];
+            for (int c = 0; c < chunks; c++) {
+                workers[c] = new RaptorWorker(data, req);
+            }
+            IntStream.range(0, chunks).parallel().forEach(c -> workers[c].runMinutes(initialStops, nonTransitTimes,
+                    c * minutes / chunks, (c + 1) * minutes / chunks, iterationsPerMinute, monteCarloDraws,
+                    timesAtTargetsEachIteration, includeIterationInAverages));
+            for (RaptorWorker worker : workers) {
+                totalPropagationNanos += worker.totalPropagationNanos;
+                totalSearchTime += worker.totalSearchTime;
+                targetMajorPropagations += worker.targetMajorPropagations;
+                propagations += worker.propagations;
+            }
+        }
+
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        long totalPropagationTime = totalPropagationNanos / 1000000;
+        LOG.info("  propagation {}sec ({} of {} target-major)", totalPropagationTime / 1000.0,
+                targetMajorPropagations, propagations);
+        LOG.info("  raptor {}sec", (totalSearchTime - totalPropagationTime) / 1000.0);
+        ts.propagation = (int) totalPropagationTime;
+        // in parallel mode these are summed over all threads, so they can add up to more than the elapsed time
+        ts.transitSearch = (int) (totalSearchTime - totalPropagationTime);
+        //dumpVariableByte(timesAtTargetsEachMinute);
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
+                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        return propagatedTimesStore;
+    }
+
+    /**
+     * Search departure minutes first (inclusive) to end (exclusive), counted backward from the end of the time window,
+     * starting from the latest so that range-raptor can reuse the results of later departures. The results for minute
+     * n are written to rows n * iterationsPerMinute onward of the output arrays.
+     */
+    private void runMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int first, int end,
+            int iterationsPerMinute, int monteCarloDraws, int[][] timesAtTargetsEachIteration,
+            boolean[] includeIterationInAverages) {
+        long beginSearchTime = System.currentTimeMillis();
+
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
         // current iteration
-        int iteration = 0;
+        int iteration = first * iterationsPerMinute;
 
         // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        for (int n = first; n < end; n++) {
+            int departureTime = req.toTime - 60 - n * 60;
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
@@ -228,13 +340,13 @@ public class RaptorWorker {
                     // an assumption other than RANDOM, or stops with transfer rules.
                     RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
 
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                    if (i == 0 && requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                    else if (i == 1 && requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
@@ -246,7 +358,7 @@ public class RaptorWorker {
                     this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
                             previousPatternsCopy);
 
-                    req.boardingAssumption = requestedBoardingAssumption;
+                    boardingAssumption = requestedBoardingAssumption;
 
                     // do propagation
                     int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
@@ -270,25 +382,14 @@ public class RaptorWorker {
             }
         }
 
-        // make sure we filled the array, otherwise results are garbage.
+        // make sure we filled our part of the array, otherwise results are garbage.
         // This implies a bug in OTP, but it has happened in the past when we did
         // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
+        // iteration should be incremented past end of our rows by ++ in assignment above
+        if (iteration != end * iterationsPerMinute)
             throw new IllegalStateException("Iterations did not completely fill output array");
 
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+        totalSearchTime += System.currentTimeMillis() - beginSearchTime;
     }
 
     public void dumpVariableByte(int[][] array) {
@@ -310,6 +411,115 @@ public class RaptorWorker {
         }
     }
 
+    /**
+     * Find the quickest path from the origin to the destination for each departure minute of the time window. Unlike
+     * runRaptor this does not propagate to targets: the destination is reached from the stops in egressTimes, leaving
+     * them by transit. Only scheduled trips are used, as the paths through frequency-based trips change with each
+     * random draw.
+     * @param accessTimes the time to reach each stop from the origin.
+     * @param egressTimes the time to reach the destination from each stop.
+     * @return the paths in order of departure time, leaving out minutes at which the destination cannot be reached.
+     */
+    public List<RaptorPath> findPaths (TIntIntMap accessTimes, TIntIntMap egressTimes) {
+        if (data.hasFrequencies) {
+            LOG.warn("Frequency-based trips are not used when finding paths.");
+        }
+        recordPaths = true;
+        ridePatterns = new int[data.nStops];
+        rideTrips = new int[data.nStops];
+        rideBoardPositions = new int[data.nStops];
+        rideAlightPositions = new int[data.nStops];
+        transferFromStops = new int[data.nStops];
+        Arrays.fill(ridePatterns, -1);
+        Arrays.fill(transferFromStops, REACHED_BY_RIDE);
+
+        List<RaptorPath> paths = new ArrayList<>();
+        // Iterate backward through minutes (range-raptor) as in runRaptor
+        for (int departureTime = req.toTime - 60; departureTime >= req.fromTime; departureTime -= 60) {
+            this.runRaptorScheduled(accessTimes, departureTime);
+            int egressStop = -1;
+            int arrivalTime = UNREACHED;
+            for (TIntIntIterator it = egressTimes.iterator(); it.hasNext();) {
+                it.advance();
+                int stop = it.key();
+                if (bestNonTransferTimes[stop] != UNREACHED && bestNonTransferTimes[stop] + it.value() < arrivalTime) {
+                    arrivalTime = bestNonTransferTimes[stop] + it.value();
+                    egressStop = stop;
+                }
+            }
+            if (egressStop != -1 && arrivalTime - departureTime <= MAX_DURATION) {
+                RaptorPath path = extractPath(departureTime, accessTimes, egressStop, egressTimes.get(egressStop));
+                if (path != null) paths.add(path);
+            }
+        }
+        Collections.reverse(paths);
+        return paths;
+    }
+
+    /**
+     * Follow the recorded rides and transfers back from a stop reached by transit to a stop reached from the origin.
+     * A ride may have been boarded at a stop that was reached even earlier since, which is still a valid path.
+     */
+    private RaptorPath extractPath (int departureTime, TIntIntMap accessTimes, int egressStop, int egressTime) {
+        TIntList patterns = new TIntArrayList();
+        TIntList trips = new TIntArrayList();
+        TIntList boardPositions = new TIntArrayList();
+        TIntList alightPositions = new TIntArrayList();
+        TIntList boardTimes = new TIntArrayList();
+        TIntList alightTimes = new TIntArrayList();
+        TIntList walkTimes = new TIntArrayList();
+
+        int stop = egressStop;
+        while (true) {
+            int pattern = ridePatterns[stop];
+            if (pattern == -1 || patterns.size() == MAX_RIDES_IN_PATH) {
+                LOG.error("Could not reconstruct the path to stop {} departing at {}", egressStop, departureTime);
+                return null;
+            }
+            RaptorWorkerTimetable timetable = data.timetablesForPattern.get(pattern);
+            int trip = rideTrips[stop];
+            int boardPosition = rideBoardPositions[stop];
+            patterns.add(pattern);
+            trips.add(trip);
+            boardPositions.add(boardPosition);
+            alightPositions.add(rideAlightPositions[stop]);
+            boardTimes.add(timetable.getDeparture(trip, boardPosition));
+            alightTimes.add(timetable.getArrival(trip, rideAlightPositions[stop]));
+
+            int boardStop = timetable.stopIndices[boardPosition];
+            int transferFromStop = transferFromStops[boardStop];
+            if (transferFromStop == REACHED_BY_ACCESS) {
+                walkTimes.add(0);
+                stop = boardStop;
+                break;
+            } else if (transferFromStop == REACHED_BY_RIDE) {
+                walkTimes.add(0);
+                stop = boardStop;
+            } else {
+                walkTimes.add(getTransferTime(transferFromStop, boardStop));
+                stop = transferFromStop;
+            }
+        }
+
+        // the lists were built from the destination back to the origin
+        for (TIntList list : Arrays.asList(patterns, trips, boardPositions, alightPositions, boardTimes, alightTimes,
+                walkTimes)) {
+            list.reverse();
+        }
+        return new RaptorPath(departureTime, alightTimes.get(alightTimes.size() - 1) + egressTime, stop,
+                accessTimes.get(stop), egressStop, egressTime, patterns.toArray(), trips.toArray(),
+                boardPositions.toArray(), alightPositions.toArray(), boardTimes.toArray(), alightTimes.toArray(),
+                walkTimes.toArray());
+    }
+
+    /** @return the time to walk between two stops connected by a transfer, as used in doTransfers. */
+    private int getTransferTime (int fromStop, int toStop) {
+        for (int i = data.transfersIndex[fromStop]; i < data.transfersIndex[fromStop + 1]; i += 2) {
+            if (data.transfers[i] == toStop) return (int) (data.transfers[i + 1] / req.walkSpeed);
+        }
+        return 0;
+    }
+
     /** Run a raptor search not using frequencies */
     public void runRaptorScheduled (TIntIntMap initialStops, int departureTime) {
         // Arrays.fill(bestTimes, UNREACHED); hold on to old state
@@ -326,7 +536,10 @@ public class RaptorWorker {
             int stopIndex = iterator.key();
             int time = iterator.value() + departureTime;
             // note not setting bestNonTransferTimes here because the initial walk is effectively a "transfer"
-            bestTimes[stopIndex] = Math.min(time, bestTimes[stopIndex]);
+            if (time < bestTimes[stopIndex]) {
+                bestTimes[stopIndex] = time;
+                if (recordPaths) transferFromStops[stopIndex] = REACHED_BY_ACCESS;
+            }
             markPatternsForStop(stopIndex);
         }
         // Anytime a round updates some stops, move on to another round
@@ -359,9 +572,11 @@ public class RaptorWorker {
     public boolean doOneRound (int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns, boolean useFrequencies) {
         //LOG.info("round {}", round);
         stopsTouched.clear(); // clear any stops left over from previous round.
+        boolean record = recordPaths && !useFrequencies;
         PATTERNS: for (int p = patternsTouched.nextSetBit(0); p >= 0; p = patternsTouched.nextSetBit(p+1)) {
             //LOG.info("pattern {} {}", p, data.patternNames.get(p));
             int onTrip = -1;
+            int boardPosition = -1;
             RaptorWorkerTimetable timetable = data.timetablesForPattern.get(p);
             int stopPositionInPattern = -1; // first increment will land this at zero
 
@@ -391,7 +606,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
@@ -444,6 +659,7 @@ public class RaptorWorker {
                     }
                     // Stop has been reached before. Attempt to board here.
                     onTrip = timetable.findDepartureAfter(stopPositionInPattern, bestTimes[stopIndex]);
+                    boardPosition = stopPositionInPattern;
                     continue; // boarded or not, we move on to the next stop in the sequence
                 } else {
                     // We're on board a trip.
@@ -457,8 +673,15 @@ public class RaptorWorker {
                         if (arrivalTime < bestTimes[stopIndex]) {
                             bestTimes[stopIndex] = arrivalTime;
                             previousPatterns[stopIndex] = p;
+                            if (record) transferFromStops[stopIndex] = REACHED_BY_RIDE;
                         }
 
+                        if (record) {
+                            ridePatterns[stopIndex] = p;
+                            rideTrips[stopIndex] = onTrip;
+                            rideBoardPositions[stopIndex] = boardPosition;
+                            rideAlightPositions[stopIndex] = stopPositionInPattern;
+                        }
                     }
 
                     // Check whether we can back up to an earlier trip. This could be due to an overtaking trip,
@@ -468,6 +691,7 @@ public class RaptorWorker {
                         // use bestTime not bestNonTransferTimes to allow transferring to this trip later on down the route
                         if (departureOnPreviousTrip > bestTimes[stopIndex]) {
                             onTrip--;
+                            boardPosition = stopPositionInPattern;
                         } else {
                             break;
                         }
@@ -475,7 +699,7 @@ public class RaptorWorker {
                 }
             }
         }
-        doTransfers(bestTimes, bestNonTransferTimes, previousPatterns);
+        doTransfers(bestTimes, bestNonTransferTimes, previousPatterns, record);
         return !patternsTouched.isEmpty();
     }
 
@@ -483,20 +707,21 @@ public class RaptorWorker {
      * Apply transfers.
      * Mark all the patterns passing through these stops and any stops transferred to.
      */
-    private void doTransfers(int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns) {
+    private void doTransfers(int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns, boolean record) {
         patternsTouched.clear();
         for (int stop = stopsTouched.nextSetBit(0); stop >= 0; stop = stopsTouched.nextSetBit(stop + 1)) {
             // TODO this is reboarding every trip at every stop.
             markPatternsForStop(stop);
             int fromTime = bestNonTransferTimes[stop];
-            int[] transfers = data.transfersForStop.get(stop);
-            for (int i = 0; i < transfers.length; i++) {
+            int[] transfers = data.transfers;
+            for (int i = data.transfersIndex[stop]; i < data.transfersIndex[stop + 1]; i++) {
                 int toStop = transfers[i++]; // increment i
                 int distance = transfers[i]; // i will be incremented at the end of the loop
                 int toTime = fromTime + (int) (distance / req.walkSpeed);
                 if (toTime < max_time && toTime < bestTimes[toStop]) {
                     bestTimes[toStop] = toTime;
                     previousPatterns[toStop] = previousPatterns[stop];
+                    if (record) transferFromStops[toStop] = stop;
                     markPatternsForStop(toStop);
                 }
             }
@@ -511,7 +736,7 @@ public class RaptorWorker {
      * been updated will be in allStopsTouched.
      */
     public void doPropagation (int[] timesAtTransitStops, int[] timesAtTargets, int departureTime) {
-        long beginPropagationTime = System.currentTimeMillis();
+        long beginPropagationTime = System.nanoTime();
 
         // Record distances to each sample or intersection
         // We need to propagate all the way to samples (or intersections if there are no samples)
@@ -526,30 +751,54 @@ public class RaptorWorker {
         // a sample would be able to reach these two stops within the walk limit, but that the two
         // intersections it is connected to cannot reach both.
 
-        // only loop over stops that were touched this minute
+        // Only stops that were touched this minute need to be propagated from. When they are many, it is quicker to
+        // go over all targets and find the best time from all the stops that can reach each one; stops that were not
+        // touched then contribute times that have already been propagated, which does not change the result.
+        int[] targetsIndex = data.targetsIndex;
+        long entriesTouched = 0;
         for (int s = allStopsTouched.nextSetBit(0); s >= 0; s = allStopsTouched.nextSetBit(s + 1)) {
-            // it's safe to use the best time at this stop for any number of transfers, even in range-raptor,
-            // because we allow unlimited transfers. this is slightly different from the original RAPTOR implementation:
-            // we do not necessarily compute all pareto-optimal paths on (journey time, number of transfers).
-            int baseTimeSeconds = timesAtTransitStops[s];
-            if (baseTimeSeconds != UNREACHED) {
-                int[] targets = data.targetsForStop.get(s);
-
-                if (targets == null)
-                    continue;
-
-                for (int i = 0; i < targets.length; i++) {
-                    int targetIndex = targets[i++]; // increment i after read
-                    // the cache has time in seconds rather than distance, to avoid costly floating-point divides and integer casts here.
-                    int propagated_time = baseTimeSeconds + targets[i];
-
-                    if (timesAtTargets[targetIndex] > propagated_time) {
-                        timesAtTargets[targetIndex] = propagated_time;
+            if (timesAtTransitStops[s] != UNREACHED) entriesTouched += targetsIndex[s + 1] - targetsIndex[s];
+        }
+        boolean targetMajor = entriesTouched >= targetMajorThreshold * data.targets.length;
+
+        if (targetMajor) {
+            int[] stopsForTarget = data.stopsForTarget;
+            int[] timesForTarget = data.timesForTarget;
+            int[] stopsForTargetIndex = data.stopsForTargetIndex;
+            for (int target = 0; target < data.nTargets; target++) {
+                int best = timesAtTargets[target];
+                for (int i = stopsForTargetIndex[target]; i < stopsForTargetIndex[target + 1]; i++) {
+                    int baseTimeSeconds = timesAtTransitStops[stopsForTarget[i]];
+                    if (baseTimeSeconds != UNREACHED && baseTimeSeconds + timesForTarget[i] < best) {
+                        best = baseTimeSeconds + timesForTarget[i];
+                    }
+                }
+                timesAtTargets[target] = best;
+            }
+            targetMajorPropagations++;
+        } else {
+            for (int s = allStopsTouched.nextSetBit(0); s >= 0; s = allStopsTouched.nextSetBit(s + 1)) {
+                // it's safe to use the best time at this stop for any number of transfers, even in range-raptor,
+                // because we allow unlimited transfers. this is slightly different from the original RAPTOR implementation:
+                // we do not necessarily compute all pareto-optimal paths on (journey time, number of transfers).
+                int baseTimeSeconds = timesAtTransitStops[s];
+                if (baseTimeSeconds != UNREACHED) {
+                    int[] targets = data.targets;
+
+                    for (int i = targetsIndex[s]; i < targetsIndex[s + 1]; i++) {
+                        int targetIndex = targets[i++]; // increment i after read
+                        // the cache has time in seconds rather than distance, to avoid costly floating-point divides and integer casts here.
+                        int propagated_time = baseTimeSeconds + targets[i];
+
+                        if (timesAtTargets[targetIndex] > propagated_time) {
+                            timesAtTargets[targetIndex] = propagated_time;
+                        }
                     }
                 }
             }
         }
-        totalPropagationTime += (System.currentTimeMillis() - beginPropagationTime);
+        propagations++;
+        totalPropagationNanos += System.nanoTime() - beginPropagationTime;
     }
 
     /** Mark all the patterns passing through the given stop. */
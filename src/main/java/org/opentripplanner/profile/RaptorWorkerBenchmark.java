@@ -0,0 +1,127 @@
+package org.opentripplanner.profile;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times repeated RAPTOR searches from random transit stops on a saved graph, reusing one set of RAPTOR data tables,
+ * so that changes to the layout of RaptorWorkerData and RaptorWorkerTimetable can be compared on a large feed by
+ * running it before and after. The first searches are discarded to let the JIT compile the search loops. Propagation
+ * strategies can be compared by running it with different values of --propagation-threshold, "Infinity" disabling
+ * target-major propagation.
+ */
+public class RaptorWorkerBenchmark {
+
+    @Parameter(names = { "-h", "--help"}, description = "Print this help message and exit", help = true)
+    private boolean help;
+
+    @Parameter(names = { "-g", "--graph"}, description = "path to the graph file", required = true)
+    private String graphPath;
+
+    @Parameter(names = { "-d", "--date"}, description = "date of the searches (YYYY-MM-DD)", required = true)
+    private String date;
+
+    @Parameter(names = { "-f", "--from"}, description = "start of the departure window (hours)")
+    private int fromHour = 7;
+
+    @Parameter(names = { "-t", "--to"}, description = "end of the departure window (hours)")
+    private int toHour = 9;
+
+    @Parameter(names = { "-w", "--warmup"}, description = "number of searches discarded before measuring")
+    private int warmup = 20;
+
+    @Parameter(names = { "-n", "--searches"}, description = "number of searches measured")
+    private int searches = 100;
+
+    @Parameter(names = { "-s", "--seed"}, description = "random seed for choosing origins")
+    private long seed = 42;
+
+    @Parameter(names = { "-p", "--propagation-threshold"},
+            description = "fraction of stop to target entries above which times are propagated target by target")
+    private float targetMajorPropagationThreshold = new ProfileRequest().targetMajorPropagationThreshold;
+
+    public static void main(String[] args) throws Exception {
+        RaptorWorkerBenchmark benchmark = new RaptorWorkerBenchmark();
+        JCommander jc = new JCommander(benchmark);
+        try {
+            jc.parse(args);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (benchmark.help) {
+            jc.usage();
+            System.exit(0);
+        }
+        benchmark.run();
+    }
+
+    private void run() throws Exception {
+        Graph graph = Graph.load(new File(graphPath), LoadLevel.FULL);
+        List<TransitStop> stops = new ArrayList<>(graph.index.stopVertexForStop.values());
+        Collections.sort(stops, (s1, s2) -> s1.getLabel().compareTo(s2.getLabel()));
+        Random random = new Random(seed);
+
+        long start = System.nanoTime();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(makeRequest(stops.get(0)), graph,
+                null, new TaskStatistics());
+        System.out.printf("RAPTOR data: %d stops, %d patterns, about %,d MB, built in %.2f s%n", data.nStops,
+                data.nPatterns, data.estimateSizeBytes() / 1000000, (System.nanoTime() - start) / 1e9);
+
+        long[] total = new long[searches];
+        long[] transit = new long[searches];
+        long[] propagation = new long[searches];
+        for (int i = -warmup; i < searches; i++) {
+            TransitStop origin = stops.get(random.nextInt(stops.size()));
+            RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(graph, makeRequest(origin));
+            router.raptorWorkerData = data;
+            start = System.nanoTime();
+            router.route();
+            if (i >= 0) {
+                total[i] = (System.nanoTime() - start) / 1000000;
+                transit[i] = router.ts.transitSearch;
+                propagation[i] = router.ts.propagation;
+            }
+        }
+        print("total", total);
+        print("transit search", transit);
+        print("propagation", propagation);
+    }
+
+    private ProfileRequest makeRequest(TransitStop origin) {
+        ProfileRequest request = new ProfileRequest();
+        request.date = LocalDate.parse(date);
+        request.fromTime = fromHour * 3600;
+        request.toTime = toHour * 3600;
+        request.fromLat = request.toLat = origin.getLat();
+        request.fromLon = request.toLon = origin.getLon();
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        request.transitModes = new TraverseModeSet("TRANSIT");
+        request.targetMajorPropagationThreshold = targetMajorPropagationThreshold;
+        return request;
+    }
+
+    private static void print(String name, long[] millis) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-15s mean %6.1f ms, median %6d ms, 90th percentile %6d ms%n", name,
+                Arrays.stream(sorted).average().orElse(0), sorted[sorted.length / 2],
+                sorted[sorted.length * 9 / 10]);
+    }
+
+}
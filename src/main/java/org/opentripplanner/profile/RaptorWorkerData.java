@@ -63,8 +63,15 @@ public class RaptorWorkerData implements Serializable {
     /** The number of targets (vertices or samples) */
     public final int nTargets;
 
-    /** For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This uses 0-based stop indices that are specific to RaptorData */
-    public final List<int[]> transfersForStop = new ArrayList<>();
+    /**
+     * For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This uses
+     * 0-based stop indices that are specific to RaptorData. The transfers of all stops are stored in a single array,
+     * those of stop s are found from transfersIndex[s] (inclusive) to transfersIndex[s + 1] (exclusive).
+     */
+    public final int[] transfers;
+
+    /** Offsets of the transfers of each stop in transfers, with a final entry for the end of the array. */
+    public final int[] transfersIndex;
 
     /** A list of pattern indexes passing through each stop, again using Raptor indices. */
     public final List<int[]> patternsForStop = new ArrayList<>();
@@ -93,14 +100,37 @@ public class RaptorWorkerData implements Serializable {
     public RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
 
     /**
-     * For each stop, one pair of ints (targetID, distanceMeters) for each destination near that stop.
+     * For each stop, one pair of ints (targetID, timeSeconds) for each destination near that stop.
      * For generic TimeSurfaces these are street intersections. They could be anything though since the worker doesn't
      * care what the IDs stand for. For example, they could be point indexes in a pointset.
+     * Stored like transfers: the targets of stop s are found from targetsIndex[s] to targetsIndex[s + 1].
      */
-    public final List<int[]> targetsForStop = new ArrayList<>();
+    public final int[] targets;
+
+    /** Offsets of the targets of each stop in targets, with a final entry for the end of the array. */
+    public final int[] targetsIndex;
+
+    /**
+     * The transpose of targets, used to propagate target by target when many stops have been updated: the stops from
+     * which target t can be reached are stopsForTarget[stopsForTargetIndex[t]] to
+     * stopsForTarget[stopsForTargetIndex[t + 1] - 1], and the walk times from them are at the same positions in
+     * timesForTarget. Stops and times are in separate arrays so that the inner loop reads each sequentially.
+     */
+    public final int[] stopsForTarget;
+
+    public final int[] timesForTarget;
+
+    /** Offsets of the stops of each target in stopsForTarget and timesForTarget, with a final entry for the end. */
+    public final int[] stopsForTargetIndex;
 
     /** The 0-based RAPTOR indices of each stop from their vertex IDs */
     public transient final TIntIntMap indexForStop;
+
+    /** The vertex ID of each stop from its RAPTOR index; added stops have the index of their temporary stop. */
+    public transient final TIntList stopForIndex;
+
+    /** The trip pattern of each RAPTOR pattern index, used to describe paths. Null for added patterns. */
+    public transient final List<TripPattern> patternForIndex;
      /** Optional debug data: the name of each stop. */
     public transient final List<String> stopNames = new ArrayList<>();
     public transient final List<String> patternNames = new ArrayList<>();
@@ -125,10 +155,10 @@ public class RaptorWorkerData implements Serializable {
         int totalPatterns = graph.index.patternForId.size();
         int totalStops = graph.index.stopForId.size();
         timetablesForPattern = new ArrayList<RaptorWorkerTimetable>(totalPatterns);
-        List<TripPattern> patternForIndex = Lists.newArrayList(totalPatterns);
+        patternForIndex = Lists.newArrayList(totalPatterns);
         TObjectIntMap<TripPattern> indexForPattern = new TObjectIntHashMap<>(totalPatterns, 0.75f, -1);
         indexForStop = new TIntIntHashMap(totalStops, 0.75f, Integer.MIN_VALUE, -1);
-        TIntList stopForIndex = new TIntArrayList(totalStops, Integer.MIN_VALUE);
+        stopForIndex = new TIntArrayList(totalStops, Integer.MIN_VALUE);
 
         this.boardingAssumption = req.boardingAssumption;
 
@@ -271,7 +301,8 @@ public class RaptorWorkerData implements Serializable {
                 if (timetable.hasScheduledTrips())
                     this.hasSchedules = true;
 
-                // TODO: patternForIndex, indexForPattern
+                // TODO: indexForPattern
+                patternForIndex.add(null);
 
                 patternNames.add(atp.name);
 
@@ -411,6 +442,7 @@ public class RaptorWorkerData implements Serializable {
         }
 
         /** Record transfers between all used stops. */
+        List<int[]> transfersForStop = new ArrayList<>(stopForIndex.size());
         for (TIntIterator it = stopForIndex.iterator(); it.hasNext();) {
             int stop = it.next();
             TIntList transfers = new TIntArrayList();
@@ -444,6 +476,8 @@ public class RaptorWorkerData implements Serializable {
             else
                 transfersForStop.add(EMPTY_INT_ARRAY);
         }
+        this.transfersIndex = offsets(transfersForStop);
+        this.transfers = concatenate(transfersForStop);
 
         long stcStart = System.currentTimeMillis();
         StopTreeCache stc = graph.index.getStopTreeCache();
@@ -451,6 +485,7 @@ public class RaptorWorkerData implements Serializable {
 
         // Record times to nearby intersections for all used stops.
         // We use times rather than distances to avoid a costly floating-point divide during propagation
+        List<int[]> targetsForStop = new ArrayList<>(stopForIndex.size());
         if (sampleSet == null) {
             int maxWalkDistance = (int) (req.maxWalkTime * 60 * req.walkSpeed);
             for (TIntIterator stopIt = stopForIndex.iterator(); stopIt.hasNext();) {
@@ -583,6 +618,27 @@ public class RaptorWorkerData implements Serializable {
 
             nTargets = sampleSet.pset.capacity;
         }
+        this.targetsIndex = offsets(targetsForStop);
+        this.targets = concatenate(targetsForStop);
+
+        // Transpose the stop trees into a target-major matrix, counting the stops of each target then filling in.
+        stopsForTargetIndex = new int[nTargets + 1];
+        for (int i = 0; i < targets.length; i += 2) {
+            stopsForTargetIndex[targets[i] + 1]++;
+        }
+        for (int target = 0; target < nTargets; target++) {
+            stopsForTargetIndex[target + 1] += stopsForTargetIndex[target];
+        }
+        stopsForTarget = new int[targets.length / 2];
+        timesForTarget = new int[targets.length / 2];
+        int[] nextForTarget = Arrays.copyOf(stopsForTargetIndex, nTargets);
+        for (int stop = 0; stop < targetsIndex.length - 1; stop++) {
+            for (int i = targetsIndex[stop]; i < targetsIndex[stop + 1]; i += 2) {
+                int pos = nextForTarget[targets[i]]++;
+                stopsForTarget[pos] = stop;
+                timesForTarget[pos] = targets[i + 1];
+            }
+        }
 
         // store transfer rules by stop
         if (scenario != null && scenario.modifications != null) {
@@ -615,6 +671,62 @@ public class RaptorWorkerData implements Serializable {
         ts.targetCount = nTargets;
     }
 
+    /**
+     * @return an estimate of the memory used by the timetables, transfers and stop trees of this object, in bytes.
+     * Used to weigh cached instances against each other; the maps of added stops and transfer rules are ignored.
+     */
+    public long estimateSizeBytes () {
+        long size = arraySizeBytes(transfers) + arraySizeBytes(transfersIndex) + arraySizeBytes(patternsForStop)
+                + arraySizeBytes(targets) + arraySizeBytes(targetsIndex) + arraySizeBytes(stopsForTarget)
+                + arraySizeBytes(timesForTarget) + arraySizeBytes(stopsForTargetIndex);
+        for (RaptorWorkerTimetable timetable : timetablesForPattern) {
+            size += timetable.estimateSizeBytes();
+        }
+        return size;
+    }
+
+    /** @return the approximate size of a list of int arrays, assuming 16 bytes of header per array and 8 per reference. */
+    static long arraySizeBytes (List<int[]> arrays) {
+        long size = 16 + 8L * arrays.size();
+        for (int[] array : arrays) size += arraySizeBytes(array);
+        return size;
+    }
+
+    static long arraySizeBytes (int[][] arrays) {
+        if (arrays == null) return 0;
+        long size = 16 + 8L * arrays.length;
+        for (int[] array : arrays) size += arraySizeBytes(array);
+        return size;
+    }
+
+    static long arraySizeBytes (int[] array) {
+        return array == null ? 0 : 16 + 4L * array.length;
+    }
+
+    /** @return a copy of the (targetStopIndex, distanceMeters) pairs of the transfers out of the given stop. */
+    public int[] getTransfersForStop (int stop) {
+        return Arrays.copyOfRange(transfers, transfersIndex[stop], transfersIndex[stop + 1]);
+    }
+
+    /** @return the start offset of each array in the concatenation of the given arrays, then the total length. */
+    private static int[] offsets (List<int[]> arrays) {
+        int[] offsets = new int[arrays.size() + 1];
+        for (int i = 0; i < arrays.size(); i++) {
+            offsets[i + 1] = offsets[i] + arrays.get(i).length;
+        }
+        return offsets;
+    }
+
+    private static int[] concatenate (List<int[]> arrays) {
+        int[] result = new int[arrays.stream().mapToInt(a -> a.length).sum()];
+        int pos = 0;
+        for (int[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+
     /** find stops from a given SPT, including temporary stops. If useTimes is true, use times from the SPT, otherwise use distances */
     public TIntIntMap findStopsNear (ShortestPathTree spt, Graph graph, boolean useTimes, float walkSpeed) {
         TIntIntMap accessTimes = new TIntIntHashMap();
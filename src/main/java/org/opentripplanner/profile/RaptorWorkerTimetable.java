@@ -42,12 +42,24 @@ public class RaptorWorkerTimetable implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerTimetable.class);
 
-    /* Times for schedule-based trips/patterns are stored in a 2D array. */
+    /*
+     * Times for schedule-based trips/patterns are stored column-wise: the times of all trips at the first stop, then
+     * all trips at the second stop etc., so the search for a trip to board at a stop reads contiguous memory.
+     */
 
     int nTrips, nStops;
 
-    /* For each trip on this pattern, an packed array of (arrival, departure) time pairs. */
-    public int[][] timesPerTrip;
+    /** Arrival times of scheduled trips, the arrival of trip t at stop s is at s * nTrips + t. */
+    int[] arrivals;
+
+    /** Departure times of scheduled trips, indexed like arrivals. */
+    int[] departures;
+
+    /**
+     * True if at every stop the departures are in the order of the trips, i.e. no trip overtakes another. Boarding
+     * uses a binary search in that case, and a linear scan otherwise.
+     */
+    boolean departuresSorted = true;
 
     /* Times for frequency-based trips are stored in parallel arrays (a column store). */
 
@@ -84,7 +96,30 @@ public class RaptorWorkerTimetable implements Serializable {
     public RaptorWorkerTimetable(int nTrips, int nStops) {
         this.nTrips = nTrips;
         this.nStops = nStops;
-        timesPerTrip = new int[nTrips][];
+        arrivals = new int[nTrips * nStops];
+        departures = new int[nTrips * nStops];
+    }
+
+    /** Set the times of a scheduled trip from a packed array of (arrival, departure) time pairs. */
+    void setTrip (int trip, int[] times) {
+        for (int stop = 0; stop < nStops; stop++) {
+            arrivals[stop * nTrips + trip] = times[stop * 2];
+            departures[stop * nTrips + trip] = times[stop * 2 + 1];
+        }
+    }
+
+    /** Check whether departures are sorted at every stop, once all trips are set. */
+    void checkDeparturesSorted () {
+        for (int stop = 0; stop < nStops; stop++) {
+            for (int i = stop * nTrips + 1; i < (stop + 1) * nTrips; i++) {
+                if (departures[i] < departures[i - 1]) {
+                    LOG.debug("Trips overtake each other at stop {} of a pattern, boarding will use a linear search.",
+                            stop);
+                    departuresSorted = false;
+                    return;
+                }
+            }
+        }
     }
 
     /**
@@ -92,20 +127,40 @@ public class RaptorWorkerTimetable implements Serializable {
      * MIN_BOARD_TIME_SECONDS seconds of slack. 
      */
     public int findDepartureAfter(int stop, int time) {
-        for (int trip = 0; trip < timesPerTrip.length; trip++) {
-            if (getDeparture(trip, stop) > time + MIN_BOARD_TIME_SECONDS) {
-                return trip;
+        int minDeparture = time + MIN_BOARD_TIME_SECONDS;
+        int first = stop * nTrips;
+        if (!departuresSorted) {
+            for (int trip = 0; trip < nTrips; trip++) {
+                if (departures[first + trip] > minDeparture) {
+                    return trip;
+                }
             }
+            return -1;
+        }
+        // binary search for the first trip departing strictly after minDeparture
+        int lo = 0, hi = nTrips;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departures[first + mid] > minDeparture) hi = mid;
+            else lo = mid + 1;
         }
-        return -1;
+        return lo < nTrips ? lo : -1;
+    }
+
+    /** @return an estimate of the memory used by the times in this timetable, in bytes. */
+    long estimateSizeBytes () {
+        return RaptorWorkerData.arraySizeBytes(arrivals) + RaptorWorkerData.arraySizeBytes(departures)
+                + RaptorWorkerData.arraySizeBytes(frequencyTrips)
+                + RaptorWorkerData.arraySizeBytes(headwaySecs) + RaptorWorkerData.arraySizeBytes(startTimes)
+                + RaptorWorkerData.arraySizeBytes(endTimes) + RaptorWorkerData.arraySizeBytes(stopIndices);
     }
 
     public int getArrival (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2];
+        return arrivals[stop * nTrips + trip];
     }
 
     public int getDeparture (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2 + 1];
+        return departures[stop * nTrips + trip];
     }
 
     public int getFrequencyDeparture (int trip, int stop, int time, int previousPattern, FrequencyRandomOffsets offsets) {
@@ -242,7 +297,7 @@ public class RaptorWorkerTimetable implements Serializable {
 
     /** does this timetable have any scheduled trips? */
     public boolean hasScheduledTrips () {
-        return this.timesPerTrip != null && this.timesPerTrip.length > 0;
+        return nTrips > 0;
     }
 
     /**
@@ -319,17 +374,15 @@ public class RaptorWorkerTimetable implements Serializable {
         RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(tripTimes.size(), pattern.getStops().size());
         int t = 0;
         for (TripTimes tt : tripTimes) {
-            int[] times = new int[rwtt.nStops * 2];
             for (int s = 0; s < pattern.getStops().size(); s++) {
-                int arrival = tt.getArrivalTime(s);
-                int departure = tt.getDepartureTime(s);
-                times[s * 2] = arrival;
-                times[s * 2 + 1] = departure;
+                rwtt.arrivals[s * rwtt.nTrips + t] = tt.getArrivalTime(s);
+                rwtt.departures[s * rwtt.nTrips + t] = tt.getDepartureTime(s);
             }
-            rwtt.timesPerTrip[t++] = times;
+            t++;
         }
+        rwtt.checkDeparturesSorted();
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // save frequency times
         rwtt.frequencyTrips = new int[freqs.size()][pattern.getStops().size() * 2];
@@ -398,10 +451,11 @@ public class RaptorWorkerTimetable implements Serializable {
         // create timetabled trips
         int t = 0;
         for (AddTripPattern.PatternTimetable pt : timetables) {
-            rwtt.timesPerTrip[t++] = timesForPatternTimetable(atp, pt);
+            rwtt.setTrip(t++, timesForPatternTimetable(atp, pt));
         }
+        rwtt.checkDeparturesSorted();
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // create frequency trips
         rwtt.frequencyTrips = new int[frequencies.size()][atp.temporaryStops.length * 2];
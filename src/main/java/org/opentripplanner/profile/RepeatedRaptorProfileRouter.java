@@ -81,7 +81,7 @@ public class RepeatedRaptorProfileRouter {
     /** Samples to propagate times to */
     private SampleSet sampleSet;
 
-    private PropagatedTimesStore propagatedTimesStore;
+    PropagatedTimesStore propagatedTimesStore;
 
     // Set this field to an existing taskStatistics before routing if you want to collect performance information.
     public TaskStatistics ts = new TaskStatistics();
@@ -89,6 +89,9 @@ public class RepeatedRaptorProfileRouter {
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    // Set this field above one before routing to split the departure window across that many threads (see RaptorWorker).
+    public int raptorParallelism = 1;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -177,6 +180,7 @@ public class RepeatedRaptorProfileRouter {
 
         if (transit) {
             RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            worker.parallelism = raptorParallelism;
             propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
             ts.initialStopCount = transitStopAccessTimes.size();
         } else {
@@ -5,6 +5,7 @@ import com.google.common.collect.Sets;
 import org.onebusaway.gtfs.model.Route;
 import org.opentripplanner.index.model.RouteShort;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.TripPattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,10 +27,14 @@ public class Segment {
         public int toIndex;
         public int nTrips;
         public SegmentPattern (PatternRide patternRide) {
-            this.patternId = patternRide.pattern.code;
-            this.fromIndex = patternRide.fromIndex;
-            this.toIndex   = patternRide.toIndex;
-            this.nTrips    = patternRide.stats.num; // this stats has time window applied
+            // this stats has time window applied
+            this(patternRide.pattern, patternRide.fromIndex, patternRide.toIndex, patternRide.stats.num);
+        }
+        public SegmentPattern (TripPattern pattern, int fromIndex, int toIndex, int nTrips) {
+            this.patternId = pattern.code;
+            this.fromIndex = fromIndex;
+            this.toIndex   = toIndex;
+            this.nTrips    = nTrips;
         }
         @Override
         public int compareTo (SegmentPattern other) {
@@ -80,4 +85,23 @@ public class Segment {
         this.routes = RouteShort.list(routes);
     }
 
+    /**
+     * Make a segment for the rides on a single pattern taken by RAPTOR paths for several departure minutes, which
+     * all board and leave the pattern at the same stops.
+     */
+    public Segment (TripPattern pattern, int fromIndex, int toIndex, int nTrips, StopCluster from, StopCluster to,
+            int walkTime, int walkDistance, Stats waitStats, Stats rideStats) {
+        this.from = from.id;
+        this.to = to.id;
+        fromName = from.name;
+        toName = to.name;
+        segmentPatterns.add(new SegmentPattern(pattern, fromIndex, toIndex, nTrips));
+        mode = pattern.mode;
+        this.walkTime = walkTime;
+        this.walkDistance = walkDistance;
+        this.waitStats = waitStats;
+        this.rideStats = rideStats;
+        routes = RouteShort.list(Collections.singleton(pattern.route));
+    }
+
 }
@@ -12,6 +12,7 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
@@ -23,7 +24,10 @@ import java.util.Map;
  * It seems to work quite well for both the Washington DC region and Portland. Locations outside the US would require
  * additional stop name normalizer modules.
  */
-public class StopCluster {
+public class StopCluster implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
 
     private static final Logger LOG = LoggerFactory.getLogger(StopCluster.class);
 
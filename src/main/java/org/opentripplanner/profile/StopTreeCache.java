@@ -14,6 +14,7 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -26,7 +27,7 @@ public class StopTreeCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(StopTreeCache.class);
     final int maxWalkMeters;
-    // Flattened 2D array of (streetVertexIndex, distanceFromStop) for each TransitStop
+    // Flattened 2D array of (streetVertexIndex, distanceFromStop) for each TransitStop, one pair per reached vertex
     public final Map<TransitStop, int[]> distancesForStop = Maps.newHashMap();
 
     public StopTreeCache (Graph graph, int maxWalkMeters) {
@@ -63,6 +64,9 @@ public class StopTreeCache {
             }
 
             rr.cleanup();
+            // Vertices without a state would leave (0, 0) pairs at the end of the array, which consumers would read as
+            // a walk to vertex 0 and which BinaryGraphFormat cannot save if vertex 0 is not saved. Drop them.
+            if (i < distances.length) distances = Arrays.copyOf(distances, i);
 
             synchronized (distancesForStop) {
                 distancesForStop.put(tstop, distances);
@@ -71,6 +75,19 @@ public class StopTreeCache {
         LOG.info("Done caching distances to nearby street intersections from each transit stop.");
     }
 
+    /**
+     * Restore distances computed earlier for the same graph, e.g. at build time, with vertex indices already
+     * translated to those of the loaded graph. See BinaryGraphFormat.
+     */
+    public StopTreeCache (int maxWalkMeters, Map<TransitStop, int[]> distancesForStop) {
+        this.maxWalkMeters = maxWalkMeters;
+        this.distancesForStop.putAll(distancesForStop);
+    }
+
+    public int getMaxWalkMeters() {
+        return maxWalkMeters;
+    }
+
     /**
      * Given a travel time to a transit stop, fill in the array with minimum travel times to all nearby street vertices.
      * This function is meant to be called repeatedly on multiple transit stops, accumulating minima
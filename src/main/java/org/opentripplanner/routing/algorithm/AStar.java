@@ -18,7 +18,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -63,10 +63,13 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
+        /** Whether a state that is alone at its vertex replaces the queued state there, rather than joining it. */
+        boolean decreaseKey;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
+        int queuePeakSize;
         public List<State> targetAcceptedStates;
         public RunStatus status;
         private RoutingRequest options;
@@ -134,7 +137,9 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.pq = newQueue(options, initialSize);
+        runState.decreaseKey = options.priorityQueueType.supportsDecreaseKey()
+                && options.dominanceFunction.isSingleState();
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -156,6 +161,7 @@ public class AStar {
         runState.heuristic.doSomeWork();
 
         // get the lowest-weight state in the queue
+        if (runState.pq.size() > runState.queuePeakSize) runState.queuePeakSize = runState.pq.size();
         runState.u = runState.pq.extract_min();
         
         // check that this state has not been dominated
@@ -225,7 +231,12 @@ public class AStar {
                     if (traverseVisitor != null)
                         traverseVisitor.visitEnqueue(v);
                     //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
+                    if (runState.decreaseKey && runState.spt.getStates(v.getVertex()).size() == 1) {
+                        // Any other state queued at this vertex has been dominated, replace it.
+                        runState.pq.insert_or_dec_key(v, estimate);
+                    } else {
+                        runState.pq.insert(v, estimate);
+                    }
                 } 
             }
         }
@@ -234,6 +245,18 @@ public class AStar {
     }
     
     void runSearch(long abortTime){
+        try {
+            runSearchLoop(abortTime);
+        } finally {
+            // Accumulate search effort on the routing context for monitoring.
+            if (runState.rctx != null) {
+                runState.rctx.visitedVertices += runState.nVisited;
+                runState.rctx.queuePeakSize = Math.max(runState.rctx.queuePeakSize, runState.queuePeakSize);
+            }
+        }
+    }
+
+    private void runSearchLoop(long abortTime){
         /* the core of the A* algorithm */
         while (!runState.pq.empty()) { // Until the priority queue is empty:
             /*
@@ -339,6 +362,15 @@ public class AStar {
         return spt;
     }
 
+    /**
+     * Create the priority queue requested in the options. Indexed queues are keyed on the index of the vertex of
+     * each State.
+     */
+    static OTPPriorityQueue<State> newQueue(RoutingRequest options, int initialSize) {
+        int minIndex = options.rctx == null ? 0 : options.rctx.graph.getVertexIndexOffset();
+        return options.priorityQueueType.create(initialSize, s -> s.getVertex().getIndex(), minIndex);
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -13,7 +13,7 @@
 
 package org.opentripplanner.routing.algorithm;
 
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -67,11 +67,14 @@ public class EarliestArrivalSearch {
             
         // SPT cache does not look at routing request in SPT to perform lookup, 
         // so it's OK to construct with the local cloned one
-        ShortestPathTree spt = new DominanceFunction.EarliestArrival().getNewShortestPathTree(options);
+        DominanceFunction dominanceFunction = new DominanceFunction.EarliestArrival();
+        ShortestPathTree spt = dominanceFunction.getNewShortestPathTree(options);
         State initialState = new State(options);
         spt.add(initialState);
 
-        BinHeap<State> pq = new BinHeap<State>();
+        OTPPriorityQueue<State> pq = AStar.newQueue(options, 1000);
+        // As in AStar, a queued state can only be replaced when the dominance function keeps one state per vertex.
+        boolean decreaseKey = options.priorityQueueType.supportsDecreaseKey() && dominanceFunction.isSingleState();
         pq.insert(initialState, 0);
 
         while (!pq.empty()) {
@@ -86,7 +89,11 @@ public class EarliestArrivalSearch {
                         continue;
                     }
                     if (spt.add(v)) {
-                        pq.insert(v, v.getActiveTime()); // activeTime?
+                        if (decreaseKey && spt.getStates(v.getVertex()).size() == 1) {
+                            pq.insert_or_dec_key(v, v.getActiveTime());
+                        } else {
+                            pq.insert(v, v.getActiveTime()); // activeTime?
+                        }
                     } 
                 }
             }
@@ -30,7 +30,19 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This the goal direction heuristic used for transit searches.
@@ -58,8 +70,24 @@ import java.util.Set;
  * heuristic across an edge that were greater in magnitude than the weight of that edge. This has been solved by
  * creating two separate distance maps, one pre-transit and one post-transit.
  *
- * Note that the backward search does not happen in a separate thread. It is interleaved with the main search in a
- * ratio of N:1 iterations.
+ * By default the backward search does not happen in a separate thread. It is interleaved with the main search in a
+ * ratio of N:1 iterations, and the street searches around the origin and target are done before the main search
+ * starts. When an ExecutorService is supplied, the street search around the target instead runs on one of its threads,
+ * followed by the backward transit search, while the main search starts as soon as the street search around the
+ * origin is done. That one stays on the calling thread because its result is what limits walking before boarding
+ * transit: the main search must not start with its walk limits lifted before it is known. The backward transit search
+ * stops once it has explored the whole transit network, once its bounds exceed the weight of a path the main search has
+ * found to the target, or when the search is cancelled. Until the street search around the target is finished the
+ * heuristic evaluates to zero after boarding, which is admissible, and then it progressively improves as in the
+ * interleaved case.
+ *
+ * Bounds are published to the main search without locks. The worker writes the bound of each vertex it closes (ints,
+ * whose writes are atomic) and only then the volatile maxWeightSeen. The main search reads maxWeightSeen first, so
+ * any vertex whose bound it does not see yet was closed after that value was written and cannot be closer to the
+ * target. The street search around the target publishes its complete results through a volatile flag. All the state
+ * shared with the workers belongs to one ConcurrentSearch per initialization, so that workers that are still stopping
+ * cannot touch the state of a later initialization. The bounds arrays, which span the whole vertex index range, are
+ * recycled between heuristics once their searches are destroyed.
  */
 public class InterleavedBidirectionalHeuristic implements RemainingWeightHeuristic {
 
@@ -70,6 +98,16 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     // For each step in the main search, how many steps should the reverse search proceed?
     private static final int HEURISTIC_STEPS_PER_MAIN_STEP = 8; // TODO determine a good value empirically
 
+    private static final int UNKNOWN = Integer.MAX_VALUE;
+
+    /** How many bounds arrays of destroyed concurrent searches are kept for reuse. */
+    private static final int MAX_SPARE_BOUNDS = 8;
+
+    private static final BlockingQueue<int[]> SPARE_BOUNDS = new ArrayBlockingQueue<>(MAX_SPARE_BOUNDS);
+
+    /** Threads for the backward searches, or null to interleave them with the main search. */
+    private final transient ExecutorService workers;
+
     /** The vertex at which the main search begins. */
     Vertex origin;
 
@@ -100,6 +138,18 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     // True when the entire transit network has been explored by the reverse search.
     boolean finished = false;
 
+    /** The searches running on worker threads for the current initialization, or null if there are no workers. */
+    private transient volatile ConcurrentSearch search;
+
+    public InterleavedBidirectionalHeuristic() {
+        this(null);
+    }
+
+    /** @param workers threads for the backward searches, or null to interleave them with the main search. */
+    public InterleavedBidirectionalHeuristic(ExecutorService workers) {
+        this.workers = workers;
+    }
+
     /**
      * Before the main search begins, the heuristic must search on the streets around the origin and destination.
      * This also sets up the initial states for the reverse search through the transit network, which progressively
@@ -119,6 +169,10 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         this.routingRequest = request;
         request.softWalkLimiting = false;
         request.softPreTransitLimiting = false;
+        if (workers != null) {
+            initializeConcurrently(request, abortTime);
+            return;
+        }
         transitQueue = new BinHeap<>();
         // Forward street search first, mark street vertices around the origin so H evaluates to 0
         TObjectDoubleMap<Vertex> forwardStreetSearchResults = streetSearch(request, false, abortTime);
@@ -141,6 +195,76 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         request.rctx.debugOutput.finishedPrecalculating();
     }
 
+    /**
+     * Start the street search around the target on a worker thread, followed by the backward search through the transit
+     * network, then do the street search around the origin on the calling thread. The workers of any earlier
+     * initialization are stopped and waited for first.
+     */
+    private void initializeConcurrently(RoutingRequest request, long abortTime) {
+        ConcurrentSearch previous = search;
+        if (previous != null) {
+            previous.cancelled.set(true);
+            previous.join();
+            previous.destroy();
+        }
+        // The street searches use the walk limits of the request, which are lifted for the main search once the
+        // street search around the origin is done.
+        final ConcurrentSearch search = new ConcurrentSearch(request.clone());
+        this.search = search;
+        search.tasks.add(workers.submit(() -> {
+            try {
+                TObjectDoubleMap<Vertex> backward = streetSearch(search.request, true, abortTime, search.cancelled,
+                        search.queue);
+                if (backward == null) return;
+                boolean complete = backward.forEachEntry((v, weight) -> {
+                    search.setBound(v, (int) weight);
+                    return !search.cancelled.get();
+                });
+                if (!complete) return;
+                search.egressPublished = true;
+                while (!search.cancelled.get() && search.closeNextTransitVertex()) {
+                    if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime) break;
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Heuristic backward search failed.", e);
+            } finally {
+                search.release();
+            }
+        }));
+        TObjectDoubleMap<Vertex> forward = streetSearch(search.request, false, abortTime, search.cancelled,
+                new BinHeap<>());
+        if (forward == null) {
+            return; // Search timed out
+        }
+        search.preTransitVertices = forward.keySet();
+        request.setMaxWalkDistance(Double.POSITIVE_INFINITY);
+        request.setMaxPreTransitTime(Integer.MAX_VALUE);
+        request.rctx.debugOutput.finishedPrecalculating();
+    }
+
+    /**
+     * Stop the backward searches running on worker threads, if any. The heuristic remains admissible but stops
+     * improving. Once no more searches will use this heuristic, call destroy() instead.
+     */
+    public void cancel() {
+        ConcurrentSearch search = this.search;
+        if (search != null) {
+            search.cancelled.set(true);
+        }
+    }
+
+    /**
+     * Stop the backward searches running on worker threads, if any, and recycle their bounds once they have stopped.
+     * The heuristic must not be used any more.
+     */
+    public void destroy() {
+        ConcurrentSearch search = this.search;
+        if (search != null) {
+            search.cancelled.set(true);
+            search.destroy();
+        }
+    }
+
     /**
      * This function supplies the main search with an (under)estimate of the remaining path weight to the target.
      * No matter how much progress has been made on the reverse heuristic search, we must return an underestimate
@@ -151,11 +275,18 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     @Override
     public double estimateRemainingWeight (State s) {
         final Vertex v = s.getVertex();
+        final ConcurrentSearch search = this.search;
+        if (workers != null && v == target) {
+            search.recordPathToTarget(s);
+        }
         if (v instanceof StreetLocation) {
             // Temporary vertices (StreetLocations) might not be found in the street searches.
             // Zero is always an underestimate.
             return 0;
         }
+        if (workers != null) {
+            return search.estimate(s, v);
+        }
         if (v instanceof StreetVertex) {
             // The main search is on the streets, not on transit.
             if (s.isEverBoarded()) {
@@ -193,7 +324,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      */
     @Override
     public void doSomeWork() {
-        if (finished) return;
+        // With workers, the backward search proceeds on its own thread.
+        if (finished || workers != null) return;
         for (int i = 0; i < HEURISTIC_STEPS_PER_MAIN_STEP; ++i) {
             if (transitQueue.empty()) {
                 finished = true;
@@ -265,6 +397,16 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      * TODO what if the egress segment is by bicycle or car mode? This is no longer admissible.
      */
     private TObjectDoubleMap<Vertex> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
+        return streetSearch(rr, fromTarget, abortTime, new AtomicBoolean(false), transitQueue);
+    }
+
+    /**
+     * @param cancelled the search returns null as soon as this is set
+     * @param transitQueue the queue of the backward search through the transit network, in which the transit stops
+     *                     reached from the target are inserted
+     */
+    private TObjectDoubleMap<Vertex> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime,
+                                                   AtomicBoolean cancelled, BinHeap<Vertex> transitQueue) {
         LOG.debug("Heuristic street search around the {}.", fromTarget ? "target" : "origin");
         rr = rr.clone();
         if (fromTarget) {
@@ -279,7 +421,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         State initState = new State(initVertex, rr);
         pq.insert(initState, 0);
         while ( ! pq.empty()) {
-            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
+            if ((abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) || cancelled.get()) {
                 return null;
             }
             State s = pq.extract_min();
@@ -292,7 +434,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 if (fromTarget) {
                     double weight = s.getWeight();
                     transitQueue.insert(v, weight);
-                    if (weight > maxWeightSeen) {
+                    // With workers, maxWeightSeen only reflects closed vertices since it is read concurrently.
+                    if (workers == null && weight > maxWeightSeen) {
                         maxWeightSeen = weight;
                     }
                 }
@@ -320,5 +463,169 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         LOG.debug("Heuristric street search hit {} transit stops.", transitQueue.size());
         return vertices;
     }
- 
+
+    /**
+     * The state of one initialization of the heuristic whose searches run on worker threads. The worker tasks only use
+     * this object and never the fields of the heuristic, so the workers of an earlier initialization that have not
+     * stopped yet cannot touch the queue or bounds of a later one.
+     */
+    private class ConcurrentSearch {
+
+        /** A copy of the request with its original walk limits, only used by the workers. */
+        final RoutingRequest request;
+
+        final BinHeap<Vertex> queue = new BinHeap<>();
+
+        /* Bounds published by the worker threads, indexed by Vertex.getIndex(), with a map for vertices outside the
+           index range of the graph. */
+        final int[] bounds;
+        final int boundsOffset;
+        final ConcurrentMap<Vertex, Integer> otherBounds = new ConcurrentHashMap<>();
+
+        /** Set to stop the worker threads of this initialization. */
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        final List<Future<?>> tasks = new ArrayList<>();
+
+        /** The worker task while it runs, plus one until the heuristic is done with this search. */
+        private final AtomicInteger holders = new AtomicInteger(2);
+
+        private final AtomicBoolean destroyed = new AtomicBoolean(false);
+
+        /** Null if the street search around the origin timed out. */
+        volatile Set<Vertex> preTransitVertices;
+
+        /** Set once the street search around the target is finished and its results are in the bounds. */
+        volatile boolean egressPublished = false;
+
+        volatile double maxWeightSeen = 0;
+
+        /** The lowest weight of a path to the target found by the main search. No bound beyond it is needed. */
+        volatile double bestPathWeight = Double.POSITIVE_INFINITY;
+
+        ConcurrentSearch(RoutingRequest request) {
+            this.request = request;
+            boundsOffset = graph.getVertexIndexOffset();
+            int size = Math.max(0, graph.getVertexIndexLimit() - boundsOffset);
+            int[] spare;
+            // Arrays of another size are from a graph that was replaced and are dropped.
+            while ((spare = SPARE_BOUNDS.poll()) != null && spare.length != size);
+            bounds = spare != null ? spare : new int[size];
+            Arrays.fill(bounds, UNKNOWN);
+        }
+
+        /** Called by each worker task when it stops, and by the heuristic once it no longer reads the bounds. */
+        void release() {
+            if (holders.decrementAndGet() == 0) {
+                SPARE_BOUNDS.offer(bounds);
+            }
+        }
+
+        void destroy() {
+            if (destroyed.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        /** Wait for the worker tasks to stop, once they have been cancelled. */
+        void join() {
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    LOG.error("Heuristic search failed.", e);
+                }
+            }
+        }
+
+        /** @return the bound published by the worker threads for the given vertex, or infinity if none is known. */
+        double getBound(Vertex v) {
+            int i = v.getIndex() - boundsOffset;
+            if (i >= 0 && i < bounds.length) {
+                int bound = bounds[i];
+                return bound == UNKNOWN ? Double.POSITIVE_INFINITY : bound;
+            }
+            Integer bound = otherBounds.get(v);
+            return bound == null ? Double.POSITIVE_INFINITY : bound;
+        }
+
+        void setBound(Vertex v, int bound) {
+            int i = v.getIndex() - boundsOffset;
+            if (i >= 0 && i < bounds.length) {
+                bounds[i] = bound;
+            } else {
+                otherBounds.put(v, bound);
+            }
+        }
+
+        /** Called by the main search for its states at the target. */
+        void recordPathToTarget(State s) {
+            if (s.getWeight() < bestPathWeight) {
+                bestPathWeight = s.getWeight();
+            }
+        }
+
+        /**
+         * The equivalent of estimateRemainingWeight for bounds published by the worker threads. Anything not published
+         * yet evaluates to the lowest bound that is certain to hold.
+         */
+        double estimate(State s, Vertex v) {
+            if (v instanceof StreetVertex) {
+                if (s.isEverBoarded()) {
+                    return egressPublished ? getBound(v) : 0;
+                } else {
+                    Set<Vertex> pre = preTransitVertices;
+                    if (pre == null || pre.contains(v)) {
+                        return 0;
+                    } else {
+                        return Double.POSITIVE_INFINITY;
+                    }
+                }
+            } else {
+                // Read maxWeightSeen before the bound, see the class comment.
+                double max = maxWeightSeen;
+                double h = getBound(v);
+                return h == Double.POSITIVE_INFINITY ? max : h;
+            }
+        }
+
+        /**
+         * Close one vertex of the backward search through the transit network, publishing its bound.
+         * @return false when the whole transit network has been explored, or when the bounds exceed the weight of a path
+         * already found to the target. Unexplored vertices then keep evaluating to maxWeightSeen, which is admissible.
+         */
+        boolean closeNextTransitVertex() {
+            if (queue.empty() || queue.peek_min_key() > bestPathWeight) {
+                return false;
+            }
+            int uWeight = (int) queue.peek_min_key();
+            Vertex u = queue.extract_min();
+            if (uWeight >= getBound(u)) {
+                // The vertex was already closed.
+                return true;
+            }
+            // Publish the bound before the maximum, see the class comment.
+            setBound(u, uWeight);
+            maxWeightSeen = uWeight;
+            for (Edge e : request.arriveBy ? u.getOutgoing() : u.getIncoming()) {
+                if (e instanceof StreetTransitLink) {
+                    continue;
+                }
+                Vertex v = request.arriveBy ? e.getToVertex() : e.getFromVertex();
+                double edgeWeight = e.weightLowerBound(request);
+                if (Double.isInfinite(edgeWeight)) {
+                    continue;
+                }
+                double vWeight = uWeight + edgeWeight;
+                if (vWeight < getBound(v)) {
+                    queue.insert(v, vWeight);
+                }
+            }
+            return true;
+        }
+    }
+
 }
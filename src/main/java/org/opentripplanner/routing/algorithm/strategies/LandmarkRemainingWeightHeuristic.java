@@ -0,0 +1,161 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * A remaining weight heuristic for car and bicycle searches using the landmark tables precomputed during graph build
+ * (see LandmarkTables). Unlike the Euclidean heuristic, which assumes a straight line at the top speed of the mode,
+ * this follows the actual street network, which makes a big difference for long car trips.
+ *
+ * The tables hold travel times or lengths, which are converted to weights with the smallest reluctance and the
+ * highest speed allowed by the request, so the estimate stays a lower bound on the remaining weight. Requests whose
+ * weights are not bounded by those tables (transit, traffic speeds, bike safety optimization, rental and parking)
+ * are not supported, see supports().
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    /* Limit on the number of temporary vertices examined around the target. */
+    private static final int MAX_TARGET_VERTICES = 100;
+
+    private final LandmarkTables tables;
+
+    private float[] fromLandmarks;
+    private float[] toLandmarks;
+    private boolean arriveBy;
+    private double weightPerUnit;
+
+    /** Table rows of the street vertices closest to the target. The target itself if it is in the tables. */
+    private int[] targetRows;
+
+    public LandmarkRemainingWeightHeuristic(LandmarkTables tables) {
+        this.tables = tables;
+    }
+
+    /** @return true if the graph has landmark tables and they give a lower bound for this request. */
+    public static boolean supports(RoutingRequest options) {
+        if (!options.useLandmarkHeuristic || options.rctx == null) return false;
+        Graph graph = options.rctx.graph;
+        if (graph == null || graph.landmarks == null || graph.landmarks.getLandmarkCount() == 0) return false;
+        TraverseModeSet modes = options.modes;
+        if (modes.isTransit()) return false;
+        if (modes.getCar()) {
+            return !modes.getWalk() && !modes.getBicycle() && !options.parkAndRide && !options.kissAndRide
+                    && (!options.useTraffic || options.rctx.streetSpeedSnapshot == null);
+        }
+        if (modes.getBicycle()) {
+            return (options.optimize == OptimizeType.QUICK || options.optimize == OptimizeType.FLAT)
+                    && !options.allowBikeRental && !options.bikeParkAndRide;
+        }
+        return false;
+    }
+
+    @Override
+    public void initialize(RoutingRequest options, long abortTime) {
+        TraverseMode mode = options.modes.getCar() ? TraverseMode.CAR : TraverseMode.BICYCLE;
+        fromLandmarks = tables.fromLandmarks(mode);
+        toLandmarks = tables.toLandmarks(mode);
+        arriveBy = options.arriveBy;
+        if (mode == TraverseMode.CAR) {
+            // Table values are seconds. StreetEdge applies the walk or stairs reluctance to all modes.
+            weightPerUnit = reluctance(options);
+        } else {
+            // Table values are meters, which may be biked, or walked with or without the bike.
+            RoutingRequest bikeWalking = options.bikeWalkingOptions;
+            weightPerUnit = Math.min(reluctance(options) / options.bikeSpeed,
+                    reluctance(bikeWalking) / bikeWalking.walkSpeed);
+            if (options.modes.getWalk()) {
+                weightPerUnit = Math.min(weightPerUnit, reluctance(options) / options.walkSpeed);
+            }
+        }
+        targetRows = findTargetRows(options.rctx.target);
+    }
+
+    private static double reluctance(RoutingRequest options) {
+        return Math.min(options.walkReluctance, options.stairsReluctance);
+    }
+
+    /**
+     * The target is usually a temporary vertex linked into the streets. The remaining weight is then bounded by the
+     * smallest bound over the street vertices the search must come through to reach it.
+     */
+    private int[] findTargetRows(Vertex target) {
+        TIntArrayList rows = new TIntArrayList();
+        if (target == null) return rows.toArray();
+        Set<Vertex> seen = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>());
+        Queue<Vertex> queue = new ArrayDeque<>();
+        queue.add(target);
+        seen.add(target);
+        while (!queue.isEmpty() && seen.size() < MAX_TARGET_VERTICES) {
+            Vertex v = queue.poll();
+            int row = tables.getRow(v);
+            if (row >= 0) {
+                rows.add(row);
+                continue;
+            }
+            // Step against the direction of travel of the search: towards the vertices it arrives from.
+            for (Edge e : arriveBy ? v.getOutgoing() : v.getIncoming()) {
+                Vertex u = arriveBy ? e.getToVertex() : e.getFromVertex();
+                if (seen.add(u)) queue.add(u);
+            }
+        }
+        if (!queue.isEmpty()) {
+            // Gave up before finding all the ways in, so we have no valid bound.
+            rows.clear();
+        }
+        return rows.toArray();
+    }
+
+    /**
+     * For a depart-after search the remaining path runs from the state's vertex to the target. For an arrive-by
+     * search it runs from the target (the origin of the trip) to the state's vertex.
+     */
+    @Override
+    public double estimateRemainingWeight(State s) {
+        if (targetRows.length == 0) return 0;
+        int row = tables.getRow(s.getVertex());
+        if (row < 0) return 0;
+        double bound = Double.POSITIVE_INFINITY;
+        for (int target : targetRows) {
+            double b = arriveBy ? tables.lowerBound(fromLandmarks, toLandmarks, target, row)
+                    : tables.lowerBound(fromLandmarks, toLandmarks, row, target);
+            if (b < bound) bound = b;
+        }
+        return bound * weightPerUnit;
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void doSomeWork() {}
+
+}
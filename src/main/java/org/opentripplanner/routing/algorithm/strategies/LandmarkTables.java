@@ -0,0 +1,329 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shortest path distances between a small set of landmark vertices and every street vertex, in both directions, for
+ * use by LandmarkRemainingWeightHeuristic (ALT: A*, landmarks and the triangle inequality). For any vertices a and b
+ * and landmark L, d(a, b) >= d(L, b) - d(L, a) and d(a, b) >= d(a, L) - d(b, L), which gives a lower bound on the
+ * remaining distance that follows the road network rather than a straight line.
+ *
+ * Two metrics are stored: car travel time in seconds at the speed limits of the edges, and a length in meters over
+ * everything usable by bicycle or on foot (the bike may be walked). Lengths are the smaller of the plain and the
+ * slope-adjusted length so that both stay lower bounds on what StreetEdge charges.
+ *
+ * The tables are computed by the LandmarkModule during graph building and saved with the graph. Values are kept in
+ * vertex-major float arrays, so that the entries for one vertex are next to each other in memory. Vertex indices are
+ * reassigned when a graph is loaded, so the vertices are kept in an array along with the tables, and the mapping from
+ * Vertex.getIndex() to table rows is rebuilt the first time it is needed.
+ */
+public class LandmarkTables implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkTables.class);
+
+    public static final float UNREACHED = Float.POSITIVE_INFINITY;
+
+    /* Number of vertices to try as a starting point for landmark selection. */
+    private static final int MAX_SEEDS = 10;
+
+    /** The vertex for each table row. */
+    private final Vertex[] vertices;
+
+    private final Vertex[] landmarks;
+
+    /* The entry for the vertex in row v and landmark l is at v * landmarks.length + l. */
+    private final float[] carFromLandmark;
+    private final float[] carToLandmark;
+    private final float[] bikeFromLandmark;
+    private final float[] bikeToLandmark;
+
+    /* Mapping from Vertex.getIndex() to table rows, rebuilt after deserialization. */
+    private transient volatile int[] rows;
+    private transient int rowIndexOffset;
+
+    /**
+     * Select up to nLandmarks landmarks among the given vertices and compute the tables. Landmarks are chosen one at
+     * a time as the vertex farthest from the ones already chosen, which tends to place them around the edges of the
+     * network where they give the best bounds.
+     */
+    public LandmarkTables(Collection<Vertex> graphVertices, int nLandmarks) {
+        long startTime = System.currentTimeMillis();
+        List<Vertex> streetVertices = new ArrayList<>();
+        for (Vertex v : graphVertices) {
+            if (v instanceof StreetVertex) streetVertices.add(v);
+        }
+        vertices = streetVertices.toArray(new Vertex[streetVertices.size()]);
+        int nVertices = vertices.length;
+        buildRows();
+        Adjacency car = new Adjacency(TraverseMode.CAR);
+        Adjacency bike = new Adjacency(TraverseMode.BICYCLE);
+        // Choose landmarks by driving distance where there are roads, otherwise by biking distance.
+        Adjacency selection = car.nEdgesWithCost > 0 ? car : bike;
+
+        List<Vertex> chosen = new ArrayList<>();
+        List<float[][]> tables = new ArrayList<>();
+        float[] minDistance = new float[nVertices];
+        Arrays.fill(minDistance, UNREACHED);
+        int next = farthest(seedDistances(selection), null);
+        while (next >= 0 && chosen.size() < nLandmarks) {
+            float[][] t = new float[][] {
+                    car.distances(next, true), car.distances(next, false),
+                    bike.distances(next, true), bike.distances(next, false)
+            };
+            chosen.add(vertices[next]);
+            tables.add(t);
+            float[] d = selection == car ? t[0] : t[2];
+            for (int v = 0; v < nVertices; v++) {
+                if (d[v] < minDistance[v]) minDistance[v] = d[v];
+            }
+            next = farthest(minDistance, d);
+        }
+        landmarks = chosen.toArray(new Vertex[chosen.size()]);
+        int n = landmarks.length;
+        carFromLandmark = new float[nVertices * n];
+        carToLandmark = new float[nVertices * n];
+        bikeFromLandmark = new float[nVertices * n];
+        bikeToLandmark = new float[nVertices * n];
+        for (int l = 0; l < n; l++) {
+            float[][] t = tables.get(l);
+            for (int v = 0; v < nVertices; v++) {
+                carFromLandmark[v * n + l] = t[0][v];
+                carToLandmark[v * n + l] = t[1][v];
+                bikeFromLandmark[v * n + l] = t[2][v];
+                bikeToLandmark[v * n + l] = t[3][v];
+            }
+        }
+        LOG.info("Computed tables for {} landmarks over {} street vertices in {} msec.", n, nVertices,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return the distances from a vertex that reaches at least half of the others, or the best of the first few
+     * vertices tried. Starting from a vertex on a small island would put all the landmarks on that island.
+     */
+    private float[] seedDistances(Adjacency adjacency) {
+        float[] best = new float[0];
+        int bestReached = 0;
+        for (int r = 0; r < Math.min(MAX_SEEDS, vertices.length); r++) {
+            float[] d = adjacency.distances((int) ((long) r * vertices.length / MAX_SEEDS), true);
+            int reached = 0;
+            for (float x : d) {
+                if (x != UNREACHED) reached++;
+            }
+            if (reached > bestReached) {
+                best = d;
+                bestReached = reached;
+            }
+            if (reached * 2 >= vertices.length) break;
+        }
+        return best;
+    }
+
+    /**
+     * @return the row with the largest finite distance, among rows that the last landmark reaches (to stay in the
+     * same connected part of the network), or -1 if all such distances are zero.
+     */
+    private static int farthest(float[] distance, float[] reachedByLast) {
+        int best = -1;
+        float bestDistance = 0;
+        for (int v = 0; v < distance.length; v++) {
+            if (reachedByLast != null && reachedByLast[v] == UNREACHED) continue;
+            if (distance[v] > bestDistance && distance[v] != UNREACHED) {
+                best = v;
+                bestDistance = distance[v];
+            }
+        }
+        return best;
+    }
+
+    private void buildRows() {
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (Vertex v : vertices) {
+            min = Math.min(min, v.getIndex());
+            max = Math.max(max, v.getIndex());
+        }
+        int offset = max < 0 ? 0 : min;
+        int[] newRows = new int[Math.max(0, max - offset + 1)];
+        Arrays.fill(newRows, -1);
+        for (int r = 0; r < vertices.length; r++) {
+            newRows[vertices[r].getIndex() - offset] = r;
+        }
+        rowIndexOffset = offset;
+        rows = newRows;
+    }
+
+    /** @return the table row of the given vertex, or -1 if it is not in the tables (e.g. temporary vertices). */
+    public int getRow(Vertex v) {
+        if (rows == null) {
+            synchronized (this) {
+                if (rows == null) buildRows();
+            }
+        }
+        int i = v.getIndex() - rowIndexOffset;
+        if (i < 0 || i >= rows.length) return -1;
+        int r = rows[i];
+        return (r >= 0 && vertices[r] == v) ? r : -1;
+    }
+
+    public int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    public Vertex getLandmark(int l) {
+        return landmarks[l];
+    }
+
+    /** @return the table of distances from each landmark, for a street mode (CAR or BICYCLE). */
+    public float[] fromLandmarks(TraverseMode mode) {
+        return mode == TraverseMode.CAR ? carFromLandmark : bikeFromLandmark;
+    }
+
+    /** @return the table of distances to each landmark, for a street mode (CAR or BICYCLE). */
+    public float[] toLandmarks(TraverseMode mode) {
+        return mode == TraverseMode.CAR ? carToLandmark : bikeToLandmark;
+    }
+
+    /**
+     * @return a lower bound on the distance from the vertex in row a to the vertex in row b, using the tables
+     * returned by fromLandmarks() and toLandmarks() for the same mode. Landmarks for which either vertex is unreached
+     * are ignored.
+     */
+    public double lowerBound(float[] from, float[] to, int a, int b) {
+        int n = landmarks.length;
+        int ia = a * n;
+        int ib = b * n;
+        float best = 0;
+        for (int l = 0; l < n; l++) {
+            float forward = from[ib + l] - from[ia + l];
+            float backward = to[ia + l] - to[ib + l];
+            // NaN and infinite differences come from unreached vertices and fail these tests.
+            if (forward > best && forward != UNREACHED) best = forward;
+            if (backward > best && backward != UNREACHED) best = backward;
+        }
+        return best;
+    }
+
+    /**
+     * The street edges between table rows in compressed sparse row form in both directions, with their cost in one
+     * metric. Only used while building the tables.
+     */
+    private class Adjacency {
+
+        final int[] outStart, outEdges, inStart, inEdges;
+        final int[] from, to;
+        final float[] cost;
+        int nEdgesWithCost = 0;
+
+        Adjacency(TraverseMode mode) {
+            List<Edge> edges = new ArrayList<>();
+            for (Vertex v : vertices) {
+                for (Edge e : v.getOutgoing()) {
+                    if (e instanceof TemporaryEdge || getRow(e.getToVertex()) < 0) continue;
+                    edges.add(e);
+                }
+            }
+            int nEdges = edges.size();
+            from = new int[nEdges];
+            to = new int[nEdges];
+            cost = new float[nEdges];
+            for (int e = 0; e < nEdges; e++) {
+                Edge edge = edges.get(e);
+                from[e] = getRow(edge.getFromVertex());
+                to[e] = getRow(edge.getToVertex());
+                cost[e] = cost(edge, mode);
+                if (cost[e] > 0 && cost[e] != UNREACHED) nEdgesWithCost++;
+            }
+            outStart = new int[vertices.length + 1];
+            outEdges = new int[nEdges];
+            inStart = new int[vertices.length + 1];
+            inEdges = new int[nEdges];
+            fill(from, outStart, outEdges);
+            fill(to, inStart, inEdges);
+        }
+
+        /**
+         * Edges other than StreetEdges between street vertices (e.g. FreeEdges in areas, elevators) are given no
+         * cost, which keeps the bounds valid whatever they actually cost.
+         */
+        private float cost(Edge edge, TraverseMode mode) {
+            if (!(edge instanceof StreetEdge)) return 0;
+            StreetEdge se = (StreetEdge) edge;
+            if (mode == TraverseMode.CAR) {
+                if (!se.canTraverseIncludingBarrier(TraverseMode.CAR) || se.getCarSpeed() <= 0) return UNREACHED;
+                return (float) (se.getDistance() / se.getCarSpeed());
+            }
+            if (!se.canTraverseIncludingBarrier(TraverseMode.BICYCLE)
+                    && !se.canTraverseIncludingBarrier(TraverseMode.WALK)) {
+                return UNREACHED;
+            }
+            return (float) Math.min(se.getDistance(), se.getSlopeSpeedEffectiveLength());
+        }
+
+        private void fill(int[] endpoint, int[] start, int[] adjacent) {
+            for (int e = 0; e < endpoint.length; e++) start[endpoint[e] + 1] += 1;
+            for (int v = 0; v < vertices.length; v++) start[v + 1] += start[v];
+            int[] next = Arrays.copyOf(start, vertices.length);
+            for (int e = 0; e < endpoint.length; e++) adjacent[next[endpoint[e]]++] = e;
+        }
+
+        /** Dijkstra search from (forward) or towards (backward) the vertex in the given row. */
+        float[] distances(int origin, boolean forward) {
+            int[] start = forward ? outStart : inStart;
+            int[] adjacent = forward ? outEdges : inEdges;
+            int[] other = forward ? to : from;
+            float[] distance = new float[vertices.length];
+            Arrays.fill(distance, UNREACHED);
+            boolean[] done = new boolean[vertices.length];
+            IndexedDaryHeap<Integer> queue = new IndexedDaryHeap<>(IndexedDaryHeap.DEFAULT_ARITY, 1000,
+                    Integer::intValue, 0);
+            distance[origin] = 0;
+            queue.insert_or_dec_key(origin, 0);
+            while (!queue.empty()) {
+                int v = queue.extract_min();
+                if (done[v]) continue;
+                done[v] = true;
+                for (int i = start[v]; i < start[v + 1]; i++) {
+                    int e = adjacent[i];
+                    int w = other[e];
+                    float d = distance[v] + cost[e];
+                    if (d < distance[w]) {
+                        distance[w] = d;
+                        queue.insert_or_dec_key(w, d);
+                    }
+                }
+            }
+            return distance;
+        }
+    }
+
+}
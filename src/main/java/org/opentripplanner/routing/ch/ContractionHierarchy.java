@@ -0,0 +1,274 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.ch;
+
+import org.opentripplanner.routing.compact.CompactStreetSearch;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.IntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A contraction hierarchy over the street vertices of a graph, for one street mode with the edge weights of a fixed
+ * routing profile (the default RoutingRequest for that mode). Vertices are contracted one at a time in order of
+ * importance, adding shortcut arcs between their neighbors wherever the path through the contracted vertex is the
+ * only shortest one. A query is then a bidirectional Dijkstra search that only follows arcs towards more important
+ * vertices, which settles a tiny fraction of the graph, see ContractionHierarchySearch.
+ *
+ * Arc weights are those of StreetEdge.traverse() from a state without a back edge, so they do not include turn costs
+ * or turn restrictions. Turn costs can make another path the shortest one, so requests under which turns cost
+ * anything (including those using the default SimpleIntersectionTraversalCostModel) are never answered from the
+ * hierarchy. Turn restrictions and no-through-traffic areas only remove paths: paths are replayed through the normal
+ * traverse methods, and the caller falls back on AStar when the replay is refused.
+ *
+ * The hierarchy is built by the ContractionHierarchyModule and saved with the graph. Like LandmarkTables it keeps its
+ * vertices and edges in arrays, and rebuilds the mapping from Vertex.getIndex() after the graph is loaded.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /* The profile the arc weights were computed for. */
+    public final TraverseMode mode;
+    private final double walkReluctance;
+    private final double stairsReluctance;
+    private final double bikeSpeed;
+    private final OptimizeType optimize;
+    private final double triangleTimeFactor;
+    private final double triangleSlopeFactor;
+    private final double triangleSafetyFactor;
+    private final double bikeWalkingSpeed;
+    private final double bikeWalkingReluctance;
+    private final double bikeWalkingStairsReluctance;
+
+    /** The vertex for each node. */
+    final Vertex[] vertices;
+
+    /** The original edges referenced by arcs. */
+    final Edge[] edges;
+
+    /* Arcs, both original and shortcuts. */
+    final int[] arcFrom;
+    final int[] arcTo;
+    final double[] arcWeight;
+    /** For original arcs, the index of the edge in edges. -1 for shortcuts. */
+    final int[] arcEdge;
+    /** For shortcuts, the two arcs they replace (in path order). */
+    final int[] arcFirst;
+    final int[] arcSecond;
+
+    /* Arcs leading to more important nodes, in compressed sparse row form. upArcs are leaving their node, used by the
+       forward search. downArcs arrive at their node from a more important one, used by the backward search. */
+    final int[] upStart;
+    final int[] upArcs;
+    final int[] downStart;
+    final int[] downArcs;
+
+    /* Mapping from Vertex.getIndex() to nodes, rebuilt after deserialization. */
+    private transient volatile int[] nodes;
+    private transient int nodeIndexOffset;
+
+    ContractionHierarchy(RoutingRequest profile, Vertex[] vertices, Edge[] edges, int[] arcFrom, int[] arcTo,
+                         double[] arcWeight, int[] arcEdge, int[] arcFirst, int[] arcSecond, int[] rank) {
+        this.mode = streetMode(profile.modes);
+        this.walkReluctance = profile.walkReluctance;
+        this.stairsReluctance = profile.stairsReluctance;
+        this.bikeSpeed = profile.bikeSpeed;
+        this.optimize = profile.optimize;
+        this.triangleTimeFactor = profile.triangleTimeFactor;
+        this.triangleSlopeFactor = profile.triangleSlopeFactor;
+        this.triangleSafetyFactor = profile.triangleSafetyFactor;
+        this.bikeWalkingSpeed = profile.bikeWalkingOptions.walkSpeed;
+        this.bikeWalkingReluctance = profile.bikeWalkingOptions.walkReluctance;
+        this.bikeWalkingStairsReluctance = profile.bikeWalkingOptions.stairsReluctance;
+        this.vertices = vertices;
+        this.edges = edges;
+        this.arcFrom = arcFrom;
+        this.arcTo = arcTo;
+        this.arcWeight = arcWeight;
+        this.arcEdge = arcEdge;
+        this.arcFirst = arcFirst;
+        this.arcSecond = arcSecond;
+        int nNodes = vertices.length;
+        int nArcs = arcFrom.length;
+        upStart = new int[nNodes + 1];
+        downStart = new int[nNodes + 1];
+        int nUp = 0;
+        for (int a = 0; a < nArcs; a++) {
+            if (rank[arcFrom[a]] < rank[arcTo[a]]) {
+                upStart[arcFrom[a] + 1]++;
+                nUp++;
+            } else {
+                downStart[arcTo[a] + 1]++;
+            }
+        }
+        for (int n = 0; n < nNodes; n++) {
+            upStart[n + 1] += upStart[n];
+            downStart[n + 1] += downStart[n];
+        }
+        upArcs = new int[nUp];
+        downArcs = new int[nArcs - nUp];
+        int[] nextUp = Arrays.copyOf(upStart, nNodes);
+        int[] nextDown = Arrays.copyOf(downStart, nNodes);
+        for (int a = 0; a < nArcs; a++) {
+            if (rank[arcFrom[a]] < rank[arcTo[a]]) {
+                upArcs[nextUp[arcFrom[a]]++] = a;
+            } else {
+                downArcs[nextDown[arcTo[a]]++] = a;
+            }
+        }
+        buildNodes();
+    }
+
+    /** Contract the street vertices of a graph for the given profile. See ContractionHierarchyBuilder. */
+    public static ContractionHierarchy build(Collection<Vertex> graphVertices, RoutingRequest profile) {
+        return new ContractionHierarchyBuilder(graphVertices, profile).build();
+    }
+
+    /** @return the routing profile for which hierarchies are built for the given mode (CAR or BICYCLE). */
+    public static RoutingRequest defaultProfile(TraverseMode mode) {
+        RoutingRequest profile = new RoutingRequest(mode);
+        // Traffic speeds change over time. Requests using them never match a hierarchy.
+        profile.useTraffic = false;
+        return profile;
+    }
+
+    /** @return the street mode a search starts in, as in StateData. Only CAR and BICYCLE have hierarchies. */
+    private static TraverseMode streetMode(TraverseModeSet modes) {
+        if (modes.getCar()) return TraverseMode.CAR;
+        if (modes.getWalk()) return TraverseMode.WALK;
+        if (modes.getBicycle()) return TraverseMode.BICYCLE;
+        return null;
+    }
+
+    /**
+     * @return true if this hierarchy can answer the given request: it is a street-only request supported by
+     * CompactStreetSearch (same restrictions) in the same mode, without turn costs, with all the options that affect
+     * edge weights equal to those of the profile the hierarchy was built for.
+     */
+    public boolean matches(RoutingRequest options) {
+        if (!CompactStreetSearch.supports(options) || streetMode(options.modes) != mode) return false;
+        if (hasTurnCosts(options)) return false;
+        if (options.walkReluctance != walkReluctance || options.stairsReluctance != stairsReluctance) return false;
+        if (mode == TraverseMode.BICYCLE) {
+            if (options.bikeSpeed != bikeSpeed || options.optimize != optimize) return false;
+            if (optimize == OptimizeType.TRIANGLE && (options.triangleTimeFactor != triangleTimeFactor
+                    || options.triangleSlopeFactor != triangleSlopeFactor
+                    || options.triangleSafetyFactor != triangleSafetyFactor)) {
+                return false;
+            }
+            RoutingRequest walking = options.bikeWalkingOptions;
+            if (walking.walkSpeed != bikeWalkingSpeed || walking.walkReluctance != bikeWalkingReluctance
+                    || walking.stairsReluctance != bikeWalkingStairsReluctance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if turns can add to the weight of a path under the given request. Turn costs are weighted by the
+     * turnReluctance of the request, and computed by its cost model, or by that of its bike walking options when
+     * turning off an edge where the bike was walked in an arrive-by search.
+     */
+    private static boolean hasTurnCosts(RoutingRequest options) {
+        if (options.turnReluctance == 0) return false;
+        return !isZeroCost(options.getIntersectionTraversalCostModel())
+                || !isZeroCost(options.bikeWalkingOptions.getIntersectionTraversalCostModel());
+    }
+
+    private static boolean isZeroCost(IntersectionTraversalCostModel model) {
+        return model instanceof ConstantIntersectionTraversalCostModel
+                && ((ConstantIntersectionTraversalCostModel) model).getCost() == 0;
+    }
+
+    private void buildNodes() {
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (Vertex v : vertices) {
+            min = Math.min(min, v.getIndex());
+            max = Math.max(max, v.getIndex());
+        }
+        int offset = max < 0 ? 0 : min;
+        int[] newNodes = new int[Math.max(0, max - offset + 1)];
+        Arrays.fill(newNodes, -1);
+        for (int n = 0; n < vertices.length; n++) {
+            newNodes[vertices[n].getIndex() - offset] = n;
+        }
+        nodeIndexOffset = offset;
+        nodes = newNodes;
+    }
+
+    /** @return the node of the given vertex, or -1 if it is not in the hierarchy (e.g. temporary vertices). */
+    public int getNode(Vertex v) {
+        if (nodes == null) {
+            synchronized (this) {
+                if (nodes == null) buildNodes();
+            }
+        }
+        int i = v.getIndex() - nodeIndexOffset;
+        if (i < 0 || i >= nodes.length) return -1;
+        int n = nodes[i];
+        return (n >= 0 && vertices[n] == v) ? n : -1;
+    }
+
+    public int getNodeCount() {
+        return vertices.length;
+    }
+
+    public int getArcCount() {
+        return arcFrom.length;
+    }
+
+    /** Append the original edges that an arc stands for to the given list, in path order. */
+    void unpack(int arc, List<Edge> path) {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = arc;
+        while (top > 0) {
+            int a = stack[--top];
+            if (arcEdge[a] >= 0) {
+                path.add(edges[arcEdge[a]]);
+            } else {
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                // Push the second half first so that the first half is unpacked first.
+                stack[top++] = arcSecond[a];
+                stack[top++] = arcFirst[a];
+            }
+        }
+    }
+
+    /**
+     * @return the weight of an edge traversed on its own (without turn costs) with the given depart-after options,
+     * or infinity if it cannot be traversed. Only street edges and free edges are used.
+     */
+    static double traversalWeight(Edge edge, RoutingRequest forwardOptions) {
+        if (!(edge instanceof StreetEdge || edge instanceof FreeEdge)) return Double.POSITIVE_INFINITY;
+        State s = edge.traverse(new State(edge.getFromVertex(), forwardOptions));
+        return s == null ? Double.POSITIVE_INFINITY : s.getWeight();
+    }
+
+}
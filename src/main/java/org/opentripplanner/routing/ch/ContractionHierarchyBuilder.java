@@ -0,0 +1,268 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.ch;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Contracts the street vertices of a graph, producing a ContractionHierarchy. Vertices are taken in order of a lazily
+ * updated priority (the number of shortcuts the contraction would add, minus the number of arcs it removes, plus the
+ * number of neighbors already contracted, which spreads contraction evenly over the graph).
+ *
+ * Witness searches are limited in the number of vertices they settle, so some unnecessary shortcuts are added. This
+ * does not affect correctness, only the size of the hierarchy.
+ */
+class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /* Limit on the number of vertices settled by each witness search. */
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+
+    private final RoutingRequest profile;
+
+    private final Vertex[] vertices;
+    private final Map<Vertex, Integer> nodeForVertex = new HashMap<>();
+    private final List<Edge> edges = new ArrayList<>();
+
+    /* Arcs, both original and shortcuts. */
+    private final TIntArrayList arcFrom = new TIntArrayList();
+    private final TIntArrayList arcTo = new TIntArrayList();
+    private final TDoubleArrayList arcWeight = new TDoubleArrayList();
+    private final TIntArrayList arcEdge = new TIntArrayList();
+    private final TIntArrayList arcFirst = new TIntArrayList();
+    private final TIntArrayList arcSecond = new TIntArrayList();
+
+    /* Arcs leaving and arriving at each node, including those to contracted nodes, which are skipped. */
+    private final TIntArrayList[] outArcs;
+    private final TIntArrayList[] inArcs;
+
+    private final boolean[] contracted;
+    private final int[] deletedNeighbors;
+    private final int[] rank;
+
+    /* Witness search state, reset after each search. */
+    private final double[] witnessWeight;
+    private final TIntArrayList witnessTouched = new TIntArrayList();
+    private final BinHeap<Integer> witnessQueue = new BinHeap<>();
+
+    ContractionHierarchyBuilder(Collection<Vertex> graphVertices, RoutingRequest profile) {
+        this.profile = profile;
+        List<Vertex> streetVertices = new ArrayList<>();
+        for (Vertex v : graphVertices) {
+            if (v instanceof StreetVertex && !(v instanceof TemporaryVertex)) {
+                nodeForVertex.put(v, streetVertices.size());
+                streetVertices.add(v);
+            }
+        }
+        vertices = streetVertices.toArray(new Vertex[streetVertices.size()]);
+        int n = vertices.length;
+        outArcs = new TIntArrayList[n];
+        inArcs = new TIntArrayList[n];
+        for (int i = 0; i < n; i++) {
+            outArcs[i] = new TIntArrayList(4);
+            inArcs[i] = new TIntArrayList(4);
+        }
+        contracted = new boolean[n];
+        deletedNeighbors = new int[n];
+        rank = new int[n];
+        witnessWeight = new double[n];
+        Arrays.fill(witnessWeight, Double.POSITIVE_INFINITY);
+    }
+
+    ContractionHierarchy build() {
+        addOriginalArcs();
+        int nOriginal = arcFrom.size();
+        int n = vertices.length;
+        IndexedDaryHeap<Integer> queue = new IndexedDaryHeap<>(IndexedDaryHeap.DEFAULT_ARITY, n, i -> i, 0);
+        for (int v = 0; v < n; v++) {
+            queue.insert_or_dec_key(v, priority(v));
+        }
+        int order = 0;
+        while (!queue.empty()) {
+            int v = queue.extract_min();
+            // Priorities of vertices whose neighborhood changed indirectly are stale. Recompute before contracting.
+            double p = priority(v);
+            if (!queue.empty() && p > queue.peek_min_key()) {
+                queue.insert_or_dec_key(v, p);
+                continue;
+            }
+            contract(v, false);
+            contracted[v] = true;
+            rank[v] = order++;
+            for (int u : neighbors(v)) {
+                deletedNeighbors[u]++;
+                queue.insert_or_dec_key(u, priority(u));
+            }
+            if (order % 100000 == 0) {
+                LOG.info("Contracted {} of {} vertices, {} shortcuts so far.", order, n, arcFrom.size() - nOriginal);
+            }
+        }
+        LOG.info("Contraction hierarchy for {}: {} vertices, {} original arcs and {} shortcuts.",
+                profile.modes, n, nOriginal, arcFrom.size() - nOriginal);
+        return new ContractionHierarchy(profile, vertices, edges.toArray(new Edge[edges.size()]),
+                arcFrom.toArray(), arcTo.toArray(), arcWeight.toArray(), arcEdge.toArray(), arcFirst.toArray(),
+                arcSecond.toArray(), rank);
+    }
+
+    /** Add an arc for every street or free edge between two street vertices that can be traversed in this profile. */
+    private void addOriginalArcs() {
+        for (int from = 0; from < vertices.length; from++) {
+            for (Edge e : vertices[from].getOutgoing()) {
+                if (e instanceof TemporaryEdge) continue;
+                Integer to = nodeForVertex.get(e.getToVertex());
+                if (to == null || to == from) continue;
+                double weight = ContractionHierarchy.traversalWeight(e, profile);
+                if (Double.isInfinite(weight)) continue;
+                edges.add(e);
+                addArc(from, to, weight, edges.size() - 1, -1, -1);
+            }
+        }
+    }
+
+    private void addArc(int from, int to, double weight, int edge, int first, int second) {
+        int a = arcFrom.size();
+        arcFrom.add(from);
+        arcTo.add(to);
+        arcWeight.add(weight);
+        arcEdge.add(edge);
+        arcFirst.add(first);
+        arcSecond.add(second);
+        outArcs[from].add(a);
+        inArcs[to].add(a);
+    }
+
+    private Set<Integer> neighbors(int v) {
+        Set<Integer> result = new LinkedHashSet<>();
+        for (int i = 0; i < inArcs[v].size(); i++) {
+            int u = arcFrom.get(inArcs[v].get(i));
+            if (!contracted[u]) result.add(u);
+        }
+        for (int i = 0; i < outArcs[v].size(); i++) {
+            int w = arcTo.get(outArcs[v].get(i));
+            if (!contracted[w]) result.add(w);
+        }
+        return result;
+    }
+
+    private double priority(int v) {
+        int degree = 0;
+        for (int i = 0; i < inArcs[v].size(); i++) {
+            if (!contracted[arcFrom.get(inArcs[v].get(i))]) degree++;
+        }
+        for (int i = 0; i < outArcs[v].size(); i++) {
+            if (!contracted[arcTo.get(outArcs[v].get(i))]) degree++;
+        }
+        int shortcuts = contract(v, true);
+        return 2 * shortcuts - degree + deletedNeighbors[v];
+    }
+
+    /**
+     * Find the shortcuts needed to remove v from the remaining graph: for every pair of arcs u->v->w there must be a
+     * path from u to w of at most the same weight that avoids v.
+     * @param simulate if true, only count the shortcuts, otherwise add them.
+     * @return the number of shortcuts.
+     */
+    private int contract(int v, boolean simulate) {
+        int shortcuts = 0;
+        TIntArrayList in = inArcs[v];
+        TIntArrayList out = outArcs[v];
+        for (int i = 0; i < in.size(); i++) {
+            int a = in.get(i);
+            int u = arcFrom.get(a);
+            if (contracted[u]) continue;
+            double maxWeight = 0;
+            for (int j = 0; j < out.size(); j++) {
+                int b = out.get(j);
+                int w = arcTo.get(b);
+                if (contracted[w] || w == u) continue;
+                maxWeight = Math.max(maxWeight, arcWeight.get(a) + arcWeight.get(b));
+            }
+            if (maxWeight == 0) continue;
+            witnessSearch(u, v, maxWeight);
+            for (int j = 0; j < out.size(); j++) {
+                int b = out.get(j);
+                int w = arcTo.get(b);
+                if (contracted[w] || w == u) continue;
+                double weight = arcWeight.get(a) + arcWeight.get(b);
+                if (witnessWeight[w] <= weight) continue;
+                shortcuts++;
+                if (!simulate) {
+                    addArc(u, w, weight, -1, a, b);
+                    // Later pairs through v from the same u can use the new shortcut as a witness.
+                    if (Double.isInfinite(witnessWeight[w])) witnessTouched.add(w);
+                    witnessWeight[w] = weight;
+                }
+            }
+            resetWitnessSearch();
+        }
+        return shortcuts;
+    }
+
+    /** Dijkstra search from the given node over uncontracted nodes, avoiding one node, up to a maximum weight. */
+    private void witnessSearch(int source, int avoid, double maxWeight) {
+        witnessWeight[source] = 0;
+        witnessTouched.add(source);
+        witnessQueue.insert(source, 0);
+        int settled = 0;
+        while (!witnessQueue.empty() && settled < WITNESS_SETTLE_LIMIT) {
+            double weight = witnessQueue.peek_min_key();
+            int u = witnessQueue.extract_min();
+            if (weight > witnessWeight[u]) continue;
+            if (weight > maxWeight) break;
+            settled++;
+            TIntArrayList out = outArcs[u];
+            for (int i = 0; i < out.size(); i++) {
+                int a = out.get(i);
+                int w = arcTo.get(a);
+                if (w == avoid || contracted[w]) continue;
+                double newWeight = weight + arcWeight.get(a);
+                if (newWeight < witnessWeight[w]) {
+                    if (Double.isInfinite(witnessWeight[w])) witnessTouched.add(w);
+                    witnessWeight[w] = newWeight;
+                    witnessQueue.insert(w, newWeight);
+                }
+            }
+        }
+    }
+
+    private void resetWitnessSearch() {
+        for (int i = 0; i < witnessTouched.size(); i++) {
+            witnessWeight[witnessTouched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        witnessTouched.resetQuick();
+        witnessQueue.reset();
+    }
+
+}
@@ -0,0 +1,266 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.ch;
+
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single street-only query on a ContractionHierarchy. The origin and destination of a request are usually temporary
+ * vertices linked into the streets, which are not in the hierarchy. A small Dijkstra search over temporary vertices
+ * first finds the hierarchy nodes they are connected to (the seeds). A bidirectional search that only follows arcs
+ * towards more important nodes then connects the two sets of seeds, and the arcs are unpacked into the original edges.
+ *
+ * As in CompactStreetSearch, the resulting edges are traversed with the request to produce a GraphPath with the usual
+ * states, times and weights. route() returns null when no path is found or the replay is refused (e.g. because of a
+ * turn restriction), in which case the caller should fall back on AStar.
+ */
+public class ContractionHierarchySearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchySearch.class);
+
+    /* Limit on the number of vertices explored around the origin and destination before reaching the hierarchy. */
+    private static final int MAX_ACCESS_VERTICES = 1000;
+
+    private final ContractionHierarchy ch;
+    private final RoutingRequest options;
+
+    /** A copy of the request in the depart-after direction, used to weigh temporary edges. */
+    private final RoutingRequest forwardOptions;
+
+    /* Number of hierarchy nodes settled by the last search, in both directions. */
+    private int settledNodes;
+
+    public ContractionHierarchySearch(ContractionHierarchy ch, RoutingRequest options) {
+        this.ch = ch;
+        this.options = options;
+        this.forwardOptions = options.clone();
+        this.forwardOptions.setArriveBy(false);
+    }
+
+    /**
+     * Find the path from the trip origin to the trip destination and convert it to a GraphPath by traversing the
+     * original edges in the direction of the request.
+     * @return the path, or null if there is none in the hierarchy or the full edge model refused it.
+     */
+    public GraphPath route() {
+        List<Edge> path = findPath(options.rctx.fromVertex, options.rctx.toVertex);
+        if (path == null) return null;
+        if (options.arriveBy) Collections.reverse(path);
+        State state = new State(options);
+        for (Edge edge : path) {
+            state = edge.traverse(state);
+            if (state == null) {
+                LOG.debug("Edge {} refused replay of a contraction hierarchy path, falling back.", edge);
+                return null;
+            }
+        }
+        return new GraphPath(state, true);
+    }
+
+    /** @return the number of hierarchy nodes settled by the last search. */
+    public int getSettledNodes() {
+        return settledNodes;
+    }
+
+    /** @return the edges of the lowest-weight path between the given vertices, in travel order, or null if none. */
+    public List<Edge> findPath(Vertex origin, Vertex destination) {
+        settledNodes = 0;
+        if (origin == null || destination == null) return null;
+        Access access = new Access(origin, destination, false);
+        Access egress = new Access(destination, origin, true);
+
+        Direction forward = new Direction(true, access);
+        Direction backward = new Direction(false, egress);
+        double best = access.direct == null ? Double.POSITIVE_INFINITY : access.direct.weight;
+        int meeting = -1;
+        while (true) {
+            double f = forward.minKey();
+            double b = backward.minKey();
+            if (Math.min(f, b) >= best) break;
+            Direction current = f <= b ? forward : backward;
+            Direction other = current == forward ? backward : forward;
+            int node = current.settleNext();
+            if (node < 0) continue;
+            settledNodes++;
+            if (other.weights.containsKey(node)) {
+                double weight = current.weights.get(node) + other.weights.get(node);
+                if (weight < best) {
+                    best = weight;
+                    meeting = node;
+                }
+            }
+        }
+        if (meeting < 0) {
+            // The direct path between temporary vertices, if any, is the best.
+            return access.direct == null ? null : access.direct.edges(false);
+        }
+        List<Edge> path = forward.edgesTo(meeting);
+        path.addAll(backward.edgesTo(meeting));
+        return path;
+    }
+
+    /** A label in the searches over temporary vertices around the origin and destination. */
+    private static class Label {
+        final Vertex vertex;
+        final Edge edge;
+        final Label previous;
+        final double weight;
+
+        Label(Vertex vertex, Edge edge, Label previous, double weight) {
+            this.vertex = vertex;
+            this.edge = edge;
+            this.previous = previous;
+            this.weight = weight;
+        }
+
+        /** @return the edges leading from the search origin to this label, reversed if the search was backward. */
+        List<Edge> edges(boolean backward) {
+            List<Edge> result = new ArrayList<>();
+            for (Label l = this; l.edge != null; l = l.previous) result.add(l.edge);
+            if (!backward) Collections.reverse(result);
+            return result;
+        }
+    }
+
+    /**
+     * The hierarchy nodes reachable from the origin (or reaching the destination, if backward) through vertices that
+     * are not in the hierarchy, with the best label for each.
+     */
+    private class Access {
+        final List<Label> seeds = new ArrayList<>();
+        final List<Integer> seedNodes = new ArrayList<>();
+        /** The best label at the other end of the trip, if it was reached without entering the hierarchy. */
+        Label direct;
+
+        Access(Vertex start, Vertex end, boolean backward) {
+            Map<Vertex, Label> best = new IdentityHashMap<>();
+            BinHeap<Label> queue = new BinHeap<>();
+            Label first = new Label(start, null, null, 0);
+            best.put(start, first);
+            queue.insert(first, 0);
+            int explored = 0;
+            while (!queue.empty() && explored < MAX_ACCESS_VERTICES) {
+                Label label = queue.extract_min();
+                if (best.get(label.vertex) != label) continue;
+                explored++;
+                int node = ch.getNode(label.vertex);
+                if (node >= 0) {
+                    seeds.add(label);
+                    seedNodes.add(node);
+                    continue;
+                }
+                if (label.vertex == end) {
+                    direct = label;
+                    continue;
+                }
+                for (Edge e : backward ? label.vertex.getIncoming() : label.vertex.getOutgoing()) {
+                    double weight = ContractionHierarchy.traversalWeight(e, forwardOptions);
+                    if (Double.isInfinite(weight)) continue;
+                    Vertex v = backward ? e.getFromVertex() : e.getToVertex();
+                    Label existing = best.get(v);
+                    if (existing != null && existing.weight <= label.weight + weight) continue;
+                    Label next = new Label(v, e, label, label.weight + weight);
+                    best.put(v, next);
+                    queue.insert(next, next.weight);
+                }
+            }
+        }
+    }
+
+    /** One half of the bidirectional search in the hierarchy, only following arcs towards more important nodes. */
+    private class Direction {
+        final boolean forward;
+        final Access access;
+        final TIntDoubleMap weights = new TIntDoubleHashMap();
+        /** The arc through which each node was reached, or -1 minus the index of its seed in the access search. */
+        final TIntIntMap parents = new TIntIntHashMap();
+        final TIntDoubleMap settled = new TIntDoubleHashMap();
+        final BinHeap<Integer> queue = new BinHeap<>();
+
+        Direction(boolean forward, Access access) {
+            this.forward = forward;
+            this.access = access;
+            for (int s = 0; s < access.seeds.size(); s++) {
+                relax(access.seedNodes.get(s), access.seeds.get(s).weight, -1 - s);
+            }
+        }
+
+        private void relax(int node, double weight, int parent) {
+            if (weights.containsKey(node) && weights.get(node) <= weight) return;
+            weights.put(node, weight);
+            parents.put(node, parent);
+            queue.insert(node, weight);
+        }
+
+        double minKey() {
+            return queue.empty() ? Double.POSITIVE_INFINITY : queue.peek_min_key();
+        }
+
+        /** @return the node settled, or -1 if the queue entry was stale. */
+        int settleNext() {
+            double weight = queue.peek_min_key();
+            int node = queue.extract_min();
+            if (settled.containsKey(node) || weight > weights.get(node)) return -1;
+            settled.put(node, weight);
+            int[] start = forward ? ch.upStart : ch.downStart;
+            int[] arcs = forward ? ch.upArcs : ch.downArcs;
+            int[] far = forward ? ch.arcTo : ch.arcFrom;
+            for (int i = start[node]; i < start[node + 1]; i++) {
+                int a = arcs[i];
+                relax(far[a], weight + ch.arcWeight[a], a);
+            }
+            return node;
+        }
+
+        /**
+         * @return the edges from the origin to the given node for the forward search, or from the given node to the
+         * destination for the backward search, in travel order.
+         */
+        List<Edge> edgesTo(int node) {
+            List<Integer> arcs = new ArrayList<>();
+            int parent = parents.get(node);
+            while (parent >= 0) {
+                arcs.add(parent);
+                parent = parents.get(forward ? ch.arcFrom[parent] : ch.arcTo[parent]);
+            }
+            List<Edge> path = new ArrayList<>();
+            Label seed = access.seeds.get(-1 - parent);
+            if (forward) {
+                path.addAll(seed.edges(false));
+                Collections.reverse(arcs);
+            }
+            for (int a : arcs) ch.unpack(a, path);
+            if (!forward) path.addAll(seed.edges(true));
+            return path;
+        }
+    }
+
+}
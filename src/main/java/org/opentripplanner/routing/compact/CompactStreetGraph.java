@@ -0,0 +1,314 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.compact;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.util.ElevationUtils;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A structure-of-arrays copy of the street layer of a Graph, built once after the graph is loaded.
+ *
+ * Vertices are addressed by their Vertex.getIndex() minus the smallest index in the graph, and adjacency is stored in
+ * compressed sparse row form in both directions. The attributes of StreetEdges that matter for routing (length,
+ * permissions, car speed, bicycle safety, flags, the angles at both ends, and the slope-adjusted lengths when
+ * elevation data is present) are copied into primitive arrays indexed by compact edge number, and those of vertices
+ * that matter for turn costs into arrays indexed by compact vertex number. A search then only has to touch Edge and
+ * Vertex objects to check turn restrictions, for temporary edges, and to build its final result.
+ *
+ * StreetTransitLinks are also included (flagged as links) so that transit stops can be found by street searches.
+ * All other edge types are left out, so searches that need them must fall back on the object graph.
+ *
+ * This is a snapshot: structural changes made to the Graph after construction (e.g. permanent splitting of streets
+ * by real-time bike rental updaters) are not reflected here.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    /* Permission bits, matching the codes in StreetTraversalPermission. */
+    public static final int PERMISSION_WALK = 1;
+    public static final int PERMISSION_BICYCLE = 2;
+    public static final int PERMISSION_CAR = 4;
+
+    /* Edge flags. */
+    public static final int FLAG_STAIRS = 1;
+    public static final int FLAG_WHEELCHAIR_ACCESSIBLE = 2;
+    public static final int FLAG_NO_THRU_TRAFFIC = 4;
+    public static final int FLAG_TURN_RESTRICTED = 8;
+    public static final int FLAG_LINK = 16;
+
+    /* Vertex flags. */
+    public static final int VERTEX_INTERSECTION = 1;
+    public static final int VERTEX_TRAFFIC_LIGHT = 2;
+    /** IntersectionVertex.inferredFreeFlowing(), which depends on the degree of the vertex in the graph as built. */
+    public static final int VERTEX_FREE_FLOWING = 4;
+    /** The vertex has an outgoing street edge outside of no-through-traffic areas. */
+    public static final int VERTEX_THRU_EXIT = 8;
+    public static final int VERTEX_TRANSIT_STOP = 16;
+
+    public final Graph graph;
+
+    /** Vertex.getIndex() of the vertex stored at compact index 0. */
+    public final int indexOffset;
+
+    /** Number of vertex slots. Some may be null if vertices were removed from the graph. */
+    public final int nVertices;
+
+    public final int nEdges;
+
+    final Vertex[] vertices;
+
+    /* Vertex coordinates, used by goal-directed searches. */
+    final double[] lat;
+    final double[] lon;
+
+    final byte[] vertexFlags;
+
+    /* Compressed sparse row adjacency. Edges leaving vertex v are outEdges[outStart[v]] .. outEdges[outStart[v+1]-1]. */
+    final int[] outStart;
+    final int[] outEdges;
+    final int[] inStart;
+    final int[] inEdges;
+
+    final int[] fromVertex;
+    final int[] toVertex;
+
+    /* Edge attributes. */
+    final int[] lengthMm;
+    final byte[] permissions;
+    final byte[] flags;
+    final float[] carSpeed;
+    final float[] bicycleSafety;
+
+    /* StreetEdge.getInAngle() and getOutAngle(), in degrees. */
+    final short[] inAngle;
+    final short[] outAngle;
+
+    /** The fixed traversal time of each link edge in seconds, as charged by StreetTransitLink.traverse(). */
+    final int[] linkTime;
+
+    /* Slope-adjusted lengths in meters. These are null when no edge in the graph has elevation data. */
+    final float[] slopeSpeedLength;
+    final float[] slopeWorkLength;
+    final float[] walkCostLength;
+
+    /** The compact numbers of the edges that have turn restrictions, in increasing order. */
+    final int[] turnRestrictedEdges;
+
+    /** The original edges, used to check turn restrictions and to turn search results back into GraphPaths. */
+    final Edge[] edges;
+
+    /** The arrays of the last CompactStreetSearch on each thread, which are reused by the next one. */
+    final ThreadLocal<CompactStreetSearch.Buffers> searchBuffers = new ThreadLocal<CompactStreetSearch.Buffers>() {
+        @Override
+        protected CompactStreetSearch.Buffers initialValue() {
+            return new CompactStreetSearch.Buffers();
+        }
+    };
+
+    public CompactStreetGraph(Graph graph) {
+        this.graph = graph;
+        long startTime = System.currentTimeMillis();
+        Collection<Vertex> graphVertices = graph.getVertices();
+        int minIndex = Integer.MAX_VALUE;
+        int maxIndex = -1;
+        for (Vertex v : graphVertices) {
+            minIndex = Math.min(minIndex, v.getIndex());
+            maxIndex = Math.max(maxIndex, v.getIndex());
+        }
+        if (maxIndex < 0) minIndex = 0;
+        indexOffset = minIndex;
+        nVertices = maxIndex - minIndex + 1;
+        vertices = new Vertex[nVertices];
+        lat = new double[nVertices];
+        lon = new double[nVertices];
+        vertexFlags = new byte[nVertices];
+        for (Vertex v : graphVertices) {
+            int i = v.getIndex() - indexOffset;
+            vertices[i] = v;
+            lat[i] = v.getLat();
+            lon[i] = v.getLon();
+            vertexFlags[i] = (byte) vertexFlagsFor(v);
+        }
+
+        List<Edge> streetEdges = new ArrayList<>();
+        boolean hasElevation = false;
+        for (Vertex v : graphVertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof TemporaryEdge || !contains(e.getToVertex())) continue;
+                if (e instanceof StreetEdge) {
+                    StreetEdge se = (StreetEdge) e;
+                    hasElevation |= se.getSlopeSpeedEffectiveLength() != se.getDistance()
+                            || se.getSlopeWorkCostEffectiveLength() != se.getDistance()
+                            || se.getMaxSlope() != 0;
+                    streetEdges.add(e);
+                } else if (e instanceof StreetTransitLink) {
+                    streetEdges.add(e);
+                }
+            }
+        }
+
+        nEdges = streetEdges.size();
+        edges = streetEdges.toArray(new Edge[nEdges]);
+        fromVertex = new int[nEdges];
+        toVertex = new int[nEdges];
+        lengthMm = new int[nEdges];
+        permissions = new byte[nEdges];
+        flags = new byte[nEdges];
+        carSpeed = new float[nEdges];
+        bicycleSafety = new float[nEdges];
+        inAngle = new short[nEdges];
+        outAngle = new short[nEdges];
+        linkTime = new int[nEdges];
+        slopeSpeedLength = hasElevation ? new float[nEdges] : null;
+        slopeWorkLength = hasElevation ? new float[nEdges] : null;
+        walkCostLength = hasElevation ? new float[nEdges] : null;
+
+        TIntList restricted = new TIntArrayList();
+        for (int e = 0; e < nEdges; e++) {
+            Edge edge = edges[e];
+            fromVertex[e] = getCompactIndex(edge.getFromVertex());
+            toVertex[e] = getCompactIndex(edge.getToVertex());
+            if (edge instanceof StreetEdge) {
+                StreetEdge se = (StreetEdge) edge;
+                lengthMm[e] = (int) Math.round(se.getDistance() * 1000);
+                permissions[e] = (byte) permissionCode(se);
+                flags[e] = (byte) flagsFor(se, graph);
+                if ((flags[e] & FLAG_TURN_RESTRICTED) != 0) restricted.add(e);
+                carSpeed[e] = se.getCarSpeed();
+                bicycleSafety[e] = se.getBicycleSafetyFactor();
+                inAngle[e] = (short) se.getInAngle();
+                outAngle[e] = (short) se.getOutAngle();
+                if (hasElevation) {
+                    slopeSpeedLength[e] = (float) se.getSlopeSpeedEffectiveLength();
+                    slopeWorkLength[e] = (float) se.getSlopeWorkCostEffectiveLength();
+                    walkCostLength[e] = (float) walkCostLength(se);
+                }
+            } else {
+                // StreetTransitLinks have no length and are usable on foot, their time is found via the TransitStop.
+                permissions[e] = PERMISSION_WALK;
+                flags[e] = FLAG_LINK;
+                Vertex stop = edge.getToVertex() instanceof TransitStop ? edge.getToVertex() : edge.getFromVertex();
+                linkTime[e] = ((TransitStop) stop).getStreetToStopTime() + 1;
+            }
+        }
+        turnRestrictedEdges = restricted.toArray();
+
+        outStart = new int[nVertices + 1];
+        outEdges = new int[nEdges];
+        inStart = new int[nVertices + 1];
+        inEdges = new int[nEdges];
+        fillAdjacency(fromVertex, outStart, outEdges);
+        fillAdjacency(toVertex, inStart, inEdges);
+
+        LOG.info("Built compact street graph with {} vertices and {} edges in {} msec.", nVertices, nEdges,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /** Counting sort of edge numbers by their endpoint, producing compressed sparse row arrays. */
+    private void fillAdjacency(int[] endpoint, int[] start, int[] adjacent) {
+        for (int e = 0; e < nEdges; e++) {
+            start[endpoint[e] + 1] += 1;
+        }
+        for (int v = 0; v < nVertices; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] next = new int[nVertices];
+        System.arraycopy(start, 0, next, 0, nVertices);
+        for (int e = 0; e < nEdges; e++) {
+            adjacent[next[endpoint[e]]++] = e;
+        }
+    }
+
+    /** @return the compact index of the given vertex, or -1 if it is not part of this compact graph. */
+    public int getCompactIndex(Vertex v) {
+        int i = v.getIndex() - indexOffset;
+        if (i < 0 || i >= nVertices || vertices[i] != v) return -1;
+        return i;
+    }
+
+    public boolean contains(Vertex v) {
+        return getCompactIndex(v) >= 0;
+    }
+
+    public Vertex getVertex(int compactIndex) {
+        return vertices[compactIndex];
+    }
+
+    public Edge getEdge(int compactEdge) {
+        return edges[compactEdge];
+    }
+
+    /** @return the permission bits of a street edge, taking barriers at its endpoints into account. */
+    static int permissionCode(StreetEdge se) {
+        int code = 0;
+        if (se.canTraverseIncludingBarrier(TraverseMode.WALK)) code |= PERMISSION_WALK;
+        if (se.canTraverseIncludingBarrier(TraverseMode.BICYCLE)) code |= PERMISSION_BICYCLE;
+        if (se.canTraverseIncludingBarrier(TraverseMode.CAR)) code |= PERMISSION_CAR;
+        return code;
+    }
+
+    static int vertexFlagsFor(Vertex v) {
+        int f = 0;
+        if (v instanceof IntersectionVertex) {
+            IntersectionVertex iv = (IntersectionVertex) v;
+            f |= VERTEX_INTERSECTION;
+            if (iv.trafficLight) f |= VERTEX_TRAFFIC_LIGHT;
+            if (iv.inferredFreeFlowing()) f |= VERTEX_FREE_FLOWING;
+        }
+        if (v instanceof TransitStop) f |= VERTEX_TRANSIT_STOP;
+        for (Edge e : v.getOutgoing()) {
+            if (e instanceof StreetEdge && !((StreetEdge) e).isNoThruTraffic()) {
+                f |= VERTEX_THRU_EXIT;
+                break;
+            }
+        }
+        return f;
+    }
+
+    static int flagsFor(StreetEdge se, Graph graph) {
+        int f = 0;
+        if (se.isStairs()) f |= FLAG_STAIRS;
+        if (se.isWheelchairAccessible()) f |= FLAG_WHEELCHAIR_ACCESSIBLE;
+        if (se.isNoThruTraffic()) f |= FLAG_NO_THRU_TRAFFIC;
+        if (!graph.getTurnRestrictions(se).isEmpty()) f |= FLAG_TURN_RESTRICTED;
+        return f;
+    }
+
+    /**
+     * @return the length such that dividing it by the walk speed gives the slope-dependent walk cost used in
+     * StreetEdge.doTraverse(). On flat ground this is just the length of the edge.
+     */
+    static double walkCostLength(StreetEdge se) {
+        double costs = ElevationUtils.getWalkCostsForSlope(se.getDistance(), se.getMaxSlope());
+        return costs * (4.0 / 3.0);
+    }
+
+}
@@ -0,0 +1,807 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.compact;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.AbstractIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.IntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.opentripplanner.routing.compact.CompactStreetGraph.*;
+
+/**
+ * A single-mode, single-state street search over a CompactStreetGraph. This replaces AStar for street-only requests
+ * whose options do not require the multi-state machinery (bike rental, parking, wheelchair slope limits...).
+ *
+ * The edge cost model is the one in StreetEdge.doTraverse(). The parts that depend on the previous edge (U-turns,
+ * turn costs and no-through-traffic areas) are evaluated from the compact arrays for the edge each label was reached
+ * by. Only turn restrictions, edges of the temporary vertices and turn cost models other than the built-in ones are
+ * evaluated on the original objects. Like the State-based searches this keeps a single label per vertex, except that a
+ * vertex reached through an edge with turn restrictions gets a separate label for that edge, which is pruned by the
+ * vertex label when it is no worse (see DominanceFunction.betterOrEqualAndComparable()).
+ *
+ * The search is only used to choose a sequence of edges: route() replays that sequence through the normal
+ * Edge.traverse() methods, so the resulting GraphPath carries exactly the same times and weights as an AStar result
+ * would, and a null is returned when the replay is refused so the caller can fall back on AStar.
+ *
+ * The temporary vertices and edges that the RoutingContext creates around the origin and destination are not in the
+ * compact graph. They are given search ids above the compact vertex range and their edges are costed from the
+ * objects themselves. The turns at the graph vertices they are attached to are also costed from the objects, because
+ * attaching them changes the degree of those vertices.
+ *
+ * The per-label arrays are the size of the compact graph. They are kept by the graph for each thread and reused by the
+ * next search on that thread, which only resets the entries the previous one touched. One instance should be used for
+ * exactly one search, and its results must be read before the next search on the same thread.
+ */
+public class CompactStreetSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetSearch.class);
+
+    /** Same as StreetEdge.GREENWAY_SAFETY_FACTOR. */
+    private static final double GREENWAY_SAFETY_FACTOR = 0.1;
+
+    private final CompactStreetGraph graph;
+
+    private final RoutingRequest options;
+
+    private final TraverseMode mode;
+
+    private final boolean arriveBy;
+
+    /** If true, order the search by elapsed time rather than weight, like EarliestArrivalSearch. */
+    public boolean earliestArrival = false;
+
+    /** If true, StreetTransitLinks may be traversed to reach transit stops. Stops are never expanded further. */
+    public boolean useLinks = false;
+
+    /** States that cannot be reached within this many seconds are not enqueued. */
+    public int maxDurationSeconds = Integer.MAX_VALUE;
+
+    /*
+     * Per-label search state, borrowed from the buffers of the current thread. Ids at or above graph.nVertices refer
+     * to labels behind the turn-restricted edges of the compact graph, in the order of graph.turnRestrictedEdges, and
+     * ids at or above temporaryBase to temporary vertices. Back vertices are label ids.
+     */
+    private Buffers buffers;
+    private double[] weights;
+    private int[] times;
+    private int[] backEdges;
+    private int[] backVertices;
+    private boolean[] enteredNoThru;
+    private boolean[] settled;
+    private final int temporaryBase;
+    private final TIntList settledIds = new TIntArrayList();
+
+    /* Temporary vertices and the object edges connecting them to the compact graph. */
+    private final List<Vertex> temporaryVertices = new ArrayList<>();
+    private final Map<Vertex, Integer> temporaryIds = new HashMap<>();
+    private final List<Edge> extraEdges = new ArrayList<>();
+    private final TIntObjectMap<TIntList> extraAdjacency = new TIntObjectHashMap<>();
+
+    /** The graph vertices that temporary edges are attached to. */
+    private final TIntSet attachedVertices = new TIntHashSet();
+
+    /* Goal direction, as in EuclideanRemainingWeightHeuristic. */
+    private boolean goalDirected = false;
+    private double targetLat;
+    private double targetLon;
+    private double heuristicFactor;
+
+    /* Results of the last calls to streetCost() and turn(). */
+    private int edgeTime;
+    private double edgeWeight;
+    private TraverseMode edgeMode;
+    private RoutingRequest edgeOptions;
+    private boolean edgeEntersNoThru;
+
+    public CompactStreetSearch(CompactStreetGraph graph, RoutingRequest options) {
+        this.graph = graph;
+        this.options = options;
+        this.arriveBy = options.arriveBy;
+        this.mode = streetMode(options.modes);
+        this.temporaryBase = graph.nVertices + graph.turnRestrictedEdges.length;
+    }
+
+    /** @return the mode a State created from a request with these modes would start in, mirroring StateData. */
+    private static TraverseMode streetMode(TraverseModeSet modes) {
+        if (modes.getCar()) return TraverseMode.CAR;
+        if (modes.getWalk()) return TraverseMode.WALK;
+        if (modes.getBicycle()) return TraverseMode.BICYCLE;
+        return null;
+    }
+
+    /**
+     * @return true if the request can be answered by a compact street search, i.e. it is street-only and does not
+     * use any option that needs more than one state per vertex or information the compact graph does not carry.
+     */
+    public static boolean supports(RoutingRequest options) {
+        if (options.modes.isTransit() || streetMode(options.modes) == null) return false;
+        if (options.wheelchairAccessible || options.allowBikeRental || options.parkAndRide
+                || options.kissAndRide || options.bikeParkAndRide) return false;
+        if (options.bikeSwitchTime != 0 || options.bikeSwitchCost != 0) return false;
+        if (options.hasIntermediatePlaces()) return false;
+        if (options.rctx != null && options.useTraffic && options.rctx.streetSpeedSnapshot != null) return false;
+        // Walk limits only apply to street-only requests in batch mode (see StateEditor.weHaveWalkedTooFar()).
+        if (options.batch) return false;
+        return true;
+    }
+
+    /**
+     * Find a path from the routing context origin to its target and convert it to a GraphPath by traversing the
+     * original edges.
+     * @return the path, or null if none was found in the compact graph or the full edge model refused it.
+     */
+    public GraphPath route() {
+        Vertex origin = options.rctx.origin;
+        Vertex target = options.rctx.target;
+        if (origin == null || target == null) return null;
+        search(origin, target);
+        List<Edge> path = getPathEdges(target);
+        if (path == null) return null;
+        State state = new State(options);
+        for (Edge edge : path) {
+            state = edge.traverse(state);
+            if (state == null) {
+                LOG.debug("Edge {} refused replay of a compact street path, falling back.", edge);
+                return null;
+            }
+        }
+        return new GraphPath(state, true);
+    }
+
+    /**
+     * Run the search from the given vertex. If a target is given, the search is goal-directed and stops when the
+     * target is reached. Otherwise it continues until the queue is empty or maxDurationSeconds is exceeded.
+     */
+    public void search(Vertex origin, Vertex target) {
+        registerTemporaryVertex(origin);
+        if (target != null) registerTemporaryVertex(target);
+        connectTemporaryVertices();
+
+        buffers = graph.searchBuffers.get();
+        buffers.claim(this, temporaryBase + temporaryVertices.size());
+        weights = buffers.weights;
+        times = buffers.times;
+        backEdges = buffers.backEdges;
+        backVertices = buffers.backVertices;
+        enteredNoThru = buffers.enteredNoThru;
+        settled = buffers.settled;
+
+        int o = searchId(origin);
+        int t = target == null ? -1 : searchId(target);
+        if (o < 0) return;
+
+        if (t >= 0 && !earliestArrival) {
+            goalDirected = true;
+            targetLat = target.getLat();
+            targetLon = target.getLon();
+            heuristicFactor = options.walkReluctance / options.getStreetSpeedUpperBound();
+        }
+
+        Queue queue = buffers.queue;
+        buffers.touched.add(o);
+        weights[o] = 0;
+        times[o] = 0;
+        backVertices[o] = -1;
+        queue.insert(o, heuristic(o));
+
+        int[] start = arriveBy ? graph.inStart : graph.outStart;
+        int[] adjacent = arriveBy ? graph.inEdges : graph.outEdges;
+        int[] far = arriveBy ? graph.fromVertex : graph.toVertex;
+
+        while (!queue.isEmpty()) {
+            int u = queue.extractMin();
+            if (settled[u]) continue;
+            int uv = vertexId(u);
+            // A label behind a turn restriction is dropped if its vertex has since been reached at least as well.
+            if (u != uv && !(cost(u) < cost(uv))) continue;
+            settled[u] = true;
+            settledIds.add(u);
+            if (uv == t) break;
+            // Transit stops are destinations of link edges, never places to continue walking from.
+            if (useLinks && uv != o && isTransitStop(uv)) continue;
+            boolean backIsLink = isLink(backEdges[u]);
+
+            if (uv < graph.nVertices) {
+                for (int k = start[uv]; k < start[uv + 1]; k++) {
+                    int e = adjacent[k];
+                    if ((graph.flags[e] & FLAG_LINK) != 0) {
+                        if (!useLinks || backIsLink) continue;
+                        edgeTime = graph.linkTime[e];
+                        edgeWeight = edgeTime;
+                        edgeEntersNoThru = enteredNoThru[u];
+                    } else if (!compactCost(e) || !turn(u, e, far[e])) {
+                        continue;
+                    }
+                    relax(queue, u, labelId(e, far[e]), e);
+                }
+            }
+
+            TIntList extra = extraAdjacency.get(uv);
+            if (extra != null) {
+                for (int x = 0; x < extra.size(); x++) {
+                    int ex = extra.get(x);
+                    Edge edge = extraEdges.get(ex);
+                    int v = searchId(arriveBy ? edge.getFromVertex() : edge.getToVertex());
+                    if (v < 0 || !objectCost(edge) || !turn(u, graph.nEdges + ex, v)) continue;
+                    relax(queue, u, v, graph.nEdges + ex);
+                }
+            }
+        }
+    }
+
+    private void relax(Queue queue, int u, int v, int edgeCode) {
+        if (v < 0 || settled[v]) return;
+        int time = times[u] + edgeTime;
+        if (time > maxDurationSeconds) return;
+        double weight = weights[u] + edgeWeight;
+        double cost = earliestArrival ? time : weight;
+        if (!(cost < cost(v))) return;
+        // A label behind a turn restriction is dominated by the label of its vertex if that is no worse.
+        int vv = vertexId(v);
+        if (v != vv && !(cost < cost(vv))) return;
+        if (weights[v] == Double.POSITIVE_INFINITY) buffers.touched.add(v);
+        weights[v] = weight;
+        times[v] = time;
+        backEdges[v] = edgeCode;
+        backVertices[v] = u;
+        enteredNoThru[v] = edgeEntersNoThru;
+        queue.insert(v, cost + heuristic(vv));
+    }
+
+    /** @return the quantity the search minimizes at the given label. */
+    private double cost(int id) {
+        return earliestArrival ? times[id] : weights[id];
+    }
+
+    /** @return the label reached through the given compact edge at the given vertex, as in DominanceFunction. */
+    private int labelId(int e, int v) {
+        if ((graph.flags[e] & FLAG_TURN_RESTRICTED) == 0) return v;
+        return graph.nVertices + Arrays.binarySearch(graph.turnRestrictedEdges, e);
+    }
+
+    /** @return the id of the vertex the given label is at. */
+    private int vertexId(int id) {
+        if (id < graph.nVertices || id >= temporaryBase) return id;
+        int e = graph.turnRestrictedEdges[id - graph.nVertices];
+        return arriveBy ? graph.fromVertex[e] : graph.toVertex[e];
+    }
+
+    private boolean isTransitStop(int v) {
+        if (v < graph.nVertices) return (graph.vertexFlags[v] & VERTEX_TRANSIT_STOP) != 0;
+        return vertex(v) instanceof TransitStop;
+    }
+
+    private double heuristic(int v) {
+        if (!goalDirected) return 0;
+        double lat, lon;
+        if (v < graph.nVertices) {
+            lat = graph.lat[v];
+            lon = graph.lon[v];
+        } else {
+            Vertex tv = vertex(v);
+            lat = tv.getLat();
+            lon = tv.getLon();
+        }
+        return heuristicFactor * SphericalDistanceLibrary.fastDistance(lat, lon, targetLat, targetLon);
+    }
+
+    private boolean isLink(int edgeCode) {
+        if (edgeCode < 0) return false;
+        if (edgeCode < graph.nEdges) return (graph.flags[edgeCode] & FLAG_LINK) != 0;
+        return false;
+    }
+
+    private boolean compactCost(int e) {
+        double distance = graph.lengthMm[e] / 1000.0;
+        double slopeSpeed = distance, slopeWork = distance, walkCost = distance;
+        if (graph.slopeSpeedLength != null) {
+            slopeSpeed = graph.slopeSpeedLength[e];
+            slopeWork = graph.slopeWorkLength[e];
+            walkCost = graph.walkCostLength[e];
+        }
+        return streetCost(distance, graph.permissions[e], graph.flags[e], graph.carSpeed[e],
+                graph.bicycleSafety[e], slopeSpeed, slopeWork, walkCost);
+    }
+
+    private boolean objectCost(Edge edge) {
+        if (edge instanceof FreeEdge) {
+            edgeTime = 0;
+            edgeWeight = 1;
+            return true;
+        }
+        StreetEdge se = (StreetEdge) edge;
+        return streetCost(se.getDistance(), permissionCode(se), flagsFor(se, graph.graph), se.getCarSpeed(),
+                se.getBicycleSafetyFactor(), se.getSlopeSpeedEffectiveLength(),
+                se.getSlopeWorkCostEffectiveLength(), walkCostLength(se));
+    }
+
+    /**
+     * The state-independent part of StreetEdge.doTraverse(). Sets edgeTime and edgeWeight.
+     * @return false if the edge cannot be traversed in the search mode.
+     */
+    private boolean streetCost(double distance, int permission, int flags, double carSpeed, double safety,
+                               double slopeSpeed, double slopeWork, double walkCost) {
+        TraverseMode traverseMode = mode;
+        RoutingRequest opt = options;
+        if (!allows(permission, traverseMode)) {
+            // Walk the bike where cycling is not allowed.
+            if (traverseMode == TraverseMode.BICYCLE && allows(permission, TraverseMode.WALK)) {
+                traverseMode = TraverseMode.WALK;
+                opt = options.bikeWalkingOptions;
+            } else {
+                return false;
+            }
+        }
+        boolean walkingBike = opt.walkingBike && traverseMode == TraverseMode.WALK;
+        double speed = traverseMode == TraverseMode.CAR ? carSpeed : opt.getSpeed(traverseMode);
+        double time = distance / speed;
+        double weight;
+        if (traverseMode == TraverseMode.BICYCLE) {
+            time = slopeSpeed / speed;
+            switch (opt.optimize) {
+            case SAFE:
+                weight = safety * distance / speed;
+                break;
+            case GREENWAYS:
+                weight = safety * distance / speed;
+                if (safety <= GREENWAY_SAFETY_FACTOR) {
+                    weight *= 0.66;
+                }
+                break;
+            case FLAT:
+                weight = distance / speed + slopeWork;
+                break;
+            case QUICK:
+                weight = slopeSpeed / speed;
+                break;
+            case TRIANGLE:
+                weight = slopeSpeed * opt.triangleTimeFactor + slopeWork * opt.triangleSlopeFactor
+                        + safety * distance * opt.triangleSafetyFactor;
+                weight /= speed;
+                break;
+            default:
+                weight = distance / speed;
+            }
+        } else {
+            if (walkingBike) {
+                time = slopeSpeed / speed;
+            }
+            weight = time;
+            if (traverseMode == TraverseMode.WALK) {
+                weight = walkCost / speed;
+                time = weight;
+            }
+        }
+        weight *= (flags & FLAG_STAIRS) != 0 ? opt.stairsReluctance : opt.walkReluctance;
+        edgeTime = (int) Math.ceil(time);
+        edgeWeight = weight;
+        edgeMode = traverseMode;
+        edgeOptions = opt;
+        return true;
+    }
+
+    /**
+     * The part of StreetEdge.doTraverse() that depends on the edge label u was reached by: U-turns, no-through-traffic
+     * areas, turn restrictions and turn costs. Must be called after the edge has been costed. Adds the turn cost to
+     * edgeTime and edgeWeight and sets edgeEntersNoThru.
+     * @param next the search id of the vertex at the far end of the edge.
+     * @return false if the edge cannot be traversed from label u.
+     */
+    private boolean turn(int u, int edgeCode, int next) {
+        int back = backEdges[u];
+        int turnVertex = vertexId(u);
+        if (edgeCode >= graph.nEdges || back >= graph.nEdges || turnVertex >= temporaryBase
+                || attachedVertices.contains(turnVertex) || attachedVertices.contains(next)) {
+            return objectTurn(u, edgeCode, next);
+        }
+        return compactTurn(u, edgeCode, back, turnVertex, next);
+    }
+
+    /** turn() for a compact street edge reached from a compact edge, or from the origin if back is negative. */
+    private boolean compactTurn(int u, int e, int back, int turnVertex, int next) {
+        edgeEntersNoThru = enteredNoThru[u];
+        boolean backIsStreet = back >= 0 && (graph.flags[back] & FLAG_LINK) == 0;
+        if (backIsStreet && graph.fromVertex[e] == graph.toVertex[back]
+                && graph.toVertex[e] == graph.fromVertex[back]) {
+            return false;
+        }
+
+        if ((graph.flags[e] & FLAG_NO_THRU_TRAFFIC) != 0) {
+            if (backIsStreet && (graph.flags[back] & FLAG_NO_THRU_TRAFFIC) == 0) edgeEntersNoThru = true;
+            // Do not leave a no-through-traffic area that was entered from outside.
+            if (edgeEntersNoThru && (graph.vertexFlags[next] & VERTEX_THRU_EXIT) != 0) return false;
+        }
+        if (!backIsStreet) return true;
+
+        TraverseMode backMode = mode;
+        RoutingRequest backOptions = options;
+        if (!allows(graph.permissions[back], mode)) {
+            backMode = TraverseMode.WALK;
+            backOptions = options.bikeWalkingOptions;
+        }
+        long timeSeconds = arriveBy ? options.dateTime - times[u] : options.dateTime + times[u];
+        if ((graph.flags[arriveBy ? e : back] & FLAG_TURN_RESTRICTED) != 0) {
+            StreetEdge se = (StreetEdge) graph.edges[e];
+            StreetEdge backSE = (StreetEdge) graph.edges[back];
+            if (arriveBy ? !canTurnOnto(se, backSE, backMode, timeSeconds)
+                    : !canTurnOnto(backSE, se, edgeMode, timeSeconds)) {
+                return false;
+            }
+        }
+
+        int vertexFlags = graph.vertexFlags[turnVertex];
+        if ((vertexFlags & VERTEX_INTERSECTION) == 0) return true;
+        // As StreetEdge.calculateSpeed(), without traffic (see supports()).
+        double speed = edgeMode.isDriving() ? graph.carSpeed[e] : edgeOptions.getSpeed(edgeMode);
+        double backSpeed = backMode.isDriving() ? graph.carSpeed[back] : backOptions.getSpeed(backMode);
+        double turnCost;
+        if (arriveBy) {
+            turnCost = compactTurnCost(backOptions, vertexFlags, e, back, backMode, speed, backSpeed);
+        } else {
+            turnCost = compactTurnCost(edgeOptions, vertexFlags, back, e, edgeMode, backSpeed, speed);
+        }
+        if (Double.isNaN(turnCost)) return objectTurn(u, e, next);
+        edgeTime += (int) Math.ceil(turnCost);
+        edgeWeight += edgeOptions.turnReluctance * turnCost;
+        return true;
+    }
+
+    /** @return the cost of turning from compact edge from to compact edge to, or NaN if it needs the objects. */
+    private double compactTurnCost(RoutingRequest opt, int vertexFlags, int from, int to, TraverseMode traverseMode,
+                                   double fromSpeed, double toSpeed) {
+        IntersectionTraversalCostModel model = opt.getIntersectionTraversalCostModel();
+        if (!(model instanceof AbstractIntersectionTraversalCostModel)) return Double.NaN;
+        return ((AbstractIntersectionTraversalCostModel) model).computeTraversalCost(
+                (vertexFlags & VERTEX_FREE_FLOWING) != 0, (vertexFlags & VERTEX_TRAFFIC_LIGHT) != 0,
+                graph.inAngle[from], graph.outAngle[from], graph.carSpeed[from], graph.inAngle[to],
+                graph.outAngle[to], graph.carSpeed[to], traverseMode, opt, (float) fromSpeed, (float) toSpeed);
+    }
+
+    /** turn() evaluated on the Edge and Vertex objects. */
+    private boolean objectTurn(int u, int edgeCode, int next) {
+        edgeEntersNoThru = enteredNoThru[u];
+        Edge edge = edge(edgeCode);
+        if (!(edge instanceof StreetEdge)) return true;
+        StreetEdge se = (StreetEdge) edge;
+        Edge back = backEdges[u] < 0 ? null : edge(backEdges[u]);
+        StreetEdge backSE = back instanceof StreetEdge ? (StreetEdge) back : null;
+        if (backSE != null && (se.isReverseOf(backSE) || backSE.isReverseOf(se))) return false;
+
+        if (se.isNoThruTraffic()) {
+            if (backSE != null && !backSE.isNoThruTraffic()) edgeEntersNoThru = true;
+            if (edgeEntersNoThru) {
+                // Do not leave a no-through-traffic area that was entered from outside.
+                for (Edge out : vertex(next).getOutgoing()) {
+                    if (out instanceof StreetEdge && !((StreetEdge) out).isNoThruTraffic()) return false;
+                }
+            }
+        }
+        if (backSE == null) return true;
+
+        TraverseMode backMode = mode;
+        RoutingRequest backOptions = options;
+        int backPermission = backEdges[u] < graph.nEdges ?
+                graph.permissions[backEdges[u]] : permissionCode(backSE);
+        if (!allows(backPermission, mode)) {
+            backMode = TraverseMode.WALK;
+            backOptions = options.bikeWalkingOptions;
+        }
+        long timeSeconds = arriveBy ? options.dateTime - times[u] : options.dateTime + times[u];
+        if (arriveBy ? !canTurnOnto(se, backSE, backMode, timeSeconds)
+                : !canTurnOnto(backSE, se, edgeMode, timeSeconds)) {
+            return false;
+        }
+
+        Vertex turnVertex = vertex(vertexId(u));
+        if (!(turnVertex instanceof IntersectionVertex)) return true;
+        double speed = se.calculateSpeed(edgeOptions, edgeMode, timeSeconds * 1000);
+        double backSpeed = backSE.calculateSpeed(backOptions, backMode, timeSeconds * 1000);
+        double turnCost;
+        if (arriveBy) {
+            turnCost = backOptions.getIntersectionTraversalCostModel().computeTraversalCost(
+                    (IntersectionVertex) turnVertex, se, backSE, backMode, backOptions, (float) speed,
+                    (float) backSpeed);
+        } else {
+            turnCost = edgeOptions.getIntersectionTraversalCostModel().computeTraversalCost(
+                    (IntersectionVertex) turnVertex, backSE, se, edgeMode, edgeOptions, (float) backSpeed,
+                    (float) speed);
+        }
+        edgeTime += (int) Math.ceil(turnCost);
+        edgeWeight += edgeOptions.turnReluctance * turnCost;
+        return true;
+    }
+
+    /** The same as StreetEdge.canTurnOnto(), without a State. */
+    private boolean canTurnOnto(StreetEdge from, Edge to, TraverseMode traverseMode, long timeSeconds) {
+        for (TurnRestriction turnRestriction : graph.graph.getTurnRestrictions(from)) {
+            if (!turnRestriction.modes.contains(traverseMode) || !turnRestriction.active(timeSeconds)) continue;
+            boolean isTo = to.isEquivalentTo(turnRestriction.to);
+            if (turnRestriction.type == TurnRestrictionType.ONLY_TURN ? !isTo : isTo) return false;
+        }
+        return true;
+    }
+
+    private static boolean allows(int permission, TraverseMode traverseMode) {
+        switch (traverseMode) {
+        case WALK:
+            return (permission & PERMISSION_WALK) != 0;
+        case BICYCLE:
+            return (permission & PERMISSION_BICYCLE) != 0;
+        case CAR:
+            return (permission & PERMISSION_CAR) != 0;
+        default:
+            return false;
+        }
+    }
+
+    /** Give search ids to the temporary vertex v and all temporary vertices connected to it. */
+    private void registerTemporaryVertex(Vertex v) {
+        if (graph.contains(v) || temporaryIds.containsKey(v)) return;
+        temporaryIds.put(v, temporaryBase + temporaryVertices.size());
+        temporaryVertices.add(v);
+        for (Edge e : v.getOutgoing()) registerTemporaryVertex(e.getToVertex());
+        for (Edge e : v.getIncoming()) registerTemporaryVertex(e.getFromVertex());
+    }
+
+    /** Record the object edges leading out of temporary vertices and into them from the compact graph. */
+    private void connectTemporaryVertices() {
+        for (Vertex tv : temporaryVertices) {
+            for (Edge e : tv.getOutgoing()) {
+                if (graph.contains(e.getToVertex())) attachedVertices.add(searchId(e.getToVertex()));
+            }
+            for (Edge e : tv.getIncoming()) {
+                if (graph.contains(e.getFromVertex())) attachedVertices.add(searchId(e.getFromVertex()));
+            }
+            for (Edge e : arriveBy ? tv.getIncoming() : tv.getOutgoing()) {
+                addExtraEdge(searchId(tv), e);
+            }
+            for (Edge e : arriveBy ? tv.getOutgoing() : tv.getIncoming()) {
+                Vertex near = arriveBy ? e.getToVertex() : e.getFromVertex();
+                if (graph.contains(near)) addExtraEdge(searchId(near), e);
+            }
+        }
+    }
+
+    private void addExtraEdge(int from, Edge e) {
+        if (!(e instanceof StreetEdge || e instanceof FreeEdge)) return;
+        TIntList list = extraAdjacency.get(from);
+        if (list == null) {
+            list = new TIntArrayList();
+            extraAdjacency.put(from, list);
+        }
+        list.add(extraEdges.size());
+        extraEdges.add(e);
+    }
+
+    private int searchId(Vertex v) {
+        int i = graph.getCompactIndex(v);
+        if (i >= 0) return i;
+        Integer t = temporaryIds.get(v);
+        return t == null ? -1 : t;
+    }
+
+    private Vertex vertex(int id) {
+        return id < graph.nVertices ? graph.vertices[id] : temporaryVertices.get(id - temporaryBase);
+    }
+
+    private Edge edge(int edgeCode) {
+        return edgeCode < graph.nEdges ? graph.edges[edgeCode] : extraEdges.get(edgeCode - graph.nEdges);
+    }
+
+    /**
+     * @return the best label settled at the given vertex, including those behind turn-restricted edges, or -1 if
+     * the vertex was not reached.
+     */
+    private int bestLabel(Vertex v) {
+        if (buffers == null || buffers.owner != this) {
+            throw new IllegalStateException("The results of this search were overwritten by a later search.");
+        }
+        int id = searchId(v);
+        if (id < 0) return -1;
+        int best = settled[id] ? id : -1;
+        if (id < graph.nVertices && graph.turnRestrictedEdges.length > 0) {
+            int[] start = arriveBy ? graph.outStart : graph.inStart;
+            int[] adjacent = arriveBy ? graph.outEdges : graph.inEdges;
+            for (int k = start[id]; k < start[id + 1]; k++) {
+                int e = adjacent[k];
+                if ((graph.flags[e] & FLAG_TURN_RESTRICTED) == 0) continue;
+                int label = labelId(e, id);
+                if (settled[label] && (best < 0 || cost(label) < cost(best))) best = label;
+            }
+        }
+        return best;
+    }
+
+    /** @return true if the given vertex was reached by the last search. */
+    public boolean isReached(Vertex v) {
+        return bestLabel(v) >= 0;
+    }
+
+    /** @return the elapsed time in seconds at the given vertex, or -1 if it was not reached. */
+    public int getElapsedSeconds(Vertex v) {
+        int id = bestLabel(v);
+        return id < 0 ? -1 : times[id];
+    }
+
+    /** @return the weight at the given vertex, or positive infinity if it was not reached. */
+    public double getWeight(Vertex v) {
+        int id = bestLabel(v);
+        return id < 0 ? Double.POSITIVE_INFINITY : weights[id];
+    }
+
+    /** @return all vertices reached by the last search of the given type, in the order they were settled. */
+    public <T extends Vertex> List<T> getReachedVertices(Class<T> type) {
+        if (buffers == null || buffers.owner != this) {
+            throw new IllegalStateException("The results of this search were overwritten by a later search.");
+        }
+        List<T> ret = new ArrayList<>();
+        for (int i = 0; i < settledIds.size(); i++) {
+            int id = settledIds.get(i);
+            Vertex v = vertex(vertexId(id));
+            if (type.isInstance(v) && bestLabel(v) == id) ret.add(type.cast(v));
+        }
+        return ret;
+    }
+
+    /** @return the edges leading from the search origin to the given vertex in search order, or null if unreached. */
+    public List<Edge> getPathEdges(Vertex v) {
+        int best = bestLabel(v);
+        if (best < 0) return null;
+        List<Edge> ret = new ArrayList<>();
+        for (int id = best; backEdges[id] >= 0; id = backVertices[id]) {
+            ret.add(edge(backEdges[id]));
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    /**
+     * The per-label arrays and the queue of a search, kept by CompactStreetGraph for each thread. The arrays are
+     * allocated with the size of the compact graph plus some room for temporary vertices, and afterwards only the
+     * entries touched by the previous search are reset.
+     */
+    static class Buffers {
+        /** Room for temporary vertices around the origin and destination. */
+        private static final int TEMPORARY_SLACK = 64;
+
+        double[] weights = new double[0];
+        int[] times;
+        int[] backEdges;
+        int[] backVertices;
+        boolean[] enteredNoThru;
+        boolean[] settled;
+        final TIntArrayList touched = new TIntArrayList();
+        final Queue queue = new Queue(64);
+        /** The search that last used these buffers. */
+        CompactStreetSearch owner;
+
+        /** Prepare the buffers for a search that uses the given number of label ids. */
+        void claim(CompactStreetSearch search, int nIds) {
+            if (weights.length < nIds) {
+                int size = nIds + TEMPORARY_SLACK;
+                weights = new double[size];
+                times = new int[size];
+                backEdges = new int[size];
+                backVertices = new int[size];
+                enteredNoThru = new boolean[size];
+                settled = new boolean[size];
+                Arrays.fill(weights, Double.POSITIVE_INFINITY);
+                Arrays.fill(times, Integer.MAX_VALUE);
+                Arrays.fill(backEdges, -1);
+            } else {
+                for (int i = 0; i < touched.size(); i++) {
+                    int id = touched.get(i);
+                    weights[id] = Double.POSITIVE_INFINITY;
+                    times[id] = Integer.MAX_VALUE;
+                    backEdges[id] = -1;
+                    backVertices[id] = 0;
+                    enteredNoThru[id] = false;
+                    settled[id] = false;
+                }
+            }
+            touched.resetQuick();
+            queue.clear();
+            owner = search;
+        }
+    }
+
+    /**
+     * A minimal binary heap of integer search ids with lazy deletion: a vertex may be inserted several times and
+     * the stale entries are skipped when they come out, as in AStar.
+     */
+    private static class Queue {
+        private int size = 0;
+        private int[] ids;
+        private double[] keys;
+
+        Queue(int capacity) {
+            ids = new int[capacity];
+            keys = new double[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void insert(int id, double key) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (keys[parent] <= key) break;
+                ids[i] = ids[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        }
+
+        int extractMin() {
+            int min = ids[0];
+            size -= 1;
+            int lastId = ids[size];
+            double lastKey = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child += 1;
+                if (lastKey <= keys[child]) break;
+                ids[i] = ids[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            keys[i] = lastKey;
+            return min;
+        }
+    }
+
+}
@@ -52,8 +52,11 @@ public abstract class AbstractIntersectionTraversalCostModel implements
      */
     protected double computeNonDrivingTraversalCost(IntersectionVertex v, StreetEdge from,
             StreetEdge to, float fromSpeed, float toSpeed) {
-        int outAngle = to.getOutAngle();
-        int inAngle = from.getInAngle();
+        return computeNonDrivingTraversalCost(from.getInAngle(), to.getOutAngle(), toSpeed);
+    }
+
+    /** Computes the turn cost in seconds for non-driving traversal modes from the angles of the edges. */
+    protected double computeNonDrivingTraversalCost(int inAngle, int outAngle, float toSpeed) {
         int turnCost = Math.abs(outAngle - inAngle);
         if (turnCost > 180) {
             turnCost = 360 - turnCost;
@@ -70,9 +73,12 @@ public abstract class AbstractIntersectionTraversalCostModel implements
      */
     protected int calculateTurnAngle(StreetEdge from, StreetEdge to,
             RoutingRequest options) {
-        int angleOutOfIntersection = to.getInAngle();
-        int angleIntoIntersection = from.getOutAngle();
-        
+        return calculateTurnAngle(from.getOutAngle(), to.getInAngle(), options);
+    }
+
+    /** Calculates the turn angle from the angles of the incoming/outgoing edges and routing request. */
+    protected int calculateTurnAngle(int angleIntoIntersection, int angleOutOfIntersection,
+            RoutingRequest options) {
         // Put out to the right of in; i.e. represent everything as one long right turn
         // Also ensures that turnAngle is always positive.
         if (angleOutOfIntersection < angleIntoIntersection) {
@@ -88,6 +94,20 @@ public abstract class AbstractIntersectionTraversalCostModel implements
         return turnAngle;
     }
 
+    /**
+     * Computes the turn cost in seconds from the attributes of the intersection and the edges rather than the objects,
+     * for searches over a compact copy of the street graph. The angles are those returned by StreetEdge.getInAngle()
+     * and getOutAngle(). Models that need the objects return NaN, in which case the caller must use
+     * computeTraversalCost() with the objects instead.
+     *
+     * @param freeFlowing the result of IntersectionVertex.inferredFreeFlowing()
+     */
+    public double computeTraversalCost(boolean freeFlowing, boolean trafficLight, int fromInAngle, int fromOutAngle,
+            float fromCarSpeed, int toInAngle, int toOutAngle, float toCarSpeed, TraverseMode mode,
+            RoutingRequest options, float fromSpeed, float toSpeed) {
+        return Double.NaN;
+    }
+
     /* Concrete subclasses must implement this */
     @Override
     public abstract double computeTraversalCost(IntersectionVertex v, StreetEdge from,
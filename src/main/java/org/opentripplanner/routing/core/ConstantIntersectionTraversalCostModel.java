@@ -38,10 +38,21 @@ public class ConstantIntersectionTraversalCostModel extends AbstractIntersection
         this(0.0);
     }
     
+    public double getCost() {
+        return cost;
+    }
+
     @Override
     public double computeTraversalCost(IntersectionVertex v, StreetEdge from, StreetEdge to, TraverseMode mode,
             RoutingRequest options, float fromSpeed, float toSpeed) {
         return cost;
     }
 
+    @Override
+    public double computeTraversalCost(boolean freeFlowing, boolean trafficLight, int fromInAngle, int fromOutAngle,
+            float fromCarSpeed, int toInAngle, int toOutAngle, float toCarSpeed, TraverseMode mode,
+            RoutingRequest options, float fromSpeed, float toSpeed) {
+        return cost;
+    }
+
 }
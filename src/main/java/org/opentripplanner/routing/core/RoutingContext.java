@@ -23,6 +23,7 @@ import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.edgetype.StreetEdge;
@@ -123,6 +124,12 @@ public class RoutingContext implements Cloneable {
     /** Indicates that the search timed out or was otherwise aborted. */
     public boolean aborted;
 
+    /** Number of vertices visited by all searches on this context, for monitoring. */
+    public long visitedVertices;
+
+    /** Largest size reached by the priority queue of any search on this context, for monitoring. */
+    public int queuePeakSize;
+
     /** Indicates that a maximum slope constraint was specified but was removed during routing to produce a result. */
     public boolean slopeRestrictionRemoved = false;
 
@@ -332,6 +339,40 @@ public class RoutingContext implements Cloneable {
 
     /* INSTANCE METHODS */
 
+    /**
+     * Make a copy of this context for another search that will run concurrently with the one on this context, for
+     * instance a search for an alternative itinerary. The copy shares the origin and destination (including any
+     * temporary vertices) and the transit data, but has its own request, heuristic, abort flag and debug output, which
+     * are modified during a search. The copy must not be destroyed, since that would remove the shared temporary edges.
+     *
+     * @param routingRequest the request for the other search, which will be pointed at the copy.
+     * @param heuristic a heuristic instance that is not used by any other search.
+     */
+    public RoutingContext copyForConcurrentSearch(RoutingRequest routingRequest, RemainingWeightHeuristic heuristic) {
+        RoutingContext copy;
+        try {
+            copy = (RoutingContext) super.clone();
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since RoutingContext is Cloneable */
+            throw new RuntimeException(e);
+        }
+        copy.opt = routingRequest;
+        copy.remainingWeightHeuristic = heuristic;
+        copy.aborted = false;
+        copy.visitedVertices = 0;
+        copy.queuePeakSize = 0;
+        copy.debugOutput = new DebugOutput();
+        routingRequest.rctx = copy;
+        return copy;
+    }
+
+    /** Stop any work the heuristic is doing on other threads, once no more searches will use this context. */
+    public void stopHeuristic() {
+        if (remainingWeightHeuristic instanceof InterleavedBidirectionalHeuristic) {
+            ((InterleavedBidirectionalHeuristic) remainingWeightHeuristic).destroy();
+        }
+    }
+
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
 
@@ -415,6 +456,7 @@ public class RoutingContext implements Cloneable {
      * Tear down this routing context, removing any temporary edges.
      */
     public void destroy() {
+        stopHeuristic();
         if (origin instanceof TemporaryVertex) ((TemporaryVertex) origin).dispose();
         if (target instanceof TemporaryVertex) ((TemporaryVertex) target).dispose();
     }
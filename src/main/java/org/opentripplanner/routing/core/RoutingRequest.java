@@ -21,6 +21,7 @@ import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.error.TrivialPathException;
 import org.opentripplanner.routing.graph.Edge;
@@ -373,6 +374,12 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean disableRemainingWeightHeuristic = false;
 
+    /**
+     * If true, car and bicycle searches use the landmark heuristic when the graph contains landmark tables, rather
+     * than the Euclidean heuristic.
+     */
+    public boolean useLandmarkHeuristic = true;
+
     /**
      * The routing context used to actually carry out this search. It is important to build States from TraverseOptions
      * rather than RoutingContexts,and just keep a reference to the context in the TraverseOptions, rather than using
@@ -424,12 +431,24 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * The priority queue implementation used by the search. The indexed heap replaces dominated states in the queue
+     * when the dominance function is single-state; the radix queue is meant for integer keys such as earliest arrival.
+     */
+    public PriorityQueueType priorityQueueType = PriorityQueueType.BINARY_HEAP;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
     /** Option to disable the default filtering of GTFS-RT alerts by time. */
     public boolean disableAlertFiltering = false;
 
+    /**
+     * If true, transit requests are answered by a multi-criteria RAPTOR search when McRaptorSearch supports them,
+     * falling back on AStar otherwise.
+     */
+    public boolean mcRaptor = false;
+
     /** Saves split edge which can be split on origin/destination search
      *
      * This is used so that TrivialPathException is thrown if origin and destination search would split the same edge
@@ -949,7 +968,8 @@ public class RoutingRequest implements Cloneable, Serializable {
                 && disableRemainingWeightHeuristic == other.disableRemainingWeightHeuristic
                 && Objects.equal(startingTransitTripId, other.startingTransitTripId)
                 && useTraffic == other.useTraffic
-                && disableAlertFiltering == other.disableAlertFiltering;
+                && disableAlertFiltering == other.disableAlertFiltering
+                && mcRaptor == other.mcRaptor;
     }
 
     /**
@@ -979,7 +999,8 @@ public class RoutingRequest implements Cloneable, Serializable {
                 + new Boolean(reverseOptimizeOnTheFly).hashCode() * 95112799
                 + new Boolean(ignoreRealtimeUpdates).hashCode() * 154329
                 + new Boolean(disableRemainingWeightHeuristic).hashCode() * 193939
-                + new Boolean(useTraffic).hashCode() * 10169;
+                + new Boolean(useTraffic).hashCode() * 10169
+                + new Boolean(mcRaptor).hashCode() * 7919;
         if (batch) {
             hashCode *= -1;
             // batch mode, only one of two endpoints matters
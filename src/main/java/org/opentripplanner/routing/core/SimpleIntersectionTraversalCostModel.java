@@ -46,21 +46,30 @@ public class SimpleIntersectionTraversalCostModel extends AbstractIntersectionTr
     @Override
     public double computeTraversalCost(IntersectionVertex v, StreetEdge from, StreetEdge to, TraverseMode mode,
                                        RoutingRequest options, float fromSpeed, float toSpeed) {
+        return computeTraversalCost(v.inferredFreeFlowing(), v.trafficLight, from.getInAngle(), from.getOutAngle(),
+                from.getCarSpeed(), to.getInAngle(), to.getOutAngle(), to.getCarSpeed(), mode, options, fromSpeed,
+                toSpeed);
+    }
+
+    @Override
+    public double computeTraversalCost(boolean freeFlowing, boolean trafficLight, int fromInAngle, int fromOutAngle,
+            float fromCarSpeed, int toInAngle, int toOutAngle, float toCarSpeed, TraverseMode mode,
+            RoutingRequest options, float fromSpeed, float toSpeed) {
 
         // If the vertex is free-flowing then (by definition) there is no cost to traverse it.
-        if (v.inferredFreeFlowing()) {
+        if (freeFlowing) {
             return 0;
         }
 
         // Non-driving cases are much simpler. Handled generically in the base class.
         if (!mode.isDriving()) {
-            return computeNonDrivingTraversalCost(v, from, to, fromSpeed, toSpeed);
+            return computeNonDrivingTraversalCost(fromInAngle, toOutAngle, toSpeed);
         }
 
         double turnCost = 0;
 
-        int turnAngle = calculateTurnAngle(from, to, options);
-        if (v.trafficLight) {
+        int turnAngle = calculateTurnAngle(fromOutAngle, toInAngle, options);
+        if (trafficLight) {
             // Use constants that apply when there are stop lights.
             if (isRightTurn(turnAngle)) {
                 turnCost = expectedRightAtLightTimeSec;
@@ -72,7 +81,7 @@ public class SimpleIntersectionTraversalCostModel extends AbstractIntersectionTr
         } else {
 
             //assume highway vertex
-            if(from.getCarSpeed()>25 && to.getCarSpeed()>25) {
+            if(fromCarSpeed>25 && toCarSpeed>25) {
                 return 0;
             }
 
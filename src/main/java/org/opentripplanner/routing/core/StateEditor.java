@@ -264,6 +264,10 @@ public class StateEditor {
     }
 
     public void setEnteredNoThroughTrafficArea() {
+        if (child.stateData.enteredNoThroughTrafficArea)
+            return;
+
+        cloneStateDataAsNeeded();
         child.stateData.enteredNoThroughTrafficArea = true;
     }
     
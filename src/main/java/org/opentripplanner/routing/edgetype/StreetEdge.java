@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.edgetype;
 
-import com.google.common.collect.Iterables;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineString;
 import org.opentripplanner.common.TurnRestriction;
@@ -37,8 +36,10 @@ import org.opentripplanner.util.NonLocalizedString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
@@ -70,6 +71,9 @@ public class StreetEdge extends Edge implements Cloneable {
     // TODO(flamholz): do something smarter with the car speed here.
     public static final float DEFAULT_CAR_SPEED = 11.2f;
 
+    /** Size of the records written by writeRaw(). */
+    public static final int RAW_BYTES = 32;
+
     /** If you have more than 8 flags, increase flags to short or int */
     private static final int BACK_FLAG_INDEX = 0;
     private static final int ROUNDABOUT_FLAG_INDEX = 1;
@@ -170,6 +174,44 @@ public class StreetEdge extends Edge implements Cloneable {
         this(v1, v2, geometry, new NonLocalizedString(name), length, permission, back);
     }
 
+    /**
+     * Create an edge from a record written by writeRaw(), reading RAW_BYTES bytes from the current position of the
+     * buffer. The geometry is already compacted and the angles are stored, so nothing is recomputed.
+     * @param compactGeometry as returned by getCompactGeometry() when the edge was written.
+     */
+    public StreetEdge(StreetVertex v1, StreetVertex v2, I18NString name, int[] compactGeometry, ByteBuffer raw) {
+        super(v1, v2);
+        this.name = name;
+        this.compactGeometry = compactGeometry;
+        restoreId(raw.getInt());
+        this.length_mm = raw.getInt();
+        this.streetClass = raw.getInt();
+        this.carSpeed = raw.getFloat();
+        this.bicycleSafetyFactor = raw.getFloat();
+        this.wayId = raw.getLong();
+        this.flags = raw.get();
+        this.permission = StreetTraversalPermission.get(raw.get());
+        this.inAngle = raw.get();
+        this.outAngle = raw.get();
+    }
+
+    /**
+     * Write the fields of this edge other than its vertices, name and geometry as a fixed-size record, for the binary
+     * graph format (see BinaryGraphFormat). Only valid for plain StreetEdges, subclasses have more fields.
+     */
+    public void writeRaw(DataOutput out) throws IOException {
+        out.writeInt(getId());
+        out.writeInt(length_mm);
+        out.writeInt(streetClass);
+        out.writeFloat(carSpeed);
+        out.writeFloat(bicycleSafetyFactor);
+        out.writeLong(wayId);
+        out.writeByte(flags);
+        out.writeByte(permission.code);
+        out.writeByte(inAngle);
+        out.writeByte(outAngle);
+    }
+
 
     /**
      * Checks permissions of the street edge if specified modes are allowed to travel.
@@ -408,8 +450,8 @@ public class StreetEdge extends Edge implements Cloneable {
             if (s1.hasEnteredNoThroughTrafficArea()) {
                 // Only Edges are marked as no-thru, but really we need to avoid creating dominant, pruned states
                 // on thru _Vertices_. This could certainly be improved somehow.
-                for (StreetEdge se : Iterables.filter(s1.getVertex().getOutgoing(), StreetEdge.class)) {
-                    if (!se.isNoThruTraffic()) {
+                for (Edge out : s1.getVertex().getOutgoing()) {
+                    if (out instanceof StreetEdge && !((StreetEdge) out).isNoThruTraffic()) {
                         // This vertex has at least one through-traffic edge. We can't dominate it with a no-thru state.
                         return null;
                     }
@@ -668,6 +710,11 @@ public class StreetEdge extends Edge implements Cloneable {
 		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
 	}
 
+	/** @return the geometry in the form it is stored in. It may be shared with the reverse edge, do not modify it. */
+	public int[] getCompactGeometry() {
+		return compactGeometry;
+	}
+
 	private void setGeometry(LineString geometry) {
 		this.compactGeometry = CompactLineString.compactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
 	}
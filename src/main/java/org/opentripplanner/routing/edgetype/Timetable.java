@@ -87,6 +87,17 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * For each stop, the indexes of the TripTimes in tripTimes sorted by departure time at that stop (ties broken by
+     * increasing trip index), allowing getNextTrip to find the next departure by binary search. Consecutive stops at
+     * which the trips are in the same order, which is the case unless trips overtake one another, share one array.
+     * Null when the index has not been built or is no longer valid, in which case getNextTrip scans all trips.
+     */
+    private transient int[][] departureOrder;
+
+    /** As departureOrder, but sorted by arrival time with ties broken by decreasing trip index. */
+    private transient int[][] arrivalOrder;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -144,41 +155,24 @@ public class Timetable implements Serializable {
         } else {
             time -= s0.getOptions().getAlightTime(this.pattern.mode);
         }
-        TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
+        // We used to do a linear search through the timetable, because:
         // 1. we allow combining trips from different service IDs on the same tripPattern.
         // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
         // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
+        // The departure index handles these: service IDs and other criteria are checked on the trips found after the
+        // binary search, frequency entries are searched separately below, and the index is rebuilt when realtime
+        // updates are committed. The linear search remains as a fallback when the index is not valid.
+        TripTimes bestTrip;
+        if (indexValid()) {
+            bestTrip = boarding ? nextDepartureIndexed(s0, serviceDay, stopIndex, currentStop, time)
+                                : prevArrivalIndexed(s0, serviceDay, stopIndex, currentStop, time);
+        } else {
+            bestTrip = bestTripLinear(s0, serviceDay, stopIndex, currentStop, time, boarding);
+        }
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
-                }
-            }
+        if (bestTrip != null) {
+            bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
         }
         // ACK all logic is identical to above.
         // A sign that FrequencyEntries and TripTimes need a common interface.
@@ -215,6 +209,101 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * Find the best trip by checking every TripTimes in this timetable. This is used when the departure index is not
+     * available.
+     */
+    private TripTimes bestTripLinear(State s0, ServiceDay serviceDay, int stopIndex, Stop currentStop, int time,
+                                     boolean boarding) {
+        TripTimes bestTrip = null;
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+        // We could invert this and skip some service days based on schedule overlap as in RRRR.
+        for (TripTimes tt : tripTimes) {
+            if ( ! tripUsable(tt, s0, serviceDay, stopIndex)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (boarding) {
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                           // now its not sure if this check should be still in place because there is a boolean field
+                                           // for canceled trips
+                if (depTime >= adjustedTime && depTime < bestTime) {
+                    bestTrip = tt;
+                    bestTime = depTime;
+                }
+            } else {
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime < 0) continue;
+                if (arvTime <= adjustedTime && arvTime > bestTime) {
+                    bestTrip = tt;
+                    bestTime = arvTime;
+                }
+            }
+        }
+        return bestTrip;
+    }
+
+    /**
+     * Find the first trip departing the given stop at or after the given time using the departure index.
+     * Transfer rules can only push the boarding time later, so trips departing before the search time are skipped.
+     */
+    private TripTimes nextDepartureIndexed(State s0, ServiceDay serviceDay, int stopIndex, Stop currentStop, int time) {
+        int[] order = departureOrder[stopIndex];
+        // Binary search for the first trip departing at or after the search time.
+        int low = 0, high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tripTimes.get(order[mid]).getDepartureTime(stopIndex) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < order.length; i++) {
+            TripTimes tt = tripTimes.get(order[i]);
+            int depTime = tt.getDepartureTime(stopIndex);
+            if (depTime < 0) continue;
+            if ( ! tripUsable(tt, s0, serviceDay, stopIndex)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, true, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (depTime >= adjustedTime) return tt;
+        }
+        return null;
+    }
+
+    /** The mirror image of nextDepartureIndexed, for arrive-by searches alighting at the given stop. */
+    private TripTimes prevArrivalIndexed(State s0, ServiceDay serviceDay, int stopIndex, Stop currentStop, int time) {
+        int[] order = arrivalOrder[stopIndex];
+        // Binary search for the first trip arriving after the search time.
+        int low = 0, high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tripTimes.get(order[mid]).getArrivalTime(stopIndex) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low - 1; i >= 0; i--) {
+            TripTimes tt = tripTimes.get(order[i]);
+            int arvTime = tt.getArrivalTime(stopIndex);
+            if (arvTime < 0) break; // all earlier entries are negative too
+            if ( ! tripUsable(tt, s0, serviceDay, stopIndex)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, false, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (arvTime <= adjustedTime) return tt;
+        }
+        return null;
+    }
+
+    /** Checks on a trip that do not depend on the time: cancellation, service day and trip restrictions. */
+    private static boolean tripUsable(TripTimes tt, State s0, ServiceDay serviceDay, int stopIndex) {
+        if (tt.isCanceled()) return false;
+        if ( ! serviceDay.serviceRunning(tt.serviceCode)) return false; // TODO merge into call on next line
+        return tt.tripAcceptable(s0, stopIndex);
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -295,6 +384,47 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        indexTripTimes(nStops);
+    }
+
+    /**
+     * Build the per-stop departure and arrival orders used by getNextTrip. This must be redone whenever TripTimes are
+     * added or replaced, which happens when realtime updates are committed (see TimetableSnapshot.commit()).
+     */
+    private void indexTripTimes(int nStops) {
+        int nTrips = tripTimes.size();
+        int[][] departures = new int[nStops][];
+        int[][] arrivals = new int[nStops][];
+        long[] keys = new long[nTrips];
+        for (int s = 0; s < nStops; s++) {
+            // Sort on a key combining the time (high bits) and the trip index (low bits), so that ties are broken
+            // in the same way as in the linear scan: the first trip in the list wins.
+            for (int t = 0; t < nTrips; t++) {
+                keys[t] = ((long) tripTimes.get(t).getDepartureTime(s) << 32) | t;
+            }
+            departures[s] = sortedTripIndexes(keys, false, s > 0 ? departures[s - 1] : null);
+            for (int t = 0; t < nTrips; t++) {
+                keys[t] = ((long) tripTimes.get(t).getArrivalTime(s) << 32) | (nTrips - 1 - t);
+            }
+            arrivals[s] = sortedTripIndexes(keys, true, departures[s]);
+        }
+        departureOrder = departures;
+        arrivalOrder = arrivals;
+    }
+
+    /**
+     * Sort the keys and extract the trip indexes from their low bits. If the result is identical to the given
+     * array, that array is returned instead so that the storage is shared.
+     */
+    private static int[] sortedTripIndexes(long[] keys, boolean reversedIndexes, int[] previous) {
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int[] order = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            int t = (int) sorted[i];
+            order[i] = reversedIndexes ? sorted.length - 1 - t : t;
+        }
+        return Arrays.equals(order, previous) ? previous : order;
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -338,9 +468,22 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        invalidateIndex();
         return tripTimes.set(tripIndex, tt);
     }
 
+    /** @return whether the departure index matches the current TripTimes. */
+    private boolean indexValid() {
+        return departureOrder != null && departureOrder.length == pattern.stopPattern.size
+                && (departureOrder.length == 0 || departureOrder[0].length == tripTimes.size());
+    }
+
+    /** Stop using the departure index until finish() is called again, because the TripTimes have changed. */
+    private void invalidateIndex() {
+        departureOrder = null;
+        arrivalOrder = null;
+    }
+
     /**
      * Apply the TripUpdate to the appropriate TripTimes from this Timetable. The existing TripTimes
      * must not be modified directly because they may be shared with the underlying
@@ -518,6 +661,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        invalidateIndex();
         tripTimes.add(tt);
     }
 
@@ -14,9 +14,9 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentHashMap;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,12 +96,10 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
+    // A persistent map, so that a commit shares it with the buffer rather than copying it, and the buffer then only
+    // copies the paths through the map leading to the patterns it updates.
     // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private PersistentHashMap<TripPattern, SortedSet<Timetable>> timetables = new PersistentHashMap<>();
 
     /**
      * <p>
@@ -110,10 +108,10 @@ public class TimetableSnapshot {
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
      * <p>
-     * This is a HashMap and not a Map so the clone function is available.
+     * Like the timetables, this map is shared with the snapshots committed from it.
      * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private PersistentHashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new PersistentHashMap<>();
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -231,7 +229,8 @@ public class TimetableSnapshot {
 
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. Taking a snapshot of the maps takes constant time, as they are shared
+     * with the snapshot; the buffer then copies the parts of the maps it changes.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -243,7 +242,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -254,9 +252,8 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables.snapshot();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern.snapshot();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -290,7 +287,7 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        return timetables.removeIf((tripPattern, sortedTimetables) -> feedId.equals(tripPattern.getFeedId()));
     }
 
     /**
@@ -300,7 +297,8 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        return lastAddedTripPattern.removeIf((tripIdAndServiceDate, pattern) ->
+                feedId.equals(tripIdAndServiceDate.getFeedId()));
     }
 
     /**
@@ -312,34 +310,32 @@ public class TimetableSnapshot {
         }
 
         boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
+        for (TripPattern pattern : timetables.keys()) {
             SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
 
+            // Only touch the patterns that had expired timetables, so that the rest of the map stays shared.
+            if (toKeepTimetables.size() == sortedTimetables.size()) {
+                continue;
+            }
+            modified = true;
             if(toKeepTimetables.isEmpty()) {
-                it.remove();
+                timetables.remove(pattern);
             } else {
                 timetables.put(pattern, toKeepTimetables);
             }
         }
         
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
+        if (lastAddedTripPattern.removeIf((tripIdAndServiceDate, pattern) ->
+                serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0)) {
+            modified = true;
         }
 
         return modified;
@@ -0,0 +1,910 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.profile.StopCluster;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.routing.services.StreetVertexIndexService;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A graph file format that loads much faster than Java serialization of the whole graph, with a much smaller transient
+ * heap. Most of a graph is plain street vertices and edges. These are written as fixed-size records in flat sections,
+ * which are memory-mapped and read in place when the graph is loaded. Everything else (the Graph object itself, the
+ * transit layer, other types of vertices and edges, annotations) is still written with Java serialization in a last
+ * section, where references to vertices and edges of the flat sections are replaced by their row numbers.
+ *
+ * A file starts with an 8-byte magic string, the format version and a table of sections (id, offset, length):
+ * STRINGS     distinct vertex labels and plain names, decoded when first used
+ * NAMES       the other (localized) names, Java serialized
+ * VERTICES    one record per IntersectionVertex or OsmVertex that has edges
+ * GEOMETRIES  compacted edge geometries, a geometry shared by an edge and its reverse is stored once
+ * EDGES       one record per StreetEdge between vertices of the VERTICES section, see StreetEdge.writeRaw()
+ * OBJECTS     Java serialization of the Graph, the remaining edges and vertices, and the debug data
+ *
+ * When the precomputeIndexes build parameter is set, indexes that are otherwise derived from the graph at load time
+ * or on first use follow in optional sections. They are written with Java serialization like the OBJECTS section,
+ * but every vertex and edge in them (and every Stop, through its TransitStop) is replaced by a row number:
+ * STREET_INDEX  the hash grids of StreetVertexIndexServiceImpl
+ * STOP_CLUSTERS the stop clusters of the GraphIndex
+ * STOP_TREES    the StopTreeCache, with vertex rows instead of vertex indices
+ * A CRC32 checksum of each section is stored in the section table. An optional section that is missing, fails its
+ * checksum or cannot be read is ignored, and the index is built as it would be for a graph without it.
+ *
+ * Graph.load() recognizes both formats. Graphs are saved in this format when the binaryGraph build parameter is set.
+ * Bump VERSION whenever the layout of a section changes.
+ */
+public class BinaryGraphFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphFormat.class);
+
+    private static final byte[] MAGIC = "OTPGRAPH".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int VERSION = 2;
+
+    /* Section IDs, which are also their positions in the section table. */
+    private static final int STRINGS = 0;
+    private static final int NAMES = 1;
+    private static final int VERTICES = 2;
+    private static final int GEOMETRIES = 3;
+    private static final int EDGES = 4;
+    private static final int OBJECTS = 5;
+    private static final int STREET_INDEX = 6;
+    private static final int STOP_CLUSTERS = 7;
+    private static final int STOP_TREES = 8;
+    private static final int N_SECTIONS = 9;
+
+    /* Section table entries: id, offset, length and checksum. */
+    private static final int HEADER_BYTES = MAGIC.length + 4 + 4 + N_SECTIONS * (4 + 8 + 8 + 8);
+
+    /* Vertex records: x, y, OSM node ID, label, name, kind, flags. */
+    private static final int VERTEX_BYTES = 8 + 8 + 8 + 4 + 4 + 1 + 1;
+
+    /* Edge records: from and to vertex rows, name, geometry offset and length, then the StreetEdge raw record. */
+    private static final int EDGE_BYTES = 4 * 5 + StreetEdge.RAW_BYTES;
+
+    private static final byte KIND_INTERSECTION = 0;
+    private static final byte KIND_OSM = 1;
+
+    private static final byte TRAFFIC_LIGHT = 1;
+    private static final byte FREE_FLOWING = 2;
+
+    /* Names in records: 0 is null, k > 0 is a plain name with string k - 1, k < 0 is the localized name -1 - k. */
+    private static final int NO_NAME = 0;
+
+    /* Shared by all straight edges, like CompactLineString.STRAIGHT_LINE. */
+    private static final int[] STRAIGHT_LINE = new int[0];
+
+    /** @return true if the given file starts with the magic string of this format. */
+    public static boolean isBinaryGraph(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return startsWithMagic(in);
+        }
+    }
+
+    /**
+     * @return true if the given stream starts with the magic string of this format. The stream must support mark(),
+     * and is reset to where it was.
+     */
+    public static boolean isBinaryGraph(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        try {
+            return startsWithMagic(in);
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static boolean startsWithMagic(InputStream in) throws IOException {
+        byte[] start = new byte[MAGIC.length];
+        return ByteStreams.read(in, start, 0, start.length) == start.length && Arrays.equals(start, MAGIC);
+    }
+
+    /* Saving */
+
+    /** Save the graph in the binary format, without derived indexes. The file is removed if writing fails. */
+    public static void save(Graph graph, File file) throws IOException {
+        save(graph, file, false);
+    }
+
+    /**
+     * Save the graph in the binary format. The file is removed if writing fails.
+     * @param withIndexes if true, build the derived indexes (see buildIndexes()) and save them in optional sections.
+     */
+    public static void save(Graph graph, File file, boolean withIndexes) throws IOException {
+        if (withIndexes) buildIndexes(graph);
+        LOG.info("Main graph size: |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        LOG.info("Writing binary graph {} ...", file.getAbsolutePath());
+        try {
+            new Writer(graph, withIndexes).write(file);
+        } catch (IOException | RuntimeException e) {
+            file.delete(); // remove half-written file
+            throw e;
+        }
+        LOG.info("Graph written.");
+    }
+
+    /**
+     * Build the indexes that are saved in the optional sections from the current state of the graph: the street index,
+     * the stop clusters and the stop tree cache. Vertices without edges are removed first, since they are not saved
+     * and the indexes must not refer to them.
+     */
+    public static void buildIndexes(Graph graph) {
+        int removed = graph.removeEdgelessVertices();
+        if (removed > 0) LOG.info("Removed {} vertices without edges before indexing.", removed);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        graph.index.clusterStopsAsNeeded();
+        graph.index.getStopTreeCache();
+    }
+
+    /** @return true if vertices of this class are written to the VERTICES section. Subclasses have more fields. */
+    private static boolean isFlat(Vertex v) {
+        return v.getClass() == IntersectionVertex.class || v.getClass() == OsmVertex.class;
+    }
+
+    /**
+     * Stands for a vertex or edge of the flat sections in the OBJECTS section. In the optional sections it also stands
+     * for the other vertices and edges, whose rows follow those of the flat sections in the order of the OBJECTS lists.
+     */
+    private static class FlatReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final boolean edge;
+        final int row;
+
+        FlatReference(boolean edge, int row) {
+            this.edge = edge;
+            this.row = row;
+        }
+    }
+
+    /** Stands for the Stop of the TransitStop with the given vertex row in the optional sections. */
+    private static class StopReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int row;
+
+        StopReference(int row) {
+            this.row = row;
+        }
+    }
+
+    /** The contents of the STOP_TREES section: the StopTreeCache, with vertex rows instead of vertex indices. */
+    private static class StopTrees implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int maxWalkMeters;
+        final ArrayList<TransitStop> stops = new ArrayList<>();
+        final ArrayList<int[]> distances = new ArrayList<>();
+    }
+
+    private static class Writer {
+        final Graph graph;
+        final boolean withIndexes;
+
+        final List<Vertex> vertices = new ArrayList<>();
+        final List<StreetEdge> streetEdges = new ArrayList<>();
+        final List<Edge> otherEdges = new ArrayList<>();
+        final List<Vertex> otherVertices = new ArrayList<>();
+
+        /* Flat vertices and edges, with their replacements in the OBJECTS section. */
+        final Map<Object, FlatReference> references = new IdentityHashMap<>();
+        final Map<Vertex, Integer> vertexRows = new IdentityHashMap<>();
+
+        final Map<String, Integer> strings = new HashMap<>();
+        final List<String> stringList = new ArrayList<>();
+        final Map<I18NString, Integer> names = new IdentityHashMap<>();
+        final ArrayList<I18NString> nameList = new ArrayList<>();
+
+        final long[] offsets = new long[N_SECTIONS];
+        final long[] lengths = new long[N_SECTIONS];
+        final long[] checksums = new long[N_SECTIONS];
+        final CRC32 crc = new CRC32();
+
+        Writer(Graph graph, boolean withIndexes) {
+            this.graph = graph;
+            this.withIndexes = withIndexes;
+            LOG.debug("Assigning vertex/edge ID numbers...");
+            graph.rebuildVertexAndEdgeIndices();
+            for (Vertex v : graph.getVertices()) {
+                if (v.getDegreeOut() + v.getDegreeIn() == 0) {
+                    LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+                } else if (isFlat(v)) {
+                    references.put(v, new FlatReference(false, vertices.size()));
+                    vertexRows.put(v, vertices.size());
+                    vertices.add(v);
+                } else {
+                    otherVertices.add(v);
+                }
+            }
+            for (Vertex v : graph.getVertices()) {
+                // there are assumed to be no edges in an incoming list that are not in an outgoing list
+                for (Edge e : v.getOutgoing()) {
+                    if (e.getClass() == StreetEdge.class && vertexRows.containsKey(e.getFromVertex())
+                            && vertexRows.containsKey(e.getToVertex())) {
+                        references.put(e, new FlatReference(true, streetEdges.size()));
+                        streetEdges.add((StreetEdge) e);
+                    } else {
+                        otherEdges.add(e);
+                    }
+                }
+            }
+            LOG.info("{} vertices and {} edges in flat sections, {} other edges.", vertices.size(),
+                    streetEdges.size(), otherEdges.size());
+        }
+
+        void write(File file) throws IOException {
+            try (CountingOutputStream counting = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                // Everything is written through the checksum, which is reset at the beginning of each section.
+                OutputStream checked = new CheckedOutputStream(counting, crc);
+                DataOutputStream out = new DataOutputStream(checked);
+                // The header is filled in at the end, once the sections are written.
+                out.write(new byte[HEADER_BYTES]);
+
+                begin(VERTICES, counting);
+                out.writeInt(vertices.size());
+                for (Vertex v : vertices) {
+                    out.writeDouble(v.getX());
+                    out.writeDouble(v.getY());
+                    out.writeLong(v instanceof OsmVertex ? ((OsmVertex) v).nodeId : 0);
+                    out.writeInt(string(v.getLabel()));
+                    out.writeInt(name(v.getRawName()));
+                    out.writeByte(v instanceof OsmVertex ? KIND_OSM : KIND_INTERSECTION);
+                    IntersectionVertex iv = (IntersectionVertex) v;
+                    out.writeByte((iv.trafficLight ? TRAFFIC_LIGHT : 0) | (iv.freeFlowing ? FREE_FLOWING : 0));
+                }
+                end(VERTICES, counting);
+
+                begin(GEOMETRIES, counting);
+                Map<int[], Integer> geometryOffsets = new IdentityHashMap<>();
+                int geometryInts = 0;
+                for (StreetEdge e : streetEdges) {
+                    int[] geometry = e.getCompactGeometry();
+                    if (geometry == null || geometry.length == 0 || geometryOffsets.containsKey(geometry)) continue;
+                    geometryOffsets.put(geometry, geometryInts);
+                    for (int i : geometry) out.writeInt(i);
+                    geometryInts += geometry.length;
+                }
+                end(GEOMETRIES, counting);
+
+                begin(EDGES, counting);
+                out.writeInt(streetEdges.size());
+                for (StreetEdge e : streetEdges) {
+                    int[] geometry = e.getCompactGeometry();
+                    out.writeInt(vertexRows.get(e.getFromVertex()));
+                    out.writeInt(vertexRows.get(e.getToVertex()));
+                    out.writeInt(name(e.getRawName()));
+                    if (geometry == null) {
+                        out.writeInt(-1);
+                        out.writeInt(0);
+                    } else {
+                        out.writeInt(geometry.length == 0 ? 0 : geometryOffsets.get(geometry));
+                        out.writeInt(geometry.length);
+                    }
+                    e.writeRaw(out);
+                }
+                end(EDGES, counting);
+
+                begin(STRINGS, counting);
+                List<byte[]> encoded = new ArrayList<>(stringList.size());
+                for (String string : stringList) encoded.add(string.getBytes(StandardCharsets.UTF_8));
+                out.writeInt(encoded.size());
+                int position = 0;
+                out.writeInt(position);
+                for (byte[] bytes : encoded) {
+                    position += bytes.length;
+                    out.writeInt(position);
+                }
+                for (byte[] bytes : encoded) out.write(bytes);
+                end(STRINGS, counting);
+
+                begin(NAMES, counting);
+                ObjectOutputStream namesOut = new ObjectOutputStream(checked);
+                namesOut.writeObject(nameList);
+                namesOut.flush();
+                end(NAMES, counting);
+
+                begin(OBJECTS, counting);
+                ObjectOutputStream objectsOut = new FlatObjectOutputStream(checked, references, false);
+                objectsOut.writeObject(graph);
+                objectsOut.writeObject(new ArrayList<>(otherEdges));
+                objectsOut.writeObject(new ArrayList<>(otherVertices));
+                if (graph.debugData) {
+                    LOG.debug("Writing debug data...");
+                    objectsOut.writeObject(graph.graphBuilderAnnotations);
+                } else {
+                    LOG.debug("Skipping debug data.");
+                }
+                objectsOut.flush();
+                end(OBJECTS, counting);
+
+                if (withIndexes) writeIndexes(checked, counting);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.write(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(N_SECTIONS);
+                for (int s = 0; s < N_SECTIONS; s++) {
+                    raf.writeInt(s);
+                    raf.writeLong(offsets[s]);
+                    raf.writeLong(lengths[s]);
+                    raf.writeLong(checksums[s]);
+                }
+            }
+        }
+
+        private void begin(int section, CountingOutputStream counting) {
+            offsets[section] = counting.getCount();
+            crc.reset();
+        }
+
+        private void end(int section, CountingOutputStream counting) {
+            lengths[section] = counting.getCount() - offsets[section];
+            checksums[section] = crc.getValue();
+        }
+
+        /** Write the optional sections for the derived indexes that exist on the graph. */
+        private void writeIndexes(OutputStream out, CountingOutputStream counting) throws IOException {
+            // In the optional sections all vertices, edges and stops of the saved graph are replaced by references.
+            Map<Object, Serializable> allReferences = new IdentityHashMap<>(references);
+            Map<Vertex, Integer> allVertexRows = new IdentityHashMap<>(vertexRows);
+            for (int i = 0; i < otherVertices.size(); i++) {
+                Vertex v = otherVertices.get(i);
+                int row = vertices.size() + i;
+                allVertexRows.put(v, row);
+                allReferences.put(v, new FlatReference(false, row));
+                if (v instanceof TransitStop) allReferences.put(((TransitStop) v).getStop(), new StopReference(row));
+            }
+            for (int i = 0; i < otherEdges.size(); i++) {
+                allReferences.put(otherEdges.get(i), new FlatReference(true, streetEdges.size() + i));
+            }
+
+            if (graph.streetIndex instanceof StreetVertexIndexServiceImpl) {
+                List<HashGridSpatialIndex<?>> grids = ((StreetVertexIndexServiceImpl) graph.streetIndex).getHashGrids();
+                if (grids != null) {
+                    writeOptional(STREET_INDEX, "Street index", new ArrayList<>(grids), allReferences, out, counting);
+                }
+            }
+            if (graph.index == null) return;
+            if (graph.index.stopClustersComputed()) {
+                writeOptional(STOP_CLUSTERS, "Stop clusters",
+                        new ArrayList<>(graph.index.stopClusterForId.values()), allReferences, out, counting);
+            }
+            StopTreeCache stopTreeCache = graph.index.getStopTreeCacheIfBuilt();
+            if (stopTreeCache != null) {
+                StopTrees trees = new StopTrees();
+                trees.maxWalkMeters = stopTreeCache.getMaxWalkMeters();
+                for (Map.Entry<TransitStop, int[]> entry : stopTreeCache.distancesForStop.entrySet()) {
+                    // Stops without edges are not saved.
+                    if (!allVertexRows.containsKey(entry.getKey())) continue;
+                    int[] distances = vertexRows(entry.getValue(), allVertexRows);
+                    if (distances == null) {
+                        LOG.warn("Stop tree cache not saved with the graph, it refers to vertices that are not saved.");
+                        return;
+                    }
+                    trees.stops.add(entry.getKey());
+                    trees.distances.add(distances);
+                }
+                writeOptional(STOP_TREES, "Stop tree cache", trees, allReferences, out, counting);
+            }
+        }
+
+        /**
+         * @return a copy of the given (vertex index, distance) pairs with vertex rows instead of vertex indices, or null
+         * if a vertex is not saved.
+         */
+        private int[] vertexRows(int[] distances, Map<Vertex, Integer> allVertexRows) {
+            int[] result = distances.clone();
+            for (int i = 0; i < result.length; i += 2) {
+                Integer row = allVertexRows.get(graph.getVertexById(result[i]));
+                if (row == null) return null;
+                result[i] = row;
+            }
+            return result;
+        }
+
+        /**
+         * Write an optional section. It is serialized in memory first, so that the section can be left out if it
+         * refers to objects that are not saved with the graph.
+         */
+        private void writeOptional(int section, String description, Serializable contents,
+                Map<Object, Serializable> allReferences, OutputStream out, CountingOutputStream counting)
+                throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                ObjectOutputStream sectionOut = new FlatObjectOutputStream(bytes, allReferences, true);
+                sectionOut.writeObject(contents);
+                sectionOut.flush();
+            } catch (NotSerializableException e) {
+                LOG.warn("{} not saved with the graph, it will be rebuilt when the graph is loaded: {}",
+                        description, e.getMessage());
+                return;
+            }
+            begin(section, counting);
+            bytes.writeTo(out);
+            end(section, counting);
+            LOG.info("{} saved with the graph ({} bytes).", description, lengths[section]);
+        }
+
+        private int string(String string) {
+            Integer i = strings.get(string);
+            if (i == null) {
+                i = stringList.size();
+                strings.put(string, i);
+                stringList.add(string);
+            }
+            return i;
+        }
+
+        private int name(I18NString name) {
+            if (name == null) return NO_NAME;
+            if (name.getClass() == NonLocalizedString.class) return string(name.toString()) + 1;
+            Integer i = names.get(name);
+            if (i == null) {
+                i = nameList.size();
+                names.put(name, i);
+                nameList.add(name);
+            }
+            return -1 - i;
+        }
+    }
+
+    private static class FlatObjectOutputStream extends ObjectOutputStream {
+        private final Map<Object, ? extends Serializable> references;
+        /* If true, all vertices, edges and stops must be replaced by references. */
+        private final boolean referencesOnly;
+
+        FlatObjectOutputStream(OutputStream out, Map<Object, ? extends Serializable> references,
+                boolean referencesOnly) throws IOException {
+            super(out);
+            this.references = references;
+            this.referencesOnly = referencesOnly;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            Serializable reference = references.get(obj);
+            if (reference != null) return reference;
+            if (referencesOnly && (obj instanceof Vertex || obj instanceof Edge || obj instanceof Stop)) {
+                throw new NotSerializableException("Not in the saved graph: " + obj);
+            }
+            return obj;
+        }
+    }
+
+    /* Loading */
+
+    /** Load a binary graph file, memory-mapping its flat sections. */
+    public static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        LOG.info("Reading binary graph {} ...", file.getAbsolutePath());
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            return load(new FileSections(channel), level, indexFactory);
+        }
+    }
+
+    /**
+     * Load a binary graph from a stream, for graphs that are not in a file (e.g. uploaded or on the classpath). The
+     * whole stream is read into memory first, so prefer load(File...) when possible.
+     */
+    public static Graph load(InputStream in, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        LOG.info("Reading binary graph from stream ...");
+        return load(new BufferSections(ByteBuffer.wrap(ByteStreams.toByteArray(in))), level, indexFactory);
+    }
+
+    private static Graph load(Sections sections, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        try {
+            Reader reader = new Reader(sections);
+            reader.readVertices();
+            reader.readEdges();
+            LOG.debug("Flat sections read: {} vertices, {} edges.", reader.vertices.length, reader.edges.length);
+            ObjectInputStream in = new FlatObjectInputStream(sections.stream(OBJECTS), reader);
+            Graph graph = (Graph) in.readObject();
+            LOG.debug("Basic graph info read.");
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            @SuppressWarnings("unchecked")
+            List<Edge> otherEdges = (List<Edge>) in.readObject();
+            @SuppressWarnings("unchecked")
+            List<Vertex> otherVertices = (List<Vertex>) in.readObject();
+            graph.rebuildVertices(Iterables.concat(Arrays.asList(reader.edges), otherEdges));
+            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+            reader.otherEdges = otherEdges;
+            reader.otherVertices = otherVertices;
+            // A saved street index is only used in place of the default one, other factories are always honored.
+            StreetVertexIndexService streetIndex = null;
+            if (indexFactory.getClass() == DefaultStreetVertexIndexFactory.class) {
+                streetIndex = reader.readStreetIndex(graph);
+            }
+            if (streetIndex != null) {
+                graph.index(streetIndex);
+            } else {
+                graph.index(indexFactory);
+            }
+            reader.readStopIndexes(graph.index);
+            if (level == LoadLevel.FULL) {
+                return graph;
+            }
+            if (graph.debugData) {
+                @SuppressWarnings("unchecked")
+                List<GraphBuilderAnnotation> annotations = (List<GraphBuilderAnnotation>) in.readObject();
+                graph.graphBuilderAnnotations = annotations;
+                LOG.debug("Debug info read.");
+            } else {
+                LOG.warn("Graph file does not contain debug data.");
+            }
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
+    /** Access to the sections of a file, wherever it is stored. */
+    private static abstract class Sections {
+        final long[] offsets = new long[N_SECTIONS];
+        final long[] lengths = new long[N_SECTIONS];
+        final long[] checksums = new long[N_SECTIONS];
+
+        void readHeader(ByteBuffer header) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a binary graph file.");
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("Binary graph format version %d is not supported, expected %d. "
+                        + "Please rebuild the graph.", version, VERSION));
+            }
+            int nSections = header.getInt();
+            for (int s = 0; s < nSections; s++) {
+                int id = header.getInt();
+                offsets[id] = header.getLong();
+                lengths[id] = header.getLong();
+                checksums[id] = header.getLong();
+            }
+        }
+
+        /** @return the contents of the given section, in a buffer that starts at position zero. */
+        abstract ByteBuffer map(int section) throws IOException;
+
+        /** @return a stream over the given section, for sections written with Java serialization. */
+        abstract InputStream stream(int section) throws IOException;
+    }
+
+    private static class FileSections extends Sections {
+        final FileChannel channel;
+
+        FileSections(FileChannel channel) throws IOException {
+            this.channel = channel;
+            if (channel.size() < HEADER_BYTES) throw new IOException("Binary graph file is truncated.");
+            readHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES));
+        }
+
+        @Override
+        ByteBuffer map(int section) throws IOException {
+            if (lengths[section] > Integer.MAX_VALUE) {
+                throw new IOException("Binary graph section " + section + " is too large to be mapped.");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offsets[section], lengths[section]);
+        }
+
+        @Override
+        InputStream stream(int section) throws IOException {
+            // Java serialization reads the stream sequentially, there is no need to map it.
+            return new BufferedInputStream(new SectionInputStream(channel, offsets[section], lengths[section]));
+        }
+    }
+
+    /**
+     * Reads part of a file with positional reads, so that one section can be read while the stream over another one
+     * is still open (the optional sections are read before the debug data at the end of the OBJECTS section).
+     */
+    private static class SectionInputStream extends InputStream {
+        final FileChannel channel;
+        final long end;
+        long position;
+
+        SectionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) return -1;
+            position += n;
+            return n;
+        }
+    }
+
+    private static class BufferSections extends Sections {
+        final ByteBuffer buffer;
+
+        BufferSections(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (buffer.capacity() < HEADER_BYTES) throw new IOException("Binary graph is truncated.");
+            readHeader(buffer.duplicate());
+        }
+
+        @Override
+        ByteBuffer map(int section) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position((int) offsets[section]);
+            slice.limit((int) (offsets[section] + lengths[section]));
+            return slice.slice();
+        }
+
+        @Override
+        InputStream stream(int section) {
+            return new ByteArrayInputStream(buffer.array(), (int) offsets[section], (int) lengths[section]);
+        }
+    }
+
+    private static class Reader {
+        final Sections sections;
+
+        final ByteBuffer strings;
+        final String[] stringCache;
+        final NonLocalizedString[] plainNames;
+        final List<I18NString> names;
+
+        Vertex[] vertices;
+        StreetEdge[] edges;
+
+        /* The vertices and edges of the OBJECTS section, which follow those of the flat sections in the numbering. */
+        List<Vertex> otherVertices = Collections.emptyList();
+        List<Edge> otherEdges = Collections.emptyList();
+
+        @SuppressWarnings("unchecked")
+        Reader(Sections sections) throws IOException, ClassNotFoundException {
+            this.sections = sections;
+            strings = sections.map(STRINGS);
+            int nStrings = strings.getInt(0);
+            stringCache = new String[nStrings];
+            plainNames = new NonLocalizedString[nStrings];
+            names = (List<I18NString>) new ObjectInputStream(sections.stream(NAMES)).readObject();
+        }
+
+        String string(int i) {
+            String string = stringCache[i];
+            if (string == null) {
+                int nStrings = stringCache.length;
+                int start = strings.getInt(4 + 4 * i);
+                int end = strings.getInt(4 + 4 * (i + 1));
+                byte[] bytes = new byte[end - start];
+                ByteBuffer b = strings.duplicate();
+                b.position(4 + 4 * (nStrings + 1) + start);
+                b.get(bytes);
+                string = new String(bytes, StandardCharsets.UTF_8);
+                stringCache[i] = string;
+            }
+            return string;
+        }
+
+        /** Plain names are shared by all vertices and edges with the same name. */
+        I18NString name(int ref) {
+            if (ref == NO_NAME) return null;
+            if (ref < 0) return names.get(-1 - ref);
+            NonLocalizedString name = plainNames[ref - 1];
+            if (name == null) {
+                name = new NonLocalizedString(string(ref - 1));
+                plainNames[ref - 1] = name;
+            }
+            return name;
+        }
+
+        void readVertices() throws IOException {
+            ByteBuffer b = sections.map(VERTICES);
+            vertices = new Vertex[b.getInt(0)];
+            for (int i = 0; i < vertices.length; i++) {
+                int p = 4 + i * VERTEX_BYTES;
+                double x = b.getDouble(p);
+                double y = b.getDouble(p + 8);
+                long nodeId = b.getLong(p + 16);
+                String label = string(b.getInt(p + 24));
+                I18NString name = name(b.getInt(p + 28));
+                byte kind = b.get(p + 32);
+                byte flags = b.get(p + 33);
+                // Vertices are added to the graph once it is read, see Graph.rebuildVertices().
+                IntersectionVertex v = kind == KIND_OSM ? new OsmVertex(null, label, x, y, nodeId, name)
+                        : new IntersectionVertex(null, label, x, y, name);
+                v.trafficLight = (flags & TRAFFIC_LIGHT) != 0;
+                v.freeFlowing = (flags & FREE_FLOWING) != 0;
+                vertices[i] = v;
+            }
+        }
+
+        void readEdges() throws IOException {
+            IntBuffer geometries = sections.map(GEOMETRIES).asIntBuffer();
+            // Geometries shared by an edge and its reverse are materialized once.
+            TIntObjectMap<int[]> geometryCache = new TIntObjectHashMap<>();
+            ByteBuffer b = sections.map(EDGES);
+            edges = new StreetEdge[b.getInt(0)];
+            for (int i = 0; i < edges.length; i++) {
+                int p = 4 + i * EDGE_BYTES;
+                StreetVertex from = (StreetVertex) vertices[b.getInt(p)];
+                StreetVertex to = (StreetVertex) vertices[b.getInt(p + 4)];
+                I18NString name = name(b.getInt(p + 8));
+                int geometryOffset = b.getInt(p + 12);
+                int geometryLength = b.getInt(p + 16);
+                int[] geometry;
+                if (geometryOffset < 0) {
+                    geometry = null;
+                } else if (geometryLength == 0) {
+                    geometry = STRAIGHT_LINE;
+                } else {
+                    geometry = geometryCache.get(geometryOffset);
+                    if (geometry == null) {
+                        geometry = new int[geometryLength];
+                        IntBuffer g = geometries.duplicate();
+                        g.position(geometryOffset);
+                        g.get(geometry);
+                        geometryCache.put(geometryOffset, geometry);
+                    }
+                }
+                b.position(p + 20);
+                edges[i] = new StreetEdge(from, to, name, geometry, b);
+            }
+        }
+
+        Object resolve(FlatReference reference) {
+            int row = reference.row;
+            if (reference.edge) return row < edges.length ? edges[row] : otherEdges.get(row - edges.length);
+            return vertex(row);
+        }
+
+        Vertex vertex(int row) {
+            return row < vertices.length ? vertices[row] : otherVertices.get(row - vertices.length);
+        }
+
+        /** @return the street index saved with the graph, or null if there is none or it cannot be used. */
+        @SuppressWarnings("unchecked")
+        StreetVertexIndexService readStreetIndex(Graph graph) {
+            List<HashGridSpatialIndex<?>> grids = (List<HashGridSpatialIndex<?>>) readOptional(STREET_INDEX);
+            if (grids == null) return null;
+            LOG.info("Using the street index saved with the graph.");
+            return new StreetVertexIndexServiceImpl(graph, (HashGridSpatialIndex<Edge>) grids.get(0),
+                    (HashGridSpatialIndex<TransitStop>) grids.get(1), (HashGridSpatialIndex<Vertex>) grids.get(2));
+        }
+
+        /** Restore the stop clusters and stop tree cache saved with the graph, if any. */
+        @SuppressWarnings("unchecked")
+        void readStopIndexes(GraphIndex index) {
+            List<StopCluster> clusters = (List<StopCluster>) readOptional(STOP_CLUSTERS);
+            if (clusters != null) {
+                index.restoreStopClusters(clusters);
+                LOG.info("Using the {} stop clusters saved with the graph.", clusters.size());
+            }
+            StopTrees trees = (StopTrees) readOptional(STOP_TREES);
+            if (trees != null) {
+                Map<TransitStop, int[]> distancesForStop = new HashMap<>();
+                for (int s = 0; s < trees.stops.size(); s++) {
+                    int[] distances = trees.distances.get(s);
+                    for (int i = 0; i < distances.length; i += 2) {
+                        distances[i] = vertex(distances[i]).getIndex();
+                    }
+                    distancesForStop.put(trees.stops.get(s), distances);
+                }
+                index.restoreStopTreeCache(new StopTreeCache(trees.maxWalkMeters, distancesForStop));
+                LOG.info("Using the stop tree cache saved with the graph.");
+            }
+        }
+
+        /**
+         * @return the contents of an optional section, or null if it is absent, does not match its checksum or
+         * cannot be read. The checksum is verified before the contents are used.
+         */
+        Object readOptional(int section) {
+            if (sections.lengths[section] == 0) return null;
+            try {
+                CheckedInputStream checked = new CheckedInputStream(sections.stream(section), new CRC32());
+                Object contents = new FlatObjectInputStream(checked, this).readObject();
+                ByteStreams.copy(checked, ByteStreams.nullOutputStream());
+                if (checked.getChecksum().getValue() != sections.checksums[section]) {
+                    LOG.warn("Checksum mismatch in binary graph section {}, the index will be rebuilt.", section);
+                    return null;
+                }
+                return contents;
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                LOG.warn("Cannot read binary graph section {}, the index will be rebuilt.", section, e);
+                return null;
+            }
+        }
+    }
+
+    private static class FlatObjectInputStream extends ObjectInputStream {
+        private final Reader reader;
+
+        FlatObjectInputStream(InputStream in, Reader reader) throws IOException {
+            super(in);
+            this.reader = reader;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof FlatReference) return reader.resolve((FlatReference) obj);
+            if (obj instanceof StopReference) return ((TransitStop) reader.vertex(((StopReference) obj).row)).getStop();
+            return obj;
+        }
+    }
+
+}
@@ -280,4 +280,12 @@ public abstract class Edge implements Serializable {
     	return this.id;
     }
 
+    /**
+     * Restore the ID this edge had when the graph was saved. Only needed for edges that are not read back through
+     * Java serialization, see BinaryGraphFormat.
+     */
+    protected void restoreId(int id) {
+        this.id = id;
+    }
+
 }
@@ -38,7 +38,11 @@ import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTables;
+import org.opentripplanner.routing.ch.ContractionHierarchy;
+import org.opentripplanner.routing.compact.CompactStreetGraph;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
+import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.EdgeWithCleanup;
@@ -99,17 +103,30 @@ public class Graph implements Serializable {
 
     private transient CalendarService calendarService;
 
-    private boolean debugData = true;
+    boolean debugData = true;
 
     // TODO this would be more efficient if it was just an array.
     private transient Map<Integer, Vertex> vertexById;
 
     private transient Map<Integer, Edge> edgeById;
 
+    /* Range of Vertex.getIndex() values in this graph, used to size arrays indexed by vertex. Limit is exclusive. */
+    private transient int vertexIndexOffset = 0;
+    private transient int vertexIndexLimit = -1;
+
     public transient StreetVertexIndexService streetIndex;
 
     public transient GraphIndex index;
 
+    /** Optional primitive-array copy of the street layer, used for fast street-only searches. */
+    public transient CompactStreetGraph compactStreetGraph;
+
+    /** Landmark distance tables for goal direction in car and bicycle searches, computed by the LandmarkModule. */
+    public LandmarkTables landmarks;
+
+    /** Contraction hierarchies for street-only searches, one per profile, built by the ContractionHierarchyModule. */
+    public List<ContractionHierarchy> contractionHierarchies;
+
     private transient GeometryIndex geomIndex;
 
     private transient SampleFactory sampleFactory;
@@ -124,7 +141,7 @@ public class Graph implements Serializable {
 
     public transient TimetableSnapshotSource timetableSnapshotSource = null;
 
-    private transient List<GraphBuilderAnnotation> graphBuilderAnnotations = new LinkedList<GraphBuilderAnnotation>(); // initialize for tests
+    transient List<GraphBuilderAnnotation> graphBuilderAnnotations = new LinkedList<GraphBuilderAnnotation>(); // initialize for tests
 
     private Map<String, Collection<Agency>> agenciesForFeedId = new HashMap<>();
 
@@ -394,11 +411,11 @@ public class Graph implements Serializable {
     public void addTurnRestriction(Edge edge, TurnRestriction turnRestriction) {
         if (edge == null || turnRestriction == null) return;
         List<TurnRestriction> turnRestrictions = this.turnRestrictions.get(edge);
-        if (turnRestrictions == null) {
-            turnRestrictions = Lists.newArrayList();
-            this.turnRestrictions.put(edge, turnRestrictions);
+        ImmutableList.Builder<TurnRestriction> builder = ImmutableList.builder();
+        if (turnRestrictions != null) {
+            builder.addAll(turnRestrictions);
         }
-        turnRestrictions.add(turnRestriction);
+        this.turnRestrictions.put(edge, builder.add(turnRestriction).build());
     }
 
     /**
@@ -414,7 +431,9 @@ public class Graph implements Serializable {
             if (turnRestrictions.size() < 2) {
                 this.turnRestrictions.remove(edge);
             } else {
-                turnRestrictions.remove(turnRestriction);
+                List<TurnRestriction> remaining = Lists.newArrayList(turnRestrictions);
+                remaining.remove(turnRestriction);
+                this.turnRestrictions.put(edge, ImmutableList.copyOf(remaining));
             }
         }
     }
@@ -422,7 +441,9 @@ public class Graph implements Serializable {
     /**
      * Get the {@link TurnRestriction} {@link List} that belongs to an {@link Edge} and return an
      * immutable copy. This method is thread-safe when used by itself, but not if addTurnRestriction
-     * or removeTurnRestriction is called concurrently.
+     * or removeTurnRestriction is called concurrently. The lists are replaced rather than modified
+     * by those methods, so the copy is the stored list itself and nothing is allocated when it is
+     * called for each traversal of an edge.
      * @param edge
      * @return The {@link TurnRestriction} {@link List} that belongs to the {@link Edge}
      */
@@ -600,6 +621,7 @@ public class Graph implements Serializable {
         for (Vertex v : vertices) {
             vertexById.put(v.getIndex(), v);
         }
+        computeVertexIndexRange();
 
         // Create map from edge ids to edges.
         this.edgeById = new HashMap<Integer, Edge>();
@@ -614,6 +636,42 @@ public class Graph implements Serializable {
         }
     }
 
+    private void computeVertexIndexRange() {
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (Vertex v : getVertices()) {
+            min = Math.min(min, v.getIndex());
+            max = Math.max(max, v.getIndex());
+        }
+        vertexIndexOffset = max < 0 ? 0 : min;
+        vertexIndexLimit = max + 1;
+    }
+
+    /**
+     * @return the smallest Vertex.getIndex() in this graph as of the last index rebuild. Together with
+     * getVertexIndexLimit() this allows sizing arrays indexed by vertex. Vertices added later (including temporary
+     * vertices) may fall outside the range, so users of these arrays need a fallback for them.
+     */
+    public int getVertexIndexOffset() {
+        if (vertexIndexLimit < 0) computeVertexIndexRange();
+        return vertexIndexOffset;
+    }
+
+    /** @return one more than the largest Vertex.getIndex() in this graph as of the last index rebuild. */
+    public int getVertexIndexLimit() {
+        if (vertexIndexLimit < 0) computeVertexIndexRange();
+        return vertexIndexLimit;
+    }
+
+    /** @return a contraction hierarchy that can answer the given request, or null if there is none. */
+    public ContractionHierarchy getContractionHierarchy(RoutingRequest options) {
+        if (contractionHierarchies == null) return null;
+        for (ContractionHierarchy ch : contractionHierarchies) {
+            if (ch.matches(options)) return ch;
+        }
+        return null;
+    }
+
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
             IOException {
         inputStream.defaultReadObject();
@@ -657,6 +715,9 @@ public class Graph implements Serializable {
     }
 
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
+        if (BinaryGraphFormat.isBinaryGraph(file)) {
+            return BinaryGraphFormat.load(file, level, new DefaultStreetVertexIndexFactory());
+        }
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
@@ -671,9 +732,14 @@ public class Graph implements Serializable {
         return load(in, level);
     }
 
+    /** Load a graph in either the Java serialization or the binary format, see BinaryGraphFormat. */
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        BufferedInputStream in = new BufferedInputStream(is);
+        if (BinaryGraphFormat.isBinaryGraph(in)) {
+            return BinaryGraphFormat.load(in, level, new DefaultStreetVertexIndexFactory());
+        }
+        return load(new ObjectInputStream(in), level);
     }
 
     /**
@@ -697,8 +763,14 @@ public class Graph implements Serializable {
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index(StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
+        StreetVertexIndexService streetIndex = indexFactory.newIndex(this);
         LOG.debug("street index built.");
+        index(streetIndex);
+    }
+
+    /** Index the graph around a street index that was already built for it, e.g. read back from a graph file. */
+    public void index(StreetVertexIndexService streetIndex) {
+        this.streetIndex = streetIndex;
         LOG.debug("Rebuilding edge and vertex indices.");
         rebuildVertexAndEdgeIndices();
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
@@ -735,12 +807,7 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
+            graph.rebuildVertices(edges);
 
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
             graph.index(indexFactory);
@@ -762,6 +829,15 @@ public class Graph implements Serializable {
         }
     }
 
+    /** Reconstruct the vertex map, which is not saved, from the edges read back from a graph file. */
+    void rebuildVertices(Iterable<? extends Edge> edges) {
+        vertices = new HashMap<String, Vertex>();
+        for (Edge e : edges) {
+            vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -769,7 +845,7 @@ public class Graph implements Serializable {
      * @return false if Maven versions match (even if commit ids do not match), true if Maven version of graph does not match this version of OTP or
      *         graphs are otherwise obviously incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
@@ -48,6 +48,7 @@ import org.opentripplanner.routing.edgetype.TablePatternEdge;
 import org.opentripplanner.routing.edgetype.Timetable;
 import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.mcraptor.McRaptorNetwork;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.TripTimes;
@@ -119,6 +120,9 @@ public class GraphIndex {
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
+    /** The stops, patterns and transfers of this graph renumbered for McRAPTOR searches. */
+    private transient McRaptorNetwork mcRaptorNetwork = null;
+
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
 
@@ -191,12 +195,35 @@ public class GraphIndex {
     public synchronized void clusterStopsAsNeeded() {
         if (stopClusterSpatialIndex == null) {
             clusterStops();
-            LOG.info("Creating a spatial index for stop clusters.");
-            stopClusterSpatialIndex = new HashGridSpatialIndex<StopCluster>();
-            for (StopCluster cluster : stopClusterForId.values()) {
-                Envelope envelope = new Envelope(new Coordinate(cluster.lon, cluster.lat));
-                stopClusterSpatialIndex.insert(envelope, cluster);
-            }
+            indexStopClusters();
+        }
+    }
+
+    /**
+     * Use stop clusters that were computed earlier for the same graph (at build time, see BinaryGraphFormat) rather
+     * than clustering the stops again.
+     */
+    synchronized void restoreStopClusters(Collection<StopCluster> clusters) {
+        stopClusterForStop.clear();
+        stopClusterForId.clear();
+        for (StopCluster cluster : clusters) {
+            for (Stop stop : cluster.children) stopClusterForStop.put(stop, cluster);
+            stopClusterForId.put(cluster.id, cluster);
+        }
+        indexStopClusters();
+    }
+
+    /** @return true if the stops have been clustered, either by clusterStopsAsNeeded() or restoreStopClusters(). */
+    boolean stopClustersComputed() {
+        return stopClusterSpatialIndex != null;
+    }
+
+    private void indexStopClusters() {
+        LOG.info("Creating a spatial index for stop clusters.");
+        stopClusterSpatialIndex = new HashGridSpatialIndex<StopCluster>();
+        for (StopCluster cluster : stopClusterForId.values()) {
+            Envelope envelope = new Envelope(new Coordinate(cluster.lon, cluster.lat));
+            stopClusterSpatialIndex.insert(envelope, cluster);
         }
     }
 
@@ -530,6 +557,28 @@ public class GraphIndex {
         return stopTreeCache;
     }
 
+    /** Fetch the arrays used by McRaptorSearch, lazy-building them on the first McRAPTOR request. */
+    public McRaptorNetwork getMcRaptorNetwork() {
+        if (mcRaptorNetwork == null) {
+            synchronized (this) {
+                if (mcRaptorNetwork == null) {
+                    mcRaptorNetwork = new McRaptorNetwork(graph);
+                }
+            }
+        }
+        return mcRaptorNetwork;
+    }
+
+    /** @return the stop tree cache if it has been built or restored, without building it. */
+    StopTreeCache getStopTreeCacheIfBuilt() {
+        return stopTreeCache;
+    }
+
+    /** Use a stop tree cache that was built earlier for the same graph, see BinaryGraphFormat. */
+    synchronized void restoreStopTreeCache(StopTreeCache stopTreeCache) {
+        this.stopTreeCache = stopTreeCache;
+    }
+
     /**
      * Get the most up-to-date timetable for the given TripPattern, as of right now.
      * There should probably be a less awkward way to do this that just gets the latest entry from the resolver without
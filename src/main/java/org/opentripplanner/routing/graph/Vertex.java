@@ -241,6 +241,12 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString(locale);
     }
 
+    /** @return the name of this vertex before localization. */
+    @XmlTransient
+    public I18NString getRawName() {
+        return this.name;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /** Every vertex has a label which is globally unique. */
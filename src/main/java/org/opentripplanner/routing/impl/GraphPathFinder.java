@@ -20,8 +20,12 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.ch.ContractionHierarchy;
+import org.opentripplanner.routing.ch.ContractionHierarchySearch;
+import org.opentripplanner.routing.compact.CompactStreetSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
@@ -29,6 +33,8 @@ import org.opentripplanner.routing.error.PathNotFoundException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.mcraptor.McRaptorNetwork;
+import org.opentripplanner.routing.mcraptor.McRaptorSearch;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.standalone.Router;
@@ -37,8 +43,13 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -79,6 +90,7 @@ public class GraphPathFinder {
      * For search N, all trips used in itineraries retained from trips 0..(N-1) are "banned" to create variety.
      * The goal direction heuristic is reused between tries, which means the later tries have more information to
      * work with (in the case of the more sophisticated bidirectional heuristic, which improves over time).
+     * When the router has an itinerary search pool, alternatives are instead found by concurrent searches.
      */
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -106,19 +118,7 @@ public class GraphPathFinder {
         options.dominanceFunction = new DominanceFunction.MinimumWeight(); // FORCING the dominance function to weight only
         LOG.debug("rreq={}", options);
 
-        // Choose an appropriate heuristic for goal direction.
-        RemainingWeightHeuristic heuristic;
-        if (options.disableRemainingWeightHeuristic) {
-            heuristic = new TrivialRemainingWeightHeuristic();
-        } else if (options.modes.isTransit()) {
-            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
-            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
-            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
-        } else {
-            heuristic = new EuclideanRemainingWeightHeuristic();
-        }
-        options.rctx.remainingWeightHeuristic = heuristic;
+        options.rctx.remainingWeightHeuristic = createHeuristic(options);
 
         /* In RoutingRequest, maxTransfers defaults to 2. Over long distances, we may see
          * itineraries with far more transfers. We do not expect transfer limiting to improve
@@ -136,17 +136,56 @@ public class GraphPathFinder {
         if (options.maxWalkDistance == Double.MAX_VALUE) options.maxWalkDistance = DEFAULT_MAX_WALK;
         if (options.maxWalkDistance > CLAMP_MAX_WALK) options.maxWalkDistance = CLAMP_MAX_WALK;
         long searchBeginTime = System.currentTimeMillis();
+
+        // Street-only requests with the default options of a prebuilt contraction hierarchy are answered from it.
+        ContractionHierarchy ch = router.graph.getContractionHierarchy(options);
+        if (ch != null) {
+            GraphPath path = new ContractionHierarchySearch(ch, options).route();
+            if (path != null && path.getDuration() < options.maxHours * 60 * 60) {
+                options.rctx.debugOutput.foundPath();
+                LOG.debug("END CONTRACTION HIERARCHY SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+                return Lists.newArrayList(path);
+            }
+            LOG.debug("Contraction hierarchy search did not produce a path, falling back.");
+        }
+
+        // Street-only requests can be answered from the primitive-array copy of the streets when one was built.
+        if (router.graph.compactStreetGraph != null && CompactStreetSearch.supports(options)) {
+            GraphPath path = new CompactStreetSearch(router.graph.compactStreetGraph, options).route();
+            if (path != null && path.getDuration() < options.maxHours * 60 * 60) {
+                options.rctx.debugOutput.foundPath();
+                LOG.debug("END COMPACT STREET SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+                return Lists.newArrayList(path);
+            }
+            LOG.debug("Compact street search did not produce a path, falling back on AStar.");
+        }
+
+        // Transit requests can be answered by a multi-criteria RAPTOR search over the stops and patterns, on request.
+        // Its walk searches at both ends share the time allowed for the first path.
+        double mcRaptorTimeout = relativeTimeout(searchBeginTime, 0);
+        if (options.mcRaptor && router.graph.index != null && McRaptorSearch.supports(options) && mcRaptorTimeout > 0) {
+            McRaptorNetwork network = router.graph.index.getMcRaptorNetwork();
+            List<GraphPath> paths = new McRaptorSearch(network, options, mcRaptorTimeout).route()
+                    .stream()
+                    .filter(path -> path.getDuration() < options.maxHours * 60 * 60)
+                    .collect(Collectors.toList());
+            if (!paths.isEmpty()) {
+                options.rctx.debugOutput.foundPath();
+                LOG.debug("END MCRAPTOR SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+                Collections.sort(paths, new PathComparator(options.arriveBy));
+                return paths;
+            }
+            LOG.debug("McRAPTOR search did not produce a path, falling back on AStar.");
+        }
+
+        if (router.itinerarySearchPool != null && options.numItineraries > 1) {
+            return getPathsConcurrently(options, aStar, searchBeginTime);
+        }
+
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
         while (paths.size() < options.numItineraries) {
-            // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
-            int timeoutIndex = paths.size();
-            if (timeoutIndex >= router.timeouts.length) {
-                timeoutIndex = router.timeouts.length - 1;
-            }
-            double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
-            timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
-            timeout /= 1000; // Convert milliseconds to seconds
+            double timeout = relativeTimeout(searchBeginTime, paths.size());
             if (timeout <= 0) {
                 // Catch the case where advancing to the next (lower) timeout value means the search is timed out
                 // before it even begins. Passing a negative relative timeout in the SPT call would mean "no timeout".
@@ -186,6 +225,161 @@ public class GraphPathFinder {
         return paths;
     }
 
+    /**
+     * Find several itineraries in rounds of concurrent searches on the router's itinerary search pool, instead of one
+     * search per itinerary. The first round is the usual single search. Each following round runs, concurrently:
+     * one search banning all trips found so far (which is what the next sequential search would do), and one search
+     * per trip of each path found in the previous round, banning only that trip. A request for three itineraries thus
+     * costs about two search latencies rather than three. Duplicate paths (using the same trips) are dropped, and the
+     * lowest-weight paths are kept.
+     */
+    private List<GraphPath> getPathsConcurrently(RoutingRequest options, AStar aStar, long searchBeginTime) {
+        LOG.debug("BEGIN CONCURRENT SEARCH");
+        List<GraphPath> paths = Lists.newArrayList();
+        Set<List<AgencyAndId>> tripLists = new HashSet<>();
+        List<GraphPath> frontier = Lists.newArrayList();
+        double timeout = relativeTimeout(searchBeginTime, 0);
+        if (timeout > 0) {
+            aStar.getShortestPathTree(options, timeout);
+            if (!options.rctx.aborted) {
+                addNewPaths(aStar.getPathsToTarget(), options, paths, tripLists, frontier);
+            }
+        } else {
+            options.rctx.aborted = true;
+        }
+
+        for (int round = 1; paths.size() < options.numItineraries && !frontier.isEmpty(); round++) {
+            timeout = relativeTimeout(searchBeginTime, round);
+            if (timeout <= 0) {
+                options.rctx.aborted = true;
+                break;
+            }
+            final double roundTimeout = timeout;
+            List<Future<List<GraphPath>>> futures = Lists.newArrayList();
+            for (RoutingRequest variant : alternativeRequests(options, paths, frontier)) {
+                futures.add(router.itinerarySearchPool.submit(() -> {
+                    AStar variantAStar = new AStar();
+                    try {
+                        variantAStar.getShortestPathTree(variant, roundTimeout);
+                    } finally {
+                        // The copied context is not destroyed, but its heuristic will not be used again.
+                        variant.rctx.stopHeuristic();
+                    }
+                    return variant.rctx.aborted ? Collections.<GraphPath>emptyList() : variantAStar.getPathsToTarget();
+                }));
+            }
+            frontier = Lists.newArrayList();
+            for (Future<List<GraphPath>> future : futures) {
+                try {
+                    addNewPaths(future.get(), options, paths, tripLists, frontier);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    options.rctx.aborted = true;
+                    break;
+                } catch (ExecutionException e) {
+                    LOG.error("Alternative itinerary search failed.", e.getCause());
+                }
+            }
+            LOG.debug("we have {} paths after round {}", paths.size(), round);
+        }
+        LOG.debug("END CONCURRENT SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+        // The first path is always the optimal one. Among the alternatives keep those with the lowest weight.
+        if (paths.size() > options.numItineraries) {
+            List<GraphPath> alternatives = paths.subList(1, paths.size());
+            alternatives.sort(Comparator.comparingDouble(GraphPath::getWeight));
+            paths = Lists.newArrayList(paths.subList(0, options.numItineraries));
+        }
+        Collections.sort(paths, new PathComparator(options.arriveBy));
+        return paths;
+    }
+
+    /** Add the paths that do not use the same trips as one already found, and that are not too long. */
+    private static void addNewPaths(List<GraphPath> newPaths, RoutingRequest options, List<GraphPath> paths,
+                                    Set<List<AgencyAndId>> tripLists, List<GraphPath> frontier) {
+        for (GraphPath path : newPaths) {
+            if (path.getDuration() >= options.maxHours * 60 * 60 || !tripLists.add(path.getTrips())) {
+                continue;
+            }
+            paths.add(path);
+            frontier.add(path);
+            options.rctx.debugOutput.foundPath();
+        }
+    }
+
+    /**
+     * Create the requests for one round of concurrent alternative searches, each with its own copy of the routing
+     * context. There are at most as many requests as threads in the pool.
+     */
+    private List<RoutingRequest> alternativeRequests(RoutingRequest options, List<GraphPath> paths,
+                                                     List<GraphPath> frontier) {
+        // As in the sequential search, once a street-only path is found only transit paths are of interest.
+        boolean onlyTransitTrips = options.onlyTransitTrips;
+        for (GraphPath path : paths) {
+            onlyTransitTrips |= path.getTrips().isEmpty();
+        }
+        List<RoutingRequest> requests = Lists.newArrayList();
+        RoutingRequest banAll = alternativeRequest(options, onlyTransitTrips);
+        for (GraphPath path : paths) {
+            for (AgencyAndId tripId : path.getTrips()) {
+                banAll.banTrip(tripId);
+            }
+        }
+        requests.add(banAll);
+        for (GraphPath path : frontier) {
+            List<AgencyAndId> tripIds = path.getTrips();
+            // Banning the only trip of a path is the same as banning all of them.
+            if (tripIds.size() < 2) continue;
+            for (AgencyAndId tripId : tripIds) {
+                if (requests.size() >= router.itinerarySearchThreads) {
+                    return requests;
+                }
+                RoutingRequest request = alternativeRequest(options, onlyTransitTrips);
+                request.banTrip(tripId);
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    private RoutingRequest alternativeRequest(RoutingRequest options, boolean onlyTransitTrips) {
+        RoutingRequest request = options.clone();
+        request.onlyTransitTrips = onlyTransitTrips;
+        options.rctx.copyForConcurrentSearch(request, createHeuristic(request));
+        return request;
+    }
+
+    /** Choose an appropriate heuristic for goal direction. */
+    private RemainingWeightHeuristic createHeuristic(RoutingRequest options) {
+        if (options.disableRemainingWeightHeuristic) {
+            return new TrivialRemainingWeightHeuristic();
+        } else if (options.modes.isTransit()) {
+            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
+            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
+            return new InterleavedBidirectionalHeuristic(router.heuristicPool);
+        } else if (LandmarkRemainingWeightHeuristic.supports(options)) {
+            return new LandmarkRemainingWeightHeuristic(options.rctx.graph.landmarks);
+        } else {
+            return new EuclideanRemainingWeightHeuristic();
+        }
+    }
+
+    /**
+     * @return the time in seconds left for the search with the given index (e.g. the number of paths found so far),
+     * according to the router's timeouts. Zero or negative if there is no time left.
+     */
+    private double relativeTimeout(long searchBeginTime, int searchIndex) {
+        // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
+        int timeoutIndex = searchIndex;
+        if (timeoutIndex >= router.timeouts.length) {
+            timeoutIndex = router.timeouts.length - 1;
+        }
+        double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
+        timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
+        timeout /= 1000; // Convert milliseconds to seconds
+        return timeout;
+    }
+
     /* Try to find N paths through the Graph */
     public List<GraphPath> graphPathFinderEntryPoint (RoutingRequest request) {
 
@@ -18,11 +18,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.google.common.io.ByteStreams;
+import org.opentripplanner.routing.graph.BinaryGraphFormat;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.services.GraphSource;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.standalone.RequestSample;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RouterWarmup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,7 +49,7 @@ public class InputStreamGraphSource implements GraphSource {
      * */
     private static final long LOAD_DELAY_SEC = 10;
 
-    private Router router;
+    private volatile Router router;
 
     private String routerId;
 
@@ -117,9 +120,11 @@ public class InputStreamGraphSource implements GraphSource {
                 return true;
             if (preEvict) {
                 synchronized (preEvictMutex) {
+                    RequestSample sample = null;
                     if (router != null) {
                         LOG.info("Reloading '{}': pre-evicting router", routerId);
                         router.shutdown();
+                        sample = router.requestSample;
                     }
                     /*
                      * Forcing router to null here should remove any references to the graph once
@@ -127,10 +132,24 @@ public class InputStreamGraphSource implements GraphSource {
                      * memory.
                      */
                     router = null;
-                    router = loadGraph();
+                    // Clients are waiting anyway, warming up first makes their requests faster.
+                    router = warmUp(loadGraph(), sample);
                 }
             } else {
-                Router newRouter = loadGraph();
+                Router current = router;
+                if (current != null && !RouterWarmup.hasHeapHeadroom(current.swapMinFreeHeap)) {
+                    // Loading a second graph would likely run out of memory and take the current one down.
+                    // The modification time is not recorded, so that the next poll tries again.
+                    LOG.warn("Reloading '{}': not enough free heap to load a new graph, keeping old data.",
+                            routerId);
+                    current.metrics.recordRefusedSwap();
+                    return true;
+                }
+                /*
+                 * The new router is loaded, indexed and warmed up while the current one keeps serving requests,
+                 * then it replaces the current one in a single volatile write.
+                 */
+                Router newRouter = warmUp(loadGraph(), current == null ? null : current.requestSample);
                 if (newRouter != null) {
                     // Load OK
                     if (router != null) {
@@ -166,6 +185,20 @@ public class InputStreamGraphSource implements GraphSource {
         }
     }
 
+    /**
+     * Replay the requests recently made to the router being replaced against a newly loaded router, and keep them
+     * for the next reload.
+     * @return the new router, for convenience.
+     */
+    private Router warmUp(Router newRouter, RequestSample sample) {
+        if (newRouter != null && sample != null) {
+            LOG.info("Reloading '{}': warming up the new router", routerId);
+            RouterWarmup.warmUp(newRouter, sample.getRequests());
+            newRouter.requestSample.recordAll(sample);
+        }
+        return newRouter;
+    }
+
     /**
      * Check if a graph has been modified since the last time it has been loaded.
      * 
@@ -206,8 +239,18 @@ public class InputStreamGraphSource implements GraphSource {
         try (InputStream is = streams.getGraphInputStream()) {
             LOG.info("Loading graph...");
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+                File graphFile = streams.getGraphFile();
+                if (graphFile != null && BinaryGraphFormat.isBinaryGraph(graphFile)) {
+                    // Map the file rather than reading it through the stream.
+                    newGraph = BinaryGraphFormat.load(graphFile, loadLevel, streetVertexIndexFactory);
+                } else {
+                    BufferedInputStream in = new BufferedInputStream(is);
+                    if (BinaryGraphFormat.isBinaryGraph(in)) {
+                        newGraph = BinaryGraphFormat.load(in, loadLevel, streetVertexIndexFactory);
+                    } else {
+                        newGraph = Graph.load(new ObjectInputStream(in), loadLevel, streetVertexIndexFactory);
+                    }
+                }
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
@@ -251,6 +294,9 @@ public class InputStreamGraphSource implements GraphSource {
     private interface Streams {
         public abstract InputStream getGraphInputStream() throws IOException;
 
+        /** @return the graph file, or null if the graph is not in a file. */
+        public abstract File getGraphFile();
+
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
@@ -264,6 +310,11 @@ public class InputStreamGraphSource implements GraphSource {
             this.path = path;
         }
 
+        @Override
+        public File getGraphFile() {
+            return new File(path, GRAPH_FILENAME);
+        }
+
         @Override
         public InputStream getGraphInputStream() throws IOException {
             File graphFile = new File(path, GRAPH_FILENAME);
@@ -297,6 +348,11 @@ public class InputStreamGraphSource implements GraphSource {
             this.path = path;
         }
 
+        @Override
+        public File getGraphFile() {
+            return null;
+        }
+
         @Override
         public InputStream getGraphInputStream() {
             File graphFile = new File(path, GRAPH_FILENAME);
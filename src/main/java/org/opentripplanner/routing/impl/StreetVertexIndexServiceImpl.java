@@ -116,6 +116,29 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
 
     }
 
+    /**
+     * Create an index from hash grids that were built for the same graph earlier, e.g. at graph build time and read
+     * back from a binary graph file. See getHashGrids().
+     */
+    public StreetVertexIndexServiceImpl(Graph graph, HashGridSpatialIndex<Edge> edgeTree,
+            HashGridSpatialIndex<TransitStop> transitStopTree, HashGridSpatialIndex<Vertex> verticesTree) {
+        this.graph = graph;
+        this.edgeTree = edgeTree;
+        this.transitStopTree = transitStopTree;
+        this.verticesTree = verticesTree;
+        simpleStreetSplitter = new SimpleStreetSplitter(this.graph, edgeTree, transitStopTree, false);
+    }
+
+    /**
+     * @return the edge, transit stop and vertex hash grids of this index, in that order, or null if it uses STRtrees.
+     * Together with the graph they are enough to recreate the index without inserting every edge again.
+     */
+    public List<HashGridSpatialIndex<?>> getHashGrids() {
+        if (!(edgeTree instanceof HashGridSpatialIndex)) return null;
+        return Arrays.<HashGridSpatialIndex<?>>asList((HashGridSpatialIndex<?>) edgeTree,
+                (HashGridSpatialIndex<?>) transitStopTree, (HashGridSpatialIndex<?>) verticesTree);
+    }
+
     /**
      * Creates a TemporaryStreetLocation on the given street (set of PlainStreetEdges). How far
      * along is controlled by the location parameter, which represents a distance along the edge
@@ -0,0 +1,154 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.mcraptor;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TransferEdge;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The transit stops, trip patterns and stop-to-stop transfers of a graph renumbered into arrays, in the layout
+ * RaptorWorkerData uses for profile routing: stops and patterns are referred to by their index, each pattern has the
+ * array of the stops it visits and each stop the array of the patterns that visit it. Unlike RaptorWorkerData it
+ * does not copy any stop times, as these depend on the date and realtime state of each request; McRaptorSearch reads
+ * them from the Timetables of the patterns it actually explores.
+ *
+ * The graph edges that a path through the network corresponds to are kept alongside, so that the paths found can be
+ * replayed through the normal traverse methods. One instance is built lazily per GraphIndex and shared by all
+ * searches, see GraphIndex.getMcRaptorNetwork().
+ */
+public class McRaptorNetwork {
+
+    private static final Logger LOG = LoggerFactory.getLogger(McRaptorNetwork.class);
+
+    public final int nStops;
+
+    public final int nPatterns;
+
+    public final TransitStop[] stops;
+
+    private final TObjectIntMap<TransitStop> indexForStop;
+
+    public final TripPattern[] patterns;
+
+    /** For each pattern, the index of the stop at each position. */
+    public final int[][] stopsForPattern;
+
+    /** For each stop, the patterns that visit it. */
+    public final int[][] patternsForStop;
+
+    /** For each stop, the edges leading directly to other stops (SimpleTransfers and transfers.txt paths). */
+    public final Edge[][] transfersForStop;
+
+    /** For each stop, the index of the stop each of its transfers leads to. */
+    public final int[][] transferTargets;
+
+    /** The edges between each stop and its departure and arrival vertices. */
+    public final PreBoardEdge[] preBoardEdges;
+    public final PreAlightEdge[] preAlightEdges;
+
+    public McRaptorNetwork (Graph graph) {
+        long start = System.currentTimeMillis();
+        List<TransitStop> stopList = new ArrayList<>(graph.index.stopVertexForStop.values());
+        Collections.sort(stopList, (s1, s2) -> s1.getLabel().compareTo(s2.getLabel()));
+        nStops = stopList.size();
+        stops = stopList.toArray(new TransitStop[nStops]);
+        indexForStop = new TObjectIntHashMap<>(nStops, 0.5f, -1);
+        for (int s = 0; s < nStops; s++) {
+            indexForStop.put(stops[s], s);
+        }
+
+        List<TripPattern> patternList = new ArrayList<>();
+        List<int[]> stopsForPatternList = new ArrayList<>();
+        TIntList[] patternsForStopList = new TIntList[nStops];
+        PATTERNS: for (TripPattern pattern : graph.index.patternForId.values()) {
+            int[] patternStops = new int[pattern.getStops().size()];
+            for (int p = 0; p < patternStops.length; p++) {
+                patternStops[p] = getIndex(graph.index.stopVertexForStop.get(pattern.getStop(p)));
+                if (patternStops[p] < 0) {
+                    LOG.warn("Pattern {} visits a stop that is not in the graph, skipping it.", pattern.code);
+                    continue PATTERNS;
+                }
+            }
+            int patternIndex = patternList.size();
+            patternList.add(pattern);
+            stopsForPatternList.add(patternStops);
+            for (int stop : patternStops) {
+                if (patternsForStopList[stop] == null) {
+                    patternsForStopList[stop] = new TIntArrayList();
+                }
+                // a pattern visiting a stop twice is only listed once
+                if (!patternsForStopList[stop].contains(patternIndex)) {
+                    patternsForStopList[stop].add(patternIndex);
+                }
+            }
+        }
+        nPatterns = patternList.size();
+        patterns = patternList.toArray(new TripPattern[nPatterns]);
+        stopsForPattern = stopsForPatternList.toArray(new int[nPatterns][]);
+
+        patternsForStop = new int[nStops][];
+        transfersForStop = new Edge[nStops][];
+        transferTargets = new int[nStops][];
+        preBoardEdges = new PreBoardEdge[nStops];
+        preAlightEdges = new PreAlightEdge[nStops];
+        for (int s = 0; s < nStops; s++) {
+            patternsForStop[s] = patternsForStopList[s] == null ? new int[0] : patternsForStopList[s].toArray();
+            List<Edge> transfers = new ArrayList<>();
+            TIntList targets = new TIntArrayList();
+            for (Edge edge : stops[s].getOutgoing()) {
+                if (edge instanceof PreBoardEdge) {
+                    preBoardEdges[s] = (PreBoardEdge) edge;
+                } else if (edge instanceof SimpleTransfer || edge instanceof TransferEdge) {
+                    int target = edge.getToVertex() instanceof TransitStop ?
+                            getIndex((TransitStop) edge.getToVertex()) : -1;
+                    if (target >= 0 && target != s) {
+                        transfers.add(edge);
+                        targets.add(target);
+                    }
+                }
+            }
+            transfersForStop[s] = transfers.toArray(new Edge[transfers.size()]);
+            transferTargets[s] = targets.toArray();
+            for (Edge edge : stops[s].getIncoming()) {
+                if (edge instanceof PreAlightEdge) {
+                    preAlightEdges[s] = (PreAlightEdge) edge;
+                }
+            }
+        }
+        LOG.info("Built McRAPTOR network with {} stops and {} patterns in {} msec.", nStops, nPatterns,
+                System.currentTimeMillis() - start);
+    }
+
+    /** @return the index of the given stop, or -1 if it is not part of this network. */
+    public int getIndex (TransitStop stop) {
+        return stop == null ? -1 : indexForStop.get(stop);
+    }
+
+}
@@ -0,0 +1,589 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.mcraptor;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A multi-criteria RAPTOR search (McRAPTOR, Delling, Pajor and Werneck 2012) over a McRaptorNetwork, for transit
+ * requests departing at a given time. It finds the paths that are pareto-optimal on arrival time, number of transfers
+ * and walk distance, where AStar only finds the path with the lowest generalized cost and has to be run again with
+ * the trips of that path banned to produce alternatives.
+ *
+ * The walk from the origin to the first stops and from the last stops to the destination comes from two ordinary
+ * walk-only street searches. Each round of the search then extends the labels of the previous round by one ride,
+ * followed by at most one transfer edge. A label is kept at a stop only if no label found so far at that stop, in
+ * this round or an earlier one, is at least as good on all three criteria, and only if no path already found to the
+ * destination is both faster and shorter to walk.
+ *
+ * As in CompactStreetSearch, the search is only used to choose a sequence of edges: each path found is replayed
+ * through the normal Edge.traverse() methods, so the resulting GraphPaths carry the same times, weights and trips as
+ * an AStar result would, and GraphPathToTripPlanConverter handles them unchanged. Transfer rules from the transfer
+ * table, frequency-based trips and interlining are not considered while searching; the replay applies them, and
+ * drops any path it refuses. An empty list is returned when no path survives, so the caller can fall back on AStar.
+ *
+ * One instance should be used for exactly one search.
+ */
+public class McRaptorSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(McRaptorSearch.class);
+
+    /** Trips departing more than this long after the request time are never considered. */
+    private static final int MAX_HORIZON_SECONDS = 24 * 60 * 60;
+
+    private final McRaptorNetwork network;
+
+    private final RoutingRequest options;
+
+    /** Each round adds one ride, so one more round than transfers are allowed. */
+    private final int maxRounds;
+
+    private final int horizon;
+
+    /** The time in milliseconds after which the street searches are abandoned, Long.MAX_VALUE if there is none. */
+    private final long abortTime;
+
+    /** The trips running on each pattern within the search horizon, built when the pattern is first scanned. */
+    private final Schedule[] schedules;
+
+    /** The labels of the previous and current rounds at each stop, and the stops where they have any. */
+    private List<Label>[] previousRound;
+    private List<Label>[] currentRound;
+    private BitSet previousMarked;
+    private BitSet currentMarked;
+
+    /** The pareto set of all the labels found so far at each stop, used to prune new ones. */
+    private final List<Label>[] best;
+
+    /** The pareto set of the paths found to the destination. */
+    private final List<Label> targetLabels = new ArrayList<>();
+
+    /** The walk-only states reaching each stop from the origin and the destination. */
+    private final State[] accessStates;
+    private final State[] egressStates;
+
+    /** The result of traversing each transfer edge used so far, or null if it cannot be traversed. */
+    private final Map<Edge, State> transferStates = new IdentityHashMap<>();
+
+    public McRaptorSearch(McRaptorNetwork network, RoutingRequest options) {
+        this(network, options, -1);
+    }
+
+    /**
+     * @param timeoutSeconds the time allowed for the walk searches at both ends, from now. Zero or negative for no
+     *                       limit.
+     */
+    @SuppressWarnings("unchecked")
+    public McRaptorSearch(McRaptorNetwork network, RoutingRequest options, double timeoutSeconds) {
+        this.network = network;
+        this.options = options;
+        this.abortTime = DateUtils.absoluteTimeout(timeoutSeconds);
+        this.maxRounds = options.maxTransfers + 1;
+        this.horizon = (int) Math.min(options.maxHours * 60 * 60, MAX_HORIZON_SECONDS);
+        this.schedules = new Schedule[network.nPatterns];
+        this.best = new List[network.nStops];
+        this.accessStates = new State[network.nStops];
+        this.egressStates = new State[network.nStops];
+    }
+
+    /**
+     * @return true if the request can be answered by a McRaptorSearch: a depart-after transit request with walking
+     * at both ends, without any of the features only the full state machinery of AStar supports.
+     */
+    public static boolean supports(RoutingRequest options) {
+        if (!options.modes.isTransit() || options.arriveBy) return false;
+        if (options.modes.getBicycle() || options.modes.getCar()) return false;
+        if (options.wheelchairAccessible || options.allowBikeRental || options.parkAndRide
+                || options.kissAndRide || options.bikeParkAndRide) return false;
+        if (options.hasIntermediatePlaces() || options.startingTransitTripId != null) return false;
+        if (options.rctx == null || options.rctx.origin == null || options.rctx.target == null) return false;
+        // The walk searches at both ends are only bounded by the walk distance, and would otherwise cover the graph.
+        if (!(options.maxWalkDistance < Double.MAX_VALUE)) return false;
+        return true;
+    }
+
+    /**
+     * Find the pareto-optimal paths from the routing context origin to its target and convert them to GraphPaths by
+     * traversing the original edges.
+     * @return at most options.numItineraries paths in order of arrival time, possibly none.
+     */
+    public List<GraphPath> route() {
+        List<GraphPath> paths = new ArrayList<>();
+        ShortestPathTree accessTree = streetSearch(false);
+        ShortestPathTree egressTree = streetSearch(true);
+        if (accessTree == null || egressTree == null) return paths;
+        previousRound = newBags();
+        previousMarked = new BitSet(network.nStops);
+        for (int s = 0; s < network.nStops; s++) {
+            accessStates[s] = accessTree.getState(network.stops[s]);
+            egressStates[s] = egressTree.getState(network.stops[s]);
+        }
+        // The access labels are round 0, which is never scanned for transfers or the destination.
+        currentRound = previousRound;
+        currentMarked = previousMarked;
+        for (int s = 0; s < network.nStops; s++) {
+            State state = accessStates[s];
+            if (state != null) {
+                addLabel(new Label(s, (int) (state.getTimeSeconds() - options.dateTime), state.getWalkDistance(),
+                        0, null, state, -1, -1, -1, null, null));
+            }
+        }
+        for (int round = 1; round <= maxRounds && !previousMarked.isEmpty(); round++) {
+            runRound(round);
+        }
+
+        Collections.sort(targetLabels, (l1, l2) -> l1.time != l2.time ?
+                Integer.compare(l1.time, l2.time) : Integer.compare(l1.round, l2.round));
+        // Different labels can be replayed onto the same trips, as the replay boards the first trip it can.
+        Set<List<Object>> seen = new HashSet<>();
+        for (Label target : targetLabels) {
+            if (paths.size() >= options.numItineraries) break;
+            GraphPath path = replay(target);
+            if (path == null) continue;
+            List<Object> key = new ArrayList<>(path.getTrips());
+            key.add(path.getEndTime());
+            if (seen.add(key)) paths.add(path);
+        }
+        LOG.debug("McRAPTOR found {} pareto-optimal paths, {} of them replayed.", targetLabels.size(), paths.size());
+        return paths;
+    }
+
+    /** Extend the labels of the previous round by one ride and at most one transfer. */
+    private void runRound(int round) {
+        currentRound = newBags();
+        currentMarked = new BitSet(network.nStops);
+
+        // Find the patterns serving the stops marked in the previous round, and the first position they are marked at.
+        TIntIntMap firstPositions = new TIntIntHashMap(16, 0.5f, -1, -1);
+        for (int stop = previousMarked.nextSetBit(0); stop >= 0; stop = previousMarked.nextSetBit(stop + 1)) {
+            for (int pattern : network.patternsForStop[stop]) {
+                int[] patternStops = network.stopsForPattern[pattern];
+                int first = firstPositions.get(pattern);
+                for (int p = 0; p < patternStops.length && (first < 0 || p < first); p++) {
+                    if (patternStops[p] == stop) {
+                        firstPositions.put(pattern, p);
+                        break;
+                    }
+                }
+            }
+        }
+        for (int pattern : firstPositions.keys()) {
+            scanPattern(pattern, firstPositions.get(pattern), round);
+        }
+
+        // Walk from the stops reached by a ride. Transfers are never chained, so these are collected beforehand.
+        List<Label> rides = new ArrayList<>();
+        for (int stop = currentMarked.nextSetBit(0); stop >= 0; stop = currentMarked.nextSetBit(stop + 1)) {
+            rides.addAll(currentRound[stop]);
+        }
+        for (Label ride : rides) {
+            Edge[] transfers = network.transfersForStop[ride.stop];
+            for (int t = 0; t < transfers.length; t++) {
+                State state = traverseTransfer(transfers[t], ride.stop);
+                if (state == null) continue;
+                addLabel(new Label(network.transferTargets[ride.stop][t],
+                        ride.time + (int) state.getElapsedTimeSeconds(), ride.walkDistance + state.getWalkDistance(),
+                        round, ride, null, -1, -1, -1, transfers[t], null));
+            }
+        }
+
+        for (int stop = currentMarked.nextSetBit(0); stop >= 0; stop = currentMarked.nextSetBit(stop + 1)) {
+            State egress = egressStates[stop];
+            if (egress == null) continue;
+            for (Label label : currentRound[stop]) {
+                addTarget(new Label(stop, label.time + (int) egress.getElapsedTimeSeconds(),
+                        label.walkDistance + egress.getWalkDistance(), round, label, null, -1, -1, -1, null, egress));
+            }
+        }
+        previousRound = currentRound;
+        previousMarked = currentMarked;
+    }
+
+    /**
+     * Ride one pattern from the first position where it can be boarded by a label of the previous round, alighting at
+     * every later stop. The route bag holds the pareto set of boarded trips on departure time and walk distance.
+     */
+    private void scanPattern(int pattern, int firstPosition, int round) {
+        TripPattern tripPattern = network.patterns[pattern];
+        int[] patternStops = network.stopsForPattern[pattern];
+        Schedule schedule = getSchedule(pattern);
+        if (schedule.trips.length == 0) return;
+        List<RouteLabel> routeBag = new ArrayList<>();
+        for (int p = firstPosition; p < patternStops.length; p++) {
+            int stop = patternStops[p];
+            if (!routeBag.isEmpty() && tripPattern.alightEdges[p] != null && network.preAlightEdges[stop] != null) {
+                for (RouteLabel ride : routeBag) {
+                    int arrival = schedule.trips[ride.trip].getArrivalTime(p) + schedule.offsets[ride.trip];
+                    addLabel(new Label(stop, arrival + options.alightSlack, ride.boarded.walkDistance, round,
+                            ride.boarded, null, pattern, ride.boardPosition, p, null, null));
+                }
+            }
+            if (previousMarked.get(stop) && p < patternStops.length - 1 && tripPattern.boardEdges[p] != null
+                    && network.preBoardEdges[stop] != null) {
+                for (Label label : previousRound[stop]) {
+                    // AStar does not allow boarding the pattern that was just left either.
+                    if (label.pattern == pattern) continue;
+                    int slack = label.round == 0 ? options.boardSlack : options.transferSlack - options.alightSlack;
+                    int trip = schedule.findTrip(p, label.time + slack);
+                    if (trip < 0) continue;
+                    RouteLabel ride = new RouteLabel(label, trip, p);
+                    int departure = schedule.departure(trip, p);
+                    boolean dominated = false;
+                    for (RouteLabel other : routeBag) {
+                        if (schedule.departure(other.trip, p) <= departure
+                                && other.boarded.walkDistance <= label.walkDistance) {
+                            dominated = true;
+                            break;
+                        }
+                    }
+                    if (!dominated) {
+                        routeBag.removeIf(other -> schedule.departure(other.trip, ride.boardPosition) >= departure
+                                && other.boarded.walkDistance >= label.walkDistance);
+                        routeBag.add(ride);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a label to the bag of its stop in the current round, unless a label found earlier is at least as good or a
+     * path to the destination already found arrives earlier with less walking.
+     * @return whether the label was added.
+     */
+    private boolean addLabel(Label label) {
+        for (Label target : targetLabels) {
+            if (target.time <= label.time && target.walkDistance <= label.walkDistance) return false;
+        }
+        List<Label> bestBag = best[label.stop];
+        if (bestBag == null) {
+            bestBag = best[label.stop] = new ArrayList<>();
+        }
+        for (Label other : bestBag) {
+            if (other.dominates(label)) return false;
+        }
+        bestBag.removeIf(label::dominates);
+        bestBag.add(label);
+        List<Label> bag = currentRound[label.stop];
+        if (bag == null) {
+            bag = currentRound[label.stop] = new ArrayList<>();
+        }
+        bag.removeIf(label::dominates);
+        bag.add(label);
+        currentMarked.set(label.stop);
+        return true;
+    }
+
+    /** Add a path to the destination to the pareto set of those found so far. */
+    private void addTarget(Label target) {
+        for (Label other : targetLabels) {
+            if (other.dominates(target)) return;
+        }
+        targetLabels.removeIf(target::dominates);
+        targetLabels.add(target);
+    }
+
+    /** @return the state reached by traversing a transfer edge from the given stop, cached for the whole search. */
+    private State traverseTransfer(Edge edge, int stop) {
+        if (!transferStates.containsKey(edge)) {
+            transferStates.put(edge, edge.traverse(new State(network.stops[stop], options.dateTime, options)));
+        }
+        return transferStates.get(edge);
+    }
+
+    /**
+     * Run a walk-only search from the origin, or an arrive-by one from the destination, over the whole area within
+     * the maximum walk distance.
+     * @return null if the search timed out, since an incomplete tree could leave out the stops of the best paths.
+     */
+    private ShortestPathTree streetSearch(boolean egress) {
+        double timeoutSeconds = -1;
+        if (abortTime < Long.MAX_VALUE) {
+            timeoutSeconds = (abortTime - System.currentTimeMillis()) / 1000.0;
+            if (timeoutSeconds <= 0) return null;
+        }
+        RoutingRequest streetOptions = options.clone();
+        streetOptions.setModes(new TraverseModeSet(TraverseMode.WALK));
+        streetOptions.batch = true;
+        streetOptions.softWalkLimiting = false;
+        streetOptions.setArriveBy(egress);
+        options.rctx.copyForConcurrentSearch(streetOptions, new TrivialRemainingWeightHeuristic());
+        AStar aStar = new AStar();
+        ShortestPathTree spt;
+        if (egress) {
+            State initialState = new State(options.rctx.target, null, options.dateTime, streetOptions);
+            spt = aStar.getShortestPathTree(streetOptions, timeoutSeconds, null,
+                    Collections.singletonList(initialState));
+        } else {
+            spt = aStar.getShortestPathTree(streetOptions, timeoutSeconds);
+        }
+        if (streetOptions.rctx.aborted) {
+            LOG.debug("The {} walk search timed out.", egress ? "egress" : "access");
+            return null;
+        }
+        return spt;
+    }
+
+    /** @return the trips of the given pattern running within the search horizon. */
+    private Schedule getSchedule(int pattern) {
+        if (schedules[pattern] != null) return schedules[pattern];
+        TripPattern tripPattern = network.patterns[pattern];
+        List<TripTimes> trips = new ArrayList<>();
+        TIntList offsets = new TIntArrayList();
+        if (options.modes.contains(tripPattern.mode)
+                && !(options.bannedRoutes != null && options.bannedRoutes.matches(tripPattern.route))) {
+            int last = network.stopsForPattern[pattern].length - 1;
+            for (ServiceDay serviceDay : options.rctx.serviceDays) {
+                int offset = (int) (serviceDay.time(0) - options.dateTime);
+                Timetable timetable = tripPattern.getUpdatedTimetable(options, serviceDay);
+                for (TripTimes tripTimes : timetable.tripTimes) {
+                    if (!serviceDay.serviceRunning(tripTimes.serviceCode) || tripTimes.isCanceled()) continue;
+                    if (tripTimes.getArrivalTime(last) + offset < 0) continue;
+                    if (tripTimes.getDepartureTime(0) + offset > horizon) continue;
+                    if (options.tripIsBanned(tripTimes.trip)) continue;
+                    trips.add(tripTimes);
+                    offsets.add(offset);
+                }
+            }
+        }
+        return schedules[pattern] = new Schedule(trips.toArray(new TripTimes[trips.size()]), offsets.toArray(),
+                network.stopsForPattern[pattern].length);
+    }
+
+    /**
+     * Convert the chain of labels leading to the destination into the edges it corresponds to and traverse them.
+     * @return the path, or null if one of the edges refused it.
+     */
+    private GraphPath replay(Label target) {
+        List<Label> labels = new ArrayList<>();
+        for (Label label = target; label != null; label = label.previous) {
+            labels.add(label);
+        }
+        Collections.reverse(labels);
+        List<Edge> edges = new ArrayList<>();
+        for (State state = labels.get(0).access; state.getBackState() != null; state = state.getBackState()) {
+            edges.add(state.getBackEdge());
+        }
+        Collections.reverse(edges);
+        for (Label label : labels.subList(1, labels.size())) {
+            if (label.transfer != null) {
+                edges.add(label.transfer);
+            } else if (label.egress != null) {
+                // The egress search ran backward from the destination, so its back edges are in forward order.
+                for (State state = label.egress; state.getBackState() != null; state = state.getBackState()) {
+                    edges.add(state.getBackEdge());
+                }
+            } else {
+                TripPattern pattern = network.patterns[label.pattern];
+                int[] patternStops = network.stopsForPattern[label.pattern];
+                edges.add(network.preBoardEdges[patternStops[label.boardPosition]]);
+                edges.add(pattern.boardEdges[label.boardPosition]);
+                for (int p = label.boardPosition; p < label.alightPosition; p++) {
+                    if (p > label.boardPosition) {
+                        edges.add(pattern.dwellEdges[p]);
+                    }
+                    edges.add(pattern.hopEdges[p]);
+                }
+                edges.add(pattern.alightEdges[label.alightPosition]);
+                edges.add(network.preAlightEdges[patternStops[label.alightPosition]]);
+            }
+        }
+        State state = new State(options);
+        for (Edge edge : edges) {
+            state = edge.traverse(state);
+            if (state == null) {
+                LOG.debug("McRAPTOR path was refused by edge {}.", edge);
+                return null;
+            }
+        }
+        if (state.getVertex() != options.rctx.target) return null;
+        return new GraphPath(state, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Label>[] newBags() {
+        return new List[network.nStops];
+    }
+
+    /**
+     * A way of reaching a stop (or the destination, for egress labels) with its criteria. Exactly one of the access
+     * state, the pattern, the transfer edge and the egress state describes how it was reached from the previous label.
+     */
+    private static class Label {
+
+        final int stop;
+
+        /** The arrival time in seconds after the request time. */
+        final int time;
+
+        final double walkDistance;
+
+        /** The number of rides taken to reach the stop. */
+        final int round;
+
+        final Label previous;
+
+        final State access;
+
+        /** For ride labels, the pattern ridden and the positions at which it was boarded and left, -1 otherwise. */
+        final int pattern;
+        final int boardPosition;
+        final int alightPosition;
+
+        final Edge transfer;
+
+        final State egress;
+
+        Label(int stop, int time, double walkDistance, int round, Label previous, State access, int pattern,
+                int boardPosition, int alightPosition, Edge transfer, State egress) {
+            this.stop = stop;
+            this.time = time;
+            this.walkDistance = walkDistance;
+            this.round = round;
+            this.previous = previous;
+            this.access = access;
+            this.pattern = pattern;
+            this.boardPosition = boardPosition;
+            this.alightPosition = alightPosition;
+            this.transfer = transfer;
+            this.egress = egress;
+        }
+
+        /** @return true if this label is at least as good as the other one on all criteria. */
+        boolean dominates(Label other) {
+            return time <= other.time && walkDistance <= other.walkDistance && round <= other.round;
+        }
+
+    }
+
+    /** A trip of the pattern being scanned, boarded at the given position from a label of the previous round. */
+    private static class RouteLabel {
+
+        final Label boarded;
+        final int trip;
+        final int boardPosition;
+
+        RouteLabel(Label boarded, int trip, int boardPosition) {
+            this.boarded = boarded;
+            this.trip = trip;
+            this.boardPosition = boardPosition;
+        }
+
+    }
+
+    /**
+     * The trips of one pattern, with the offset of the service day of each from the request time in seconds, sorted by
+     * their departure from the first stop. As in RaptorWorkerTimetable, boarding uses a binary search on the departures
+     * at each stop unless some trip overtakes another.
+     */
+    private static class Schedule {
+
+        final TripTimes[] trips;
+        final int[] offsets;
+
+        /** The departure time of each trip relative to the request time, indexed by position * nTrips + trip. */
+        private final int[] departures;
+
+        /** True if at every stop the departures are in the order of the trips. */
+        private boolean departuresSorted = true;
+
+        Schedule(TripTimes[] trips, int[] offsets, int nPositions) {
+            int nTrips = trips.length;
+            Integer[] order = new Integer[nTrips];
+            for (int trip = 0; trip < nTrips; trip++) {
+                order[trip] = trip;
+            }
+            Arrays.sort(order, (t1, t2) -> Integer.compare(trips[t1].getDepartureTime(0) + offsets[t1],
+                    trips[t2].getDepartureTime(0) + offsets[t2]));
+            this.trips = new TripTimes[nTrips];
+            this.offsets = new int[nTrips];
+            for (int trip = 0; trip < nTrips; trip++) {
+                this.trips[trip] = trips[order[trip]];
+                this.offsets[trip] = offsets[order[trip]];
+            }
+            departures = new int[nPositions * nTrips];
+            for (int position = 0; position < nPositions; position++) {
+                for (int trip = 0; trip < nTrips; trip++) {
+                    int i = position * nTrips + trip;
+                    departures[i] = this.trips[trip].getDepartureTime(position) + this.offsets[trip];
+                    if (trip > 0 && departures[i] < departures[i - 1]) {
+                        departuresSorted = false;
+                    }
+                }
+            }
+        }
+
+        int departure(int trip, int position) {
+            return departures[position * trips.length + trip];
+        }
+
+        /** @return the index of the trip leaving the given position first at or after the given time, or -1. */
+        int findTrip(int position, int time) {
+            int nTrips = trips.length;
+            int first = position * nTrips;
+            if (!departuresSorted) {
+                // Trips overtake each other, so every trip is checked rather than stopping at the first one found.
+                int bestTrip = -1;
+                int bestDeparture = Integer.MAX_VALUE;
+                for (int trip = 0; trip < nTrips; trip++) {
+                    int departure = departures[first + trip];
+                    if (departure >= time && departure < bestDeparture) {
+                        bestTrip = trip;
+                        bestDeparture = departure;
+                    }
+                }
+                return bestTrip;
+            }
+            // binary search for the first trip departing at or after the given time
+            int lo = 0, hi = nTrips;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (departures[first + mid] >= time) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo < nTrips ? lo : -1;
+        }
+
+    }
+
+}
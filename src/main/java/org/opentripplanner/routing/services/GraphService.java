@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.services;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.geotools.referencing.factory.DeferredAuthorityFactory;
 import org.geotools.util.WeakCollectionCleaner;
 import org.opentripplanner.routing.error.GraphNotFoundException;
@@ -25,7 +26,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -66,6 +69,10 @@ public class GraphService {
 
     private ScheduledExecutorService scanExecutor;
 
+    /* Runs the reloads requested with reloadGraphInBackground(), one at a time. */
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("graph-reload-%d").setDaemon(true).build());
+
     public GraphService() {
         this(false);
     }
@@ -95,6 +102,7 @@ public class GraphService {
     @PreDestroy
     private void teardown() {
         LOG.info("Cleaning-up graphs...");
+        reloadExecutor.shutdownNow();
         evictAll();
         cleanupWebapp();
     }
@@ -172,6 +180,15 @@ public class GraphService {
         }
     }
 
+    /**
+     * Reload a registered graph on a background thread, without pre-eviction: the current graph keeps serving
+     * requests while the new one is loaded and warmed up, then the new one is swapped in. See reloadGraph().
+     * @return the result of the reload, as reloadGraph() would return it.
+     */
+    public Future<Boolean> reloadGraphInBackground(String routerId, boolean force) {
+        return reloadExecutor.submit(() -> reloadGraph(routerId, false, force));
+    }
+
     /** @return a collection of all valid router IDs for this server */
     public Collection<String> getRouterIds() {
         return new ArrayList<String>(graphSources.keySet());
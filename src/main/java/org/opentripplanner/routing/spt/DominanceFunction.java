@@ -78,15 +78,32 @@ public abstract class DominanceFunction implements Serializable {
         
     }
     
+    /**
+     * Return true if at most one state survives at each vertex among comparable states, i.e. this function is a total
+     * order on states on the same plane. Multiple states can still coexist at a vertex when they are on different
+     * planes (see betterOrEqualAndComparable), but that is the exception.
+     */
+    public boolean isSingleState() {
+        return false;
+    }
+
     /**
      * Create a new shortest path tree using this function, considering whether it allows co-dominant States.
-     * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * ShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * For batch searches with single-state functions, which tend to explore large parts of the graph, an
+     * IndexedShortestPathTree is returned instead.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        if (isSingleState() && routingRequest.batch && routingRequest.rctx != null) {
+            return new IndexedShortestPathTree(routingRequest, this);
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
     public static class MinimumWeight extends DominanceFunction {
+        @Override
+        public boolean isSingleState() { return true; }
+
         /** Return true if the first state has lower weight than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.weight <= b.weight; }
@@ -97,6 +114,9 @@ public abstract class DominanceFunction implements Serializable {
      * paths. It also leads to less branching and faster response times when building large shortest path trees.
      */
     public static class EarliestArrival extends DominanceFunction {
+        @Override
+        public boolean isSingleState() { return true; }
+
         /** Return true if the first state has lower elapsed time than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.getElapsedTimeSeconds() <= b.getElapsedTimeSeconds(); }
@@ -109,6 +129,8 @@ public abstract class DominanceFunction implements Serializable {
      * It is used when building stop tree caches for egress from transit stops.
      */
     public static class LeastWalk extends DominanceFunction {
+        @Override
+        public boolean isSingleState() { return true; }
 
         @Override
         protected boolean betterOrEqual(State a, State b) {
@@ -0,0 +1,209 @@
+/* This program is free software: you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public License
+as published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ShortestPathTree specialized for dominance functions that are a total order on comparable states (minimum weight,
+ * earliest arrival, least walk). With such functions nearly every vertex ends up with exactly one state, so the best
+ * state is stored in an array indexed by Vertex.getIndex() instead of a one-element list in an IdentityHashMap.
+ *
+ * Vertices only get a list when they really hold several co-dominant states (states on different "planes" of the
+ * graph due to bike rental, parking or turn restrictions, see DominanceFunction.betterOrEqualAndComparable()).
+ * Vertices outside the graph's index range, such as the temporary vertices at the origin and destination, also use
+ * lists.
+ *
+ * The array has one slot per vertex in the graph, so this is only worthwhile for searches that reach a significant
+ * part of the graph. DominanceFunction chooses it for batch (one-to-many) searches.
+ */
+public class IndexedShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTree.class);
+
+    private final int indexOffset;
+
+    /** The single state at each vertex, or null if the vertex has no state or uses a list. */
+    private final State[] states;
+
+    /** Set for array slots whose vertex has been moved to a state list. */
+    private final BitSet multiState = new BitSet();
+
+    /** State lists for vertices that have co-dominant states or are outside the index range. */
+    private final Map<Vertex, List<State>> stateLists = new IdentityHashMap<>();
+
+    /** Every vertex that has received at least one state, in the order they were reached. */
+    private final List<Vertex> reached = new ArrayList<>();
+
+    public IndexedShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(options, dominanceFunction);
+        Graph graph = options.rctx == null ? null : options.rctx.graph;
+        if (graph == null) {
+            indexOffset = 0;
+            states = new State[0];
+        } else {
+            indexOffset = graph.getVertexIndexOffset();
+            states = new State[Math.max(0, graph.getVertexIndexLimit() - indexOffset)];
+        }
+    }
+
+    /** @return the array slot for the given vertex, or -1 if it is outside the index range. */
+    private int slot(Vertex vertex) {
+        int i = vertex.getIndex() - indexOffset;
+        return (i >= 0 && i < states.length) ? i : -1;
+    }
+
+    @Override
+    public boolean add(State newState) {
+        Vertex vertex = newState.getVertex();
+        int i = slot(vertex);
+        if (i < 0 || multiState.get(i)) {
+            List<State> list = stateLists.get(vertex);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                stateLists.put(vertex, list);
+                list.add(newState);
+                reached.add(vertex);
+                return true;
+            }
+            return addToStateList(list, newState);
+        }
+        State oldState = states[i];
+        if (oldState == null) {
+            states[i] = newState;
+            reached.add(vertex);
+            return true;
+        }
+        // order is important, because in the case of a tie we want to reject the new state
+        if (dominanceFunction.betterOrEqualAndComparable(oldState, newState)) {
+            return false;
+        }
+        if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+            states[i] = newState;
+            return true;
+        }
+        // The two states are incomparable, fall back to a list for this vertex.
+        List<State> list = new ArrayList<>(2);
+        list.add(oldState);
+        list.add(newState);
+        stateLists.put(vertex, list);
+        states[i] = null;
+        multiState.set(i);
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        int i = slot(state.getVertex());
+        if (i >= 0 && !multiState.get(i)) {
+            return states[i] == state;
+        }
+        List<State> list = stateLists.get(state.getVertex());
+        if (list == null) return false;
+        for (State s : list) {
+            if (s == state) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        int i = slot(dest);
+        if (i >= 0 && !multiState.get(i)) {
+            State s = states[i];
+            return (s != null && s.isFinal()) ? s : null;
+        }
+        List<State> list = stateLists.get(dest);
+        if (list == null) return null;
+        State ret = null;
+        for (State s : list) {
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int i = slot(dest);
+        if (i >= 0 && !multiState.get(i)) {
+            State s = states[i];
+            return s == null ? null : Collections.singletonList(s);
+        }
+        return stateLists.get(dest);
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        return new AbstractSet<Vertex>() {
+            @Override
+            public Iterator<Vertex> iterator() {
+                return Collections.unmodifiableList(reached).iterator();
+            }
+
+            @Override
+            public int size() {
+                return reached.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Vertex && getStates((Vertex) o) != null;
+            }
+        };
+    }
+
+    @Override
+    public int getVertexCount() {
+        return reached.size();
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<>(reached.size());
+        for (Vertex v : reached) {
+            allStates.addAll(getStates(v));
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        LOG.info("Indexed SPT: vertices: {} multi-state vertices: {} array slots: {}",
+                reached.size(), stateLists.size(), states.length);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedShortestPathTree(" + reached.size() + " vertices)";
+    }
+
+}
@@ -35,6 +35,9 @@ import java.util.*;
  * Note that turn restrictions make all searches multi-state; however turn restrictions do not apply when walking.
  * The turn restriction handling is done in the base dominance function implementation, and applies to all subclasses.
  * It essentially splits each vertex into N vertices depending on the incoming edge being taken.
+ *
+ * IndexedShortestPathTree is a storage optimization of this class for single-state dominance functions, which keeps
+ * the single state at most vertices in an array. DominanceFunction.getNewShortestPathTree() decides which one to use.
  */
 public class ShortestPathTree {
 
@@ -133,7 +136,14 @@ public class ShortestPathTree {
             states.add(newState);
             return true;
         }
+        return addToStateList(states, newState);
+    }
 
+    /**
+     * Add a new state to the list of states at a vertex, unless it is dominated by one of them.
+     * @return whether the state was added.
+     */
+    protected boolean addToStateList(List<State> states, State newState) {
         // if the vertex has any states that dominate the new state, don't add the state
         // if the new state dominates any old states, remove them
         Iterator<State> it = states.iterator();
@@ -1,11 +1,15 @@
 package org.opentripplanner.standalone;
 
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
+import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.services.FareServiceFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * These are parameters that when changed, necessitate a Graph rebuild.
  * They are distinct from the RouterParameters which can be applied to a pre-built graph or on the fly at runtime.
@@ -117,6 +121,29 @@ public class GraphBuilderParameters {
      */
     public int maxInterlineDistance = 200;
 
+    /**
+     * Number of landmarks for which to precompute street distance tables, used to speed up car and bicycle searches.
+     * Zero disables the tables. Each landmark adds 16 bytes per street vertex to the graph.
+     */
+    public final int landmarks;
+
+    /**
+     * Street modes (CAR and/or BICYCLE) for which to build contraction hierarchies, used to answer street-only
+     * requests with default options but no turn costs (turnReluctance 0) much faster. Empty by default.
+     */
+    public final List<TraverseMode> contractionHierarchies = new ArrayList<>();
+
+    /**
+     * Save the graph in the binary format, which loads much faster than Java serialization. See BinaryGraphFormat.
+     */
+    public final boolean binaryGraph;
+
+    /**
+     * Save the street index, stop clusters and stop tree cache with a binary graph, so that they do not have to be
+     * rebuilt when the graph is loaded or first used. Only applies when binaryGraph is set.
+     */
+    public final boolean precomputeIndexes;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -144,6 +171,12 @@ public class GraphBuilderParameters {
         staticBikeParkAndRide = config.path("staticBikeParkAndRide").asBoolean(false);
         maxHtmlAnnotationsPerFile = config.path("maxHtmlAnnotationsPerFile").asInt(1000);
         maxInterlineDistance = config.path("maxInterlineDistance").asInt(200);
+        landmarks = config.path("landmarks").asInt(0);
+        binaryGraph = config.path("binaryGraph").asBoolean(false);
+        precomputeIndexes = config.path("precomputeIndexes").asBoolean(false);
+        for (JsonNode mode : config.path("contractionHierarchies")) {
+            contractionHierarchies.add(TraverseMode.valueOf(mode.asText()));
+        }
     }
 
 }
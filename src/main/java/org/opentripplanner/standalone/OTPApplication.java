@@ -87,6 +87,7 @@ public class OTPApplication extends Application {
             ProfileResource.class,
             SimpleIsochrone.class,
             ServerInfo.class,
+            MetricsResource.class,
             SurfaceResource.class,
             PointSetResource.class,
             GraphInspectorTileResource.class,
@@ -0,0 +1,66 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.standalone;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent trip planning requests to a router, kept so that they can be replayed against a newly loaded graph
+ * before it replaces the current one (see RouterWarmup). Requests are copied when recorded, before they are routed,
+ * so the copies do not hold on to a routing context or to temporary vertices.
+ */
+public class RequestSample {
+
+    private final RoutingRequest[] requests;
+
+    /* Total number of requests recorded, the next one goes to position (count % capacity). */
+    private long count = 0;
+
+    /** @param capacity the number of requests kept, zero disables recording. */
+    public RequestSample(int capacity) {
+        this.requests = new RoutingRequest[capacity];
+    }
+
+    public int getCapacity() {
+        return requests.length;
+    }
+
+    /** Record a copy of the given request, replacing the oldest one if the sample is full. */
+    public void record(RoutingRequest request) {
+        if (requests.length == 0) return;
+        RoutingRequest copy = request.clone();
+        synchronized (this) {
+            requests[(int) (count++ % requests.length)] = copy;
+        }
+    }
+
+    /** Record all the requests of another sample (e.g. that of the router being replaced), oldest first. */
+    public void recordAll(RequestSample other) {
+        for (RoutingRequest request : other.getRequests()) record(request);
+    }
+
+    /** @return a copy of the requests in this sample, oldest first. */
+    public synchronized List<RoutingRequest> getRequests() {
+        List<RoutingRequest> result = new ArrayList<>(requests.length);
+        int n = (int) Math.min(count, requests.length);
+        for (int i = 0; i < n; i++) {
+            result.add(requests[(int) ((count - n + i) % requests.length)]);
+        }
+        return result;
+    }
+
+}
@@ -7,18 +7,23 @@ import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.compact.CompactStreetGraph;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
 import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -34,6 +39,37 @@ public class Router {
     public Graph graph;
     public double[] timeouts = {5, 4, 2};
 
+    /**
+     * Pool for searches for alternative itineraries that run concurrently (see GraphPathFinder), or null if
+     * alternative itineraries are searched for one after the other.
+     */
+    public ExecutorService itinerarySearchPool = null;
+    public int itinerarySearchThreads = 0;
+
+    /**
+     * Pool on which the transit goal direction heuristic searches backward from the destination while the main
+     * search runs (see InterleavedBidirectionalHeuristic), or null to interleave it with the main search.
+     */
+    public ExecutorService heuristicPool = null;
+
+    /** Latency and search effort of the requests to this router, exposed by the MetricsResource. */
+    public final RoutingMetrics metrics = new RoutingMetrics();
+
+    /** Recent trip planning requests, replayed against the next graph loaded for this router before it is swapped in. */
+    public RequestSample requestSample = new RequestSample(0);
+
+    /** Time budget for replaying the sampled requests against a newly loaded graph, see RouterWarmup. */
+    public double warmupSeconds = 30;
+
+    /** Whether to build the stop tree cache of a newly loaded graph before it is swapped in. */
+    public boolean warmupStopTreeCache = false;
+
+    /**
+     * Fraction of the maximum heap that must be free to load a new graph next to this one when reloading without
+     * pre-eviction. Zero disables the check.
+     */
+    public double swapMinFreeHeap = 0;
+
     /**
      *  Separate logger for incoming requests. This should be handled with a Logback logger rather than something
      *  simple like a PrintStream because requests come in multi-threaded.
@@ -152,6 +188,36 @@ public class Router {
             }
         }
 
+        /* Search for alternative itineraries concurrently on a bounded pool shared by all requests to this router. */
+        int itinerarySearchThreads = config.path("itinerarySearchThreads").asInt(0);
+        if (itinerarySearchThreads > 1) {
+            this.itinerarySearchThreads = itinerarySearchThreads;
+            this.itinerarySearchPool = Executors.newFixedThreadPool(itinerarySearchThreads,
+                    new ThreadFactoryBuilder().setNameFormat("itineraries-" + id + "-%d").setDaemon(true).build());
+            LOG.info("Alternative itineraries for router '{}' will be searched for on {} threads.", this.id,
+                    itinerarySearchThreads);
+        }
+
+        /* Run the backward searches of the transit heuristic on a bounded pool shared by all requests to this router. */
+        int heuristicThreads = config.path("heuristicThreads").asInt(0);
+        if (heuristicThreads > 0) {
+            this.heuristicPool = Executors.newFixedThreadPool(heuristicThreads,
+                    new ThreadFactoryBuilder().setNameFormat("heuristic-" + id + "-%d").setDaemon(true).build());
+            LOG.info("Transit heuristic searches for router '{}' will run on {} threads.", this.id, heuristicThreads);
+        }
+
+        /* Keep recent requests to warm up the next graph loaded for this router, and guard the heap during reloads. */
+        JsonNode warmup = config.path("warmup");
+        this.requestSample = new RequestSample(warmup.path("requests").asInt(20));
+        this.warmupSeconds = warmup.path("seconds").asDouble(30);
+        this.warmupStopTreeCache = warmup.path("stopTreeCache").asBoolean(false);
+        this.swapMinFreeHeap = warmup.path("minFreeHeap").asDouble(0);
+
+        /* Build the primitive-array copy of the street layer used by fast street-only searches. */
+        if (config.path("compactStreetGraph").asBoolean(false)) {
+            graph.compactStreetGraph = new CompactStreetGraph(graph);
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
@@ -160,6 +226,12 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (itinerarySearchPool != null) {
+            itinerarySearchPool.shutdown();
+        }
+        if (heuristicPool != null) {
+            heuristicPool.shutdown();
+        }
     }
 
     /**
@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.standalone;
+
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Prepares a newly loaded router for traffic before it replaces the current one: the requests recently made to the
+ * current router are replayed against it, which compiles the hot routing paths and fills caches, and optionally the
+ * stop tree cache is built. Also checks that there is enough free heap left to keep both routers until the swap.
+ */
+public class RouterWarmup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RouterWarmup.class);
+
+    /**
+     * Replay the given requests against the router, within the router's warm-up time budget. Failing requests are
+     * counted and otherwise ignored, they fail the same way on the current router.
+     * @return the number of requests replayed.
+     */
+    public static int warmUp(Router router, List<RoutingRequest> requests) {
+        long start = System.currentTimeMillis();
+        long deadline = start + (long) (router.warmupSeconds * 1000);
+        int replayed = 0;
+        int failed = 0;
+        for (RoutingRequest sampled : requests) {
+            if (System.currentTimeMillis() > deadline) {
+                LOG.info("Warm-up of router '{}' ran out of time after {} requests.", router.id, replayed);
+                break;
+            }
+            RoutingRequest request = sampled.clone();
+            request.routerId = router.id;
+            try {
+                List<GraphPath> paths = new GraphPathFinder(router).graphPathFinderEntryPoint(request);
+                GraphPathToTripPlanConverter.generatePlan(paths, request);
+            } catch (Exception e) {
+                // Typically no path found, which is just as useful for warming up.
+                failed++;
+            } finally {
+                request.cleanup();
+            }
+            replayed++;
+        }
+        if (router.warmupStopTreeCache && router.graph.index != null) {
+            router.graph.index.getStopTreeCache();
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        router.metrics.recordWarmup(seconds, replayed);
+        LOG.info("Router '{}' warmed up in {} seconds with {} requests ({} without itineraries).", router.id,
+                seconds, replayed, failed);
+        return replayed;
+    }
+
+    /**
+     * @return true if at least the given fraction of the maximum heap size is free (or could be allocated), so
+     * that a new graph can be loaded or held next to the current one. Always true if the fraction is zero.
+     */
+    public static boolean hasHeapHeadroom(double minFreeFraction) {
+        if (minFreeFraction <= 0) return true;
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        double free = (runtime.maxMemory() - used) / (double) runtime.maxMemory();
+        if (free < minFreeFraction) {
+            LOG.warn("Only {}% of the heap is free, {}% is required to swap graphs.", Math.round(free * 100),
+                    Math.round(minFreeFraction * 100));
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -73,7 +73,8 @@ public class TimetableSnapshotSource {
     /**
      * If a timetable snapshot is requested less than this number of milliseconds after the previous
      * snapshot, just return the same one. Throttles the potentially resource-consuming task of
-     * duplicating a TripPattern -> Timetable map and indexing the new Timetables.
+     * indexing the new Timetables and copying the parts of the TripPattern -> Timetable map
+     * they are in.
      */
     public int maxSnapshotFrequency = 1000; // msec
 
@@ -107,6 +108,9 @@ public class TimetableSnapshotSource {
 
     protected long lastSnapshotTime = -1;
 
+    /** Time in milliseconds at which the current snapshot was committed, or -1 if there is none yet. */
+    private volatile long lastCommitTime = -1;
+
     private final TimeZone timeZone;
 
     private final GraphIndex graphIndex;
@@ -151,12 +155,18 @@ public class TimetableSnapshotSource {
         return snapshotToReturn;
     }
 
+    /** @return the time in milliseconds at which the current snapshot was committed, or -1 if there is none yet. */
+    public long getLastCommitTime() {
+        return lastCommitTime;
+    }
+
     private TimetableSnapshot getTimetableSnapshot(final boolean force) {
         final long now = System.currentTimeMillis();
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                lastCommitTime = now;
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
@@ -0,0 +1,99 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of observed values with fixed bucket bounds, which many threads can update without contention. Counts
+ * are kept in striped adders (LongAdder), so recording a value costs a few uncontended additions and no locking.
+ * Reads are not atomic across buckets, which is acceptable for monitoring.
+ *
+ * The output follows the Prometheus text exposition format: cumulative bucket counts labeled with their upper bound,
+ * followed by the sum and count of all observed values. See MetricsText.
+ */
+public class Histogram {
+
+    private final String name;
+    private final String help;
+    private final double[] bounds;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder count = new LongAdder();
+
+    /** @param bounds the inclusive upper bounds of the buckets, in increasing order. */
+    public Histogram(String name, String help, double... bounds) {
+        this.name = name;
+        this.help = help;
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /** @return bucket bounds growing by the given factor from start, for example 1, 2, 4, 8... */
+    public static double[] exponentialBounds(double start, double factor, int n) {
+        double[] bounds = new double[n];
+        double bound = start;
+        for (int i = 0; i < n; i++) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return bounds;
+    }
+
+    public void observe(double value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) i++;
+        counts[i].increment();
+        sum.add(value);
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Append the samples of this histogram to the given text, with the given labels (e.g. router="default") on every
+     * sample. The header is written separately, since all histograms with the same name must follow it.
+     */
+    public void writeSamples(StringBuilder sb, String labels) {
+        String prefix = labels == null || labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+            cumulative += counts[i].sum();
+            String le = i < bounds.length ? MetricsText.formatValue(bounds[i]) : "+Inf";
+            sb.append(name).append("_bucket{").append(prefix).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        MetricsText.sample(sb, name + "_sum", labels, sum.sum());
+        MetricsText.sample(sb, name + "_count", labels, count.sum());
+    }
+
+}
@@ -0,0 +1,49 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+/** Helpers for writing metrics in the Prometheus text exposition format. */
+public abstract class MetricsText {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    /** Append the HELP and TYPE lines introducing a metric. */
+    public static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /** Append a single sample line. */
+    public static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (labels != null && !labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    /** @return a label set with one label, escaping the value as required by the format. */
+    public static String label(String name, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+}
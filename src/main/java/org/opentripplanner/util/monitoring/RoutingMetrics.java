@@ -0,0 +1,154 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and search effort of the routing requests handled by one router, kept in histograms and counters that
+ * request threads update without locking, so this can stay enabled under load.
+ */
+public class RoutingMetrics {
+
+    private static final double[] SECONDS = Histogram.exponentialBounds(0.001, 2, 16);
+
+    private static final double[] COUNTS = Histogram.exponentialBounds(100, 2, 18);
+
+    private final Histogram precalculationTime = new Histogram("otp_routing_precalculation_seconds",
+            "Time spent initializing the goal direction heuristic.", SECONDS);
+
+    private final Histogram searchTime = new Histogram("otp_routing_search_seconds",
+            "Time spent searching for paths, after heuristic initialization.", SECONDS);
+
+    private final Histogram renderingTime = new Histogram("otp_routing_rendering_seconds",
+            "Time spent converting paths into itineraries.", SECONDS);
+
+    private final Histogram visitedVertices = new Histogram("otp_routing_visited_vertices",
+            "Number of vertices visited by the searches for one request.", COUNTS);
+
+    private final Histogram queuePeakSize = new Histogram("otp_routing_queue_peak_size",
+            "Largest priority queue size reached by the searches for one request.", COUNTS);
+
+    private final List<Histogram> histograms = Arrays.asList(precalculationTime, searchTime, renderingTime,
+            visitedVertices, queuePeakSize);
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder aborted = new LongAdder();
+
+    private final LongAdder refusedSwaps = new LongAdder();
+
+    /* Duration and number of requests of the warm-up before this router went into service, negative if none. */
+    private volatile double warmupSeconds = -1;
+    private volatile int warmupRequests = -1;
+
+    /**
+     * Record one routing request.
+     * @param timed whether the time arguments are valid, which is not the case when the request failed early.
+     */
+    public void record(boolean timed, long precalculationMillis, long searchMillis, long renderingMillis,
+                       long visited, long queuePeak, boolean timedOut) {
+        requests.increment();
+        if (timedOut) aborted.increment();
+        if (timed) {
+            precalculationTime.observe(precalculationMillis / 1000.0);
+            searchTime.observe(searchMillis / 1000.0);
+            renderingTime.observe(renderingMillis / 1000.0);
+        }
+        visitedVertices.observe(visited);
+        queuePeakSize.observe(queuePeak);
+    }
+
+    /** Record the warm-up of the router before it replaced the previous one, see RouterWarmup. */
+    public void recordWarmup(double seconds, int requests) {
+        warmupSeconds = seconds;
+        warmupRequests = requests;
+    }
+
+    /** Record that a new graph was not swapped in for this router, because there was not enough free heap. */
+    public void recordRefusedSwap() {
+        refusedSwaps.increment();
+    }
+
+    public double getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public long getRefusedSwapCount() {
+        return refusedSwaps.sum();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getAbortedCount() {
+        return aborted.sum();
+    }
+
+    /**
+     * Append the metrics of several routers to the given text, grouping the samples of each metric under a single
+     * header as the format requires.
+     * @param metricsByLabels metrics keyed on the labels that distinguish them, e.g. router="default".
+     */
+    public static void write(StringBuilder sb, Map<String, RoutingMetrics> metricsByLabels) {
+        if (metricsByLabels.isEmpty()) return;
+        MetricsText.header(sb, "otp_routing_requests_total", "counter", "Number of routing requests handled.");
+        for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+            MetricsText.sample(sb, "otp_routing_requests_total", entry.getKey(), entry.getValue().requests.sum());
+        }
+        MetricsText.header(sb, "otp_routing_aborted_total", "counter",
+                "Number of routing requests whose search was aborted because it timed out.");
+        for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+            MetricsText.sample(sb, "otp_routing_aborted_total", entry.getKey(), entry.getValue().aborted.sum());
+        }
+        MetricsText.header(sb, "otp_graph_swaps_refused_total", "counter",
+                "Number of reloaded graphs that were not swapped in because there was not enough free heap.");
+        for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+            MetricsText.sample(sb, "otp_graph_swaps_refused_total", entry.getKey(), entry.getValue().refusedSwaps.sum());
+        }
+        boolean warmedUp = false;
+        for (RoutingMetrics metrics : metricsByLabels.values()) warmedUp |= metrics.warmupSeconds >= 0;
+        if (warmedUp) {
+            MetricsText.header(sb, "otp_graph_warmup_seconds", "gauge",
+                    "Time spent warming up the current graph before it was swapped in.");
+            for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+                if (entry.getValue().warmupSeconds < 0) continue;
+                MetricsText.sample(sb, "otp_graph_warmup_seconds", entry.getKey(), entry.getValue().warmupSeconds);
+            }
+            MetricsText.header(sb, "otp_graph_warmup_requests", "gauge",
+                    "Number of sampled requests replayed against the current graph before it was swapped in.");
+            for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+                if (entry.getValue().warmupSeconds < 0) continue;
+                MetricsText.sample(sb, "otp_graph_warmup_requests", entry.getKey(), entry.getValue().warmupRequests);
+            }
+        }
+        int nHistograms = metricsByLabels.values().iterator().next().histograms.size();
+        for (int h = 0; h < nHistograms; h++) {
+            boolean first = true;
+            for (Map.Entry<String, RoutingMetrics> entry : metricsByLabels.entrySet()) {
+                Histogram histogram = entry.getValue().histograms.get(h);
+                if (first) {
+                    MetricsText.header(sb, histogram.getName(), "histogram", histogram.getHelp());
+                    first = false;
+                }
+                histogram.writeSamples(sb, entry.getKey());
+            }
+        }
+    }
+
+}
@@ -38,6 +38,7 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.AlertPatchServiceImpl;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.mcraptor.McRaptorSearch;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.standalone.Router;
 import org.opentripplanner.updater.alerts.AlertsUpdateHandler;
@@ -61,6 +62,9 @@ public abstract class GtfsTest extends TestCase {
 
     public boolean isLongDistance() { return false; }
 
+    /** Whether every plan should also be checked against the McRAPTOR planner, where it supports the request. */
+    public boolean compareWithMcRaptor() { return false; }
+
     private String agencyId;
 
     public Itinerary itinerary = null;
@@ -116,6 +120,35 @@ public abstract class GtfsTest extends TestCase {
     public Leg[] plan(long dateTime, String fromVertex, String toVertex, String onTripId,
                boolean wheelchairAccessible, boolean preferLeastTransfers, TraverseMode preferredMode,
                String excludedRoute, String excludedStop, int legCount) {
+        RoutingRequest routingRequest = makeRequest(dateTime, fromVertex, toVertex, onTripId, wheelchairAccessible,
+                preferLeastTransfers, preferredMode, excludedRoute, excludedStop);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(routingRequest);
+        TripPlan tripPlan = GraphPathToTripPlanConverter.generatePlan(paths, routingRequest);
+        // Stored in instance field for use in individual tests
+        itinerary = tripPlan.itinerary.get(0);
+
+        assertEquals(legCount, itinerary.legs.size());
+
+        if (compareWithMcRaptor()) {
+            // McRAPTOR finds the earliest arrival, which AStar may trade for less walking or fewer boardings.
+            RoutingRequest mcRaptorRequest = makeRequest(dateTime, fromVertex, toVertex, onTripId,
+                    wheelchairAccessible, preferLeastTransfers, preferredMode, excludedRoute, excludedStop);
+            mcRaptorRequest.mcRaptor = true;
+            // McRAPTOR needs a bounded walk distance. Walking in these scenarios is within stations.
+            mcRaptorRequest.setMaxWalkDistance(2000);
+            if (McRaptorSearch.supports(mcRaptorRequest)) {
+                List<GraphPath> mcRaptorPaths = new GraphPathFinder(router).getPaths(mcRaptorRequest);
+                assertFalse(mcRaptorPaths.isEmpty());
+                assertTrue(mcRaptorPaths.get(0).getEndTime() <= paths.get(0).getEndTime());
+            }
+        }
+
+        return itinerary.legs.toArray(new Leg[legCount]);
+    }
+
+    private RoutingRequest makeRequest(long dateTime, String fromVertex, String toVertex, String onTripId,
+               boolean wheelchairAccessible, boolean preferLeastTransfers, TraverseMode preferredMode,
+               String excludedRoute, String excludedStop) {
         final TraverseMode mode = preferredMode != null ? preferredMode : TraverseMode.TRANSIT;
         RoutingRequest routingRequest = new RoutingRequest();
         routingRequest.setNumItineraries(1);
@@ -149,15 +182,7 @@ public abstract class GtfsTest extends TestCase {
         // TODO rethink whether it makes sense to weight waiting to board _less_ than 1.
         routingRequest.setWaitReluctance(1);
         routingRequest.setWalkBoardCost(30);
-
-        List<GraphPath> paths = new GraphPathFinder(router).getPaths(routingRequest);
-        TripPlan tripPlan = GraphPathToTripPlanConverter.generatePlan(paths, routingRequest);
-        // Stored in instance field for use in individual tests
-        itinerary = tripPlan.itinerary.get(0);
-
-        assertEquals(legCount, itinerary.legs.size());
-
-        return itinerary.legs.toArray(new Leg[legCount]);
+        return routingRequest;
     }
 
     public void validateLeg(Leg leg, long startTime, long endTime, String toStopId, String fromStopId,
@@ -0,0 +1,76 @@
+package org.opentripplanner.analyst.broker;
+
+import org.opentripplanner.analyst.cluster.AnalystWorker;
+import org.opentripplanner.analyst.cluster.JobSimulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+/**
+ * This test is not an automatic unit test. It is a load test that must be started manually, because it takes a long
+ * time to run. It will start up a broker and many local workers that complete tasks without doing any work, submit
+ * several large jobs to the broker at once, and report how many tasks per second the broker hands out until all the
+ * jobs are finished. All the time is then spent enqueueing, delivering and completing tasks.
+ */
+public class BrokerLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerLoadTest.class);
+    static final int N_JOBS = 4;
+    static final int N_TASKS_PER_JOB = 100000;
+    static final int N_WORKERS = 64;
+
+    public static void main(String[] params) {
+
+        // Start a broker in a new thread.
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("graphs-bucket", "FAKE");
+        brokerConfig.setProperty("pointsets-bucket", "FAKE");
+        brokerConfig.setProperty("work-offline", "true");
+        BrokerMain brokerMain = new BrokerMain(brokerConfig);
+        Thread brokerThread = new Thread(brokerMain);
+        brokerThread.start();
+
+        // Start some workers that never fail. Each one needs its own ID, or the broker will see them as one worker.
+        Properties workerConfig = new Properties();
+        workerConfig.setProperty("initial-graph-id", "GRAPH");
+        for (int i = 0; i < N_WORKERS; i++) {
+            AnalystWorker worker = new AnalystWorker(workerConfig);
+            worker.dryRunFailureRate = 0;
+            worker.workerId = AnalystWorker.machineId + "-" + i;
+            new Thread(worker).start();
+        }
+
+        // Feed all the jobs to the broker at once.
+        long startTime = System.currentTimeMillis();
+        Thread[] producers = new Thread[N_JOBS];
+        for (int i = 0; i < N_JOBS; i++) {
+            JobSimulator jobSimulator = new JobSimulator();
+            jobSimulator.nOrigins = N_TASKS_PER_JOB;
+            jobSimulator.graphId = "GRAPH";
+            producers[i] = new Thread(jobSimulator::sendFakeJob);
+            producers[i].start();
+        }
+
+        try {
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            LOG.info("Enqueued {} tasks in {} msec.", N_JOBS * N_TASKS_PER_JOB, System.currentTimeMillis() - startTime);
+
+            // Wait for all tasks to be marked finished
+            while (brokerMain.broker.anyJobsActive()) {
+                LOG.info("Some jobs are still not complete.");
+                Thread.sleep(2000);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        LOG.info("All {} tasks finished in {} msec, {} tasks per second.", N_JOBS * N_TASKS_PER_JOB, elapsed,
+                N_JOBS * N_TASKS_PER_JOB * 1000L / elapsed);
+        System.exit(0);
+    }
+
+}
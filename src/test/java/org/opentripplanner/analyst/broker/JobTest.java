@@ -0,0 +1,76 @@
+package org.opentripplanner.analyst.broker;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+/**
+ * Make sure the re-delivery timeout of a job backs off while none of its tasks are completed, then follows their
+ * completion times, staying between 30 seconds and one hour.
+ */
+public class JobTest extends TestCase {
+
+    private static final long MIN_MILLIS = 30 * 1000;
+    private static final long MAX_MILLIS = 60 * 60 * 1000;
+
+    @Test
+    public void testTimeoutBeforeFirstCompletion () {
+        Job job = makeJob(2);
+        assertEquals(MIN_MILLIS, job.getInvisibleDurationMillis());
+
+        // a task that is never completed in time doubles the timeout each time it is re-delivered, up to one hour
+        long expected = MIN_MILLIS;
+        for (int i = 0; i < 10; i++) {
+            deliver(job, 0, job.getInvisibleDurationMillis() + 1000);
+            assertEquals(1, job.redeliver());
+            expected = Math.min(expected * 2, MAX_MILLIS);
+            assertEquals(expected, job.getInvisibleDurationMillis());
+        }
+        assertEquals(MAX_MILLIS, job.getInvisibleDurationMillis());
+
+        // a task that is not late yet is left alone
+        deliver(job, 0, 1000);
+        assertEquals(0, job.redeliver());
+        assertEquals(1, job.getInFlightTaskCount());
+
+        // once a task is completed the timeout follows the completion time, and is no longer doubled
+        deliver(job, 1, 40 * 1000);
+        job.markTaskCompleted(1);
+        assertEquals(3 * 40 * 1000, job.getInvisibleDurationMillis(), 1000);
+        deliver(job, 0, job.getInvisibleDurationMillis() + 1000);
+        assertEquals(1, job.redeliver());
+        assertEquals(3 * 40 * 1000, job.getInvisibleDurationMillis(), 1000);
+    }
+
+    @Test
+    public void testTimeoutClamped () {
+        Job fast = makeJob(1);
+        deliver(fast, 0, 1000);
+        fast.markTaskCompleted(0);
+        assertEquals(MIN_MILLIS, fast.getInvisibleDurationMillis());
+
+        Job slow = makeJob(1);
+        deliver(slow, 0, 2 * 60 * 60 * 1000);
+        slow.markTaskCompleted(0);
+        assertEquals(MAX_MILLIS, slow.getInvisibleDurationMillis());
+        assertTrue(slow.isComplete());
+    }
+
+    private static Job makeJob (int nTasks) {
+        Job job = new Job("job");
+        for (int taskId = 0; taskId < nTasks; taskId++) {
+            AnalystClusterRequest task = new AnalystClusterRequest();
+            task.jobId = job.jobId;
+            task.taskId = taskId;
+            job.addTask(task);
+        }
+        return job;
+    }
+
+    /** Deliver the given task as if it had been delivered the given number of milliseconds ago. */
+    private static void deliver (Job job, int taskId, long millisAgo) {
+        job.tasksAwaitingDelivery.removeIf(task -> task.taskId == taskId);
+        job.deliveryTimes.put(taskId, System.currentTimeMillis() - millisAgo);
+    }
+
+}
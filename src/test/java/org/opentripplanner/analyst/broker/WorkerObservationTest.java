@@ -0,0 +1,34 @@
+package org.opentripplanner.analyst.broker;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import static org.opentripplanner.analyst.broker.WorkerObservation.*;
+
+/**
+ * Make sure deliveries are sized to keep all the cores of a worker busy for about TARGET_DELIVERY_MILLIS, within
+ * bounds, and fall back on fixed sizes when the worker does not report its cores or task times.
+ */
+public class WorkerObservationTest extends TestCase {
+
+    @Test
+    public void testTasksPerDelivery () {
+        // nothing known about the worker
+        assertEquals(DEFAULT_TASKS_PER_DELIVERY, new WorkerObservation("w", "g", -1, -1).getTasksPerDelivery());
+        assertEquals(DEFAULT_TASKS_PER_DELIVERY, new WorkerObservation("w", "g", 0, 100).getTasksPerDelivery());
+
+        // one task per core until the task time is known
+        assertEquals(4, new WorkerObservation("w", "g", 4, -1).getTasksPerDelivery());
+        assertEquals(MAX_TASKS_PER_DELIVERY, new WorkerObservation("w", "g", 1000, -1).getTasksPerDelivery());
+
+        // enough tasks to keep each core busy, but at least one per core
+        assertEquals(4 * TARGET_DELIVERY_MILLIS / 200, new WorkerObservation("w", "g", 4, 200).getTasksPerDelivery());
+        assertEquals(4, new WorkerObservation("w", "g", 4, TARGET_DELIVERY_MILLIS * 3).getTasksPerDelivery());
+
+        // never more than the cap, even when the product overflows an int
+        assertEquals(MAX_TASKS_PER_DELIVERY, new WorkerObservation("w", "g", 64, 1).getTasksPerDelivery());
+        assertEquals(MAX_TASKS_PER_DELIVERY,
+                new WorkerObservation("w", "g", Integer.MAX_VALUE, 1).getTasksPerDelivery());
+    }
+
+}
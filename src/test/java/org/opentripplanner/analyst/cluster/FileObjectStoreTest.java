@@ -0,0 +1,47 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Make sure objects stored in a local directory read back as they were written, with keys nested like result keys.
+ */
+public class FileObjectStoreTest extends TestCase {
+
+    @Test
+    public void testPutAndGet () throws Exception {
+        File directory = Files.createTempDirectory("objects").toFile();
+        try {
+            ObjectStore store = new FileObjectStore(directory);
+            assertFalse(store.exists("results", "job/origin.json.gz"));
+
+            store.putObject("results", "job/origin.json.gz", new ByteArrayInputStream("first".getBytes()));
+            store.putObject("results", "job/origin.json.gz", new ByteArrayInputStream("second".getBytes()));
+            assertTrue(store.exists("results", "job/origin.json.gz"));
+            assertFalse(store.exists("results", "job"));
+            InputStream in = store.getObject("results", "job/origin.json.gz");
+            assertEquals("second", IOUtils.toString(in));
+            in.close();
+            // no temporary files are left behind
+            assertEquals(1, new File(directory, "results/job").list().length);
+
+            try {
+                store.getObject("results", "job/missing.json.gz");
+                fail("A missing object should not be found.");
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+}
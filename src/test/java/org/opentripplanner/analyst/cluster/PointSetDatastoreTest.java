@@ -0,0 +1,51 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.UUID;
+
+/**
+ * Make sure a point set that cannot be fetched from the object store leaves nothing in the local cache, so that it is
+ * fetched again on the next attempt rather than read from a truncated file.
+ */
+public class PointSetDatastoreTest extends TestCase {
+
+    @Test
+    public void testFailedLoadNotCached () throws Exception {
+        File directory = Files.createTempDirectory("objects").toFile();
+        try {
+            ObjectStore store = new FileObjectStore(directory);
+            PointSetDatastore datastore = new PointSetDatastore(10, store, "pointsets");
+
+            String missingId = UUID.randomUUID().toString();
+            assertLoadFails(datastore, missingId);
+
+            // an object that is not gzipped fails after it has been opened
+            String corruptId = UUID.randomUUID().toString();
+            store.putObject("pointsets", corruptId + ".json.gz", new ByteArrayInputStream("not gzip".getBytes()));
+            assertLoadFails(datastore, corruptId);
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static void assertLoadFails (PointSetDatastore datastore, String pointSetId) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                datastore.get(pointSetId);
+                fail("A point set that cannot be fetched should not load.");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertFalse(datastore.isCached(pointSetId));
+            File[] partialFiles = new File("cache", "pointsets").listFiles((dir, name) -> name.startsWith(pointSetId));
+            assertTrue(partialFiles == null || partialFiles.length == 0);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerTest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Make sure RAPTOR data are reused only by requests with the same time window, scenario and destinations.
+ */
+public class RaptorWorkerDataCacheTest extends TestCase {
+
+    @Test
+    public void testCache () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(100);
+
+        TaskStatistics ts = new TaskStatistics();
+        RaptorWorkerData data = cache.get("graph", null, null, makeRequest(7 * 3600), gg, null, ts);
+        assertFalse(ts.raptorDataCacheHit);
+        assertTrue(data.estimateSizeBytes() > 0);
+
+        // a request from another origin with the same time window shares the data
+        ProfileRequest other = makeRequest(7 * 3600);
+        other.fromLat += 0.001;
+        ts = new TaskStatistics();
+        assertSame(data, cache.get("graph", null, null, other, gg, null, ts));
+        assertTrue(ts.raptorDataCacheHit);
+        assertEquals(1, ts.raptorDataCacheHitCount);
+        assertEquals(1, ts.raptorDataCacheMissCount);
+
+        // a different time window, scenario or graph does not
+        ts = new TaskStatistics();
+        assertNotSame(data, cache.get("graph", null, null, makeRequest(8 * 3600), gg, null, ts));
+        assertFalse(ts.raptorDataCacheHit);
+
+        ts = new TaskStatistics();
+        cache.get("graph", null, "[]", makeRequest(7 * 3600), gg, null, ts);
+        assertFalse(ts.raptorDataCacheHit);
+
+        ts = new TaskStatistics();
+        cache.get("other graph", null, null, makeRequest(7 * 3600), gg, null, ts);
+        assertFalse(ts.raptorDataCacheHit);
+        assertEquals(4, cache.getStats().missCount());
+    }
+
+    /** @return the request of RaptorWorkerTest, with its two hour time window starting at the given time. */
+    private static ProfileRequest makeRequest (int fromTime) {
+        ProfileRequest pr = RaptorWorkerTest.makeRequest();
+        pr.fromTime = fromTime;
+        pr.toTime = fromTime + 2 * 3600;
+        return pr;
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Make sure the binary encoding of result envelopes reads back what was written, and is smaller than the JSON.
+ */
+public class ResultEnvelopeTest extends TestCase {
+
+    @Test
+    public void testBinaryRoundTrip () throws Exception {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.id = "origin";
+        envelope.jobId = "job";
+        envelope.profile = true;
+        envelope.bestCase = makeResultSet(1);
+        envelope.worstCase = makeResultSet(2);
+        envelope.avgCase = makeResultSet(3);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        envelope.writeBinary(out);
+        ResultEnvelope read = ResultEnvelope.readBinary(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("origin", read.id);
+        assertEquals("job", read.jobId);
+        assertNull(read.destinationPointsetId);
+        assertTrue(read.profile);
+        assertNull(read.pointEstimate);
+        assertNull(read.spread);
+        for (ResultEnvelope.Which which : new ResultEnvelope.Which[] { ResultEnvelope.Which.BEST_CASE,
+                ResultEnvelope.Which.WORST_CASE, ResultEnvelope.Which.AVERAGE }) {
+            ResultSet expected = envelope.get(which);
+            ResultSet actual = read.get(which);
+            assertEquals(expected.id, actual.id);
+            assertTrue(Arrays.equals(expected.times, actual.times));
+            assertEquals(expected.histograms.keySet(), actual.histograms.keySet());
+            Histogram histogram = actual.histograms.get("jobs");
+            assertTrue(Arrays.equals(expected.histograms.get("jobs").counts, histogram.counts));
+            assertTrue(Arrays.equals(expected.histograms.get("jobs").sums, histogram.sums));
+        }
+
+        byte[] json = new ObjectMapper().writeValueAsBytes(envelope);
+        assertTrue(out.size() * 2 < json.length);
+    }
+
+    /** Negative values, -1 in particular, must not be read back as unreachable. */
+    @Test
+    public void testBinaryNegativeValues () throws Exception {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.id = "origin";
+        envelope.pointEstimate = new ResultSet();
+        envelope.pointEstimate.times = new int[] { -1, Integer.MAX_VALUE, -2, 0, Integer.MIN_VALUE, -1,
+                Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        envelope.writeBinary(out);
+        ResultEnvelope read = ResultEnvelope.readBinary(new ByteArrayInputStream(out.toByteArray()));
+
+        assertTrue(Arrays.equals(envelope.pointEstimate.times, read.pointEstimate.times));
+    }
+
+    /** A result set with times that vary smoothly, as they do across neighbouring points, and some unreachable. */
+    private static ResultSet makeResultSet (long seed) {
+        Random random = new Random(seed);
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = "result" + seed;
+        resultSet.times = new int[10000];
+        int time = 1200;
+        for (int i = 0; i < resultSet.times.length; i++) {
+            time = Math.max(0, time + random.nextInt(61) - 30);
+            resultSet.times[i] = random.nextInt(10) == 0 ? Integer.MAX_VALUE : time;
+        }
+        Histogram histogram = new Histogram();
+        histogram.counts = new int[] { 0, 3, 10, 42, 100 };
+        histogram.sums = new int[] { 0, 300, 1000, 4200, 10000 };
+        resultSet.histograms.put("jobs", histogram);
+        return resultSet;
+    }
+
+}
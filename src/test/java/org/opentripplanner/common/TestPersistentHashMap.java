@@ -0,0 +1,123 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestPersistentHashMap extends TestCase {
+
+    /** A key whose hash code is given, so that keys can be made to collide on some or all of their hash bits. */
+    private static class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+    }
+
+    @Test
+    public void testSameAsHashMap() {
+        Random random = new Random(42);
+        PersistentHashMap<Key, Integer> map = new PersistentHashMap<>();
+        Map<Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int id = random.nextInt(5000);
+            // few distinct hashes, so that there are full collisions as well as deep paths
+            Key key = new Key(id, (id % 1000) * 0x01010101);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int id = 0; id < 5000; id++) {
+            Key key = new Key(id, (id % 1000) * 0x01010101);
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<Key, Integer> iterated = new HashMap<>();
+        map.forEach((key, value) -> assertNull(iterated.put(key, value)));
+        assertEquals(expected, iterated);
+
+        map.removeIf((key, value) -> key.id % 2 == 0);
+        expected.keySet().removeIf(key -> key.id % 2 == 0);
+        assertEquals(expected.size(), map.size());
+        for (Key key : map.keys()) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        for (Key key : expected.keySet()) {
+            map.remove(key);
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testSnapshotsAreUnchanged() {
+        Random random = new Random(42);
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<>();
+        List<PersistentHashMap<Integer, Integer>> snapshots = new ArrayList<>();
+        List<Map<Integer, Integer>> expectedSnapshots = new ArrayList<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                int key = random.nextInt(2000);
+                if (random.nextInt(4) == 0) {
+                    map.remove(key);
+                    expected.remove(key);
+                } else {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+            }
+            snapshots.add(map.snapshot());
+            expectedSnapshots.add(new HashMap<>(expected));
+        }
+        for (int s = 0; s < snapshots.size(); s++) {
+            PersistentHashMap<Integer, Integer> snapshot = snapshots.get(s);
+            assertTrue(snapshot.isReadOnly());
+            assertEquals(expectedSnapshots.get(s).size(), snapshot.size());
+            for (int key = 0; key < 2000; key++) {
+                assertEquals(expectedSnapshots.get(s).get(key), snapshot.get(key));
+            }
+        }
+        assertFalse(map.isReadOnly());
+
+        try {
+            snapshots.get(0).put(1, 1);
+            fail("A snapshot should not be writable.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
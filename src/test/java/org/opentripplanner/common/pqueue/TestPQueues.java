@@ -16,6 +16,7 @@ package org.opentripplanner.common.pqueue;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Random;
 import junit.framework.TestCase;
 
 /*
@@ -25,7 +26,7 @@ import junit.framework.TestCase;
 public class TestPQueues extends TestCase { 
     private static final int N = 50000;
 
-    public void doQueue(BinHeap<Integer> q,
+    public void doQueue(OTPPriorityQueue<Integer> q,
                         List<Integer> input, List<Integer> expected) {
         List<Integer> result = new ArrayList<Integer>(N);
         int expectedSum = 0;
@@ -58,7 +59,7 @@ public class TestPQueues extends TestCase {
         assertTrue(sum == expectedSum);
     }
     
-    public void fillQueue(BinHeap<Integer> q, List<Integer> input) {
+    public void fillQueue(OTPPriorityQueue<Integer> q, List<Integer> input) {
         for (Integer i : input) {
             q.insert(i, i * 0.5);
         }
@@ -90,6 +91,104 @@ public class TestPQueues extends TestCase {
         }
         doQueue(new BinHeap<Integer>(), input, expected);
         fillQueue(new BinHeap<Integer>(), input);
+        doQueue(newIndexedHeap(), input, expected);
+        fillQueue(newIndexedHeap(), input);
+        // keys i * 0.5 round down to integers, so the radix queue only orders them up to one unit.
+        List<Integer> radixResult = new ArrayList<Integer>(N);
+        MonotoneRadixQueue<Integer> rq = new MonotoneRadixQueue<Integer>(100);
+        for (Integer i : input) rq.insert(i, i);
+        while (!rq.empty()) radixResult.add(rq.extract_min());
+        assertEquals(expected, radixResult);
+        fillQueue(new MonotoneRadixQueue<Integer>(100), input);
+    }
+
+    public void testIndexedDecreaseKey() {
+        IndexedDaryHeap<Integer> q = newIndexedHeap();
+        for (int i = 0; i < 100; i++) {
+            q.insert_or_dec_key(i, 1000 - i);
+        }
+        assertEquals(100, q.size());
+        // decrease and increase some keys, including the root
+        q.insert_or_dec_key(10, 1);
+        q.insert_or_dec_key(99, 2000);
+        q.insert_or_dec_key(20, 2);
+        // an untracked element with the same index is kept separately
+        q.insert(10, 0);
+        assertEquals(101, q.size());
+        assertEquals(0.0, q.peek_min_key(), 0.0);
+        assertEquals(Integer.valueOf(10), q.extract_min());
+        assertEquals(Integer.valueOf(10), q.extract_min());
+        assertEquals(Integer.valueOf(20), q.extract_min());
+        double last = Double.NEGATIVE_INFINITY;
+        int lastElement = -1;
+        while (!q.empty()) {
+            double key = q.peek_min_key();
+            assertTrue(key >= last);
+            last = key;
+            lastElement = q.extract_min();
+        }
+        assertEquals(99, lastElement);
+        // after extraction an index can be inserted again
+        q.insert_or_dec_key(10, 5);
+        assertEquals(1, q.size());
+        q.reset();
+        assertTrue(q.empty());
+        q.insert_or_dec_key(10, 5);
+        assertEquals(1, q.size());
+    }
+
+    public void testRadixMonotone() {
+        MonotoneRadixQueue<Integer> q = new MonotoneRadixQueue<Integer>(10);
+        q.insert(1, 1000);
+        q.insert(2, 3);
+        q.insert(3, 70000);
+        assertEquals(Integer.valueOf(2), q.extract_min());
+        // keys below the last extracted key are clamped to it
+        q.insert(4, 1);
+        q.insert(5, 999.5);
+        assertEquals(Integer.valueOf(4), q.extract_min());
+        assertEquals(Integer.valueOf(5), q.extract_min());
+        assertEquals(1000.0, q.peek_min_key(), 0.0);
+        assertEquals(Integer.valueOf(1), q.extract_min());
+        assertEquals(Integer.valueOf(3), q.extract_min());
+        assertNull(q.extract_min());
+        assertNull(q.peek_min());
+    }
+
+    /**
+     * Runs the queues on a Dijkstra-like workload: extract one element, insert a few with larger keys. They must all
+     * extract the same sequence of keys.
+     */
+    public void testDijkstraWorkload() {
+        Random random = new Random(42);
+        int[] offsets = new int[1000];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = random.nextInt(100);
+        long expected = dijkstraWorkload(new BinHeap<Integer>(), offsets);
+        assertEquals(expected, dijkstraWorkload(newIndexedHeap(), offsets));
+        assertEquals(expected, dijkstraWorkload(new MonotoneRadixQueue<Integer>(1000), offsets));
+    }
+
+    /** @return a checksum of the keys extracted, weighted by the order in which they were extracted. */
+    private long dijkstraWorkload(OTPPriorityQueue<Integer> q, int[] offsets) {
+        q.insert(0, 0);
+        long checksum = 0;
+        int count = 0;
+        int o = 0;
+        while (!q.empty() && count < 3 * N) {
+            double key = q.peek_min_key();
+            q.extract_min();
+            count++;
+            checksum = checksum * 31 + (long) key;
+            for (int k = 0; k < 3; k++) {
+                int delta = 1 + offsets[o++ % offsets.length];
+                q.insert(count, Math.floor(key) + delta);
+            }
+        }
+        return checksum;
+    }
+
+    private IndexedDaryHeap<Integer> newIndexedHeap() {
+        return new IndexedDaryHeap<Integer>(IndexedDaryHeap.DEFAULT_ARITY, 20, i -> i, 0);
     }
 
     /*
@@ -0,0 +1,117 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.mmri;
+
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.GtfsFeedId;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually. It plans the same trip with
+ * AStar and with McRAPTOR for every departure minute of a time window, and reports the time each planner took and
+ * how often they disagree on the arrival time. Only the rounds after the warm-up are counted. Without arguments it
+ * uses the MMRI transfer time scenario of McRaptorTest.
+ *
+ * Usage: McRaptorBenchmark [gtfs fromStopId toStopId startTime minutes]
+ */
+public class McRaptorBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(McRaptorBenchmark.class);
+    static final int N_WARMUP_ROUNDS = 5;
+    static final int N_ROUNDS = 20;
+    static final String FEED_ID = "FEED";
+
+    public static void main(String[] args) {
+        String gtfs = "src/test/resources/mmri/2a2";
+        String fromStop = "2a3";
+        String toStop = "2a6";
+        long startTime = 1388530800L;
+        int minutes = 8;
+        if (args.length == 5) {
+            gtfs = args[0];
+            fromStop = args[1];
+            toStop = args[2];
+            startTime = Long.parseLong(args[3]);
+            minutes = Integer.parseInt(args[4]);
+        } else if (args.length != 0) {
+            LOG.error("Usage: McRaptorBenchmark [gtfs fromStopId toStopId startTime minutes]");
+            return;
+        }
+
+        GtfsBundle gtfsBundle = new GtfsBundle(new File(gtfs));
+        gtfsBundle.setFeedId(new GtfsFeedId.Builder().id(FEED_ID).build());
+        gtfsBundle.setTransfersTxtDefinesStationPaths(true);
+        Graph graph = new Graph();
+        new GtfsModule(Collections.singletonList(gtfsBundle)).buildGraph(graph, null);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        Router router = new Router("BENCHMARK", graph);
+
+        long aStarNanos = 0, mcRaptorNanos = 0;
+        int nPlans = 0, nDifferent = 0;
+        for (int round = -N_WARMUP_ROUNDS; round < N_ROUNDS; round++) {
+            for (int minute = 0; minute < minutes; minute++) {
+                long dateTime = startTime + minute * 60;
+                long start = System.nanoTime();
+                List<GraphPath> aStarPaths = new GraphPathFinder(router).getPaths(
+                        makeRequest(fromStop, toStop, dateTime, false));
+                long aStarTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                List<GraphPath> mcRaptorPaths = new GraphPathFinder(router).getPaths(
+                        makeRequest(fromStop, toStop, dateTime, true));
+                long mcRaptorTime = System.nanoTime() - start;
+                if (round >= 0) {
+                    aStarNanos += aStarTime;
+                    mcRaptorNanos += mcRaptorTime;
+                    nPlans += 1;
+                    if (aStarPaths.isEmpty() || mcRaptorPaths.isEmpty()
+                            || aStarPaths.get(0).getEndTime() != mcRaptorPaths.get(0).getEndTime()) {
+                        nDifferent += 1;
+                    }
+                }
+            }
+        }
+        LOG.info("Msec per plan: AStar {}, McRAPTOR {}.", String.format("%.2f", aStarNanos / 1e6 / nPlans),
+                String.format("%.2f", mcRaptorNanos / 1e6 / nPlans));
+        LOG.info("{} of {} plans arrive at a different time or were not found by one of the planners.", nDifferent,
+                nPlans);
+    }
+
+    private static RoutingRequest makeRequest(String fromStop, String toStop, long dateTime, boolean mcRaptor) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = dateTime;
+        request.from = new GenericLocation(null, FEED_ID + ":" + fromStop);
+        request.to = new GenericLocation(null, FEED_ID + ":" + toStop);
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(1);
+        request.setMaxWalkDistance(McRaptorTest.MAX_WALK_DISTANCE);
+        request.mcRaptor = mcRaptor;
+        return request;
+    }
+
+}
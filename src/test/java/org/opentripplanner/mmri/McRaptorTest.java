@@ -0,0 +1,83 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.mmri;
+
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.mcraptor.McRaptorSearch;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.List;
+
+/**
+ * Runs the multi-criteria RAPTOR planner on the transfer time scenario (see TransferTimeTest), and compares it with
+ * AStar for every departure minute of the scenario. The plans of the other MMRI scenarios are checked against it
+ * too, see GtfsTest.compareWithMcRaptor().
+ */
+public class McRaptorTest extends MmriTest {
+    /** McRAPTOR only supports requests with a bounded walk distance. */
+    static final double MAX_WALK_DISTANCE = 2000;
+
+    @Override
+    public final String getFeedName() {
+        return "mmri/2a2";
+    }
+
+    public void testMcRaptorSearch() {
+        RoutingRequest request = makeRequest(1388530860L, true);
+        request.setRoutingContext(graph);
+        assertTrue(McRaptorSearch.supports(request));
+        request.setMaxWalkDistance(Double.MAX_VALUE);
+        assertFalse(McRaptorSearch.supports(request));
+        request.setMaxWalkDistance(MAX_WALK_DISTANCE);
+        List<GraphPath> paths = new McRaptorSearch(graph.index.getMcRaptorNetwork(), request).route();
+        assertFalse(paths.isEmpty());
+        assertEquals(1388531340L, paths.get(0).getEndTime());
+
+        TripPlan plan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+        Itinerary itinerary = plan.itinerary.get(0);
+        assertEquals(3, itinerary.legs.size());
+        assertEquals(1388531280000L, itinerary.legs.get(2).startTime.getTimeInMillis());
+        assertEquals("2a5", itinerary.legs.get(2).from.stopId.getId());
+    }
+
+    public void testSameResultsAsAStar() {
+        for (long dateTime = 1388530800L; dateTime <= 1388531220L; dateTime += 60) {
+            List<GraphPath> aStarPaths = new GraphPathFinder(router).getPaths(makeRequest(dateTime, false));
+            List<GraphPath> mcRaptorPaths = new GraphPathFinder(router).getPaths(makeRequest(dateTime, true));
+            assertFalse(aStarPaths.isEmpty());
+            assertFalse(mcRaptorPaths.isEmpty());
+            assertEquals(aStarPaths.get(0).getEndTime(), mcRaptorPaths.get(0).getEndTime());
+            assertEquals(aStarPaths.get(0).getTrips(), mcRaptorPaths.get(0).getTrips());
+        }
+    }
+
+    private RoutingRequest makeRequest(long dateTime, boolean mcRaptor) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = dateTime;
+        request.from = new GenericLocation(null, "FEED:2a3");
+        request.to = new GenericLocation(null, "FEED:2a6");
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(1);
+        request.setMaxWalkDistance(MAX_WALK_DISTANCE);
+        request.mcRaptor = mcRaptor;
+        return request;
+    }
+}
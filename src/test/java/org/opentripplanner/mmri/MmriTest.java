@@ -20,4 +20,6 @@ abstract class MmriTest extends GtfsTest {
 
     public boolean isLongDistance() { return true; }
 
+    public boolean compareWithMcRaptor() { return true; }
+
 }
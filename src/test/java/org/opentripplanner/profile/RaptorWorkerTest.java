@@ -0,0 +1,149 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test RAPTOR searches over the departure window.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    /** Splitting the departure window into parallel chunks should not change the results of a scheduled search. */
+    @Test
+    public void testParallelMinutes () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        RepeatedRaptorProfileRouter serial = new RepeatedRaptorProfileRouter(gg, makeRequest());
+        serial.route();
+        assertFalse(serial.raptorWorkerData.hasFrequencies);
+
+        // 7 chunks do not divide the 120 minutes evenly
+        RepeatedRaptorProfileRouter parallel = new RepeatedRaptorProfileRouter(gg, makeRequest());
+        parallel.raptorParallelism = 7;
+        parallel.route();
+
+        assertTrue(serial.ts.targetsReached > 0);
+        assertEquals(serial.ts.searchCount, parallel.ts.searchCount);
+        assertEquals(serial.ts.targetsReached, parallel.ts.targetsReached);
+        PropagatedTimesStore s = serial.propagatedTimesStore;
+        PropagatedTimesStore p = parallel.propagatedTimesStore;
+        for (int target = 0; target < s.mins.length; target++) {
+            assertEquals(s.mins[target], p.mins[target]);
+            assertEquals(s.avgs[target], p.avgs[target]);
+            assertEquals(s.maxs[target], p.maxs[target]);
+        }
+    }
+
+    /** Propagating target by target should give the same times as propagating stop by stop. */
+    @Test
+    public void testTargetMajorPropagation () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = makeRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+        assertEquals(data.targets.length / 2, data.stopsForTarget.length);
+
+        TIntIntMap initialStops = new TIntIntHashMap();
+        initialStops.put(0, 0);
+        int departureTime = 8 * 3600;
+
+        int[][] results = new int[2][];
+        for (int i = 0; i < 2; i++) {
+            RaptorWorker worker = new RaptorWorker(data, req);
+            worker.targetMajorThreshold = i == 0 ? Double.POSITIVE_INFINITY : 0;
+            worker.runRaptorScheduled(initialStops, departureTime);
+            results[i] = new int[data.nTargets];
+            Arrays.fill(results[i], RaptorWorker.UNREACHED);
+            worker.doPropagation(worker.bestNonTransferTimes, results[i], departureTime);
+        }
+        assertTrue(Arrays.stream(results[0]).anyMatch(t -> t != RaptorWorker.UNREACHED));
+        assertTrue(Arrays.equals(results[0], results[1]));
+    }
+
+    /** Paths reconstructed from a RAPTOR search should be consistent with the times found by that search. */
+    @Test
+    public void testFindPaths () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = makeRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        accessTimes.put(0, 120);
+
+        // use the stop reached last from the first departure as the destination
+        RaptorWorker worker = new RaptorWorker(data, req);
+        worker.runRaptorScheduled(accessTimes, req.fromTime);
+        int egressStop = -1;
+        for (int stop = 0; stop < data.nStops; stop++) {
+            int time = worker.bestNonTransferTimes[stop];
+            if (time != RaptorWorker.UNREACHED && (egressStop == -1 || time > worker.bestNonTransferTimes[egressStop])) {
+                egressStop = stop;
+            }
+        }
+        assertTrue(egressStop != -1);
+        TIntIntMap egressTimes = new TIntIntHashMap();
+        egressTimes.put(egressStop, 60);
+
+        List<RaptorPath> paths = new RaptorWorker(data, req).findPaths(accessTimes, egressTimes);
+        assertFalse(paths.isEmpty());
+        assertEquals(req.fromTime, paths.get(0).departureTime);
+        assertEquals(worker.bestNonTransferTimes[egressStop] + 60, paths.get(0).arrivalTime);
+
+        int previousDeparture = Integer.MIN_VALUE;
+        for (RaptorPath path : paths) {
+            assertTrue(path.departureTime > previousDeparture);
+            previousDeparture = path.departureTime;
+            assertEquals(0, path.accessStop);
+            assertEquals(egressStop, path.egressStop);
+            assertTrue(path.getRideCount() > 0);
+            for (int ride = 0; ride < path.getRideCount(); ride++) {
+                assertTrue(path.getWaitTime(ride) >= 0);
+                assertTrue(path.alightTimes[ride] >= path.boardTimes[ride]);
+                assertTrue(path.alightPositions[ride] > path.boardPositions[ride]);
+            }
+            RaptorWorkerTimetable first = data.timetablesForPattern.get(path.patterns[0]);
+            assertEquals(0, first.stopIndices[path.boardPositions[0]]);
+            int last = path.getRideCount() - 1;
+            RaptorWorkerTimetable lastTimetable = data.timetablesForPattern.get(path.patterns[last]);
+            assertEquals(egressStop, lastTimetable.stopIndices[path.alightPositions[last]]);
+            assertEquals(path.alightTimes[last] + 60, path.arrivalTime);
+        }
+    }
+
+    /** A walk and transit request over the two morning hours of the fake graph, shared with other tests. */
+    public static ProfileRequest makeRequest () {
+        ProfileRequest pr = new ProfileRequest();
+        pr.date = new LocalDate(2015, 6, 10);
+        pr.fromTime = 7 * 3600;
+        pr.toTime = 9 * 3600;
+        pr.fromLat = pr.toLat = 39.9621;
+        pr.fromLon = pr.toLon = -83.0007;
+        pr.accessModes = pr.egressModes = pr.directModes = new QualifiedModeSet("WALK");
+        pr.transitModes = new TraverseModeSet("TRANSIT");
+        return pr;
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Make sure boarding finds the first trip departing after a given time, whether or not trips overtake each other.
+ */
+public class RaptorWorkerTimetableTest extends TestCase {
+
+    @Test
+    public void testFindDepartureAfter () {
+        RaptorWorkerTimetable tt = new RaptorWorkerTimetable(4, 2);
+        // (arrival, departure) at each of two stops
+        tt.setTrip(0, new int[] { 1000, 1000, 1500, 1500 });
+        tt.setTrip(1, new int[] { 2000, 2000, 2500, 2500 });
+        tt.setTrip(2, new int[] { 2000, 2000, 2600, 2600 });
+        tt.setTrip(3, new int[] { 3000, 3000, 3500, 3500 });
+        tt.checkDeparturesSorted();
+        assertTrue(tt.departuresSorted);
+
+        assertEquals(2600, tt.getArrival(2, 1));
+        assertEquals(0, tt.findDepartureAfter(0, 0));
+        // boarding requires slack
+        assertEquals(1, tt.findDepartureAfter(0, 1000 - RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS));
+        assertEquals(1, tt.findDepartureAfter(0, 1500));
+        assertEquals(3, tt.findDepartureAfter(0, 2000));
+        assertEquals(3, tt.findDepartureAfter(1, 2550 - RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS));
+        assertEquals(-1, tt.findDepartureAfter(1, 3500));
+
+        // the second trip overtakes the first one between the stops
+        RaptorWorkerTimetable overtaking = new RaptorWorkerTimetable(2, 2);
+        overtaking.setTrip(0, new int[] { 1000, 1000, 2000, 2000 });
+        overtaking.setTrip(1, new int[] { 1100, 1100, 1500, 1500 });
+        overtaking.checkDeparturesSorted();
+        assertFalse(overtaking.departuresSorted);
+        assertEquals(0, overtaking.findDepartureAfter(1, 1000));
+        assertEquals(-1, overtaking.findDepartureAfter(1, 2000));
+    }
+
+}
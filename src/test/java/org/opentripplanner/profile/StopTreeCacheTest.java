@@ -0,0 +1,99 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * The distances of a stop tree only hold one (vertex, distance) pair per vertex reached from the stop, so their length
+ * varies from stop to stop. Make sure that the consumers of the distances only read the pairs that are there.
+ */
+public class StopTreeCacheTest extends TestCase {
+
+    /** Each array holds exactly one pair per reached vertex, starting with the stop itself. */
+    @Test
+    public void testDistancesForStop () throws Exception {
+        Graph gg = buildGraph();
+        StopTreeCache stopTreeCache = gg.index.getStopTreeCache();
+        assertEquals(gg.index.stopVertexForStop.size(), stopTreeCache.distancesForStop.size());
+        for (Map.Entry<TransitStop, int[]> entry : stopTreeCache.distancesForStop.entrySet()) {
+            int[] distances = entry.getValue();
+            assertEquals(0, distances.length % 2);
+            TIntSet vertices = new TIntHashSet();
+            for (int i = 0; i < distances.length; i += 2) {
+                assertNotNull(gg.getVertexById(distances[i]));
+                assertTrue(vertices.add(distances[i]));
+                assertTrue(distances[i + 1] >= 0 && distances[i + 1] <= stopTreeCache.getMaxWalkMeters());
+            }
+            assertTrue(vertices.contains(entry.getKey().getIndex()));
+        }
+    }
+
+    /** Propagation and the RAPTOR worker data see exactly the pairs in the arrays, however short. */
+    @Test
+    public void testShorterDistances () throws Exception {
+        Graph gg = buildGraph();
+        ProfileRequest req = RaptorWorkerTest.makeRequest();
+        req.walkSpeed = 1.3f;
+        req.maxWalkTime = 20;
+        int maxWalkDistance = (int) (req.maxWalkTime * 60 * req.walkSpeed);
+
+        // Keep a single pair for one served stop and none for another.
+        StopTreeCache stopTreeCache = gg.index.getStopTreeCache();
+        List<TransitStop> servedStops = new ArrayList<>();
+        for (TransitStop tstop : stopTreeCache.distancesForStop.keySet()) {
+            if (!gg.index.patternsForStop.get(tstop.getStop()).isEmpty()) servedStops.add(tstop);
+        }
+        assertTrue(servedStops.size() >= 2);
+        TransitStop oneVertex = servedStops.get(0);
+        TransitStop noVertex = servedStops.get(1);
+        int[] distances = stopTreeCache.distancesForStop.get(oneVertex);
+        int vertex = -1, distance = -1;
+        for (int i = 0; i < distances.length; i += 2) {
+            if (distances[i] != 0 && distances[i + 1] > 0 && distances[i + 1] <= maxWalkDistance) {
+                vertex = distances[i];
+                distance = distances[i + 1];
+                break;
+            }
+        }
+        assertTrue(vertex > 0);
+        stopTreeCache.distancesForStop.put(oneVertex, new int[] { vertex, distance });
+        stopTreeCache.distancesForStop.put(noVertex, new int[0]);
+
+        int[] times = new int[Vertex.getMaxIndex()];
+        stopTreeCache.propagateStop(oneVertex, 100, 1.0, times);
+        stopTreeCache.propagateStop(noVertex, 50, 1.0, times);
+        for (int v = 0; v < times.length; v++) {
+            assertEquals(v == vertex ? 100 + distance : 0, times[v]);
+        }
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+        int stop = data.indexForStop.get(oneVertex.getIndex());
+        assertEquals(2, data.targetsIndex[stop + 1] - data.targetsIndex[stop]);
+        assertEquals(vertex, data.targets[data.targetsIndex[stop]]);
+        assertEquals((int) (distance / req.walkSpeed), data.targets[data.targetsIndex[stop] + 1]);
+        stop = data.indexForStop.get(noVertex.getIndex());
+        assertEquals(0, data.targetsIndex[stop + 1] - data.targetsIndex[stop]);
+    }
+
+    private static Graph buildGraph () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+        return gg;
+    }
+
+}
@@ -17,12 +17,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
 import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.State;
@@ -33,6 +36,7 @@ import org.opentripplanner.routing.graph.SimpleConcreteVertex;
 import org.opentripplanner.routing.graph.TemporaryConcreteEdge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
@@ -116,6 +120,32 @@ public class AStarTest {
         assertEquals("leary_20th", states.get(6).getVertex().getLabel());
     }
 
+    /** All queue implementations must yield the same shortest path tree as the binary heap. */
+    @Test
+    public void testQueueTypes() {
+        Map<Vertex, Double> expected = null;
+        for (PriorityQueueType queueType : PriorityQueueType.values()) {
+            RoutingRequest options = new RoutingRequest();
+            options.walkSpeed = 1.0;
+            options.batch = true;
+            options.dominanceFunction = new DominanceFunction.MinimumWeight();
+            options.priorityQueueType = queueType;
+            options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), null);
+            ShortestPathTree tree = new AStar().getShortestPathTree(options);
+            Map<Vertex, Double> weights = new HashMap<>();
+            for (Vertex v : _graph.getVertices()) {
+                weights.put(v, tree.getState(v).getWeight());
+            }
+            if (expected == null) {
+                expected = weights;
+            } else {
+                for (Vertex v : _graph.getVertices()) {
+                    assertEquals(queueType + " " + v, expected.get(v), weights.get(v), 1e-6);
+                }
+            }
+        }
+    }
+
     @Test
     public void testBack() {
 
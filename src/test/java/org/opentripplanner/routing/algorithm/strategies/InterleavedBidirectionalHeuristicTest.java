@@ -0,0 +1,161 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class InterleavedBidirectionalHeuristicTest {
+
+    private static final String[][] STOP_PAIRS = {
+            {"8371", "8374"}, {"8374", "8371"}, {"6577", "7265"}, {"2109", "8374"}
+    };
+
+    private Graph graph;
+
+    private String feedId;
+
+    private ExecutorService workers;
+
+    @Before
+    public void before() {
+        graph = ConstantsForTests.getInstance().getPortlandGraph();
+        feedId = graph.getFeedIds().iterator().next();
+        workers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() {
+        workers.shutdown();
+    }
+
+    /**
+     * Running the backward searches on worker threads must not make paths worse. They can be better, since the main
+     * search may walk beyond the target street search radius before that search is finished.
+     */
+    @Test
+    public void testConcurrentNotWorse() {
+        for (String[] pair : STOP_PAIRS) {
+            Vertex from = graph.getVertex(feedId + ":" + pair[0]);
+            Vertex to = graph.getVertex(feedId + ":" + pair[1]);
+            if (from == null || to == null) continue;
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                GraphPath interleaved = route(from, to, arriveBy, new InterleavedBidirectionalHeuristic());
+                InterleavedBidirectionalHeuristic heuristic = new InterleavedBidirectionalHeuristic(workers);
+                GraphPath concurrent = route(from, to, arriveBy, heuristic);
+                heuristic.cancel();
+                if (interleaved == null) {
+                    assertNull(concurrent);
+                } else {
+                    assertNotNull(concurrent);
+                    assertTrue(concurrent.getWeight() <= interleaved.getWeight() + 1e-6);
+                }
+            }
+        }
+    }
+
+    /**
+     * The walk limit before boarding transit must apply from the start of the main search, as it does without workers,
+     * rather than depending on when a worker thread finishes.
+     */
+    @Test
+    public void testWalkLimitBeforeBoarding() {
+        Vertex from = graph.getVertex(feedId + ":8371");
+        Vertex to = graph.getVertex(feedId + ":8374");
+        InterleavedBidirectionalHeuristic heuristic = new InterleavedBidirectionalHeuristic(workers);
+        RoutingRequest options = request(from, to, false, heuristic);
+        options.setMaxWalkDistance(500);
+        heuristic.initialize(options, Long.MAX_VALUE);
+        // The limit is lifted for the main search, since the heuristic now enforces it.
+        assertEquals(Double.POSITIVE_INFINITY, options.maxWalkDistance, 0);
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex && SphericalDistanceLibrary.distance(from.getCoordinate(),
+                    v.getCoordinate()) > 1000) {
+                assertEquals(Double.POSITIVE_INFINITY, heuristic.estimateRemainingWeight(new State(v, options)), 0);
+                break;
+            }
+        }
+        heuristic.destroy();
+    }
+
+    /** A cancelled heuristic stops improving but remains usable. */
+    @Test
+    public void testCancelled() {
+        Vertex from = graph.getVertex(feedId + ":8371");
+        Vertex to = graph.getVertex(feedId + ":8374");
+        GraphPath expected = route(from, to, false, new InterleavedBidirectionalHeuristic());
+        InterleavedBidirectionalHeuristic heuristic = new InterleavedBidirectionalHeuristic(workers);
+        RoutingRequest options = request(from, to, false, heuristic);
+        heuristic.initialize(options, Long.MAX_VALUE);
+        heuristic.cancel();
+        GraphPath path = new AStar().getShortestPathTree(options).getPath(to, true);
+        assertTrue(path.getWeight() <= expected.getWeight() + 1e-6);
+    }
+
+    /**
+     * Re-initializing the heuristic for another target must stop the workers of the first initialization before they
+     * can write their bounds into the state of the second one, and destroying it must leave it admissible.
+     */
+    @Test
+    public void testReinitialized() {
+        InterleavedBidirectionalHeuristic heuristic = new InterleavedBidirectionalHeuristic(workers);
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (String[] pair : STOP_PAIRS) {
+                Vertex from = graph.getVertex(feedId + ":" + pair[0]);
+                Vertex to = graph.getVertex(feedId + ":" + pair[1]);
+                if (from == null || to == null) continue;
+                GraphPath expected = route(from, to, false, new InterleavedBidirectionalHeuristic());
+                GraphPath path = route(from, to, false, heuristic);
+                if (expected == null) {
+                    assertNull(path);
+                } else {
+                    assertNotNull(path);
+                    assertTrue(path.getWeight() <= expected.getWeight() + 1e-6);
+                }
+            }
+        }
+        heuristic.destroy();
+    }
+
+    private GraphPath route(Vertex from, Vertex to, boolean arriveBy, RemainingWeightHeuristic heuristic) {
+        RoutingRequest options = request(from, to, arriveBy, heuristic);
+        return new AStar().getShortestPathTree(options).getPath(arriveBy ? from : to, true);
+    }
+
+    private RoutingRequest request(Vertex from, Vertex to, boolean arriveBy, RemainingWeightHeuristic heuristic) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(graph, from, to);
+        options.rctx.remainingWeightHeuristic = heuristic;
+        return options;
+    }
+
+}
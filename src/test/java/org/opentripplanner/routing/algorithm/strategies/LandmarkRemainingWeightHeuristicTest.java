@@ -0,0 +1,197 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.graph_builder.module.LandmarkModule;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.*;
+
+public class LandmarkRemainingWeightHeuristicTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkRemainingWeightHeuristicTest.class);
+
+    private static final int SIZE = 40;
+
+    private Graph graph;
+
+    private StreetVertex[][] v;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        v = new StreetVertex[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                v[i][j] = new IntersectionVertex(graph, "v" + i + "_" + j, 0.001 * j, 0.001 * i);
+            }
+        }
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE - 1; j++) {
+                // Every tenth row and column is a fast road, the rest are slow local streets.
+                float speed = (i % 10 == 0) ? 30 : 8;
+                // Some streets are closed to cars, so car and bike distances differ.
+                StreetTraversalPermission perm = (i % 7 == 3 && j % 5 == 2) ?
+                        StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE : StreetTraversalPermission.ALL;
+                // Lengths exceed the straight-line distances so that the Euclidean heuristic is admissible.
+                edges(v[i][j], v[i][j + 1], 120 + (i * 7 + j * 3) % 11, speed, perm);
+                edges(v[j][i], v[j + 1][i], 120 + (i * 5 + j * 13) % 17, speed, StreetTraversalPermission.ALL);
+            }
+        }
+        graph.rebuildVertexAndEdgeIndices();
+        new LandmarkModule(8).buildGraph(graph, null);
+    }
+
+    @Test
+    public void testTables() {
+        LandmarkTables tables = graph.landmarks;
+        assertEquals(8, tables.getLandmarkCount());
+        for (int l = 0; l < tables.getLandmarkCount(); l++) {
+            int row = tables.getRow(tables.getLandmark(l));
+            assertEquals(0, tables.fromLandmarks(TraverseMode.CAR)[row * 8 + l], 0.0);
+            assertEquals(0, tables.toLandmarks(TraverseMode.BICYCLE)[row * 8 + l], 0.0);
+        }
+        for (StreetVertex[] row : v) {
+            for (StreetVertex vertex : row) {
+                assertTrue(tables.getRow(vertex) >= 0);
+            }
+        }
+    }
+
+    /** The estimate must never exceed the weight of the best path. */
+    @Test
+    public void testLowerBound() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.CAR, TraverseMode.BICYCLE}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                RoutingRequest options = request(mode, arriveBy, v[2][3], v[35][31]);
+                assertTrue(LandmarkRemainingWeightHeuristic.supports(options));
+                LandmarkRemainingWeightHeuristic landmark = new LandmarkRemainingWeightHeuristic(graph.landmarks);
+                landmark.initialize(options, Long.MAX_VALUE);
+                GraphPath path = route(options, null).getPath(options.rctx.target, false);
+                // Check the bound at every state along the path, against the weight remaining from there.
+                for (State s : path.states) {
+                    double remaining = arriveBy ? s.getWeight() : path.getWeight() - s.getWeight();
+                    assertTrue(landmark.estimateRemainingWeight(s) <= remaining + 1e-6);
+                }
+                assertTrue(landmark.estimateRemainingWeight(new State(options)) > 0);
+            }
+        }
+    }
+
+    /** Not a real benchmark, but gives an idea of the difference in visited vertices and search time. */
+    @Test
+    public void testSameResultFewerVertices() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.CAR, TraverseMode.BICYCLE}) {
+            long[] times = new long[2];
+            int[] visited = new int[2];
+            for (int k = 0; k < 10; k++) {
+                StreetVertex from = v[(k * 7) % SIZE][(k * 3) % SIZE];
+                StreetVertex to = v[SIZE - 1 - (k * 5) % SIZE][SIZE - 1 - (k * 11) % SIZE];
+                if (from == to) continue;
+                double[] weights = new double[2];
+                for (int h = 0; h < 2; h++) {
+                    RoutingRequest options = request(mode, false, from, to);
+                    RemainingWeightHeuristic heuristic = h == 0 ? new EuclideanRemainingWeightHeuristic()
+                            : new LandmarkRemainingWeightHeuristic(graph.landmarks);
+                    final int[] count = new int[1];
+                    long t0 = System.nanoTime();
+                    options.rctx.remainingWeightHeuristic = heuristic;
+                    ShortestPathTree spt = route(options, new TraverseVisitor() {
+                        @Override public void visitEdge(Edge edge, State state) { }
+                        @Override public void visitVertex(State state) { count[0]++; }
+                        @Override public void visitEnqueue(State state) { }
+                    });
+                    times[h] += System.nanoTime() - t0;
+                    visited[h] += count[0];
+                    weights[h] = spt.getPath(to, false).getWeight();
+                }
+                assertEquals(weights[0], weights[1], 1e-6);
+            }
+            // The Euclidean heuristic assumes the maximum car speed on every street, so it is weak for cars.
+            if (mode == TraverseMode.CAR) assertTrue(visited[1] < visited[0]);
+            LOG.info("{}: visited {} vertices in {} usec with the Euclidean heuristic, {} in {} usec with landmarks",
+                    mode, visited[0], times[0] / 1000, visited[1], times[1] / 1000);
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(graph.landmarks);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        LandmarkTables copy = (LandmarkTables) in.readObject();
+        assertEquals(graph.landmarks.getLandmarkCount(), copy.getLandmarkCount());
+        int row = copy.getRow(copy.getLandmark(0));
+        assertTrue(row >= 0);
+        assertEquals(graph.landmarks.getRow(graph.landmarks.getLandmark(0)), row);
+        assertArrayEquals(graph.landmarks.fromLandmarks(TraverseMode.CAR), copy.fromLandmarks(TraverseMode.CAR), 0f);
+        // Vertices of the original graph are not in the copy.
+        assertEquals(-1, copy.getRow(v[0][0]));
+    }
+
+    private ShortestPathTree route(RoutingRequest options, TraverseVisitor visitor) {
+        AStar aStar = new AStar();
+        aStar.setTraverseVisitor(visitor);
+        return aStar.getShortestPathTree(options);
+    }
+
+    private RoutingRequest request(TraverseMode mode, boolean arriveBy, StreetVertex from, StreetVertex to) {
+        RoutingRequest options = new RoutingRequest(mode);
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(graph, from, to);
+        return options;
+    }
+
+    private void edges(StreetVertex vA, StreetVertex vB, double length, float carSpeed,
+                       StreetTraversalPermission perm) {
+        edge(vA, vB, length, carSpeed, perm, false);
+        edge(vB, vA, length, carSpeed, perm, true);
+    }
+
+    private void edge(StreetVertex vA, StreetVertex vB, double length, float carSpeed, StreetTraversalPermission perm,
+                      boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[] {vA.getCoordinate(), vB.getCoordinate()};
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetEdge edge = new StreetEdge(vA, vB, geom, name, length, perm, back);
+        edge.setCarSpeed(carSpeed);
+    }
+
+}
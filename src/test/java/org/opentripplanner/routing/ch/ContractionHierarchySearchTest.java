@@ -0,0 +1,227 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.ch;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SimpleIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.TemporaryFreeEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContractionHierarchySearchTest {
+
+    private static final int SIZE = 30;
+
+    private Graph graph;
+
+    private StreetVertex[][] v;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        v = new StreetVertex[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                v[i][j] = new IntersectionVertex(graph, "v" + i + "_" + j, 0.001 * j, 0.001 * i);
+            }
+        }
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE - 1; j++) {
+                // Every tenth row is a fast road, the rest are slow local streets.
+                float speed = (i % 10 == 0) ? 30 : 8;
+                // Some streets are closed to cars, so car and bike paths differ.
+                StreetTraversalPermission perm = (i % 7 == 3 && j % 5 == 2) ?
+                        StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE : StreetTraversalPermission.ALL;
+                edges(v[i][j], v[i][j + 1], 100 + (i * 7 + j * 3) % 11, speed, perm);
+                edges(v[j][i], v[j + 1][i], 100 + (i * 5 + j * 13) % 17, speed, StreetTraversalPermission.ALL);
+            }
+        }
+        graph.rebuildVertexAndEdgeIndices();
+        new ContractionHierarchyModule(Arrays.asList(TraverseMode.CAR, TraverseMode.BICYCLE)).buildGraph(graph, null);
+    }
+
+    @Test
+    public void testMatches() {
+        assertEquals(2, graph.contractionHierarchies.size());
+        RoutingRequest car = request(TraverseMode.CAR, false, v[0][0], v[1][1]);
+        assertEquals(TraverseMode.CAR, graph.getContractionHierarchy(car).mode);
+        RoutingRequest bike = request(TraverseMode.BICYCLE, true, v[0][0], v[1][1]);
+        assertEquals(TraverseMode.BICYCLE, graph.getContractionHierarchy(bike).mode);
+        bike.bikeSpeed = 3;
+        assertNull(graph.getContractionHierarchy(bike));
+        car.walkReluctance = 3;
+        assertNull(graph.getContractionHierarchy(car));
+        RoutingRequest walk = request(TraverseMode.WALK, false, v[0][0], v[1][1]);
+        assertNull(graph.getContractionHierarchy(walk));
+        RoutingRequest transit = new RoutingRequest("CAR,TRANSIT");
+        assertNull(graph.getContractionHierarchy(transit));
+
+        // The arc weights have no turn costs, so requests where turns cost something are never answered.
+        RoutingRequest defaultCar = new RoutingRequest(TraverseMode.CAR);
+        defaultCar.setRoutingContext(graph, v[0][0], v[1][1]);
+        assertNull(graph.getContractionHierarchy(defaultCar));
+        defaultCar.turnReluctance = 0;
+        assertEquals(TraverseMode.CAR, graph.getContractionHierarchy(defaultCar).mode);
+        bike = request(TraverseMode.BICYCLE, false, v[0][0], v[1][1]);
+        bike.bikeWalkingOptions.traversalCostModel = new SimpleIntersectionTraversalCostModel();
+        assertNull(graph.getContractionHierarchy(bike));
+    }
+
+    /**
+     * With the default options turns have a cost, so the hierarchy is not used, and the paths found are still those
+     * of AStar.
+     */
+    @Test
+    public void testDefaultOptions() {
+        GraphPathFinder finder = new GraphPathFinder(new Router("TEST", graph));
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.CAR, TraverseMode.BICYCLE}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                for (int k = 0; k < 20; k++) {
+                    StreetVertex from = v[(k * 7) % SIZE][(k * 3) % SIZE];
+                    StreetVertex to = v[SIZE - 1 - (k * 5) % SIZE][SIZE - 1 - (k * 11) % SIZE];
+                    if (from == to) continue;
+                    RoutingRequest options = defaultRequest(mode, arriveBy, from, to);
+                    assertNull(graph.getContractionHierarchy(options));
+                    List<GraphPath> paths = finder.getPaths(options);
+                    assertFalse(paths.isEmpty());
+                    // GraphPathFinder returns reverse-optimized paths, as AStar.getPathsToTarget() does.
+                    AStar aStar = new AStar();
+                    aStar.getShortestPathTree(defaultRequest(mode, arriveBy, from, to));
+                    GraphPath expected = aStar.getPathsToTarget().get(0);
+                    assertEquals(expected.getWeight(), paths.get(0).getWeight(), 1e-6);
+                }
+            }
+        }
+    }
+
+    /** Without turn costs the hierarchy must find paths of the same weight as AStar, in both directions. */
+    @Test
+    public void testSameWeightAsAStar() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.CAR, TraverseMode.BICYCLE}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                for (int k = 0; k < 20; k++) {
+                    StreetVertex from = v[(k * 7) % SIZE][(k * 3) % SIZE];
+                    StreetVertex to = v[SIZE - 1 - (k * 5) % SIZE][SIZE - 1 - (k * 11) % SIZE];
+                    if (from == to) continue;
+                    assertSameWeight(mode, arriveBy, from, to);
+                }
+            }
+        }
+    }
+
+    /** Origin and destination are temporary vertices linked to the streets, as they are for most requests. */
+    @Test
+    public void testTemporaryEndpoints() {
+        TemporaryStreetLocation origin = new TemporaryStreetLocation("origin", new Coordinate(0.0031, 0.0041),
+                new NonLocalizedString("origin"), false);
+        new TemporaryFreeEdge(origin, v[4][3]);
+        new TemporaryFreeEdge(origin, v[4][4]);
+        TemporaryStreetLocation destination = new TemporaryStreetLocation("destination",
+                new Coordinate(0.0201, 0.0251), new NonLocalizedString("destination"), true);
+        new TemporaryFreeEdge(v[25][20], destination);
+        for (boolean arriveBy : new boolean[] {false, true}) {
+            GraphPath path = assertSameWeight(TraverseMode.CAR, arriveBy, origin, destination);
+            assertEquals(origin, path.states.getFirst().getVertex());
+            assertEquals(destination, path.states.getLast().getVertex());
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ContractionHierarchy ch = graph.contractionHierarchies.get(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(ch);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ContractionHierarchy copy = (ContractionHierarchy) in.readObject();
+        assertEquals(ch.getNodeCount(), copy.getNodeCount());
+        assertEquals(ch.getArcCount(), copy.getArcCount());
+        assertEquals(0, copy.getNode(copy.vertices[0]));
+        // Vertices of the original graph are not in the copy.
+        assertEquals(-1, copy.getNode(v[0][0]));
+    }
+
+    private GraphPath assertSameWeight(TraverseMode mode, boolean arriveBy, Vertex from, Vertex to) {
+        RoutingRequest options = request(mode, arriveBy, from, to);
+        ContractionHierarchy ch = graph.getContractionHierarchy(options);
+        assertNotNull(ch);
+        ContractionHierarchySearch search = new ContractionHierarchySearch(ch, options);
+        GraphPath path = search.route();
+        assertNotNull(path);
+        assertTrue(search.getSettledNodes() < ch.getNodeCount());
+        GraphPath expected = new AStar().getShortestPathTree(request(mode, arriveBy, from, to))
+                .getPath(arriveBy ? from : to, false);
+        assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+        return path;
+    }
+
+    /** @return a request for the given mode with the default options, but without turn costs. */
+    private RoutingRequest request(TraverseMode mode, boolean arriveBy, Vertex from, Vertex to) {
+        RoutingRequest options = defaultRequest(mode, arriveBy, from, to);
+        options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+        options.bikeWalkingOptions.traversalCostModel = options.traversalCostModel;
+        return options;
+    }
+
+    private RoutingRequest defaultRequest(TraverseMode mode, boolean arriveBy, Vertex from, Vertex to) {
+        RoutingRequest options = new RoutingRequest(mode);
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(graph, from, to);
+        return options;
+    }
+
+    private void edges(StreetVertex vA, StreetVertex vB, double length, float carSpeed,
+                       StreetTraversalPermission perm) {
+        edge(vA, vB, length, carSpeed, perm, false);
+        edge(vB, vA, length, carSpeed, perm, true);
+    }
+
+    private void edge(StreetVertex vA, StreetVertex vB, double length, float carSpeed, StreetTraversalPermission perm,
+                      boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[] {vA.getCoordinate(), vB.getCoordinate()};
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetEdge edge = new StreetEdge(vA, vB, geom, name, length, perm, back);
+        edge.setCarSpeed(carSpeed);
+    }
+
+}
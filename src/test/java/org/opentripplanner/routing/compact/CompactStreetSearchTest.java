@@ -0,0 +1,279 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.compact;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.EarliestArrivalSearch;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SimpleIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import static org.junit.Assert.*;
+
+public class CompactStreetSearchTest {
+
+    private Graph graph;
+
+    private CompactStreetGraph compactGraph;
+
+    private StreetVertex[][] grid;
+
+    private StreetVertex topLeft, bottomRight;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+
+        // A 3x3 grid. The direct route along the top and right edges is pedestrian-only in one place.
+        StreetVertex[][] v = new StreetVertex[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                v[i][j] = vertex("v" + i + j, 0.001 * i, 0.001 * j);
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 2; j++) {
+                StreetTraversalPermission perm = (i == 0 && j == 1) ?
+                        StreetTraversalPermission.PEDESTRIAN : StreetTraversalPermission.ALL;
+                edges(v[i][j], v[i][j + 1], 100 + 10 * i, perm);
+                edges(v[j][i], v[j + 1][i], 120 - 5 * i, StreetTraversalPermission.ALL);
+            }
+        }
+        grid = v;
+        topLeft = v[0][0];
+        bottomRight = v[2][2];
+        compactGraph = new CompactStreetGraph(graph);
+    }
+
+    @Test
+    public void testCompactGraphStructure() {
+        assertEquals(24, compactGraph.nEdges);
+        for (Vertex vertex : graph.getVertices()) {
+            int i = compactGraph.getCompactIndex(vertex);
+            assertTrue(i >= 0);
+            assertSame(vertex, compactGraph.getVertex(i));
+            assertEquals(vertex.getDegreeOut(), compactGraph.outStart[i + 1] - compactGraph.outStart[i]);
+            assertEquals(vertex.getDegreeIn(), compactGraph.inStart[i + 1] - compactGraph.inStart[i]);
+        }
+    }
+
+    @Test
+    public void testSameResultAsAStar() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                checkSameResult(mode, arriveBy);
+            }
+        }
+    }
+
+    @Test
+    public void testPermissions() {
+        RoutingRequest options = request(TraverseMode.CAR, false);
+        CompactStreetSearch search = new CompactStreetSearch(compactGraph, options);
+        search.search(topLeft, null);
+        for (Vertex vertex : graph.getVertices()) {
+            assertTrue(search.isReached(vertex));
+        }
+        for (Edge e : search.getPathEdges(bottomRight)) {
+            assertTrue(((StreetEdge) e).getPermission().allows(TraverseMode.CAR));
+        }
+    }
+
+    @Test
+    public void testMaxDuration() {
+        RoutingRequest options = request(TraverseMode.WALK, false);
+        CompactStreetSearch search = new CompactStreetSearch(compactGraph, options);
+        search.earliestArrival = true;
+        search.maxDurationSeconds = 10;
+        search.search(topLeft, null);
+        assertTrue(search.isReached(topLeft));
+        assertFalse(search.isReached(bottomRight));
+        assertEquals(0, search.getElapsedSeconds(topLeft));
+        assertEquals(-1, search.getElapsedSeconds(bottomRight));
+    }
+
+    /**
+     * Searches on the same thread share their arrays. A search must reset what the previous one left behind, and the
+     * results of the previous one can no longer be read.
+     */
+    @Test
+    public void testBuffersReused() {
+        RoutingRequest options = request(TraverseMode.WALK, false);
+        CompactStreetSearch first = new CompactStreetSearch(compactGraph, options);
+        first.search(topLeft, null);
+        double[] weights = compactGraph.searchBuffers.get().weights;
+        int elapsed = first.getElapsedSeconds(bottomRight);
+        assertTrue(elapsed > 0);
+
+        CompactStreetSearch second = new CompactStreetSearch(compactGraph, options);
+        second.earliestArrival = true;
+        second.maxDurationSeconds = 10;
+        second.search(topLeft, null);
+        assertSame(weights, compactGraph.searchBuffers.get().weights);
+        assertFalse(second.isReached(bottomRight));
+        try {
+            first.getElapsedSeconds(bottomRight);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        CompactStreetSearch third = new CompactStreetSearch(compactGraph, options);
+        third.search(topLeft, null);
+        assertEquals(elapsed, third.getElapsedSeconds(bottomRight));
+    }
+
+    @Test
+    public void testSupports() {
+        RoutingRequest options = request(TraverseMode.WALK, false);
+        assertTrue(CompactStreetSearch.supports(options));
+        options.batch = true;
+        assertFalse(CompactStreetSearch.supports(options));
+        options.batch = false;
+        options.setMode(TraverseMode.TRANSIT);
+        assertFalse(CompactStreetSearch.supports(options));
+    }
+
+    /**
+     * The middle row is a no-through-traffic area, one turn from the top row into the middle column is forbidden and
+     * there is a traffic light at the top of the middle column. The compact search should find the same paths as
+     * AStar, with turn costs, and the same travel times as the EarliestArrivalSearch it replaces when finding nearby
+     * stops.
+     */
+    @Test
+    public void testSameResultWithTurnsAndNoThroughTraffic() {
+        for (int j = 0; j < 2; j++) {
+            edgeBetween(grid[1][j], grid[1][j + 1]).setNoThruTraffic(true);
+            edgeBetween(grid[1][j + 1], grid[1][j]).setNoThruTraffic(true);
+        }
+        StreetEdge from = edgeBetween(grid[0][0], grid[0][1]);
+        StreetEdge to = edgeBetween(grid[0][1], grid[1][1]);
+        graph.addTurnRestriction(from, new TurnRestriction(from, to, TurnRestrictionType.NO_TURN,
+                new TraverseModeSet(TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR)));
+        ((IntersectionVertex) grid[0][1]).trafficLight = true;
+        compactGraph = new CompactStreetGraph(graph);
+        assertEquals(1, compactGraph.turnRestrictedEdges.length);
+
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR}) {
+            for (boolean arriveBy : new boolean[] {false, true}) {
+                for (Vertex target : graph.getVertices()) {
+                    if (target == topLeft) continue;
+                    RoutingRequest options = request(mode, arriveBy, target);
+                    options.traversalCostModel = new SimpleIntersectionTraversalCostModel();
+                    ShortestPathTree spt = new AStar().getShortestPathTree(options);
+                    GraphPath expected = spt.getPath(arriveBy ? topLeft : target, false);
+                    assertNotNull(expected);
+
+                    options = request(mode, arriveBy, target);
+                    options.traversalCostModel = new SimpleIntersectionTraversalCostModel();
+                    GraphPath path = new CompactStreetSearch(compactGraph, options).route();
+                    assertNotNull(path);
+                    assertEquals(mode + " " + arriveBy + " " + target, expected.getWeight(), path.getWeight(), 0.001);
+                }
+            }
+        }
+
+        // The middle row cannot be entered from the streets around it, so its center is reached by the middle column.
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+        options.setRoutingContext(graph, topLeft, null);
+        ShortestPathTree spt = new EarliestArrivalSearch().getShortestPathTree(options);
+        CompactStreetSearch search = new CompactStreetSearch(compactGraph, options);
+        search.earliestArrival = true;
+        search.search(topLeft, null);
+        for (Vertex vertex : graph.getVertices()) {
+            int expected = Integer.MAX_VALUE;
+            for (State state : spt.getStates(vertex)) {
+                expected = Math.min(expected, (int) state.getElapsedTimeSeconds());
+            }
+            assertEquals(vertex.getLabel(), expected, search.getElapsedSeconds(vertex));
+        }
+        for (Edge e : search.getPathEdges(grid[1][1])) {
+            assertFalse(((StreetEdge) e).isNoThruTraffic());
+        }
+        options.cleanup();
+    }
+
+    private void checkSameResult(TraverseMode mode, boolean arriveBy) {
+        RoutingRequest options = request(mode, arriveBy);
+        ShortestPathTree spt = new AStar().getShortestPathTree(options);
+        GraphPath expected = spt.getPath(arriveBy ? topLeft : bottomRight, false);
+        assertNotNull(expected);
+
+        options = request(mode, arriveBy);
+        assertTrue(CompactStreetSearch.supports(options));
+        GraphPath path = new CompactStreetSearch(compactGraph, options).route();
+        assertNotNull(path);
+        assertEquals(mode + " " + arriveBy, expected.getDuration(), path.getDuration());
+        assertEquals(mode + " " + arriveBy, expected.getWeight(), path.getWeight(), 0.001);
+    }
+
+    private RoutingRequest request(TraverseMode mode, boolean arriveBy) {
+        return request(mode, arriveBy, bottomRight);
+    }
+
+    private RoutingRequest request(TraverseMode mode, boolean arriveBy, Vertex target) {
+        RoutingRequest options = new RoutingRequest(mode);
+        options.setArriveBy(arriveBy);
+        options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+        options.setRoutingContext(graph, topLeft, target);
+        return options;
+    }
+
+    private static StreetEdge edgeBetween(Vertex vA, Vertex vB) {
+        for (Edge e : vA.getOutgoing()) {
+            if (e.getToVertex() == vB) return (StreetEdge) e;
+        }
+        return null;
+    }
+
+    private StreetVertex vertex(String label, double lat, double lon) {
+        return new IntersectionVertex(graph, label, lon, lat);
+    }
+
+    private void edges(StreetVertex vA, StreetVertex vB, double length, StreetTraversalPermission perm) {
+        edge(vA, vB, length, perm, false);
+        edge(vB, vA, length, perm, true);
+    }
+
+    private StreetEdge edge(StreetVertex vA, StreetVertex vB, double length, StreetTraversalPermission perm,
+                            boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[] {vA.getCoordinate(), vB.getCoordinate()};
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetEdge edge = new StreetEdge(vA, vB, geom, name, length, perm, back);
+        edge.setCarSpeed(10.0f);
+        return edge;
+    }
+
+}
@@ -14,8 +14,18 @@
 package org.opentripplanner.routing.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
 
 public class StateEditorTest {
     @Test
@@ -28,4 +38,57 @@ public class StateEditorTest {
 
         assertEquals(999999999, stateEditor.child.getTimeSeconds());
     }
+
+    /** Entering a no-through-traffic area must not leak into the parent's shared StateData. */
+    @Test
+    public final void testNoThroughTrafficDoesNotModifyParent() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0.0, 0.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0.0);
+        StreetEdge ab = edge(a, b);
+        StreetEdge ba = edge(b, a);
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setRoutingContext(graph, a, b);
+
+        State s0 = ab.traverse(new State(a, options));
+        StateEditor editor = s0.edit(ba);
+        editor.setEnteredNoThroughTrafficArea();
+        assertTrue(editor.hasEnteredNoThroughTrafficArea());
+        assertFalse(s0.hasEnteredNoThruTrafficArea());
+    }
+
+    /**
+     * Street traversals that do not change the mode share the StateData of their parent, which is only copied when
+     * one of its fields changes.
+     */
+    @Test
+    public final void testStateDataSharedOnStreets() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0.0, 0.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0.0);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", 0.002, 0.0);
+        IntersectionVertex d = new IntersectionVertex(graph, "d", 0.003, 0.0);
+        StreetEdge ab = edge(a, b);
+        StreetEdge bc = edge(b, c);
+        StreetEdge cd = edge(c, d);
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR}) {
+            RoutingRequest options = new RoutingRequest(mode);
+            options.setRoutingContext(graph, a, d);
+            State s0 = new State(a, options);
+            // The first traversal sets the back mode, which the initial state does not have.
+            State s1 = ab.traverse(s0);
+            assertNotSame(s0.stateData, s1.stateData);
+            State s2 = bc.traverse(s1);
+            State s3 = cd.traverse(s2);
+            assertSame(s1.stateData, s2.stateData);
+            assertSame(s1.stateData, s3.stateData);
+            assertEquals(mode, s3.getBackMode());
+        }
+    }
+
+    private static StreetEdge edge(IntersectionVertex from, IntersectionVertex to) {
+        Coordinate[] coords = new Coordinate[] {from.getCoordinate(), to.getCoordinate()};
+        return new StreetEdge(from, to, GeometryUtils.getGeometryFactory().createLineString(coords),
+                from.getLabel() + "_" + to.getLabel(), 100, StreetTraversalPermission.ALL, false);
+    }
 }
@@ -0,0 +1,122 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually. It builds a grid of streets
+ * with a turn restriction at every other intersection and a no-through-traffic block in one corner, runs full street
+ * searches over it in each street mode, and reports the time and the bytes allocated per visited vertex. Only the
+ * rounds after the warm-up are counted. Allocation is measured per thread, which requires a HotSpot JVM.
+ *
+ * Usage: StreetTraversalBenchmark [gridSize]
+ */
+public class StreetTraversalBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetTraversalBenchmark.class);
+    static final int N_WARMUP_ROUNDS = 5;
+    static final int N_ROUNDS = 20;
+    static final double SPACING_DEGREES = 0.001;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        Graph graph = new Graph();
+        IntersectionVertex[][] vertices = buildGrid(graph, size);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.BICYCLE, TraverseMode.CAR}) {
+            long nanos = 0, bytes = 0, visited = 0;
+            for (int round = -N_WARMUP_ROUNDS; round < N_ROUNDS; round++) {
+                RoutingRequest options = new RoutingRequest(mode);
+                // Explore the whole grid rather than stopping at a target.
+                options.batch = true;
+                options.setRoutingContext(graph, vertices[0][0], null);
+                long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                new AStar().getShortestPathTree(options);
+                if (round >= 0) {
+                    nanos += System.nanoTime() - start;
+                    bytes += threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+                    visited += options.rctx.visitedVertices;
+                }
+                options.cleanup();
+            }
+            LOG.info("{}: {} vertices visited in {} msec per search, {} bytes allocated per visited vertex.", mode,
+                    visited / N_ROUNDS, String.format("%.2f", nanos / 1e6 / N_ROUNDS),
+                    String.format("%.1f", bytes / (double) visited));
+        }
+    }
+
+    /** Build a square grid of two-way streets, with no-turn restrictions at half of the intersections. */
+    private static IntersectionVertex[][] buildGrid(Graph graph, int size) {
+        IntersectionVertex[][] vertices = new IntersectionVertex[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                vertices[x][y] = new IntersectionVertex(graph, x + "_" + y, x * SPACING_DEGREES, y * SPACING_DEGREES);
+            }
+        }
+        StreetEdge[][] eastward = new StreetEdge[size][size];
+        StreetEdge[][] northward = new StreetEdge[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                // The block in the far corner is a no-through-traffic area.
+                boolean noThru = x >= size - size / 10 && y >= size - size / 10;
+                if (x + 1 < size) {
+                    eastward[x][y] = edge(vertices[x][y], vertices[x + 1][y], noThru);
+                    edge(vertices[x + 1][y], vertices[x][y], noThru);
+                }
+                if (y + 1 < size) {
+                    northward[x][y] = edge(vertices[x][y], vertices[x][y + 1], noThru);
+                    edge(vertices[x][y + 1], vertices[x][y], noThru);
+                }
+            }
+        }
+        for (int x = 0; x + 1 < size; x++) {
+            for (int y = 0; y + 1 < size; y++) {
+                // No left turn from eastward onto northward at every other intersection.
+                if ((x + y) % 2 == 0) {
+                    StreetEdge from = eastward[x][y];
+                    StreetEdge to = northward[x + 1][y];
+                    graph.addTurnRestriction(from, new TurnRestriction(from, to, TurnRestrictionType.NO_TURN,
+                            TraverseModeSet.allModes()));
+                }
+            }
+        }
+        return vertices;
+    }
+
+    private static StreetEdge edge(IntersectionVertex from, IntersectionVertex to, boolean noThru) {
+        Coordinate[] coords = new Coordinate[] {from.getCoordinate(), to.getCoordinate()};
+        StreetEdge edge = new StreetEdge(from, to, GeometryUtils.getGeometryFactory().createLineString(coords),
+                from.getLabel() + "_" + to.getLabel(), 100, StreetTraversalPermission.ALL, false);
+        edge.setNoThruTraffic(noThru);
+        return edge;
+    }
+
+}
@@ -20,6 +20,7 @@ import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -35,6 +36,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -315,4 +318,36 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    /** The departure index must find the same trips as a linear scan of an unindexed copy of the timetable. */
+    @Test
+    public void testDepartureIndex() {
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex stop_a = graph.getVertex(feedId + ":A");
+        Vertex stop_c = graph.getVertex(feedId + ":C");
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, AUGUST, 7, 0, 0, 0);
+        options.setRoutingContext(graph, stop_a, stop_c);
+        for (TripPattern tripPattern : new HashSet<>(patternIndex.values())) {
+            Timetable indexed = tripPattern.scheduledTimetable;
+            Timetable unindexed = new Timetable(indexed, null);
+            int nStops = tripPattern.getStops().size();
+            for (ServiceDay serviceDay : options.rctx.serviceDays) {
+                for (int stopIndex = 0; stopIndex < nStops; stopIndex++) {
+                    for (int t = -3600; t < 30 * 3600; t += 300) {
+                        State s0 = new State(stop_a, serviceDay.time(t), options);
+                        for (boolean boarding : new boolean[] {true, false}) {
+                            TripTimes expected = unindexed.getNextTrip(s0, serviceDay, stopIndex, boarding);
+                            TripTimes actual = indexed.getNextTrip(s0, serviceDay, stopIndex, boarding);
+                            if (expected == null) {
+                                assertNull(actual);
+                            } else {
+                                assertEquals(expected.trip, actual.trip);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
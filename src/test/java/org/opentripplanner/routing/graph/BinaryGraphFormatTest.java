@@ -0,0 +1,267 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.profile.StopCluster;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.LocalizedString;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryGraphFormatTest {
+
+    private File file;
+
+    private Graph graph;
+
+    private StreetEdge ab;
+
+    private StreetEdge ba;
+
+    private StreetEdge bc;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("graph", ".bin");
+        graph = new Graph();
+        OsmVertex a = new OsmVertex(graph, "a", -122.60, 45.50, 1001, new NonLocalizedString("Oak & Pine"));
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.59, 45.50);
+        b.trafficLight = true;
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -122.59, 45.51);
+        c.freeFlowing = true;
+        BarrierVertex barrier = new BarrierVertex(graph, "barrier", -122.58, 45.51, 1002);
+        LineString bent = line(a, new Coordinate(-122.595, 45.501), b);
+        ab = new StreetEdge(a, b, bent, new NonLocalizedString("Oak Street"), 812.345,
+                StreetTraversalPermission.ALL, false);
+        ba = new StreetEdge(b, a, (LineString) bent.reverse(), new NonLocalizedString("Oak Street"), 812.345,
+                StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, true);
+        ba.shareData(ab);
+        ab.wayId = 42;
+        ab.setCarSpeed(13.4f);
+        ab.setBicycleSafetyFactor(0.8f);
+        ab.setStreetClass(StreetEdge.CLASS_STREET);
+        ab.setRoundabout(true);
+        bc = new StreetEdge(b, c, line(b, c), new LocalizedString("unnamedStreet", (String[]) null), 1111.1,
+                StreetTraversalPermission.PEDESTRIAN, false);
+        bc.setStairs(true);
+        new FreeEdge(c, barrier);
+        graph.addTurnRestriction(ab, new TurnRestriction(ab, bc, TurnRestrictionType.NO_TURN,
+                TraverseModeSet.allModes()));
+    }
+
+    @After
+    public void after() {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BinaryGraphFormat.save(graph, file);
+        assertTrue(BinaryGraphFormat.isBinaryGraph(file));
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+
+        Vertex a = loaded.getVertex("a");
+        assertEquals(OsmVertex.class, a.getClass());
+        assertEquals(1001, ((OsmVertex) a).nodeId);
+        assertEquals("Oak & Pine", a.getName());
+        assertEquals(-122.60, a.getX(), 0);
+        assertTrue(((IntersectionVertex) loaded.getVertex("b")).trafficLight);
+        assertFalse(((IntersectionVertex) loaded.getVertex("b")).freeFlowing);
+        assertTrue(((IntersectionVertex) loaded.getVertex("c")).freeFlowing);
+
+        StreetEdge loadedAb = (StreetEdge) loaded.getEdgeById(ab.getId());
+        StreetEdge loadedBa = (StreetEdge) loaded.getEdgeById(ba.getId());
+        assertSameStreetEdge(ab, loadedAb);
+        assertSameStreetEdge(ba, loadedBa);
+        assertSameStreetEdge(bc, (StreetEdge) loaded.getEdgeById(bc.getId()));
+        assertSame(a, loadedAb.getFromVertex());
+        assertSame(loadedAb.getCompactGeometry(), loadedBa.getCompactGeometry());
+        assertSame(loadedAb.getRawName(), loadedBa.getRawName());
+
+        // Edges and vertices outside the flat sections still reference those inside.
+        Vertex barrier = loaded.getVertex("barrier");
+        assertEquals(BarrierVertex.class, barrier.getClass());
+        Edge free = barrier.getIncoming().iterator().next();
+        assertEquals(FreeEdge.class, free.getClass());
+        assertSame(loaded.getVertex("c"), free.getFromVertex());
+        List<TurnRestriction> restrictions = loaded.getTurnRestrictions(loadedAb);
+        assertEquals(1, restrictions.size());
+        assertSame(loadedAb, restrictions.get(0).from);
+        assertSame(loaded.getEdgeById(bc.getId()), restrictions.get(0).to);
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        addStops();
+        BinaryGraphFormat.save(graph, file, true);
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+
+        Envelope envelope = new Envelope(new Coordinate(-122.601, 45.499), new Coordinate(-122.599, 45.501));
+        assertEquals(Collections.singletonList(loaded.getVertex("a")),
+                new ArrayList<>(loaded.streetIndex.getVerticesForEnvelope(envelope)));
+        envelope = new Envelope(new Coordinate(-122.591, 45.500), new Coordinate(-122.589, 45.501));
+        assertEquals(2, loaded.streetIndex.getTransitStopForEnvelope(envelope).size());
+
+        // The clusters reference the stops of the loaded graph.
+        assertTrue(loaded.index.stopClustersComputed());
+        assertEquals(1, loaded.index.stopClusterForId.size());
+        StopCluster cluster = loaded.index.stopClusterForId.values().iterator().next();
+        assertEquals(2, cluster.children.size());
+        Stop stop = ((TransitStop) loaded.getVertex("agency:s1")).getStop();
+        assertSame(cluster, loaded.index.stopClusterForStop.get(stop));
+
+        // Vertex indices in the stop trees are those of the loaded graph.
+        StopTreeCache stopTreeCache = loaded.index.getStopTreeCacheIfBuilt();
+        assertNotNull(stopTreeCache);
+        int[] distances = stopTreeCache.distancesForStop.get(loaded.getVertex("agency:s1"));
+        assertNotNull(distances);
+        int[] saved = graph.index.getStopTreeCacheIfBuilt().distancesForStop.get(graph.getVertex("agency:s1"));
+        assertEquals(saved.length, distances.length);
+        boolean reachesB = false;
+        for (int i = 0; i < distances.length; i += 2) {
+            assertNotNull(loaded.getVertexById(distances[i]));
+            reachesB |= distances[i] == loaded.getVertex("b").getIndex();
+        }
+        assertTrue(reachesB);
+    }
+
+    /** An index section that does not match its checksum is ignored and the index is rebuilt when needed. */
+    @Test
+    public void testCorruptIndex() throws Exception {
+        addStops();
+        BinaryGraphFormat.save(graph, file, true);
+        // The stop trees are the last section of the file.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+        assertNull(loaded.index.getStopTreeCacheIfBuilt());
+        assertTrue(loaded.index.stopClustersComputed());
+        assertNotNull(loaded.index.getStopTreeCache().distancesForStop.get(loaded.getVertex("agency:s1")));
+    }
+
+    @Test
+    public void testLoadFromStream() throws Exception {
+        BinaryGraphFormat.save(graph, file);
+        Graph loaded;
+        try (FileInputStream in = new FileInputStream(file)) {
+            loaded = Graph.load(in, LoadLevel.FULL);
+        }
+        assertEquals(graph.countEdges(), loaded.countEdges());
+        assertSameStreetEdge(bc, (StreetEdge) loaded.getEdgeById(bc.getId()));
+    }
+
+    @Test
+    public void testJavaSerializationStillLoads() throws Exception {
+        graph.save(file);
+        assertFalse(BinaryGraphFormat.isBinaryGraph(file));
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+        assertEquals(graph.countEdges(), loaded.countEdges());
+    }
+
+    /** A graph with only transit vertices and edges goes entirely through Java serialization. */
+    @Test
+    public void testTransitGraph() throws Exception {
+        Graph portland = ConstantsForTests.getInstance().getPortlandGraph();
+        BinaryGraphFormat.save(portland, file);
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+        assertEquals(portland.countVertices(), loaded.countVertices());
+        assertEquals(portland.countEdges(), loaded.countEdges());
+        assertEquals(portland.index.patternForId.size(), loaded.index.patternForId.size());
+    }
+
+    /** Add two stops with the same name next to vertex b. */
+    private void addStops() {
+        StreetVertex b = (StreetVertex) graph.getVertex("b");
+        for (String id : new String[] {"s1", "s2"}) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", id));
+            stop.setName("Oak Station");
+            stop.setLon(id.equals("s1") ? -122.5902 : -122.5898);
+            stop.setLat(45.5005);
+            TransitStop transitStop = new TransitStop(graph, stop);
+            new StreetTransitLink(b, transitStop, true);
+            new StreetTransitLink(transitStop, b, true);
+        }
+    }
+
+    private static void assertSameStreetEdge(StreetEdge expected, StreetEdge actual) {
+        assertEquals(StreetEdge.class, actual.getClass());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getFromVertex().getLabel(), actual.getFromVertex().getLabel());
+        assertEquals(expected.getToVertex().getLabel(), actual.getToVertex().getLabel());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getDistance(), actual.getDistance(), 0);
+        assertEquals(expected.getPermission(), actual.getPermission());
+        assertEquals(expected.getCarSpeed(), actual.getCarSpeed(), 0);
+        assertEquals(expected.getBicycleSafetyFactor(), actual.getBicycleSafetyFactor(), 0);
+        assertEquals(expected.getStreetClass(), actual.getStreetClass());
+        assertEquals(expected.wayId, actual.wayId);
+        assertEquals(expected.isBack(), actual.isBack());
+        assertEquals(expected.isRoundabout(), actual.isRoundabout());
+        assertEquals(expected.isStairs(), actual.isStairs());
+        assertEquals(expected.isWheelchairAccessible(), actual.isWheelchairAccessible());
+        assertEquals(expected.getInAngle(), actual.getInAngle());
+        assertEquals(expected.getOutAngle(), actual.getOutAngle());
+        assertTrue(expected.getGeometry().equalsExact(actual.getGeometry()));
+    }
+
+    private static LineString line(Vertex from, Coordinate middle, Vertex to) {
+        return GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] {from.getCoordinate(), middle, to.getCoordinate()});
+    }
+
+    private static LineString line(Vertex from, Vertex to) {
+        return GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] {from.getCoordinate(), to.getCoordinate()});
+    }
+
+}
@@ -15,11 +15,19 @@ package org.opentripplanner.routing.graph;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.core.TraverseModeSet;
 
 public class GraphTest {
     @Test
@@ -124,4 +132,40 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    /**
+     * Turn restrictions are read on every traversal of their edge, so they are returned without copying. Adding or
+     * removing one replaces the list, leaving the lists already returned unchanged.
+     */
+    @Test
+    public final void testTurnRestrictions() {
+        Graph graph = new Graph();
+        Vertex vertex0 = new SimpleConcreteVertex(graph, "Vertex 0", 0, 0);
+        Vertex vertex1 = new SimpleConcreteVertex(graph, "Vertex 1", 0, 1);
+        Vertex vertex2 = new SimpleConcreteVertex(graph, "Vertex 2", 1, 1);
+        Edge edge0 = new SimpleConcreteEdge(vertex0, vertex1);
+        Edge edge1 = new SimpleConcreteEdge(vertex1, vertex2);
+        Edge edge2 = new SimpleConcreteEdge(vertex1, vertex0);
+        TurnRestriction restriction0 = new TurnRestriction(edge0, edge1, TurnRestrictionType.NO_TURN,
+                TraverseModeSet.allModes());
+        TurnRestriction restriction1 = new TurnRestriction(edge0, edge2, TurnRestrictionType.NO_TURN,
+                TraverseModeSet.allModes());
+
+        assertTrue(graph.getTurnRestrictions(edge0).isEmpty());
+        graph.addTurnRestriction(edge0, restriction0);
+        List<TurnRestriction> one = graph.getTurnRestrictions(edge0);
+        assertSame(one, graph.getTurnRestrictions(edge0));
+        graph.addTurnRestriction(edge0, restriction1);
+        List<TurnRestriction> two = graph.getTurnRestrictions(edge0);
+        assertNotSame(one, two);
+        assertEquals(Arrays.asList(restriction0), one);
+        assertEquals(Arrays.asList(restriction0, restriction1), two);
+
+        graph.removeTurnRestriction(edge0, restriction0);
+        assertEquals(Arrays.asList(restriction1), graph.getTurnRestrictions(edge0));
+        assertEquals(Arrays.asList(restriction0, restriction1), two);
+        graph.removeTurnRestriction(edge0, restriction1);
+        assertTrue(graph.getTurnRestrictions(edge0).isEmpty());
+        assertTrue(graph.getTurnRestrictions(edge1).isEmpty());
+    }
 }
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
+import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.error.GraphNotFoundException;
@@ -27,8 +28,11 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.standalone.RequestSample;
+import org.opentripplanner.standalone.Router;
 
 import java.io.*;
+import java.util.List;
 
 
 public class GraphServiceTest extends TestCase {
@@ -199,6 +203,51 @@ public class GraphServiceTest extends TestCase {
         assertEquals(0, graphService.getRouterIds().size());
     }
 
+    @Test
+    public final void testBackgroundReload() throws Exception {
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(emptyGraphData));
+        assertTrue(graphService.registerGraph("A", graphSourceFactory.createGraphSource("A")));
+        Router router = graphService.getRouter("A");
+        // The first graph of a router is not warmed up.
+        assertTrue(router.metrics.getWarmupSeconds() < 0);
+        router.requestSample.record(new RoutingRequest());
+
+        graphSourceFactory.save("A", new ByteArrayInputStream(smallGraphData));
+        assertTrue(graphService.reloadGraphInBackground("A", true).get());
+        Router reloaded = graphService.getRouter("A");
+        assertNotSame(router, reloaded);
+        assertEquals(smallGraph.getVertices().size(), reloaded.graph.getVertices().size());
+        assertTrue(reloaded.metrics.getWarmupSeconds() >= 0);
+        // The sample is handed over to the next reload.
+        assertEquals(1, reloaded.requestSample.getRequests().size());
+
+        // Without enough free heap the current router is kept.
+        reloaded.swapMinFreeHeap = 1.0;
+        assertTrue(graphService.reloadGraphInBackground("A", true).get());
+        assertSame(reloaded, graphService.getRouter("A"));
+        assertEquals(1, reloaded.metrics.getRefusedSwapCount());
+    }
+
+    @Test
+    public final void testRequestSample() {
+        RequestSample sample = new RequestSample(3);
+        for (int i = 0; i < 5; i++) {
+            RoutingRequest request = new RoutingRequest();
+            request.numItineraries = i;
+            sample.record(request);
+        }
+        List<RoutingRequest> requests = sample.getRequests();
+        assertEquals(3, requests.size());
+        // Oldest first.
+        assertEquals(2, requests.get(0).numItineraries);
+        assertEquals(4, requests.get(2).numItineraries);
+        RequestSample disabled = new RequestSample(0);
+        disabled.record(new RoutingRequest());
+        assertTrue(disabled.getRequests().isEmpty());
+    }
+
     @Test
     public final void testGraphServiceAutoscan() throws IOException {
 
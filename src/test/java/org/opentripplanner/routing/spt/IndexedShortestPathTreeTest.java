@@ -0,0 +1,179 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class IndexedShortestPathTreeTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTreeTest.class);
+
+    private static final int SIZE = 40;
+
+    private Graph graph;
+
+    private StreetVertex origin;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        StreetVertex[][] v = new StreetVertex[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                v[i][j] = new IntersectionVertex(graph, "v" + i + "_" + j, 0.001 * j, 0.001 * i);
+            }
+        }
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE - 1; j++) {
+                // Vary lengths a little so that there are few ties.
+                edges(v[i][j], v[i][j + 1], 100 + (i * 7 + j * 3) % 11);
+                edges(v[j][i], v[j + 1][i], 100 + (i * 5 + j * 13) % 17);
+            }
+        }
+        graph.rebuildVertexAndEdgeIndices();
+        origin = v[SIZE / 2][SIZE / 2];
+    }
+
+    @Test
+    public void testTreeSelection() {
+        RoutingRequest options = request(new DominanceFunction.MinimumWeight(), true);
+        assertTrue(options.getNewShortestPathTree() instanceof IndexedShortestPathTree);
+        options = request(new DominanceFunction.MinimumWeight(), false);
+        assertFalse(options.getNewShortestPathTree() instanceof IndexedShortestPathTree);
+        options = request(new DominanceFunction.Pareto(), true);
+        assertFalse(options.getNewShortestPathTree() instanceof IndexedShortestPathTree);
+    }
+
+    @Test
+    public void testSameStatesAsListTree() {
+        for (DominanceFunction df : new DominanceFunction[] {new DominanceFunction.MinimumWeight(),
+                new DominanceFunction.EarliestArrival(), new DominanceFunction.LeastWalk()}) {
+            ShortestPathTree expected = search(df, false);
+            ShortestPathTree indexed = search(df, true);
+            assertTrue(indexed instanceof IndexedShortestPathTree);
+            assertEquals(graph.getVertices().size(), expected.getVertexCount());
+            assertEquals(expected.getVertexCount(), indexed.getVertexCount());
+            assertEquals(expected.getAllStates().size(), indexed.getAllStates().size());
+            for (Vertex vertex : graph.getVertices()) {
+                assertTrue(indexed.getVertices().contains(vertex));
+                State a = expected.getState(vertex);
+                State b = indexed.getState(vertex);
+                assertEquals(a.getWeight(), b.getWeight(), 0.0);
+                assertEquals(a.getElapsedTimeSeconds(), b.getElapsedTimeSeconds());
+                assertEquals(1, indexed.getStates(vertex).size());
+            }
+        }
+    }
+
+    /** Co-dominant states at the same vertex must all be kept, as in the list-based tree. */
+    @Test
+    public void testIncomparableStates() {
+        RoutingRequest options = request(new DominanceFunction.MinimumWeight(), true);
+        ShortestPathTree spt = options.getNewShortestPathTree();
+        State s0 = new State(origin, options);
+        assertTrue(spt.add(s0));
+        assertTrue(spt.visit(s0));
+        assertFalse(spt.add(new State(origin, options)));
+
+        // A state on another plane of the graph (after boarding transit) is incomparable.
+        StateEditor editor = new StateEditor(options, origin);
+        editor.setEverBoarded(true);
+        editor.incrementWeight(10);
+        State boarded = editor.makeState();
+        assertTrue(spt.add(boarded));
+        assertEquals(2, spt.getStates(origin).size());
+        assertEquals(1, spt.getVertexCount());
+        assertTrue(spt.visit(s0));
+        assertTrue(spt.visit(boarded));
+        assertSame(s0, spt.getState(origin));
+
+        // A worse state on the original plane is still rejected once the vertex holds a list.
+        editor = new StateEditor(options, origin);
+        editor.incrementWeight(5);
+        assertFalse(spt.add(editor.makeState()));
+        assertEquals(2, spt.getStates(origin).size());
+    }
+
+    /** Not a real benchmark, but gives an idea of the difference on a few thousand vertices. */
+    @Test
+    public void testTiming() {
+        DominanceFunction df = new DominanceFunction.EarliestArrival();
+        for (int warmup = 0; warmup < 5; warmup++) {
+            search(df, false);
+            search(df, true);
+        }
+        int iterations = 20;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) search(df, false);
+        long t1 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) search(df, true);
+        long t2 = System.nanoTime();
+        LOG.info("Average search time over {} vertices: list SPT {} usec, indexed SPT {} usec",
+                graph.getVertices().size(), (t1 - t0) / iterations / 1000, (t2 - t1) / iterations / 1000);
+    }
+
+    private ShortestPathTree search(DominanceFunction df, boolean indexed) {
+        if (!indexed) {
+            // Same ordering, but not declared single-state, so the list-based tree is used.
+            final DominanceFunction singleState = df;
+            df = new DominanceFunction() {
+                @Override
+                protected boolean betterOrEqual(State a, State b) {
+                    return singleState.betterOrEqual(a, b);
+                }
+            };
+        }
+        return new AStar().getShortestPathTree(request(df, true));
+    }
+
+    private RoutingRequest request(DominanceFunction df, boolean batch) {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.batch = batch;
+        options.dominanceFunction = df;
+        options.setRoutingContext(graph, origin, null);
+        return options;
+    }
+
+    private void edges(StreetVertex vA, StreetVertex vB, double length) {
+        edge(vA, vB, length, false);
+        edge(vB, vA, length, true);
+    }
+
+    private void edge(StreetVertex vA, StreetVertex vB, double length, boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[] {vA.getCoordinate(), vB.getCoordinate()};
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        new StreetEdge(vA, vB, geom, name, length, StreetTraversalPermission.ALL, back);
+    }
+
+}
@@ -0,0 +1,137 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.stoptime;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.GtfsFeedId;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually with a GTFS feed and a recorded
+ * stream of GTFS-RT messages for that feed, one FeedMessage per file, in the order they were received. It replays the
+ * messages through TimetableSnapshotSource.applyTripUpdates() several times, committing a new snapshot after every
+ * message as a router under constant load would, and reports the latency of each message and the garbage collection
+ * it caused. Only the rounds after the warm-up are counted.
+ *
+ * Usage: TimetableSnapshotBenchmark gtfs.zip message.pb [message.pb ...]
+ */
+public class TimetableSnapshotBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshotBenchmark.class);
+    static final int N_WARMUP_ROUNDS = 2;
+    static final int N_ROUNDS = 10;
+    static final String FEED_ID = "FEED";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            LOG.error("Usage: TimetableSnapshotBenchmark gtfs.zip message.pb [message.pb ...]");
+            return;
+        }
+
+        // Build a transit-only graph from the GTFS feed.
+        GtfsBundle gtfsBundle = new GtfsBundle(new File(args[0]));
+        gtfsBundle.setFeedId(new GtfsFeedId.Builder().id(FEED_ID).build());
+        Graph graph = new Graph();
+        new GtfsModule(Collections.singletonList(gtfsBundle)).buildGraph(graph, null);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        // Read all the messages beforehand so that parsing them is not measured.
+        List<List<TripUpdate>> messages = new ArrayList<>();
+        List<Boolean> fullDatasets = new ArrayList<>();
+        int nTripUpdates = 0;
+        for (int i = 1; i < args.length; i++) {
+            InputStream inputStream = new FileInputStream(args[i]);
+            FeedMessage feedMessage = FeedMessage.PARSER.parseFrom(inputStream);
+            inputStream.close();
+            List<TripUpdate> updates = new ArrayList<>();
+            for (FeedEntity feedEntity : feedMessage.getEntityList()) {
+                if (feedEntity.hasTripUpdate()) updates.add(feedEntity.getTripUpdate());
+            }
+            messages.add(updates);
+            fullDatasets.add(!(feedMessage.hasHeader() && feedMessage.getHeader().getIncrementality()
+                    == FeedHeader.Incrementality.DIFFERENTIAL));
+            nTripUpdates += updates.size();
+        }
+        LOG.info("Read {} messages with {} trip updates.", messages.size(), nTripUpdates);
+
+        TimetableSnapshotSource snapshotSource = new TimetableSnapshotSource(graph);
+        snapshotSource.maxSnapshotFrequency = -1;
+        snapshotSource.purgeExpiredData = false;
+        snapshotSource.logFrequency = Integer.MAX_VALUE;
+
+        long[] nanos = new long[N_ROUNDS * messages.size()];
+        long gcCount = 0, gcMillis = 0;
+        for (int round = -N_WARMUP_ROUNDS; round < N_ROUNDS; round++) {
+            if (round == 0) {
+                gcCount = -getGcCount();
+                gcMillis = -getGcMillis();
+            }
+            for (int m = 0; m < messages.size(); m++) {
+                long start = System.nanoTime();
+                snapshotSource.applyTripUpdates(graph, fullDatasets.get(m), messages.get(m), FEED_ID);
+                if (round >= 0) {
+                    nanos[round * messages.size() + m] = System.nanoTime() - start;
+                }
+            }
+        }
+        gcCount += getGcCount();
+        gcMillis += getGcMillis();
+
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) total += n;
+        LOG.info("Applied and committed {} messages in {} msec.", nanos.length, total / 1000000);
+        LOG.info("Msec per message: mean {}, median {}, 99th percentile {}, max {}.",
+                String.format("%.2f", total / 1e6 / nanos.length), String.format("%.2f", nanos[nanos.length / 2] / 1e6),
+                String.format("%.2f", nanos[(int) (nanos.length * 0.99)] / 1e6),
+                String.format("%.2f", nanos[nanos.length - 1] / 1e6));
+        LOG.info("{} garbage collections taking {} msec in total.", gcCount, gcMillis);
+        LOG.info("Final snapshot: {}", snapshotSource.getTimetableSnapshot());
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+}
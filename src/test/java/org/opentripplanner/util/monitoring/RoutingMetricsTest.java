@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RoutingMetricsTest {
+
+    @Test
+    public void testHistogramBucketsAreCumulative() {
+        Histogram histogram = new Histogram("test_seconds", "Test.", 1, 2, 4);
+        histogram.observe(0.5);
+        histogram.observe(2);
+        histogram.observe(3);
+        histogram.observe(10);
+        StringBuilder sb = new StringBuilder();
+        histogram.writeSamples(sb, MetricsText.label("router", "default"));
+        String text = sb.toString();
+        assertTrue(text.contains("test_seconds_bucket{router=\"default\",le=\"1\"} 1\n"));
+        assertTrue(text.contains("test_seconds_bucket{router=\"default\",le=\"2\"} 2\n"));
+        assertTrue(text.contains("test_seconds_bucket{router=\"default\",le=\"4\"} 3\n"));
+        assertTrue(text.contains("test_seconds_bucket{router=\"default\",le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("test_seconds_sum{router=\"default\"} 15.5\n"));
+        assertTrue(text.contains("test_seconds_count{router=\"default\"} 4\n"));
+    }
+
+    @Test
+    public void testLabelEscaping() {
+        assertEquals("router=\"a\\\"b\\\\c\"", MetricsText.label("router", "a\"b\\c"));
+    }
+
+    /** Each metric must have a single header, followed by the samples of all routers. */
+    @Test
+    public void testRoutersGroupedUnderOneHeader() {
+        RoutingMetrics a = new RoutingMetrics();
+        RoutingMetrics b = new RoutingMetrics();
+        a.record(true, 5, 120, 10, 5000, 300, false);
+        b.record(true, 1, 20, 2, 400, 30, false);
+        b.record(false, 0, 0, 0, 0, 0, true);
+        assertEquals(1, a.getRequestCount());
+        assertEquals(2, b.getRequestCount());
+        assertEquals(1, b.getAbortedCount());
+        Map<String, RoutingMetrics> metrics = new LinkedHashMap<>();
+        metrics.put(MetricsText.label("router", "a"), a);
+        metrics.put(MetricsText.label("router", "b"), b);
+        StringBuilder sb = new StringBuilder();
+        RoutingMetrics.write(sb, metrics);
+        String text = sb.toString();
+        assertTrue(text.contains("otp_routing_requests_total{router=\"b\"} 2\n"));
+        assertTrue(text.contains("otp_routing_aborted_total{router=\"b\"} 1\n"));
+        assertTrue(text.contains("otp_routing_search_seconds_count{router=\"a\"} 1\n"));
+        // The aborted request was not timed, but its search effort was still recorded.
+        assertTrue(text.contains("otp_routing_search_seconds_count{router=\"b\"} 1\n"));
+        assertTrue(text.contains("otp_routing_visited_vertices_count{router=\"b\"} 2\n"));
+        int first = text.indexOf("# TYPE otp_routing_search_seconds histogram");
+        assertTrue(first >= 0);
+        assertEquals(-1, text.indexOf("# TYPE otp_routing_search_seconds histogram", first + 1));
+        int samplesA = text.indexOf("otp_routing_search_seconds_count{router=\"a\"}");
+        int samplesB = text.indexOf("otp_routing_search_seconds_count{router=\"b\"}");
+        int nextHeader = text.indexOf("# TYPE otp_routing_rendering_seconds");
+        assertTrue(first < samplesA && samplesA < samplesB && samplesB < nextHeader);
+    }
+
+}